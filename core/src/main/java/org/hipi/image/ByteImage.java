@@ -1,6 +1,8 @@
 package org.hipi.image;
 
 import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
 import org.hipi.image.RasterImage;
 import org.hipi.image.PixelArrayByte;
 import org.hipi.util.ByteUtils;
@@ -8,6 +10,7 @@ import org.hipi.util.ByteUtils;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.BinaryComparable;
 import org.apache.hadoop.io.RawComparator;
@@ -21,6 +24,11 @@ import org.apache.hadoop.io.Writable;
  * The {@link org.hipi.image.io} package provides classes for reading
  * (decoding) and writing (encoding) ByteImage objects in various
  * compressed and uncompressed image formats such as JPEG and PNG.
+ *
+ * The arithmetic operations of this class work directly on the 8-bit pixel values with
+ * saturating integer and fixed-point math, so that 8-bit pipelines do not need to promote
+ * pixel data to a {@link FloatImage}. Large images are processed in parallel (see {@link
+ * ImageOps}).
  */
 public class ByteImage extends RasterImage {
 
@@ -28,6 +36,12 @@ public class ByteImage extends RasterImage {
     super((PixelArray)(new PixelArrayByte()));
   }
 
+  public ByteImage(int width, int height, int bands) throws IllegalArgumentException {
+    super((PixelArray)(new PixelArrayByte()));
+    HipiImageHeader header = new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.UNDEFINED, width, height, bands, null, null);
+    setHeader(header);
+  }
+
   /**
    * Get object type identifier.
    *
@@ -65,7 +79,7 @@ public class ByteImage extends RasterImage {
     int b = this.getNumBands();
     if (this.getColorSpace() != thatImage.getColorSpace() ||
      thatImage.getWidth() != w || thatImage.getHeight() != h || 
-     thatImage.getNumBands() != b) {
+     thatImage.getNumBands() != b || thatImage.getLayout() != this.getLayout()) {
       return false;
   }
 
@@ -73,6 +87,18 @@ public class ByteImage extends RasterImage {
     PixelArray thisPA = this.getPixelArray();
     PixelArray thatPA = thatImage.getPixelArray();
 
+    // Compare byte arrays directly if possible
+    if (thatPA instanceof PixelArrayByte) {
+      byte[] thisData = getData();
+      byte[] thatData = ((PixelArrayByte)thatPA).getData();
+      for (int i = 0; i < w*h*b; i++) {
+        if ((float)Math.abs((thisData[i] & 0xff) - (thatData[i] & 0xff)) > maxDifference) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     // Check that pixel data is equal.
     for (int i = 0; i < w*h*b; i++) {
       if ((float)Math.abs(thisPA.getElem(i) - thatPA.getElem(i)) > maxDifference) {
@@ -104,6 +130,218 @@ public class ByteImage extends RasterImage {
     return equalsWithTolerance((ByteImage)that, 0.0f);
   }
 
+  /**
+   * Performs in-place saturating addition with another {@link ByteImage}. Sums above 255 are
+   * clamped to 255.
+   *
+   * @param thatImage image to add to current image
+   *
+   * @throws IllegalArgumentException if the image dimensions do not match
+   */
+  public void add(ByteImage thatImage) throws IllegalArgumentException {
+    checkCompatibleInputImage(thatImage);
+    final int n = this.getWidth()*this.getNumBands();
+    final byte[] thisData = this.getData();
+    final byte[] thatData = thatImage.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	int s = (thisData[i] & 0xff) + (thatData[i] & 0xff);
+	// All bits are set if s > 255
+	thisData[i] = (byte)(s | ((255 - s) >> 31));
+      }
+    });
+  }
+
+  /**
+   * Performs in-place saturating addition of a scalar to each band of every pixel. Results are
+   * clamped to [0,255].
+   *
+   * @param number value to add to each band of each pixel (may be negative)
+   */
+  public void add(int number) {
+    final int v = Math.max(-255, Math.min(255, number));
+    final int n = this.getWidth()*this.getNumBands();
+    final byte[] thisData = this.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	int s = (thisData[i] & 0xff) + v;
+	s &= ~(s >> 31);
+	thisData[i] = (byte)(s | ((255 - s) >> 31));
+      }
+    });
+  }
+
+  /**
+   * Performs in-place saturating subtraction of another {@link ByteImage}. Differences below 0
+   * are clamped to 0.
+   *
+   * @param thatImage image to subtract from current image
+   *
+   * @throws IllegalArgumentException if the image dimensions do not match
+   */
+  public void subtract(ByteImage thatImage) throws IllegalArgumentException {
+    checkCompatibleInputImage(thatImage);
+    final int n = this.getWidth()*this.getNumBands();
+    final byte[] thisData = this.getData();
+    final byte[] thatData = thatImage.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	int d = (thisData[i] & 0xff) - (thatData[i] & 0xff);
+	thisData[i] = (byte)(d & ~(d >> 31));
+      }
+    });
+  }
+
+  /**
+   * Replaces the current image with the absolute difference between it and another {@link
+   * ByteImage}.
+   *
+   * @param thatImage image to compare with
+   *
+   * @throws IllegalArgumentException if the image dimensions do not match
+   */
+  public void absDiff(ByteImage thatImage) throws IllegalArgumentException {
+    checkCompatibleInputImage(thatImage);
+    final int n = this.getWidth()*this.getNumBands();
+    final byte[] thisData = this.getData();
+    final byte[] thatData = thatImage.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	int d = (thisData[i] & 0xff) - (thatData[i] & 0xff);
+	int m = d >> 31;
+	thisData[i] = (byte)((d ^ m) - m);
+      }
+    });
+  }
+
+  /**
+   * Performs in-place weighted blending with another {@link ByteImage}, i.e., each value v of
+   * the current image is replaced with (1-alpha)*v + alpha*w, where w is the corresponding value
+   * of the other image. The weight is quantized to multiples of 1/256 and results are rounded.
+   *
+   * @param thatImage image to blend with
+   * @param alpha weight of the other image in [0,1]
+   *
+   * @throws IllegalArgumentException if the image dimensions do not match or alpha is outside
+   * of [0,1]
+   */
+  public void blend(ByteImage thatImage, float alpha) throws IllegalArgumentException {
+    checkCompatibleInputImage(thatImage);
+    if (!(alpha >= 0.0f && alpha <= 1.0f)) {
+      throw new IllegalArgumentException("Blend weight must be in [0,1] [" + alpha + "].");
+    }
+    final int w = Math.round(alpha*256.0f);
+    final int n = this.getWidth()*this.getNumBands();
+    final byte[] thisData = this.getData();
+    final byte[] thatData = thatImage.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	int a = thisData[i] & 0xff;
+	int b = thatData[i] & 0xff;
+	thisData[i] = (byte)((a*256 + (b - a)*w + 128) >> 8);
+      }
+    });
+  }
+
+  /**
+   * Performs in-place binary thresholding: values greater than the threshold are set to 255 and
+   * all other values are set to 0.
+   *
+   * @param threshold threshold value
+   */
+  public void threshold(int threshold) {
+    final int t = Math.max(-1, Math.min(255, threshold));
+    final int n = this.getWidth()*this.getNumBands();
+    final byte[] thisData = this.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	// Sign bit is set if the value is greater than the threshold
+	thisData[i] = (byte)((t - (thisData[i] & 0xff)) >> 31);
+      }
+    });
+  }
+
+  /**
+   * Replaces each value v of the current image with lut[v] (e.g., for gamma correction,
+   * contrast stretching or posterization).
+   *
+   * @param lut lookup table with 256 entries
+   *
+   * @throws IllegalArgumentException if the lookup table does not have 256 entries
+   */
+  public void applyLookupTable(final byte[] lut) throws IllegalArgumentException {
+    if (lut == null || lut.length != 256) {
+      throw new IllegalArgumentException("Lookup table must have 256 entries.");
+    }
+    final int n = this.getWidth()*this.getNumBands();
+    final byte[] thisData = this.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	thisData[i] = lut[thisData[i] & 0xff];
+      }
+    });
+  }
+
+  /**
+   * Computes the minimum value of each band.
+   *
+   * @return array with the minimum value of each band
+   */
+  public int[] getMin() {
+    return reduceBands(true);
+  }
+
+  /**
+   * Computes the maximum value of each band.
+   *
+   * @return array with the maximum value of each band
+   */
+  public int[] getMax() {
+    return reduceBands(false);
+  }
+
+  private int[] reduceBands(final boolean min) {
+    final int b = this.getNumBands();
+    final int n = this.getWidth()*b;
+    final byte[] thisData = this.getData();
+    if (n == 0 || this.getHeight() == 0) {
+      throw new IllegalArgumentException("Image is empty.");
+    }
+    final int w = this.getWidth();
+    final int plane = w*this.getHeight();
+    final boolean planar = (this.getLayout() == PixelArray.Layout.PLANAR);
+    return ImageOps.parallelReduce(this, (startRow, endRow) -> {
+      int[] result = new int[b];
+      Arrays.fill(result, min ? 255 : 0);
+      if (planar) {
+	for (int c=0; c<b; c++) {
+	  int r = result[c];
+	  for (int i=c*plane+startRow*w; i<c*plane+endRow*w; i++) {
+	    int v = thisData[i] & 0xff;
+	    r = (min ? Math.min(r, v) : Math.max(r, v));
+	  }
+	  result[c] = r;
+	}
+	return result;
+      }
+      for (int j=startRow; j<endRow; j++) {
+	for (int i=j*n, c=0; i<(j+1)*n; i++) {
+	  int v = thisData[i] & 0xff;
+	  result[c] = (min ? Math.min(result[c], v) : Math.max(result[c], v));
+	  if (++c == b) {
+	    c = 0;
+	  }
+	}
+      }
+      return result;
+    }, (upper, lower) -> {
+      for (int c=0; c<b; c++) {
+	upper[c] = (min ? Math.min(upper[c], lower[c]) : Math.max(upper[c], lower[c]));
+      }
+      return upper;
+    });
+  }
+
   /**
    * Computes hash of float array of image pixel data.
    *
@@ -116,4 +354,24 @@ public class ByteImage extends RasterImage {
     return ByteUtils.asHex(getData());
   }
 
+  /**
+   * Helper routine that verifies two images have compatible
+   * dimensions for common operations (addition, blending, etc.)
+   *
+   * @param image ByteImage to check
+   * 
+   * @throws IllegalArgumentException if the image do not have
+   * compatible dimensions or layouts. Otherwise has no effect.
+   */
+  protected void checkCompatibleInputImage(ByteImage image) throws IllegalArgumentException {
+    if (image.getColorSpace() != this.getColorSpace() || image.getWidth() != this.getWidth() || 
+	image.getHeight() != this.getHeight() || image.getNumBands() != this.getNumBands()) {
+      throw new IllegalArgumentException("Color space and/or image dimensions do not match.");
+    }
+    // Operations combine the pixel arrays element by element
+    if (image.getNumBands() > 1 && image.getLayout() != this.getLayout()) {
+      throw new IllegalArgumentException("Pixel array layouts do not match [" + image.getLayout() + "," + this.getLayout() + "].");
+    }
+  }
+
 } // public class ByteImage
@@ -0,0 +1,467 @@
+package org.hipi.image;
+
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts {@link RasterImage} objects between the color spaces in {@link HipiColorSpace}.
+ * Supported conversions are RGB to and from LUM, YCBCR and HSV. Conversions between two {@link
+ * PixelArrayByte} or two {@link PixelArrayFloat} objects work directly on the primitive arrays
+ * that back them and are written as simple loops over pixel ranges, which are also exposed so
+ * that they can be applied to parts of an image. All other combinations of pixel types (e.g.,
+ * direct, half-precision or 16-bit images, or a ByteImage converted into a FloatImage) copy
+ * blocks of pixels into float arrays with {@link PixelArray#copyTo(int, float[], int, int)},
+ * apply the floating point transforms and store the results with {@link
+ * PixelArray#copyFrom(float[], int, int, int)}.
+ *
+ * The conversions operate on the values stored in the image. For a {@link ByteImage} these are
+ * 8-bit non-linear sRGB values and integer (fixed-point) arithmetic is used throughout, so that
+ * results match the JPEG color transform. For a {@link FloatImage} these are linear values and the
+ * same transforms are applied in floating point without clamping. The conventions are:
+ *
+ * <ul>
+ * <li>LUM: Y = 0.299 R + 0.587 G + 0.114 B (ITU-R BT.601 weights). LUM to RGB replicates Y.</li>
+ * <li>YCBCR: full range (JFIF) Y, Cb, Cr with chroma centered at 128 (bytes) or 0.5 (floats).</li>
+ * <li>HSV: hue, saturation and value in [0,1] for floats. For bytes, saturation and value are
+ * scaled to [0,255] and hue is scaled to [0,256) and wraps around (as in OpenCV HSV_FULL).</li>
+ * </ul>
+ *
+ * Large images may optionally be converted in parallel, in which case the image is split into
+ * bands of rows that are processed on the common fork/join pool.
+ */
+public final class ColorSpaceConverter {
+
+  /**
+   * Minimum number of pixels in a band of rows processed by one fork/join task.
+   */
+  public static final int PARALLEL_GRAIN_SIZE = 1 << 16;
+
+  /**
+   * Number of pixels copied into float arrays at a time for pixel types without dedicated kernels.
+   */
+  private static final int BLOCK_SIZE = 1 << 12;
+
+  private enum Conversion {
+    RGB_TO_LUM, LUM_TO_RGB, RGB_TO_YCBCR, YCBCR_TO_RGB, RGB_TO_HSV, HSV_TO_RGB
+  }
+
+  private ColorSpaceConverter() {
+  }
+
+  private static Conversion getConversion(HipiColorSpace from, HipiColorSpace to)
+    throws IllegalArgumentException {
+    if (from == HipiColorSpace.RGB) {
+      switch (to) {
+      case LUM:
+	return Conversion.RGB_TO_LUM;
+      case YCBCR:
+	return Conversion.RGB_TO_YCBCR;
+      case HSV:
+	return Conversion.RGB_TO_HSV;
+      default:
+	break;
+      }
+    } else if (to == HipiColorSpace.RGB) {
+      switch (from) {
+      case LUM:
+	return Conversion.LUM_TO_RGB;
+      case YCBCR:
+	return Conversion.YCBCR_TO_RGB;
+      case HSV:
+	return Conversion.HSV_TO_RGB;
+      default:
+	break;
+      }
+    }
+    throw new IllegalArgumentException("Conversion from color space " + from + " to " + to + " is not supported.");
+  }
+
+  private static int getNumBands(HipiColorSpace colorSpace) {
+    return (colorSpace == HipiColorSpace.LUM ? 1 : 3);
+  }
+
+  /**
+   * Converts an image into the color space of the output image. Equivalent to calling {@link
+   * #convert(RasterImage, RasterImage, boolean)} with parallel set to false.
+   */
+  public static void convert(RasterImage input, RasterImage output) throws IllegalArgumentException {
+    convert(input, output, false);
+  }
+
+  /**
+   * Converts an image into the color space of the output image.
+   *
+   * @param input source image
+   * @param output output {@link RasterImage} target (must be initialized with the target color
+   * space, the same dimensions as the input image, and 1 band for LUM or 3 bands otherwise)
+   * @param parallel if true, images larger than {@link #PARALLEL_GRAIN_SIZE} pixels are
+   * converted in bands of rows on the common fork/join pool
+   *
+   * @throws IllegalArgumentException if the conversion is not supported or the output image has
+   * the wrong dimensions
+   */
+  public static void convert(RasterImage input, RasterImage output, boolean parallel)
+    throws IllegalArgumentException {
+
+    HipiColorSpace from = input.getColorSpace();
+    HipiColorSpace to = output.getColorSpace();
+    if (from == to) {
+      throw new IllegalArgumentException("Cannot convert color space to itself.");
+    }
+    Conversion conversion = getConversion(from, to);
+    input.checkInterleaved();
+    output.checkInterleaved();
+
+    int w = input.getWidth();
+    int h = input.getHeight();
+
+    // Verify color conversion input and output target
+    if (input.getNumBands() != getNumBands(from)) {
+      throw new IllegalArgumentException("Invalid number of bands in color convert input for color space " + from + ".");
+    }
+    if (w != output.getWidth() || h != output.getHeight() || output.getNumBands() != getNumBands(to)) {
+      throw new IllegalArgumentException("Invalid dimensions in color convert output target.");
+    }
+
+    PixelArray src = input.getPixelArray();
+    PixelArray dst = output.getPixelArray();
+
+    int numPixels = w * h;
+    if (parallel && numPixels > PARALLEL_GRAIN_SIZE) {
+      int rowsPerTask = Math.max(1, PARALLEL_GRAIN_SIZE / w);
+      ForkJoinPool.commonPool().invoke(new ConvertRowsTask(conversion, src, dst, w, 0, h, rowsPerTask));
+    } else {
+      convertRange(conversion, src, dst, 0, numPixels);
+    }
+  }
+
+  /**
+   * Converts a band of rows, splitting it in half until it is no larger than the grain size.
+   */
+  private static class ConvertRowsTask extends RecursiveAction {
+
+    private final Conversion conversion;
+    private final PixelArray src;
+    private final PixelArray dst;
+    private final int width;
+    private final int firstRow;
+    private final int endRow;
+    private final int rowsPerTask;
+
+    ConvertRowsTask(Conversion conversion, PixelArray src, PixelArray dst, int width,
+		    int firstRow, int endRow, int rowsPerTask) {
+      this.conversion = conversion;
+      this.src = src;
+      this.dst = dst;
+      this.width = width;
+      this.firstRow = firstRow;
+      this.endRow = endRow;
+      this.rowsPerTask = rowsPerTask;
+    }
+
+    @Override
+    protected void compute() {
+      if (endRow - firstRow <= rowsPerTask) {
+	convertRange(conversion, src, dst, firstRow * width, endRow * width);
+      } else {
+	int midRow = (firstRow + endRow) >>> 1;
+	invokeAll(new ConvertRowsTask(conversion, src, dst, width, firstRow, midRow, rowsPerTask),
+		  new ConvertRowsTask(conversion, src, dst, width, midRow, endRow, rowsPerTask));
+      }
+    }
+  }
+
+  private static void convertRange(Conversion conversion, PixelArray src, PixelArray dst,
+				   int first, int end) {
+    if (src instanceof PixelArrayByte && dst instanceof PixelArrayByte) {
+      byte[] s = ((PixelArrayByte)src).getData();
+      byte[] d = ((PixelArrayByte)dst).getData();
+      switch (conversion) {
+      case RGB_TO_LUM:
+	rgbToLum(s, d, first, end);
+	break;
+      case LUM_TO_RGB:
+	lumToRgb(s, d, first, end);
+	break;
+      case RGB_TO_YCBCR:
+	rgbToYCbCr(s, d, first, end);
+	break;
+      case YCBCR_TO_RGB:
+	yCbCrToRgb(s, d, first, end);
+	break;
+      case RGB_TO_HSV:
+	rgbToHsv(s, d, first, end);
+	break;
+      case HSV_TO_RGB:
+	hsvToRgb(s, d, first, end);
+	break;
+      }
+    } else if (src instanceof PixelArrayFloat && dst instanceof PixelArrayFloat) {
+      convertRange(conversion, ((PixelArrayFloat)src).getData(), ((PixelArrayFloat)dst).getData(),
+		   first, end);
+    } else {
+      // Go through the floating point values of both pixel arrays a block at a time
+      int srcBands = (conversion == Conversion.LUM_TO_RGB ? 1 : 3);
+      int dstBands = (conversion == Conversion.RGB_TO_LUM ? 1 : 3);
+      int blockSize = Math.min(BLOCK_SIZE, end - first);
+      float[] s = new float[blockSize * srcBands];
+      float[] d = new float[blockSize * dstBands];
+      for (int p=first; p<end; p+=blockSize) {
+	int n = Math.min(blockSize, end - p);
+	src.copyTo(p * srcBands, s, 0, n * srcBands);
+	convertRange(conversion, s, d, 0, n);
+	dst.copyFrom(d, 0, p * dstBands, n * dstBands);
+      }
+    }
+  }
+
+  private static void convertRange(Conversion conversion, float[] s, float[] d, int first, int end) {
+    switch (conversion) {
+      case RGB_TO_LUM:
+	rgbToLum(s, d, first, end);
+	break;
+      case LUM_TO_RGB:
+	lumToRgb(s, d, first, end);
+	break;
+      case RGB_TO_YCBCR:
+	rgbToYCbCr(s, d, first, end);
+	break;
+      case YCBCR_TO_RGB:
+	yCbCrToRgb(s, d, first, end);
+	break;
+      case RGB_TO_HSV:
+	rgbToHsv(s, d, first, end);
+	break;
+      case HSV_TO_RGB:
+	hsvToRgb(s, d, first, end);
+	break;
+    }
+  }
+
+  //
+  // 8-bit kernels. Pixel ranges are [first,end) in units of pixels. Fixed-point weights use 16
+  // fractional bits (as in libjpeg).
+  //
+
+  private static final int FIX_SHIFT = 16;
+  private static final int ONE_HALF = 1 << (FIX_SHIFT - 1);
+  private static final int CENTER = 128 << FIX_SHIFT;
+
+  private static final int FIX_0_299 = 19595;
+  private static final int FIX_0_587 = 38470;
+  private static final int FIX_0_114 = 7471;
+  private static final int FIX_0_168736 = 11059;
+  private static final int FIX_0_331264 = 21709;
+  private static final int FIX_0_5 = 32768;
+  private static final int FIX_0_418688 = 27439;
+  private static final int FIX_0_081312 = 5329;
+  private static final int FIX_1_402 = 91881;
+  private static final int FIX_0_344136 = 22554;
+  private static final int FIX_0_714136 = 46802;
+  private static final int FIX_1_772 = 116130;
+
+  private static int clamp(int v) {
+    return (v < 0 ? 0 : (v > 255 ? 255 : v));
+  }
+
+  public static void rgbToLum(byte[] rgb, byte[] lum, int first, int end) {
+    for (int p=first, i=first*3; p<end; p++, i+=3) {
+      int r = rgb[i] & 0xff;
+      int g = rgb[i+1] & 0xff;
+      int b = rgb[i+2] & 0xff;
+      lum[p] = (byte)((FIX_0_299 * r + FIX_0_587 * g + FIX_0_114 * b + ONE_HALF) >> FIX_SHIFT);
+    }
+  }
+
+  public static void lumToRgb(byte[] lum, byte[] rgb, int first, int end) {
+    for (int p=first, i=first*3; p<end; p++, i+=3) {
+      byte y = lum[p];
+      rgb[i] = y;
+      rgb[i+1] = y;
+      rgb[i+2] = y;
+    }
+  }
+
+  public static void rgbToYCbCr(byte[] rgb, byte[] ycc, int first, int end) {
+    for (int i=first*3, n=end*3; i<n; i+=3) {
+      int r = rgb[i] & 0xff;
+      int g = rgb[i+1] & 0xff;
+      int b = rgb[i+2] & 0xff;
+      ycc[i]   = (byte)((FIX_0_299 * r + FIX_0_587 * g + FIX_0_114 * b + ONE_HALF) >> FIX_SHIFT);
+      ycc[i+1] = (byte)((-FIX_0_168736 * r - FIX_0_331264 * g + FIX_0_5 * b + CENTER + ONE_HALF - 1) >> FIX_SHIFT);
+      ycc[i+2] = (byte)((FIX_0_5 * r - FIX_0_418688 * g - FIX_0_081312 * b + CENTER + ONE_HALF - 1) >> FIX_SHIFT);
+    }
+  }
+
+  public static void yCbCrToRgb(byte[] ycc, byte[] rgb, int first, int end) {
+    for (int i=first*3, n=end*3; i<n; i+=3) {
+      int y = (ycc[i] & 0xff) << FIX_SHIFT;
+      int cb = (ycc[i+1] & 0xff) - 128;
+      int cr = (ycc[i+2] & 0xff) - 128;
+      rgb[i]   = (byte)clamp((y + FIX_1_402 * cr + ONE_HALF) >> FIX_SHIFT);
+      rgb[i+1] = (byte)clamp((y - FIX_0_344136 * cb - FIX_0_714136 * cr + ONE_HALF) >> FIX_SHIFT);
+      rgb[i+2] = (byte)clamp((y + FIX_1_772 * cb + ONE_HALF) >> FIX_SHIFT);
+    }
+  }
+
+  public static void rgbToHsv(byte[] rgb, byte[] hsv, int first, int end) {
+    for (int i=first*3, n=end*3; i<n; i+=3) {
+      int r = rgb[i] & 0xff;
+      int g = rgb[i+1] & 0xff;
+      int b = rgb[i+2] & 0xff;
+      int max = Math.max(r, Math.max(g, b));
+      int min = Math.min(r, Math.min(g, b));
+      int delta = max - min;
+      int hue = 0;
+      int sat = 0;
+      if (delta > 0) {
+	sat = (255 * delta + (max >> 1)) / max;
+	// Hue in units of 1/256 of a full turn, each sextant spans 256/6
+	int sextant;
+	int num;
+	if (max == r) {
+	  // Keep the numerator non-negative so that integer division rounds correctly
+	  sextant = (g >= b ? 0 : 6);
+	  num = g - b;
+	} else if (max == g) {
+	  sextant = 2;
+	  num = b - r;
+	} else {
+	  sextant = 4;
+	  num = r - g;
+	}
+	hue = ((sextant * delta + num) * 256 + 3 * delta) / (6 * delta);
+	hue &= 0xff;
+      }
+      hsv[i] = (byte)hue;
+      hsv[i+1] = (byte)sat;
+      hsv[i+2] = (byte)max;
+    }
+  }
+
+  public static void hsvToRgb(byte[] hsv, byte[] rgb, int first, int end) {
+    for (int i=first*3, n=end*3; i<n; i+=3) {
+      int hue = hsv[i] & 0xff;
+      int sat = hsv[i+1] & 0xff;
+      int val = hsv[i+2] & 0xff;
+      // Position within the hue circle in units of 1/256 of a sextant
+      int h6 = hue * 6;
+      int sextant = h6 >> 8;
+      int frac = h6 & 0xff;
+      int p = (val * (255 - sat) + 127) / 255;
+      int q = (val * (65280 - sat * frac) + 32640) / 65280;
+      int t = (val * (65280 - sat * (256 - frac)) + 32640) / 65280;
+      int r, g, b;
+      switch (sextant) {
+      case 0:  r = val; g = t;   b = p;   break;
+      case 1:  r = q;   g = val; b = p;   break;
+      case 2:  r = p;   g = val; b = t;   break;
+      case 3:  r = p;   g = q;   b = val; break;
+      case 4:  r = t;   g = p;   b = val; break;
+      default: r = val; g = p;   b = q;   break;
+      }
+      rgb[i] = (byte)r;
+      rgb[i+1] = (byte)g;
+      rgb[i+2] = (byte)b;
+    }
+  }
+
+  //
+  // Floating point kernels
+  //
+
+  public static void rgbToLum(float[] rgb, float[] lum, int first, int end) {
+    for (int p=first, i=first*3; p<end; p++, i+=3) {
+      lum[p] = 0.299f * rgb[i] + 0.587f * rgb[i+1] + 0.114f * rgb[i+2];
+    }
+  }
+
+  public static void lumToRgb(float[] lum, float[] rgb, int first, int end) {
+    for (int p=first, i=first*3; p<end; p++, i+=3) {
+      float y = lum[p];
+      rgb[i] = y;
+      rgb[i+1] = y;
+      rgb[i+2] = y;
+    }
+  }
+
+  public static void rgbToYCbCr(float[] rgb, float[] ycc, int first, int end) {
+    for (int i=first*3, n=end*3; i<n; i+=3) {
+      float r = rgb[i];
+      float g = rgb[i+1];
+      float b = rgb[i+2];
+      ycc[i]   = 0.299f * r + 0.587f * g + 0.114f * b;
+      ycc[i+1] = -0.168736f * r - 0.331264f * g + 0.5f * b + 0.5f;
+      ycc[i+2] = 0.5f * r - 0.418688f * g - 0.081312f * b + 0.5f;
+    }
+  }
+
+  public static void yCbCrToRgb(float[] ycc, float[] rgb, int first, int end) {
+    for (int i=first*3, n=end*3; i<n; i+=3) {
+      float y = ycc[i];
+      float cb = ycc[i+1] - 0.5f;
+      float cr = ycc[i+2] - 0.5f;
+      rgb[i]   = y + 1.402f * cr;
+      rgb[i+1] = y - 0.344136f * cb - 0.714136f * cr;
+      rgb[i+2] = y + 1.772f * cb;
+    }
+  }
+
+  public static void rgbToHsv(float[] rgb, float[] hsv, int first, int end) {
+    for (int i=first*3, n=end*3; i<n; i+=3) {
+      float r = rgb[i];
+      float g = rgb[i+1];
+      float b = rgb[i+2];
+      float max = Math.max(r, Math.max(g, b));
+      float min = Math.min(r, Math.min(g, b));
+      float delta = max - min;
+      float hue = 0.0f;
+      float sat = 0.0f;
+      if (delta > 0.0f) {
+	sat = (max > 0.0f ? delta / max : 0.0f);
+	if (max == r) {
+	  hue = (g - b) / delta;
+	} else if (max == g) {
+	  hue = 2.0f + (b - r) / delta;
+	} else {
+	  hue = 4.0f + (r - g) / delta;
+	}
+	hue /= 6.0f;
+	if (hue < 0.0f) {
+	  hue += 1.0f;
+	}
+      }
+      hsv[i] = hue;
+      hsv[i+1] = sat;
+      hsv[i+2] = max;
+    }
+  }
+
+  public static void hsvToRgb(float[] hsv, float[] rgb, int first, int end) {
+    for (int i=first*3, n=end*3; i<n; i+=3) {
+      float h6 = (hsv[i] - (float)Math.floor(hsv[i])) * 6.0f;
+      float sat = hsv[i+1];
+      float val = hsv[i+2];
+      int sextant = Math.min((int)h6, 5);
+      float frac = h6 - sextant;
+      float p = val * (1.0f - sat);
+      float q = val * (1.0f - sat * frac);
+      float t = val * (1.0f - sat * (1.0f - frac));
+      float r, g, b;
+      switch (sextant) {
+      case 0:  r = val; g = t;   b = p;   break;
+      case 1:  r = q;   g = val; b = p;   break;
+      case 2:  r = p;   g = val; b = t;   break;
+      case 3:  r = p;   g = q;   b = val; break;
+      case 4:  r = t;   g = p;   b = val; break;
+      default: r = val; g = p;   b = q;   break;
+      }
+      rgb[i] = r;
+      rgb[i+1] = g;
+      rgb[i+2] = b;
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+package org.hipi.image;
+
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.RasterImage;
+import org.hipi.image.PixelArrayDirectByte;
+import org.hipi.util.ByteUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A raster image whose 8-bit pixel values are stored off the Java heap in a {@link
+ * PixelArrayDirectByte}. Pixel values have the same interpretation as those of a {@link
+ * ByteImage}, and both classes use the same serialized representation.
+ *
+ * A mapper can request images of this type by declaring DirectByteImage as the value type of
+ * its map method. Call {@link RasterImage#release} once an image is no longer needed to return
+ * its native memory to the buffer pool.
+ */
+public class DirectByteImage extends RasterImage {
+
+  public DirectByteImage() {
+    super((PixelArray)(new PixelArrayDirectByte()));
+  }
+
+  /**
+   * Get object type identifier.
+   *
+   * @return Type of object.
+   */
+  public HipiImageType getType() {
+    return HipiImageType.BYTE;
+  }
+
+  /**
+   * Provides direct access to underlying buffer of pixel data.
+   *
+   * @see PixelArrayDirect#getBuffer
+   */
+  public ByteBuffer getBuffer() {
+    return ((PixelArrayDirectByte)this.pixelArray).getBuffer();
+  }
+
+  /**
+   * Compares two images for equality allowing for some amount of differences in pixel values.
+   *
+   * @return True if the two images have equal dimensions, color spaces, and are found to deviate
+   * by less than a maximum difference, false otherwise.
+   */
+  public boolean equalsWithTolerance(RasterImage thatImage, float maxDifference) {
+    if (thatImage == null) {
+      return false;
+    }
+
+    // Verify dimensions in headers are equal
+    int w = this.getWidth();
+    int h = this.getHeight();
+    int b = this.getNumBands();
+    if (this.getColorSpace() != thatImage.getColorSpace() ||
+	thatImage.getWidth() != w || thatImage.getHeight() != h ||
+	thatImage.getNumBands() != b || thatImage.getLayout() != this.getLayout()) {
+      return false;
+    }
+
+    // Check that pixel data is equal
+    PixelArray thisPA = this.getPixelArray();
+    PixelArray thatPA = thatImage.getPixelArray();
+    for (int i=0; i<w*h*b; i++) {
+      if ((float)Math.abs(thisPA.getElem(i) - thatPA.getElem(i)) > maxDifference) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compares two DirectByteImage objects for equality.
+   *
+   * @return True if the two images have equal dimensions, color spaces, and pixel values, false
+   * otherwise.
+   */
+  @Override
+  public boolean equals(Object that) {
+    // Check for pointer equivalence
+    if (this == that)
+      return true;
+
+    // Verify object types are equal
+    if (!(that instanceof DirectByteImage))
+      return false;
+
+    return equalsWithTolerance((DirectByteImage)that, 0.0f);
+  }
+
+  /**
+   * Computes hash of image pixel data.
+   *
+   * @return Hash of pixel data represented as a string.
+   *
+   * @see ByteUtils#asHex is used to compute the hash.
+   */
+  @Override
+  public String hex() {
+    return ByteUtils.asHex(pixelArray.getByteArray());
+  }
+
+} // public class DirectByteImage
@@ -0,0 +1,115 @@
+package org.hipi.image;
+
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.RasterImage;
+import org.hipi.image.PixelArrayDirectFloat;
+import org.hipi.util.ByteUtils;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A raster image whose floating point pixel values are stored off the Java heap in a {@link
+ * PixelArrayDirectFloat}. Pixel values have the same (linear) interpretation as those of a {@link
+ * FloatImage}, and both classes use the same serialized representation.
+ *
+ * A mapper can request images of this type by declaring DirectFloatImage as the value type of
+ * its map method. Call {@link RasterImage#release} once an image is no longer needed to return
+ * its native memory to the buffer pool.
+ */
+public class DirectFloatImage extends RasterImage {
+
+  public DirectFloatImage() {
+    super((PixelArray)(new PixelArrayDirectFloat()));
+  }
+
+  public DirectFloatImage(int width, int height, int bands) throws IllegalArgumentException {
+    super((PixelArray)(new PixelArrayDirectFloat()));
+    HipiImageHeader header = new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.UNDEFINED, width, height, bands, null, null);
+    setHeader(header);
+  }
+
+  /**
+   * Get object type identifier.
+   *
+   * @return Type of object.
+   */
+  public HipiImageType getType() {
+    return HipiImageType.FLOAT;
+  }
+
+  /**
+   * Provides direct access to underlying buffer of pixel data.
+   *
+   * @see PixelArrayDirectFloat#getFloatBuffer
+   */
+  public FloatBuffer getFloatBuffer() {
+    return ((PixelArrayDirectFloat)this.pixelArray).getFloatBuffer();
+  }
+
+  /**
+   * Compares two images for equality allowing for some amount of differences in pixel values.
+   *
+   * @return True if the two images have equal dimensions, color spaces, and are found to deviate
+   * by less than a maximum difference, false otherwise.
+   */
+  public boolean equalsWithTolerance(RasterImage thatImage, float maxDifference) {
+    if (thatImage == null) {
+      return false;
+    }
+
+    // Verify dimensions in headers are equal
+    int w = this.getWidth();
+    int h = this.getHeight();
+    int b = this.getNumBands();
+    if (this.getColorSpace() != thatImage.getColorSpace() ||
+	thatImage.getWidth() != w || thatImage.getHeight() != h ||
+	thatImage.getNumBands() != b || thatImage.getLayout() != this.getLayout()) {
+      return false;
+    }
+
+    // Check that pixel data is equal
+    PixelArray thisPA = this.getPixelArray();
+    PixelArray thatPA = thatImage.getPixelArray();
+    for (int i=0; i<w*h*b; i++) {
+      double diff = Math.abs(thisPA.getElemFloat(i)-thatPA.getElemFloat(i));
+      if (diff > maxDifference) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compares two DirectFloatImage objects for equality.
+   *
+   * @return True if the two images have equal dimensions, color spaces, and pixel values, false
+   * otherwise.
+   */
+  @Override
+  public boolean equals(Object that) {
+    // Check for pointer equivalence
+    if (this == that)
+      return true;
+
+    // Verify object types are equal
+    if (!(that instanceof DirectFloatImage))
+      return false;
+
+    return equalsWithTolerance((DirectFloatImage)that, 0.0f);
+  }
+
+  /**
+   * Computes hash of image pixel data.
+   *
+   * @return Hash of pixel data represented as a string.
+   *
+   * @see ByteUtils#asHex is used to compute the hash.
+   */
+  @Override
+  public String hex() {
+    return ByteUtils.asHex(pixelArray.getByteArray());
+  }
+
+} // public class DirectFloatImage
@@ -97,7 +97,7 @@ public class FloatImage extends RasterImage {
     int b = this.getNumBands();
     if (this.getColorSpace() != thatImage.getColorSpace() ||
 	thatImage.getWidth() != w || thatImage.getHeight() != h || 
-	thatImage.getNumBands() != b) {
+	thatImage.getNumBands() != b || thatImage.getLayout() != this.getLayout()) {
       return false;
     }
 
@@ -105,6 +105,18 @@ public class FloatImage extends RasterImage {
     PixelArray thisPA = this.getPixelArray();
     PixelArray thatPA = thatImage.getPixelArray();
 
+    // Compare float arrays directly if possible
+    if (thatPA instanceof PixelArrayFloat) {
+      float[] thisData = getData();
+      float[] thatData = ((PixelArrayFloat)thatPA).getData();
+      for (int i=0; i<w*h*b; i++) {
+	if (Math.abs(thisData[i]-thatData[i]) > maxDifference) {
+	  return false;
+	}
+      }
+      return true;
+    }
+
     // Check that pixel data is equal.
     for (int i=0; i<w*h*b; i++) {
       double diff = Math.abs(thisPA.getElemFloat(i)-thatPA.getElemFloat(i));
@@ -137,7 +149,8 @@ public class FloatImage extends RasterImage {
   }
 
   /**
-   * Performs in-place addition with another {@link FloatImage}.
+   * Performs in-place addition with another {@link FloatImage}. Large
+   * images are processed in parallel (see {@link ImageOps}).
    * 
    * @param thatImage target image to add to current image
    *
@@ -148,15 +161,14 @@ public class FloatImage extends RasterImage {
     checkCompatibleInputImage(thatImage);
 
     // Perform in-place addition
-    int w = this.getWidth();
-    int h = this.getHeight();
-    int b = this.getNumBands();
-    float[] thisData = this.getData();
-    float[] thatData = thatImage.getData();
-    
-    for (int i=0; i<w*h*b; i++) {
-      thisData[i] += thatData[i];
-    }
+    final int n = this.getWidth()*this.getNumBands();
+    final float[] thisData = this.getData();
+    final float[] thatData = thatImage.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	thisData[i] += thatData[i];
+      }
+    });
   }
 
   /**
@@ -164,14 +176,14 @@ public class FloatImage extends RasterImage {
    * 
    * @param number scalar value to add to each band of each pixel
    */
-  public void add(float number) {
-    int w = this.getWidth();
-    int h = this.getHeight();
-    int b = this.getNumBands();
-    float[] thisData = this.getData();
-    for (int i=0; i<w*h*b; i++) {
-      thisData[i] += number;
-    }
+  public void add(final float number) {
+    final int n = this.getWidth()*this.getNumBands();
+    final float[] thisData = this.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	thisData[i] += number;
+      }
+    });
   }
 
   /**
@@ -185,14 +197,14 @@ public class FloatImage extends RasterImage {
     checkCompatibleInputImage(thatImage);
 
     // Perform in-place elementwise multiply
-    int w = this.getWidth();
-    int h = this.getHeight();
-    int b = this.getNumBands();
-    float[] thisData = this.getData();
-    float[] thatData = thatImage.getData();
-    for (int i=0; i<w*h*b; i++) {
-      thisData[i] *= thatData[i];
-    }
+    final int n = this.getWidth()*this.getNumBands();
+    final float[] thisData = this.getData();
+    final float[] thatData = thatImage.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	thisData[i] *= thatData[i];
+      }
+    });
   }
 
   /**
@@ -200,13 +212,72 @@ public class FloatImage extends RasterImage {
    *
    * @param value Scalar to multiply with each band of each pixel.
    */
-  public void scale(float value) {
-    int w = this.getWidth();
-    int h = this.getHeight();
-    int b = this.getNumBands();
-    float[] thisData = this.getData();
-    for (int i=0; i<w*h*b; i++) {
-      thisData[i] *= value;
+  public void scale(final float value) {
+    final int n = this.getWidth()*this.getNumBands();
+    final float[] thisData = this.getData();
+    ImageOps.parallelMap(this, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	thisData[i] *= value;
+      }
+    });
+  }
+
+  /**
+   * Sets the pixel values of this image to the linear RGB values of an image of 8-bit gamma
+   * compressed non-linear sRGB values, using the same lookup table as {@link
+   * PixelArray#setElemNonLinSRGB}. The layout of the input is preserved.
+   *
+   * @param image input image (must have the same dimensions as this image)
+   * @param parallel if true, large images are converted in bands of rows in parallel (see
+   * {@link ImageOps})
+   *
+   * @throws IllegalArgumentException if the image dimensions do not match
+   */
+  public void convertFromByteImage(ByteImage image, boolean parallel) throws IllegalArgumentException {
+    checkSameDimensions(image);
+    pixelArray.setLayout(image.getLayout());
+    final int n = this.getWidth()*this.getNumBands();
+    final byte[] src = image.getData();
+    final float[] dst = this.getData();
+    ImageOps.RowKernel kernel = (startRow, endRow) ->
+      PixelArrayFloat.nonLinSRGBToLinear(src, startRow*n, dst, startRow*n, (endRow-startRow)*n);
+    if (parallel) {
+      ImageOps.parallelMap(this, kernel);
+    } else {
+      kernel.apply(0, getHeight());
+    }
+  }
+
+  /**
+   * Converts the linear RGB values of this image to 8-bit gamma compressed non-linear sRGB
+   * values, using the same lookup table as {@link PixelArray#getElemNonLinSRGB}. The layout of
+   * this image is preserved.
+   *
+   * @param output output image (must have the same dimensions as this image)
+   * @param parallel if true, large images are converted in bands of rows in parallel (see
+   * {@link ImageOps})
+   *
+   * @throws IllegalArgumentException if the image dimensions do not match
+   */
+  public void convertToByteImage(ByteImage output, boolean parallel) throws IllegalArgumentException {
+    checkSameDimensions(output);
+    output.getPixelArray().setLayout(getLayout());
+    final int n = this.getWidth()*this.getNumBands();
+    final float[] src = this.getData();
+    final byte[] dst = output.getData();
+    ImageOps.RowKernel kernel = (startRow, endRow) ->
+      PixelArrayFloat.linearToNonLinSRGB(src, startRow*n, dst, startRow*n, (endRow-startRow)*n);
+    if (parallel) {
+      ImageOps.parallelMap(this, kernel);
+    } else {
+      kernel.apply(0, getHeight());
+    }
+  }
+
+  private void checkSameDimensions(RasterImage image) throws IllegalArgumentException {
+    if (image.getWidth() != this.getWidth() || image.getHeight() != this.getHeight() ||
+	image.getNumBands() != this.getNumBands()) {
+      throw new IllegalArgumentException("Image dimensions do not match.");
     }
   }
 
@@ -231,13 +302,17 @@ public class FloatImage extends RasterImage {
    * @param image RasterImage to check
    * 
    * @throws IllegalArgumentException if the image do not have
-   * compatible dimensions. Otherwise has no effect.
+   * compatible dimensions or layouts. Otherwise has no effect.
    */
   protected void checkCompatibleInputImage(FloatImage image) throws IllegalArgumentException {
     if (image.getColorSpace() != this.getColorSpace() || image.getWidth() != this.getWidth() || 
 	image.getHeight() != this.getHeight() || image.getNumBands() != this.getNumBands()) {
       throw new IllegalArgumentException("Color space and/or image dimensions do not match.");
     }
+    // Operations combine the pixel arrays element by element
+    if (image.getNumBands() > 1 && image.getLayout() != this.getLayout()) {
+      throw new IllegalArgumentException("Pixel array layouts do not match [" + image.getLayout() + "," + this.getLayout() + "].");
+    }
   }
 
 } // public class FloatImage...
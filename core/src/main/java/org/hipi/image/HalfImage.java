@@ -0,0 +1,121 @@
+package org.hipi.image;
+
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.RasterImage;
+import org.hipi.image.PixelArrayHalf;
+import org.hipi.util.ByteUtils;
+
+/**
+ * A raster image represented as an array of half-precision floating point values. A HalfImage
+ * consists of a flat array of pixel values represented as a {@link PixelArrayHalf} object along
+ * with a {@link HipiImageHeader} object.
+ *
+ * Pixel values have the same linear interpretation as those of a {@link FloatImage} but use half
+ * the memory and half the number of bytes when serialized, which makes HalfImage a good choice
+ * for intermediate results passed between map and reduce tasks.
+ */
+public class HalfImage extends RasterImage {
+
+  public HalfImage() {
+    super((PixelArray)(new PixelArrayHalf()));
+  }
+
+  public HalfImage(int width, int height, int bands) throws IllegalArgumentException {
+    super((PixelArray)(new PixelArrayHalf()));
+    HipiImageHeader header = new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.UNDEFINED, width, height, bands, null, null);
+    setHeader(header);
+  }
+
+  public HalfImage(int width, int height, int bands, HipiImageFormat imgFormat, HipiColorSpace colorspace) throws IllegalArgumentException {
+    super((PixelArray)(new PixelArrayHalf()));
+    HipiImageHeader header = new HipiImageHeader(imgFormat, colorspace,
+                         width, height, bands, null, null);
+    setHeader(header);
+  }
+
+  /**
+   * Get object type identifier.
+   *
+   * @return Type of object.
+   */
+  public HipiImageType getType() {
+    return HipiImageType.HALF;
+  }
+
+  /**
+   * Provides direct access to underlying array of binary16 pixel values.
+   *
+   * @see PixelArrayHalf#halfToFloat
+   */
+  public short[] getData() {
+    return ((PixelArrayHalf)this.pixelArray).getData();
+  }
+
+  /**
+   * Compares two images for equality allowing for some amount of differences in pixel values.
+   *
+   * @return True if the two images have equal dimensions, color spaces, and are found to deviate
+   * by less than a maximum difference, false otherwise.
+   */
+  public boolean equalsWithTolerance(RasterImage thatImage, float maxDifference) {
+    if (thatImage == null) {
+      return false;
+    }
+    // Verify dimensions in headers are equal
+    int w = this.getWidth();
+    int h = this.getHeight();
+    int b = this.getNumBands();
+    if (this.getColorSpace() != thatImage.getColorSpace() ||
+	thatImage.getWidth() != w || thatImage.getHeight() != h ||
+	thatImage.getNumBands() != b || thatImage.getLayout() != this.getLayout()) {
+      return false;
+    }
+
+    // Check that pixel data is equal
+    PixelArray thisPA = this.getPixelArray();
+    PixelArray thatPA = thatImage.getPixelArray();
+    for (int i=0; i<w*h*b; i++) {
+      double diff = Math.abs(thisPA.getElemFloat(i)-thatPA.getElemFloat(i));
+      if (diff > maxDifference) {
+	return false;
+      }
+    }
+
+    // Passed, declare equality
+    return true;
+  }
+
+  /**
+   * Compares two HalfImage objects for equality.
+   *
+   * @return True if the two images have equal dimensions, color spaces, and pixel values, false
+   * otherwise.
+   */
+  @Override
+  public boolean equals(Object that) {
+    // Check for pointer equivalence
+    if (this == that)
+      return true;
+
+    // Verify object types are equal
+    if (!(that instanceof HalfImage))
+      return false;
+
+    return equalsWithTolerance((HalfImage)that, 0.0f);
+  }
+
+  /**
+   * Computes hash of image pixel data.
+   *
+   * @return Hash of pixel data represented as a string.
+   *
+   * @see ByteUtils#asHex is used to compute the hash.
+   */
+  @Override
+  public String hex() {
+    return ByteUtils.asHex(pixelArray.getByteArray());
+  }
+
+} // public class HalfImage
@@ -27,7 +27,7 @@ public abstract class HipiImage implements Writable {
    * Enumeration of the supported image object types in HIPI (e.g., FloatImage, ByteImage, etc.).
    */
   public enum HipiImageType {
-    UNDEFINED(0x0), FLOAT(0x1), BYTE(0x2), RAW(0x3);
+    UNDEFINED(0x0), FLOAT(0x1), BYTE(0x2), RAW(0x3), HALF(0x4), USHORT(0x5);
 
     private int type;
 
@@ -67,6 +67,14 @@ public abstract class HipiImage implements Writable {
       return type;
     }
 
+    /**
+     * @return true if objects of this type are {@link RasterImage} objects that image decoders
+     * can produce (i.e., FloatImage, ByteImage, HalfImage and UShortImage), false otherwise
+     */
+    public boolean isRaster() {
+      return (this == FLOAT || this == BYTE || this == HALF || this == USHORT);
+    }
+
     /**
      * Default HipiImageType.
      *
@@ -5,6 +5,8 @@ import org.hipi.image.HipiImage.HipiImageType;
 
 import org.apache.hadoop.mapreduce.Mapper;
 
+import org.hipi.util.PixelBufferPool;
+
 import java.lang.reflect.Method;
 
 /**
@@ -37,6 +39,8 @@ public class HipiImageFactory {
 
   private Class<?> imageClass = null;
   private HipiImageType imageType = HipiImageType.UNDEFINED;
+  private PixelBufferPool bufferPool = null;
+  private PixelArray.Layout layout = PixelArray.Layout.INTERLEAVED;
 
   public HipiImageFactory(Class<? extends Mapper<?,?,?,?>> mapperClass)
     throws InstantiationException,
@@ -62,6 +66,12 @@ public class HipiImageFactory {
 	case BYTE:
 	  imageClass = ByteImage.class;
 	  break;
+	case HALF:
+	  imageClass = HalfImage.class;
+	  break;
+	case USHORT:
+	  imageClass = UShortImage.class;
+	  break;
 	case RAW:
     imageClass = RawImage.class;
 	case UNDEFINED:
@@ -72,10 +82,44 @@ public class HipiImageFactory {
       this.imageType = imageType;
   }
 
-  private void findImageClass(Class<? extends Mapper<?,?,?,?>> mapperClass) 
+  private HipiImageFactory() {
+  }
+
+  /**
+   * Creates a factory for a specific concrete image class, such as {@link DirectFloatImage},
+   * that cannot be selected with a {@link HipiImageType} alone.
+   *
+   * @param imageClass concrete image class with a public no-argument constructor
+   *
+   * @return factory that produces objects of the given class
+   */
+  public static HipiImageFactory forImageClass(Class<? extends HipiImage> imageClass)
+    throws InstantiationException,
+	   IllegalAccessException {
+    HipiImageFactory factory = new HipiImageFactory();
+    factory.imageClass = imageClass;
+    factory.imageType = imageClass.newInstance().getType();
+    return factory;
+  }
+
+  /**
+   * Determines the class of the value argument of the map method of a Mapper class whose key
+   * argument is a {@link HipiImageHeader}. Record readers use this to select the value type they
+   * produce (e.g., a {@link HipiImage} subclass for {@link
+   * org.hipi.imagebundle.mapreduce.HibRecordReader} or an OpenCV Mat for {@link
+   * org.hipi.opencv.OpenCVMatRecordReader}).
+   *
+   * @param mapperClass Mapper class
+   *
+   * @return class of the value argument of the map method
+   *
+   * @throws RuntimeException if no suitable map method is found
+   */
+  public static Class<?> getMapperValueClass(Class<? extends Mapper<?,?,?,?>> mapperClass)
     throws SecurityException,
 	   RuntimeException {
 
+    Class<?> valueClass = null;
     for (Method method : mapperClass.getMethods()) {
       // Find map method (there will be at least two: one in concrete
       // base class and one in abstract Mapper superclass)
@@ -95,18 +139,28 @@ public class HipiImageFactory {
 	continue;
       }
       
-      // Store pointer to requested image class
-      imageClass = params[1];
+      // Store pointer to requested value class
+      valueClass = params[1];
     }
     
-    if (imageClass == null) {
+    if (valueClass == null) {
       throw new RuntimeException("Failed to determine image class used in " +
         "mapper (second argument in map method).");
     }
 
+    return valueClass;
+  }
+
+  private void findImageClass(Class<? extends Mapper<?,?,?,?>> mapperClass) 
+    throws SecurityException,
+	   RuntimeException {
+
+    imageClass = getMapperValueClass(mapperClass);
+
     if (!HipiImage.class.isAssignableFrom(imageClass)) {
       throw new RuntimeException("Found image class [" + imageClass + "], but it's not " +
-        "derived from HipiImage as required.");
+        "derived from HipiImage as required (mappers that take an OpenCV Mat require " +
+        "org.hipi.opencv.OpenCVMatInputFormat).");
     }
 
   }
@@ -114,6 +168,37 @@ public class HipiImageFactory {
   public HipiImageType getType() {
     return imageType;
   }
+
+  /**
+   * Sets the pool from which the pixel arrays of images created by this factory draw their
+   * backing arrays, and to which {@link RasterImage#release} returns them. Note that the
+   * factories returned by {@link #getFloatImageFactory} and {@link #getByteImageFactory} are
+   * shared.
+   *
+   * @param bufferPool buffer pool, or null to allocate pixel arrays directly
+   */
+  public void setBufferPool(PixelBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  public PixelBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Sets the layout of the pixel data of images produced by the decoders in {@link
+   * org.hipi.image.io} with this factory. Images created by {@link #createImage} itself are
+   * always interleaved, which is the order in which decoders fill them.
+   *
+   * @param layout layout of decoded images
+   */
+  public void setLayout(PixelArray.Layout layout) {
+    this.layout = layout;
+  }
+
+  public PixelArray.Layout getLayout() {
+    return layout;
+  }
     
   public HipiImage createImage(HipiImageHeader imageHeader)
     throws InstantiationException,
@@ -123,6 +208,9 @@ public class HipiImageFactory {
 	   IllegalArgumentException {
     
     HipiImage image = (HipiImage)imageClass.newInstance();
+    if (bufferPool != null && image instanceof RasterImage) {
+      ((RasterImage)image).getPixelArray().setBufferPool(bufferPool);
+    }
     image.setHeader(imageHeader);
     return image;
     
@@ -30,10 +30,13 @@ import java.util.Map.Entry;
 public class HipiImageHeader implements WritableComparable<HipiImageHeader> {
 
   /**
-   * Enumeration of the image storage formats supported in HIPI (e.g, JPEG, PNG, etc.).
+   * Enumeration of the image storage formats supported in HIPI (e.g, JPEG, PNG, etc.). The RAW_*
+   * formats store decoded, interleaved pixel data as either 8-bit or 32-bit floating point
+   * samples, optionally LZ4 block compressed (see {@link org.hipi.image.io.RawPixelCodec}).
    */
   public enum HipiImageFormat {
-    UNDEFINED(0x0), JPEG(0x1), PNG(0x2), PPM(0x3);
+    UNDEFINED(0x0), JPEG(0x1), PNG(0x2), PPM(0x3),
+    RAW_BYTE(0x4), RAW_FLOAT(0x5), RAW_BYTE_LZ4(0x6), RAW_FLOAT_LZ4(0x7);
 
     private int format;
 
@@ -88,7 +91,7 @@ public class HipiImageHeader implements WritableComparable<HipiImageHeader> {
    * Enumeration of the color spaces supported in HIPI.
    */
   public enum HipiColorSpace {
-    UNDEFINED(0x0), RGB(0x1), LUM(0x2);
+    UNDEFINED(0x0), RGB(0x1), LUM(0x2), YCBCR(0x3), HSV(0x4);
 
     private int cspace;
 
@@ -184,7 +187,9 @@ public class HipiImageHeader implements WritableComparable<HipiImageHeader> {
     if (metaDataBytes != null) {
       setMetaDataFromBytes(metaDataBytes);
     }
-    this.exifData = exifData;
+    if (exifData != null) {
+      this.exifData = exifData;
+    }
   }
 
   /**
@@ -0,0 +1,283 @@
+package org.hipi.image;
+
+import org.hipi.image.PixelArray.FloatUnaryOperator;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Runs per-row and per-pixel operations on raster images in parallel. An image is recursively
+ * split into bands of consecutive rows until each band holds no more than a threshold number of
+ * pixel values (see {@link #setMinElementsPerTask}), and the bands are processed by the tasks of
+ * a shared {@link ForkJoinPool}. Images smaller than the threshold are processed on the calling
+ * thread.
+ *
+ * The way an image is split only depends on its dimensions and the threshold, so reductions
+ * (see {@link #parallelReduce}) combine partial results in the same order every time and
+ * produce repeatable results.
+ */
+public final class ImageOps {
+
+  /**
+   * Default minimum number of pixel values processed by a single task.
+   */
+  public static final int DEFAULT_MIN_ELEMENTS_PER_TASK = 1 << 16;
+
+  private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  private static volatile int minElementsPerTask = DEFAULT_MIN_ELEMENTS_PER_TASK;
+
+  private ImageOps() {
+  }
+
+  /**
+   * Operation applied to a band of consecutive rows.
+   */
+  public interface RowKernel {
+    /**
+     * @param startRow index of first row
+     * @param endRow index after last row
+     */
+    void apply(int startRow, int endRow);
+  }
+
+  /**
+   * Operation that computes a partial result from a band of consecutive rows.
+   */
+  public interface RowReducer<T> {
+    /**
+     * @param startRow index of first row
+     * @param endRow index after last row
+     *
+     * @return partial result for the rows
+     */
+    T apply(int startRow, int endRow);
+  }
+
+  /**
+   * @return pool on which parallel operations run (the common pool by default)
+   */
+  public static ForkJoinPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Sets the pool on which parallel operations run.
+   *
+   * @param forkJoinPool pool to use
+   */
+  public static void setPool(ForkJoinPool forkJoinPool) {
+    if (forkJoinPool == null) {
+      throw new IllegalArgumentException("Pool must not be null.");
+    }
+    pool = forkJoinPool;
+  }
+
+  public static int getMinElementsPerTask() {
+    return minElementsPerTask;
+  }
+
+  /**
+   * Sets the number of pixel values below which a band of rows is no longer split.
+   *
+   * @param minElements minimum number of pixel values processed by a single task
+   */
+  public static void setMinElementsPerTask(int minElements) {
+    if (minElements <= 0) {
+      throw new IllegalArgumentException("Minimum number of elements per task must be positive.");
+    }
+    minElementsPerTask = minElements;
+  }
+
+  // Number of rows that are processed without further splitting
+  private static int rowsPerTask(int rowLength) {
+    return Math.max(1, minElementsPerTask / Math.max(1, rowLength));
+  }
+
+  private static class MapTask extends RecursiveAction {
+    private final RowKernel kernel;
+    private final int startRow;
+    private final int endRow;
+    private final int rowsPerTask;
+
+    MapTask(RowKernel kernel, int startRow, int endRow, int rowsPerTask) {
+      this.kernel = kernel;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.rowsPerTask = rowsPerTask;
+    }
+
+    @Override
+    protected void compute() {
+      if (endRow - startRow <= rowsPerTask) {
+	kernel.apply(startRow, endRow);
+	return;
+      }
+      int mid = (startRow + endRow) >>> 1;
+      invokeAll(new MapTask(kernel, startRow, mid, rowsPerTask),
+		new MapTask(kernel, mid, endRow, rowsPerTask));
+    }
+  }
+
+  private static class ReduceTask<T> extends RecursiveTask<T> {
+    private final RowReducer<T> reducer;
+    private final BinaryOperator<T> combiner;
+    private final int startRow;
+    private final int endRow;
+    private final int rowsPerTask;
+
+    ReduceTask(RowReducer<T> reducer, BinaryOperator<T> combiner, int startRow, int endRow, int rowsPerTask) {
+      this.reducer = reducer;
+      this.combiner = combiner;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.rowsPerTask = rowsPerTask;
+    }
+
+    @Override
+    protected T compute() {
+      if (endRow - startRow <= rowsPerTask) {
+	return reducer.apply(startRow, endRow);
+      }
+      int mid = (startRow + endRow) >>> 1;
+      ReduceTask<T> left = new ReduceTask<T>(reducer, combiner, startRow, mid, rowsPerTask);
+      ReduceTask<T> right = new ReduceTask<T>(reducer, combiner, mid, endRow, rowsPerTask);
+      right.fork();
+      T leftResult = left.compute();
+      return combiner.apply(leftResult, right.join());
+    }
+  }
+
+  /**
+   * Applies a kernel to all rows of a grid in parallel.
+   *
+   * @param numRows number of rows
+   * @param rowLength number of values in each row
+   * @param kernel operation applied to bands of rows (must be safe to call concurrently for
+   * disjoint bands)
+   */
+  public static void parallelMap(int numRows, int rowLength, RowKernel kernel) {
+    if (numRows <= 0) {
+      return;
+    }
+    int rowsPerTask = rowsPerTask(rowLength);
+    if (numRows <= rowsPerTask) {
+      kernel.apply(0, numRows);
+    } else {
+      pool.invoke(new MapTask(kernel, 0, numRows, rowsPerTask));
+    }
+  }
+
+  /**
+   * Applies a kernel to all rows of an image in parallel.
+   *
+   * @param image image whose rows are processed
+   * @param kernel operation applied to bands of rows (must be safe to call concurrently for
+   * disjoint bands)
+   */
+  public static void parallelMap(RasterImage image, RowKernel kernel) {
+    parallelMap(image.getHeight(), image.getWidth()*image.getNumBands(), kernel);
+  }
+
+  /**
+   * Replaces every pixel value of an image with the result of applying an operator to it, in
+   * parallel. Values are those returned by {@link PixelArray#getElemFloat}.
+   *
+   * @param image image to modify
+   * @param op operator applied to each value
+   */
+  public static void parallelMapFloat(RasterImage image, final FloatUnaryOperator op) {
+    final PixelArray pa = image.getPixelArray();
+    final int n = image.getWidth()*image.getNumBands();
+    if (pa instanceof PixelArrayFloat) {
+      final float[] data = ((PixelArrayFloat)pa).getData();
+      parallelMap(image, (startRow, endRow) -> {
+	for (int i=startRow*n; i<endRow*n; i++) {
+	  data[i] = op.applyAsFloat(data[i]);
+	}
+      });
+      return;
+    }
+    parallelMap(image, (startRow, endRow) -> {
+      float[] row = new float[n];
+      for (int j=startRow; j<endRow; j++) {
+	pa.copyTo(j*n, row, 0, n);
+	for (int i=0; i<n; i++) {
+	  row[i] = op.applyAsFloat(row[i]);
+	}
+	pa.copyFrom(row, 0, j*n, n);
+      }
+    });
+  }
+
+  /**
+   * Replaces every pixel value of an image with the result of applying an operator to it, in
+   * parallel. Values are those returned by {@link PixelArray#getElem} and results are clamped
+   * to [0,255].
+   *
+   * @param image image to modify
+   * @param op operator applied to each value
+   */
+  public static void parallelMapInt(RasterImage image, final IntUnaryOperator op) {
+    final PixelArray pa = image.getPixelArray();
+    final int n = image.getWidth()*image.getNumBands();
+    if (pa instanceof PixelArrayByte) {
+      final byte[] data = ((PixelArrayByte)pa).getData();
+      parallelMap(image, (startRow, endRow) -> {
+	for (int i=startRow*n; i<endRow*n; i++) {
+	  int val = op.applyAsInt(data[i] & 0xff);
+	  data[i] = (byte)(val < 0 ? 0 : (val > 255 ? 255 : val));
+	}
+      });
+      return;
+    }
+    parallelMap(image, (startRow, endRow) -> {
+      for (int i=startRow*n; i<endRow*n; i++) {
+	int val = op.applyAsInt(pa.getElem(i));
+	pa.setElem(i, val < 0 ? 0 : (val > 255 ? 255 : val));
+      }
+    });
+  }
+
+  /**
+   * Computes partial results for bands of rows of a grid in parallel and combines them.
+   *
+   * @param numRows number of rows (must be positive)
+   * @param rowLength number of values in each row
+   * @param reducer computes the partial result for a band of rows
+   * @param combiner combines the partial results of two adjacent bands (the upper band is
+   * passed first)
+   *
+   * @return combined result for all rows
+   */
+  public static <T> T parallelReduce(int numRows, int rowLength, RowReducer<T> reducer,
+				     BinaryOperator<T> combiner) {
+    if (numRows <= 0) {
+      throw new IllegalArgumentException("Number of rows must be positive.");
+    }
+    int rowsPerTask = rowsPerTask(rowLength);
+    if (numRows <= rowsPerTask) {
+      return reducer.apply(0, numRows);
+    }
+    return pool.invoke(new ReduceTask<T>(reducer, combiner, 0, numRows, rowsPerTask));
+  }
+
+  /**
+   * Computes partial results for bands of rows of an image in parallel and combines them.
+   *
+   * @param image image whose rows are processed
+   * @param reducer computes the partial result for a band of rows
+   * @param combiner combines the partial results of two adjacent bands (the upper band is
+   * passed first)
+   *
+   * @return combined result for all rows
+   */
+  public static <T> T parallelReduce(RasterImage image, RowReducer<T> reducer,
+				     BinaryOperator<T> combiner) {
+    return parallelReduce(image.getHeight(), image.getWidth()*image.getNumBands(), reducer, combiner);
+  }
+
+}
@@ -0,0 +1,454 @@
+package org.hipi.image;
+
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.ImageResizer.Interpolation;
+
+import java.io.IOException;
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+ * Declarative preprocessing of raster images (e.g., decode, grayscale, resize, normalize) that
+ * runs as a single pass over the input image. Instead of allocating an intermediate image for
+ * every step, all stages are fused into one per-row kernel that reads the rows of the input
+ * image it needs, converts and resamples them in small scratch rows, and writes the result to a
+ * single output image. Bands of output rows are processed in parallel (see {@link ImageOps}).
+ *
+ * The supported stages are always applied in the following order, independent of the order in
+ * which they are added:
+ * <ol>
+ * <li>crop: selects a rectangular region of the input image</li>
+ * <li>grayscale: converts RGB to single band luminance (see {@link ColorSpaceConverter})</li>
+ * <li>resize: resamples to the output dimensions (see {@link ImageResizer})</li>
+ * <li>normalize: maps every value v of band c to (v - mean[c]) / std[c]</li>
+ * </ol>
+ * Grayscale and normalize are affine, and therefore commute with resampling; running them in
+ * this order keeps the number of values touched by each stage as small as possible. As with
+ * {@link ImageResizer}, stages operate on the values returned by {@link
+ * PixelArray#getElemFloat}, and values written to 8-bit images are rounded and clamped.
+ * Normalized values are typically negative, so pipelines that normalize require floating point
+ * output images (see {@link #checkOutputType}).
+ *
+ * A pipeline can be written to and read from a compact string (see {@link #toString} and
+ * {@link #parse}), which is how it is passed to {@link
+ * org.hipi.imagebundle.mapreduce.HibRecordReader} through the job configuration, e.g.:
+ * <pre>
+ * crop:0,0,512,512|grayscale|resize:224,224,AREA|normalize:0.5/0.25
+ * </pre>
+ */
+public class ImagePipeline {
+
+  private int cropX = 0;
+  private int cropY = 0;
+  private int cropWidth = -1;
+  private int cropHeight = -1;
+  private boolean grayscale = false;
+  private int resizeWidth = -1;
+  private int resizeHeight = -1;
+  private Interpolation interpolation = null;
+  private float[] mean = null;
+  private float[] std = null;
+
+  /**
+   * Creates an empty pipeline, which copies its input.
+   */
+  public ImagePipeline() {
+  }
+
+  /**
+   * Selects a rectangular region of the input image.
+   *
+   * @param x horizontal position of upper left corner of region
+   * @param y vertical position of upper left corner of region
+   * @param width width of region
+   * @param height height of region
+   *
+   * @return this pipeline
+   */
+  public ImagePipeline crop(int x, int y, int width, int height) throws IllegalArgumentException {
+    if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid crop region [" + x + "," + y + "," + width + "x" + height + "].");
+    }
+    cropX = x;
+    cropY = y;
+    cropWidth = width;
+    cropHeight = height;
+    return this;
+  }
+
+  /**
+   * Converts RGB images to single band luminance images. Has no effect on single band images.
+   *
+   * @return this pipeline
+   */
+  public ImagePipeline grayscale() {
+    grayscale = true;
+    return this;
+  }
+
+  /**
+   * Resamples images to fixed dimensions.
+   *
+   * @param width output width
+   * @param height output height
+   * @param interpolation resampling filter
+   *
+   * @return this pipeline
+   */
+  public ImagePipeline resize(int width, int height, Interpolation interpolation)
+    throws IllegalArgumentException {
+    if (width <= 0 || height <= 0 || interpolation == null) {
+      throw new IllegalArgumentException("Invalid resize target [" + width + "x" + height + "].");
+    }
+    resizeWidth = width;
+    resizeHeight = height;
+    this.interpolation = interpolation;
+    return this;
+  }
+
+  /**
+   * Standardizes the values of every band.
+   *
+   * @param mean per-band means (a single value applies to all bands)
+   * @param std per-band standard deviations (same length as mean)
+   *
+   * @return this pipeline
+   */
+  public ImagePipeline normalize(float[] mean, float[] std) throws IllegalArgumentException {
+    if (mean == null || std == null || mean.length == 0 || mean.length != std.length) {
+      throw new IllegalArgumentException("Means and standard deviations must be non-empty and of equal length.");
+    }
+    for (float s : std) {
+      if (s == 0.0f || Float.isNaN(s)) {
+	throw new IllegalArgumentException("Standard deviations must be non-zero.");
+      }
+    }
+    this.mean = mean.clone();
+    this.std = std.clone();
+    return this;
+  }
+
+  /**
+   * @return true if the pipeline has no stages and copies its input
+   */
+  public boolean isEmpty() {
+    return cropWidth < 0 && !grayscale && interpolation == null && mean == null;
+  }
+
+  /**
+   * Checks that the pipeline can write images of a given type. Pipelines that normalize values
+   * require floating point output images, since 8-bit and 16-bit images would clamp negative
+   * values to zero.
+   *
+   * @param type type of output images (e.g., {@link HipiImageFactory#getType})
+   *
+   * @throws IllegalArgumentException if the pipeline cannot write images of the given type
+   */
+  public void checkOutputType(HipiImage.HipiImageType type) throws IllegalArgumentException {
+    if (mean != null && type != HipiImage.HipiImageType.FLOAT && type != HipiImage.HipiImageType.HALF) {
+      throw new IllegalArgumentException("Normalization requires floating point output images [" + type + "].");
+    }
+  }
+
+  /**
+   * @param inputWidth width of input image
+   *
+   * @return width of the output image for an input image of the given width
+   */
+  public int getOutputWidth(int inputWidth) {
+    return (interpolation != null ? resizeWidth : (cropWidth >= 0 ? cropWidth : inputWidth));
+  }
+
+  /**
+   * @param inputHeight height of input image
+   *
+   * @return height of the output image for an input image of the given height
+   */
+  public int getOutputHeight(int inputHeight) {
+    return (interpolation != null ? resizeHeight : (cropHeight >= 0 ? cropHeight : inputHeight));
+  }
+
+  /**
+   * @param inputBands number of bands of input image
+   *
+   * @return number of bands of the output image
+   */
+  public int getOutputNumBands(int inputBands) {
+    return (grayscale ? 1 : inputBands);
+  }
+
+  /**
+   * Creates an output image for an input image with a factory (e.g., so that it draws its pixel
+   * array from a buffer pool) and runs the pipeline.
+   *
+   * @param input input image
+   * @param imageFactory factory used to create the output image
+   *
+   * @return output image
+   *
+   * @throws IOException if the output image cannot be created
+   * @throws IllegalArgumentException if the input image does not fit the pipeline (see {@link
+   * #apply(RasterImage, RasterImage)}), in which case the output image is released
+   */
+  public RasterImage apply(RasterImage input, HipiImageFactory imageFactory)
+    throws IOException, IllegalArgumentException {
+    checkOutputType(imageFactory.getType());
+    HipiColorSpace colorSpace = (grayscale ? HipiColorSpace.LUM : input.getColorSpace());
+    HipiImageHeader header = new HipiImageHeader(input.getStorageFormat(), colorSpace,
+      getOutputWidth(input.getWidth()), getOutputHeight(input.getHeight()),
+      getOutputNumBands(input.getNumBands()), null, input.getAllExifData());
+    header.setMetaData(input.getAllMetaData());
+    RasterImage output = null;
+    try {
+      output = (RasterImage)imageFactory.createImage(header);
+    } catch (Exception e) {
+      throw new IOException("Failed to create pipeline output image: " + e.getMessage(), e);
+    }
+    try {
+      apply(input, output);
+    } catch (IllegalArgumentException e) {
+      // Return the pixel array of the output image to its pool
+      output.release();
+      throw e;
+    }
+    return output;
+  }
+
+  /**
+   * Runs the pipeline.
+   *
+   * @param input input image (interleaved)
+   * @param output output image (interleaved, must be initialized with the output dimensions
+   * and number of bands, see {@link #getOutputWidth}, {@link #getOutputHeight} and {@link
+   * #getOutputNumBands}, and must not share pixel data with the input)
+   */
+  public void apply(RasterImage input, RasterImage output) throws IllegalArgumentException {
+    input.checkInterleaved();
+    output.checkInterleaved();
+    if (input.getPixelArray() == output.getPixelArray()) {
+      throw new IllegalArgumentException("Pipeline cannot be applied in place.");
+    }
+    final int w = input.getWidth();
+    final int h = input.getHeight();
+    final int b = input.getNumBands();
+    final int cx = cropX;
+    final int cy = cropY;
+    final int cw = (cropWidth >= 0 ? cropWidth : w);
+    final int ch = (cropHeight >= 0 ? cropHeight : h);
+    if (cx + cw > w || cy + ch > h) {
+      throw new IllegalArgumentException("Crop region exceeds image dimensions [" + w + "x" + h + "].");
+    }
+    final boolean gray = (grayscale && b != 1);
+    if (gray && (b != 3 || input.getColorSpace() != HipiColorSpace.RGB)) {
+      throw new IllegalArgumentException("Grayscale conversion requires an RGB image.");
+    }
+    final int ob = (gray ? 1 : b);
+    final int dw = output.getWidth();
+    final int dh = output.getHeight();
+    if (dw != getOutputWidth(w) || dh != getOutputHeight(h) || output.getNumBands() != ob) {
+      throw new IllegalArgumentException("Dimensions of pipeline output target do not match.");
+    }
+    int dataType = output.getPixelArray().getDataType();
+    if (mean != null && dataType != PixelArray.TYPE_FLOAT && dataType != PixelArray.TYPE_HALF &&
+	dataType != PixelArray.TYPE_DOUBLE) {
+      throw new IllegalArgumentException("Normalization requires floating point output images.");
+    }
+    if (mean != null && mean.length != 1 && mean.length != ob) {
+      throw new IllegalArgumentException("Number of normalization parameters does not match number of bands.");
+    }
+
+    // Without resizing, each output pixel is taken from exactly one input pixel
+    Interpolation filter = (interpolation != null ? interpolation : Interpolation.NEAREST);
+    final ImageResizer.Table ht = ImageResizer.getTable(cw, dw, filter);
+    final ImageResizer.Table vt = ImageResizer.getTable(ch, dh, filter);
+
+    final float[] offset = new float[ob];
+    final float[] scale = new float[ob];
+    Arrays.fill(scale, 1.0f);
+    if (mean != null) {
+      for (int c=0; c<ob; c++) {
+	offset[c] = mean[mean.length == 1 ? 0 : c];
+	scale[c] = 1.0f / std[std.length == 1 ? 0 : c];
+      }
+    }
+    final boolean normalize = (mean != null);
+
+    final PixelArray in = input.getPixelArray();
+    final PixelArray out = output.getPixelArray();
+    final int sn = cw*b;
+    final int on = cw*ob;
+    final int dn = dw*ob;
+
+    // Work per output row is dominated by reading and resampling the input rows
+    int work = (int)Math.min(Integer.MAX_VALUE, Math.max(dn, (long)sn*ch/dh));
+
+    ImageOps.parallelMap(dh, work, (startRow, endRow) -> {
+      // Input rows needed for this band of output rows
+      int first = ch;
+      int last = -1;
+      for (int i=startRow*vt.taps; i<endRow*vt.taps; i++) {
+	if (vt.weight[i] != 0.0f) {
+	  first = Math.min(first, vt.index[i]);
+	  last = Math.max(last, vt.index[i]);
+	}
+      }
+      if (last < first) {
+	first = last = 0;
+      }
+
+      // Read, convert and resample every input row once
+      float[] row = new float[sn];
+      float[] lum = (gray ? new float[cw] : row);
+      float[] inter = new float[(last-first+1)*dn];
+      for (int r=first; r<=last; r++) {
+	in.copyTo(((cy+r)*w + cx)*b, row, 0, sn);
+	if (gray) {
+	  ColorSpaceConverter.rgbToLum(row, lum, 0, cw);
+	}
+	int base = (r-first)*dn;
+	for (int x=0; x<dw; x++) {
+	  for (int t=0; t<ht.taps; t++) {
+	    float wt = ht.weight[x*ht.taps+t];
+	    if (wt == 0.0f) {
+	      continue;
+	    }
+	    int pos = ht.index[x*ht.taps+t]*ob;
+	    for (int c=0; c<ob; c++) {
+	      inter[base+x*ob+c] += wt * lum[pos+c];
+	    }
+	  }
+	}
+      }
+
+      // Combine rows, normalize and store
+      float[] acc = new float[dn];
+      for (int y=startRow; y<endRow; y++) {
+	Arrays.fill(acc, 0.0f);
+	for (int t=0; t<vt.taps; t++) {
+	  float wt = vt.weight[y*vt.taps+t];
+	  if (wt == 0.0f) {
+	    continue;
+	  }
+	  int base = (vt.index[y*vt.taps+t]-first)*dn;
+	  for (int i=0; i<dn; i++) {
+	    acc[i] += wt * inter[base+i];
+	  }
+	}
+	if (normalize) {
+	  for (int i=0; i<dn; i++) {
+	    int c = i % ob;
+	    acc[i] = (acc[i] - offset[c]) * scale[c];
+	  }
+	}
+	ImageResizer.storeRow(out, y*dn, acc, dn);
+      }
+    });
+  }
+
+  /**
+   * Parses a pipeline from its string representation, a list of stages separated by '|':
+   * <ul>
+   * <li>crop:x,y,width,height</li>
+   * <li>grayscale</li>
+   * <li>resize:width,height[,interpolation] (bilinear by default)</li>
+   * <li>normalize:mean[,mean...]/std[,std...]</li>
+   * </ul>
+   *
+   * @param spec string representation of pipeline
+   *
+   * @return pipeline
+   *
+   * @throws IllegalArgumentException if the string is malformed
+   */
+  public static ImagePipeline parse(String spec) throws IllegalArgumentException {
+    ImagePipeline pipeline = new ImagePipeline();
+    if (spec == null || spec.trim().isEmpty()) {
+      return pipeline;
+    }
+    for (String stage : spec.split("\\|")) {
+      stage = stage.trim();
+      int colon = stage.indexOf(':');
+      String name = (colon < 0 ? stage : stage.substring(0, colon)).trim();
+      String args = (colon < 0 ? "" : stage.substring(colon+1).trim());
+      try {
+	if (name.equals("crop")) {
+	  int[] v = parseInts(args, 4, 4);
+	  pipeline.crop(v[0], v[1], v[2], v[3]);
+	} else if (name.equals("grayscale") && args.isEmpty()) {
+	  pipeline.grayscale();
+	} else if (name.equals("resize")) {
+	  String[] v = args.split(",");
+	  if (v.length < 2 || v.length > 3) {
+	    throw new IllegalArgumentException("expected width,height[,interpolation]");
+	  }
+	  pipeline.resize(Integer.parseInt(v[0].trim()), Integer.parseInt(v[1].trim()),
+			  (v.length == 3 ? Interpolation.valueOf(v[2].trim().toUpperCase()) : Interpolation.BILINEAR));
+	} else if (name.equals("normalize")) {
+	  String[] v = args.split("/");
+	  if (v.length != 2) {
+	    throw new IllegalArgumentException("expected means/stds");
+	  }
+	  pipeline.normalize(parseFloats(v[0]), parseFloats(v[1]));
+	} else {
+	  throw new IllegalArgumentException("unknown stage");
+	}
+      } catch (IllegalArgumentException e) {
+	// Also covers NumberFormatException
+	throw new IllegalArgumentException("Invalid pipeline stage [" + stage + "]: " + e.getMessage(), e);
+      }
+    }
+    return pipeline;
+  }
+
+  private static int[] parseInts(String args, int min, int max) {
+    String[] v = args.split(",");
+    if (v.length < min || v.length > max) {
+      throw new IllegalArgumentException("expected " + min + " values");
+    }
+    int[] result = new int[v.length];
+    for (int i=0; i<v.length; i++) {
+      result[i] = Integer.parseInt(v[i].trim());
+    }
+    return result;
+  }
+
+  private static float[] parseFloats(String args) {
+    String[] v = args.split(",");
+    float[] result = new float[v.length];
+    for (int i=0; i<v.length; i++) {
+      result[i] = Float.parseFloat(v[i].trim());
+    }
+    return result;
+  }
+
+  private static void appendFloats(StringBuilder sb, float[] values) {
+    for (int i=0; i<values.length; i++) {
+      sb.append(i > 0 ? "," : "").append(values[i]);
+    }
+  }
+
+  /**
+   * @return string representation of this pipeline, which is accepted by {@link #parse}
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    if (cropWidth >= 0) {
+      sb.append("crop:").append(cropX).append(',').append(cropY).append(',').append(cropWidth).append(',').append(cropHeight);
+    }
+    if (grayscale) {
+      sb.append(sb.length() > 0 ? "|" : "").append("grayscale");
+    }
+    if (interpolation != null) {
+      sb.append(sb.length() > 0 ? "|" : "").append("resize:").append(resizeWidth).append(',').append(resizeHeight).append(',').append(interpolation);
+    }
+    if (mean != null) {
+      sb.append(sb.length() > 0 ? "|" : "").append("normalize:");
+      appendFloats(sb, mean);
+      sb.append('/');
+      appendFloats(sb, std);
+    }
+    return sb.toString();
+  }
+
+}
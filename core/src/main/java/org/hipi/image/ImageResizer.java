@@ -0,0 +1,269 @@
+package org.hipi.image;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resamples raster images to different dimensions. Resizing is separable: every output row is
+ * computed by resampling the required input rows horizontally and combining the results
+ * vertically. The taps and weights of both passes are precomputed once per pair of input and
+ * output lengths and cached, and the output image is processed in parallel in bands of rows
+ * (see {@link ImageOps}).
+ *
+ * Pixel values are resampled on the values returned by {@link PixelArray#getElemFloat}, i.e.,
+ * linear values for a FloatImage and sRGB values for a ByteImage. Results written to a ByteImage
+ * are rounded to the nearest 8-bit value, so that resizing to the same dimensions reproduces
+ * the input exactly.
+ */
+public final class ImageResizer {
+
+  /**
+   * Resampling filters.
+   */
+  public enum Interpolation {
+    /**
+     * Value of the input pixel closest to the center of the output pixel.
+     */
+    NEAREST,
+    /**
+     * Bilinear interpolation between the four input pixels closest to the center of the output
+     * pixel. Fast, but aliases when shrinking by more than a factor of two.
+     */
+    BILINEAR,
+    /**
+     * Mean of the input pixels covered by the output pixel, weighted by coverage. The preferred
+     * filter for shrinking (e.g., thumbnails).
+     */
+    AREA,
+    /**
+     * Lanczos filter with three lobes, widened when shrinking so that it also acts as an
+     * anti-aliasing filter. Sharpest results, at the cost of more taps per pixel.
+     */
+    LANCZOS
+  }
+
+  private static final int MAX_CACHED_TABLES = 64;
+
+  // Taps and weights of one resampling pass. Output position i is the sum over t < taps of
+  // weight[i*taps+t] * in[index[i*taps+t]].
+  static class Table {
+    final int taps;
+    final int[] index;
+    final float[] weight;
+
+    Table(int taps, int length) {
+      this.taps = taps;
+      this.index = new int[taps*length];
+      this.weight = new float[taps*length];
+    }
+  }
+
+  private static final Map<Long, Table> tables = new LinkedHashMap<Long, Table>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Table> eldest) {
+      return size() > MAX_CACHED_TABLES;
+    }
+  };
+
+  private ImageResizer() {
+  }
+
+  static Table getTable(int srcLength, int dstLength, Interpolation interpolation) {
+    long key = (((long)srcLength << 32) | dstLength) * 4 + interpolation.ordinal();
+    synchronized (tables) {
+      Table table = tables.get(key);
+      if (table == null) {
+	table = createTable(srcLength, dstLength, interpolation);
+	tables.put(key, table);
+      }
+      return table;
+    }
+  }
+
+  private static double sinc(double x) {
+    if (x == 0.0) {
+      return 1.0;
+    }
+    x *= Math.PI;
+    return Math.sin(x)/x;
+  }
+
+  private static Table createTable(int srcLength, int dstLength, Interpolation interpolation) {
+    double scale = (double)srcLength/dstLength;
+    Table table;
+    switch (interpolation) {
+    case NEAREST:
+      table = new Table(1, dstLength);
+      for (int i=0; i<dstLength; i++) {
+	table.index[i] = Math.min(srcLength-1, (int)Math.floor((i+0.5)*scale));
+	table.weight[i] = 1.0f;
+      }
+      return table;
+
+    case BILINEAR:
+      table = new Table(2, dstLength);
+      for (int i=0; i<dstLength; i++) {
+	double center = (i+0.5)*scale - 0.5;
+	int i0 = (int)Math.floor(center);
+	double frac = center - i0;
+	table.index[2*i] = Math.max(0, Math.min(srcLength-1, i0));
+	table.index[2*i+1] = Math.max(0, Math.min(srcLength-1, i0+1));
+	table.weight[2*i] = (float)(1.0-frac);
+	table.weight[2*i+1] = (float)frac;
+      }
+      return table;
+
+    case AREA: {
+      // Output pixel i covers the input interval [i*scale, (i+1)*scale)
+      int taps = (int)Math.ceil(scale) + 1;
+      table = new Table(taps, dstLength);
+      for (int i=0; i<dstLength; i++) {
+	double start = i*scale;
+	double end = (i+1)*scale;
+	int first = (int)Math.floor(start);
+	for (int t=0; t<taps; t++) {
+	  int j = first + t;
+	  double overlap = Math.min(end, j+1) - Math.max(start, j);
+	  table.index[i*taps+t] = Math.min(srcLength-1, j);
+	  table.weight[i*taps+t] = (overlap > 0.0 ? (float)(overlap/scale) : 0.0f);
+	}
+      }
+      return table;
+    }
+
+    case LANCZOS:
+    default: {
+      final int lobes = 3;
+      double support = lobes * Math.max(1.0, scale);
+      double filterScale = Math.max(1.0, scale);
+      int taps = (int)Math.ceil(2.0*support) + 2;
+      table = new Table(taps, dstLength);
+      for (int i=0; i<dstLength; i++) {
+	double center = (i+0.5)*scale;
+	int first = (int)Math.floor(center - support - 0.5);
+	double sum = 0.0;
+	for (int t=0; t<taps; t++) {
+	  int j = first + t;
+	  double x = (j + 0.5 - center)/filterScale;
+	  double w = (Math.abs(x) < lobes ? sinc(x)*sinc(x/lobes) : 0.0);
+	  table.index[i*taps+t] = Math.max(0, Math.min(srcLength-1, j));
+	  table.weight[i*taps+t] = (float)w;
+	  sum += w;
+	}
+	for (int t=0; t<taps; t++) {
+	  table.weight[i*taps+t] /= sum;
+	}
+      }
+      return table;
+    }
+    }
+  }
+
+  /**
+   * Resizes an image to the dimensions of the output image.
+   *
+   * @param src input image
+   * @param dst output image (must be initialized with the target dimensions and the number of
+   * bands of the input, and must not share pixel data with the input)
+   * @param interpolation resampling filter
+   */
+  public static void resize(RasterImage src, RasterImage dst, Interpolation interpolation)
+    throws IllegalArgumentException {
+    if (src.getNumBands() != dst.getNumBands()) {
+      throw new IllegalArgumentException("Mismatch between number of bands of input image and output target.");
+    }
+    if (src.getPixelArray() == dst.getPixelArray()) {
+      throw new IllegalArgumentException("Resize cannot be performed in place.");
+    }
+    src.checkInterleaved();
+    dst.checkInterleaved();
+    final int sw = src.getWidth();
+    final int sh = src.getHeight();
+    final int dw = dst.getWidth();
+    final int dh = dst.getHeight();
+    final int b = src.getNumBands();
+    if (sw == dw && sh == dh && (interpolation == Interpolation.NEAREST ||
+				 src.getPixelArray().getDataType() == dst.getPixelArray().getDataType())) {
+      src.getView(0, 0, sw, sh).copyTo(dst);
+      return;
+    }
+
+    final Table ht = getTable(sw, dw, interpolation);
+    final Table vt = getTable(sh, dh, interpolation);
+    final PixelArray in = src.getPixelArray();
+    final PixelArray out = dst.getPixelArray();
+    final int sn = sw*b;
+    final int dn = dw*b;
+
+    // Work per output row is dominated by the horizontal pass over the input rows
+    int work = (int)Math.min(Integer.MAX_VALUE, Math.max(dn, (long)sn*sh/dh));
+
+    ImageOps.parallelMap(dh, work, (startRow, endRow) -> {
+      // Input rows needed for this band of output rows
+      int first = sh;
+      int last = -1;
+      for (int i=startRow*vt.taps; i<endRow*vt.taps; i++) {
+	if (vt.weight[i] != 0.0f) {
+	  first = Math.min(first, vt.index[i]);
+	  last = Math.max(last, vt.index[i]);
+	}
+      }
+      if (last < first) {
+	first = last = 0;
+      }
+
+      // Horizontal pass
+      float[] row = new float[sn];
+      float[] inter = new float[(last-first+1)*dn];
+      for (int r=first; r<=last; r++) {
+	in.copyTo(r*sn, row, 0, sn);
+	int base = (r-first)*dn;
+	for (int x=0; x<dw; x++) {
+	  for (int t=0; t<ht.taps; t++) {
+	    float w = ht.weight[x*ht.taps+t];
+	    if (w == 0.0f) {
+	      continue;
+	    }
+	    int pos = ht.index[x*ht.taps+t]*b;
+	    for (int c=0; c<b; c++) {
+	      inter[base+x*b+c] += w * row[pos+c];
+	    }
+	  }
+	}
+      }
+
+      // Vertical pass
+      float[] acc = new float[dn];
+      for (int y=startRow; y<endRow; y++) {
+	Arrays.fill(acc, 0.0f);
+	for (int t=0; t<vt.taps; t++) {
+	  float w = vt.weight[y*vt.taps+t];
+	  if (w == 0.0f) {
+	    continue;
+	  }
+	  int base = (vt.index[y*vt.taps+t]-first)*dn;
+	  for (int i=0; i<dn; i++) {
+	    acc[i] += w * inter[base+i];
+	  }
+	}
+	storeRow(out, y*dn, acc, dn);
+      }
+    });
+  }
+
+  // Stores a row of values, rounding to the nearest value for 8-bit pixel arrays
+  static void storeRow(PixelArray pa, int pos, float[] row, int n) {
+    if (pa instanceof PixelArrayByte) {
+      byte[] data = ((PixelArrayByte)pa).getData();
+      for (int i=0; i<n; i++) {
+	float v = row[i]*255.0f + 0.5f;
+	data[pos+i] = (byte)(v <= 0.0f ? 0 : (v >= 255.0f ? 255 : (int)v));
+      }
+    } else {
+      pa.copyFrom(row, 0, pos, n);
+    }
+  }
+
+}
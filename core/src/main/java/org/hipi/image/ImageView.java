@@ -0,0 +1,237 @@
+package org.hipi.image;
+
+import org.hipi.image.PixelArray;
+import org.hipi.image.RasterImage;
+
+import java.lang.IllegalArgumentException;
+
+/**
+ * A rectangular region of a {@link RasterImage} that refers to the pixel data of the image
+ * instead of copying it. Pixel (x,y) band b of a view maps to element
+ * offset + y*stride + x*bands + b of the underlying {@link PixelArray}, where offset is the
+ * position of the top-left corner of the view and stride is the number of elements in one row
+ * of the image.
+ *
+ * Changes made through a view are visible in the image and vice versa. A view is only valid as
+ * long as the dimensions of the underlying image do not change. Views are obtained from {@link
+ * RasterImage#getView} and {@link RasterImage#tiles}.
+ */
+public class ImageView {
+
+  private final PixelArray pixelArray;
+  private final int stride;
+  private final int bands;
+  private final int x;
+  private final int y;
+  private final int width;
+  private final int height;
+  private final int offset;
+
+  /**
+   * Creates a view of a (width x height) region with top-left corner at (x,y) of a pixel array
+   * holding interleaved pixel data in raster-scan order.
+   *
+   * @param pixelArray underlying pixel array
+   * @param stride number of elements in one row of the pixel array
+   * @param bands number of interleaved bands
+   * @param x horizontal position of upper left corner of view
+   * @param y vertical position of upper left corner of view
+   * @param width width of view
+   * @param height height of view
+   */
+  public ImageView(PixelArray pixelArray, int stride, int bands, int x, int y, int width, int height)
+    throws IllegalArgumentException {
+    if (pixelArray == null) {
+      throw new IllegalArgumentException("Pixel array must not be null.");
+    }
+    if (bands <= 0 || stride < 0 || x < 0 || y < 0 || width <= 0 || height <= 0 ||
+	(x+width)*bands > stride || (long)(y+height)*stride > pixelArray.getSize()) {
+      throw new IllegalArgumentException("Invalid view region.");
+    }
+    this.pixelArray = pixelArray;
+    this.stride = stride;
+    this.bands = bands;
+    this.x = x;
+    this.y = y;
+    this.width = width;
+    this.height = height;
+    this.offset = y*stride + x*bands;
+  }
+
+  public PixelArray getPixelArray() {
+    return pixelArray;
+  }
+
+  /**
+   * @return number of elements between the first elements of consecutive rows
+   */
+  public int getStride() {
+    return stride;
+  }
+
+  /**
+   * @return index in the underlying pixel array of the first element of the view
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return horizontal position of the view in the underlying image
+   */
+  public int getX() {
+    return x;
+  }
+
+  /**
+   * @return vertical position of the view in the underlying image
+   */
+  public int getY() {
+    return y;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getNumBands() {
+    return bands;
+  }
+
+  /**
+   * Returns the index in the underlying pixel array of a pixel value. Coordinates are relative
+   * to the view and are not checked.
+   *
+   * @param col column in view
+   * @param row row in view
+   * @param band band
+   *
+   * @return index in underlying pixel array
+   */
+  public int getIndex(int col, int row, int band) {
+    return offset + row*stride + col*bands + band;
+  }
+
+  public int getElem(int col, int row, int band) {
+    return pixelArray.getElem(getIndex(col, row, band));
+  }
+
+  public void setElem(int col, int row, int band, int val) {
+    pixelArray.setElem(getIndex(col, row, band), val);
+  }
+
+  public float getElemFloat(int col, int row, int band) {
+    return pixelArray.getElemFloat(getIndex(col, row, band));
+  }
+
+  public void setElemFloat(int col, int row, int band, float val) {
+    pixelArray.setElemFloat(getIndex(col, row, band), val);
+  }
+
+  /**
+   * Creates a view of a region of this view.
+   *
+   * @param x horizontal position of upper left corner relative to this view
+   * @param y vertical position of upper left corner relative to this view
+   * @param width width of region
+   * @param height height of region
+   *
+   * @return view of the region
+   */
+  public ImageView getView(int x, int y, int width, int height) throws IllegalArgumentException {
+    if (x < 0 || width <= 0 || x+width > this.width || y < 0 || height <= 0 || y+height > this.height) {
+      throw new IllegalArgumentException("Invalid view region.");
+    }
+    return new ImageView(pixelArray, stride, bands, this.x+x, this.y+y, width, height);
+  }
+
+  /**
+   * Copies one row of interleaved pixel values into a float array. Values are those returned by
+   * {@link PixelArray#getElemFloat}.
+   *
+   * @param row index of row in view
+   * @param dst destination array (must hold width*bands values starting at dstPos)
+   * @param dstPos starting position in destination array
+   */
+  public void copyRowTo(int row, float[] dst, int dstPos) {
+    pixelArray.copyTo(offset + row*stride, dst, dstPos, width*bands);
+  }
+
+  /**
+   * Copies one row of interleaved pixel values into a byte array. Values are those returned by
+   * {@link PixelArray#getElem}.
+   *
+   * @param row index of row in view
+   * @param dst destination array (must hold width*bands values starting at dstPos)
+   * @param dstPos starting position in destination array
+   */
+  public void copyRowTo(int row, byte[] dst, int dstPos) {
+    pixelArray.copyTo(offset + row*stride, dst, dstPos, width*bands);
+  }
+
+  /**
+   * Sets one row of interleaved pixel values from a float array using {@link
+   * PixelArray#setElemFloat}.
+   *
+   * @param row index of row in view
+   * @param src source array (must hold width*bands values starting at srcPos)
+   * @param srcPos starting position in source array
+   */
+  public void copyRowFrom(int row, float[] src, int srcPos) {
+    pixelArray.copyFrom(src, srcPos, offset + row*stride, width*bands);
+  }
+
+  /**
+   * Copies the pixel values of the view into a float array in raster-scan order.
+   *
+   * @param dst destination array (must hold width*height*bands values starting at dstPos)
+   * @param dstPos starting position in destination array
+   */
+  public void copyTo(float[] dst, int dstPos) {
+    int n = width*bands;
+    for (int j=0; j<height; j++) {
+      pixelArray.copyTo(offset + j*stride, dst, dstPos + j*n, n);
+    }
+  }
+
+  /**
+   * Copies the pixel values of the view into a raster image one row at a time. Rows are copied
+   * verbatim if the image has the same pixel type as the view.
+   *
+   * @param output output {@link RasterImage} target (must be initialized with the dimensions of
+   * the view)
+   */
+  public void copyTo(RasterImage output) throws IllegalArgumentException {
+    if (width != output.getWidth() || height != output.getHeight() || bands != output.getNumBands()) {
+      throw new IllegalArgumentException("Mismatch between size of view and size of output target.");
+    }
+    PixelArray pa = output.getPixelArray();
+    int n = width*bands;
+    for (int j=0; j<height; j++) {
+      pa.copyFrom(pixelArray, offset + j*stride, j*n, n);
+    }
+  }
+
+  /**
+   * Sets all pixel values of the view to a value using {@link PixelArray#setElemFloat}.
+   *
+   * @param val value
+   */
+  public void fill(float val) {
+    int n = width*bands;
+    for (int j=0; j<height; j++) {
+      int start = offset + j*stride;
+      pixelArray.fill(start, start + n, val);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ImageView: %d x %d x %d at (%d,%d)", width, height, bands, x, y);
+  }
+
+}
@@ -0,0 +1,268 @@
+package org.hipi.image;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+ * Summed-area table of a raster image, which gives the sum of the pixel values of any
+ * rectangular region in constant time. The table is computed in a single pass over the image
+ * and optionally also holds the sums of squared pixel values, so that the mean and variance of
+ * any window are available in constant time as well (e.g., for box filters, Haar-like features
+ * and local contrast normalization).
+ *
+ * For 8-bit images the table holds exact sums of the integer pixel values in [0,255] (see
+ * {@link PixelArray#getElem}) in long accumulators. For all other images it holds sums of the
+ * values returned by {@link PixelArray#getElemFloat} in double accumulators. Images in either
+ * layout are supported (see {@link RasterImage#setLayout}).
+ */
+public class IntegralImage {
+
+  private final int width;
+  private final int height;
+  private final int bands;
+
+  // Row stride of the tables, which have an additional leading row and column of zeros
+  private final int stride;
+
+  // Exactly one of longSums and doubleSums is set
+  private final long[] longSums;
+  private final long[] longSquaredSums;
+  private final double[] doubleSums;
+  private final double[] doubleSquaredSums;
+
+  /**
+   * Computes the summed-area table of an image.
+   *
+   * @param image input image
+   * @param squaredSums whether to also compute sums of squared values (required by {@link
+   * #getSquaredSum} and {@link #getVariance})
+   */
+  public IntegralImage(RasterImage image, boolean squaredSums) {
+    width = image.getWidth();
+    height = image.getHeight();
+    bands = image.getNumBands();
+    stride = (width+1)*bands;
+    long size = (long)stride*(height+1);
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image too large for integral image [" + width + "x" + height + "x" + bands + "].");
+    }
+
+    PixelArray pa = image.getPixelArray();
+    int n = width*bands;
+    boolean planar = (image.getLayout() == PixelArray.Layout.PLANAR && bands > 1);
+    if (pa.getDataType() == PixelArray.TYPE_BYTE) {
+      longSums = new long[(int)size];
+      longSquaredSums = (squaredSums ? new long[(int)size] : null);
+      doubleSums = null;
+      doubleSquaredSums = null;
+      byte[] row = new byte[n];
+      long[] rowSum = new long[bands];
+      long[] rowSquaredSum = new long[bands];
+      for (int y=0; y<height; y++) {
+	readRow(pa, planar, y, row);
+	Arrays.fill(rowSum, 0);
+	Arrays.fill(rowSquaredSum, 0);
+	int above = y*stride + bands;
+	int pos = (y+1)*stride + bands;
+	for (int i=0; i<n; i++) {
+	  int c = i % bands;
+	  long v = row[i] & 0xff;
+	  rowSum[c] += v;
+	  longSums[pos+i] = longSums[above+i] + rowSum[c];
+	  if (squaredSums) {
+	    rowSquaredSum[c] += v*v;
+	    longSquaredSums[pos+i] = longSquaredSums[above+i] + rowSquaredSum[c];
+	  }
+	}
+      }
+    } else {
+      longSums = null;
+      longSquaredSums = null;
+      doubleSums = new double[(int)size];
+      doubleSquaredSums = (squaredSums ? new double[(int)size] : null);
+      float[] row = new float[n];
+      double[] rowSum = new double[bands];
+      double[] rowSquaredSum = new double[bands];
+      for (int y=0; y<height; y++) {
+	readRow(pa, planar, y, row);
+	Arrays.fill(rowSum, 0.0);
+	Arrays.fill(rowSquaredSum, 0.0);
+	int above = y*stride + bands;
+	int pos = (y+1)*stride + bands;
+	for (int i=0; i<n; i++) {
+	  int c = i % bands;
+	  double v = row[i];
+	  rowSum[c] += v;
+	  doubleSums[pos+i] = doubleSums[above+i] + rowSum[c];
+	  if (squaredSums) {
+	    rowSquaredSum[c] += v*v;
+	    doubleSquaredSums[pos+i] = doubleSquaredSums[above+i] + rowSquaredSum[c];
+	  }
+	}
+      }
+    }
+  }
+
+  // Reads one row of interleaved values
+  private void readRow(PixelArray pa, boolean planar, int y, byte[] row) {
+    if (!planar) {
+      pa.copyTo(y*width*bands, row, 0, width*bands);
+      return;
+    }
+    byte[] plane = new byte[width];
+    for (int c=0; c<bands; c++) {
+      pa.copyTo((c*height + y)*width, plane, 0, width);
+      for (int x=0; x<width; x++) {
+	row[x*bands+c] = plane[x];
+      }
+    }
+  }
+
+  private void readRow(PixelArray pa, boolean planar, int y, float[] row) {
+    if (!planar) {
+      pa.copyTo(y*width*bands, row, 0, width*bands);
+      return;
+    }
+    float[] plane = new float[width];
+    for (int c=0; c<bands; c++) {
+      pa.copyTo((c*height + y)*width, plane, 0, width);
+      for (int x=0; x<width; x++) {
+	row[x*bands+c] = plane[x];
+      }
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getNumBands() {
+    return bands;
+  }
+
+  /**
+   * @return true if the table holds exact integer sums of 8-bit pixel values
+   */
+  public boolean isExact() {
+    return longSums != null;
+  }
+
+  /**
+   * @return true if the table also holds sums of squared pixel values
+   */
+  public boolean hasSquaredSums() {
+    return longSquaredSums != null || doubleSquaredSums != null;
+  }
+
+  private void checkRegion(int x, int y, int w, int h, int band) throws IllegalArgumentException {
+    if (x < 0 || y < 0 || w < 0 || h < 0 || x+w > width || y+h > height || band < 0 || band >= bands) {
+      throw new IllegalArgumentException("Invalid region [" + x + "," + y + "," + w + "x" + h + ", band " + band + "].");
+    }
+  }
+
+  private static long sum(long[] table, int a, int b, int c, int d) {
+    return table[d] - table[b] - table[c] + table[a];
+  }
+
+  private static double sum(double[] table, int a, int b, int c, int d) {
+    return table[d] - table[b] - table[c] + table[a];
+  }
+
+  /**
+   * Returns the exact sum of the 8-bit values of one band over a rectangular region.
+   *
+   * @param x horizontal position of upper left corner of region
+   * @param y vertical position of upper left corner of region
+   * @param w width of region
+   * @param h height of region
+   * @param band band
+   *
+   * @throws IllegalArgumentException if the region is not inside the image or the table was
+   * not computed from an 8-bit image
+   */
+  public long getSumLong(int x, int y, int w, int h, int band) throws IllegalArgumentException {
+    checkRegion(x, y, w, h, band);
+    if (longSums == null) {
+      throw new IllegalArgumentException("Exact sums are only available for 8-bit images.");
+    }
+    int a = y*stride + x*bands + band;
+    int b = a + w*bands;
+    int c = a + h*stride;
+    return sum(longSums, a, b, c, c + w*bands);
+  }
+
+  /**
+   * Returns the sum of the values of one band over a rectangular region.
+   *
+   * @param x horizontal position of upper left corner of region
+   * @param y vertical position of upper left corner of region
+   * @param w width of region
+   * @param h height of region
+   * @param band band
+   */
+  public double getSum(int x, int y, int w, int h, int band) throws IllegalArgumentException {
+    checkRegion(x, y, w, h, band);
+    int a = y*stride + x*bands + band;
+    int b = a + w*bands;
+    int c = a + h*stride;
+    int d = c + w*bands;
+    return (longSums != null ? (double)sum(longSums, a, b, c, d) : sum(doubleSums, a, b, c, d));
+  }
+
+  /**
+   * Returns the sum of the squared values of one band over a rectangular region.
+   *
+   * @param x horizontal position of upper left corner of region
+   * @param y vertical position of upper left corner of region
+   * @param w width of region
+   * @param h height of region
+   * @param band band
+   *
+   * @throws IllegalArgumentException if the region is not inside the image or squared sums
+   * were not computed
+   */
+  public double getSquaredSum(int x, int y, int w, int h, int band) throws IllegalArgumentException {
+    checkRegion(x, y, w, h, band);
+    if (!hasSquaredSums()) {
+      throw new IllegalArgumentException("Integral image was computed without squared sums.");
+    }
+    int a = y*stride + x*bands + band;
+    int b = a + w*bands;
+    int c = a + h*stride;
+    int d = c + w*bands;
+    return (longSquaredSums != null ? (double)sum(longSquaredSums, a, b, c, d) : sum(doubleSquaredSums, a, b, c, d));
+  }
+
+  /**
+   * Returns the mean of the values of one band over a non-empty rectangular region.
+   *
+   * @see #getSum
+   */
+  public double getMean(int x, int y, int w, int h, int band) throws IllegalArgumentException {
+    if (w <= 0 || h <= 0) {
+      throw new IllegalArgumentException("Region must not be empty.");
+    }
+    return getSum(x, y, w, h, band)/((double)w*h);
+  }
+
+  /**
+   * Returns the (population) variance of the values of one band over a non-empty rectangular
+   * region. Requires squared sums.
+   *
+   * @see #getSquaredSum
+   */
+  public double getVariance(int x, int y, int w, int h, int band) throws IllegalArgumentException {
+    if (w <= 0 || h <= 0) {
+      throw new IllegalArgumentException("Region must not be empty.");
+    }
+    double count = (double)w*h;
+    double mean = getSum(x, y, w, h, band)/count;
+    double variance = getSquaredSum(x, y, w, h, band)/count - mean*mean;
+    return Math.max(0.0, variance);
+  }
+
+}
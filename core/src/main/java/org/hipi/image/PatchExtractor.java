@@ -0,0 +1,318 @@
+package org.hipi.image;
+
+import java.lang.IllegalArgumentException;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Samples rectangular patches from images directly into a preallocated patch matrix, without
+ * allocating an image or a matrix per patch. Every patch is flattened into patchWidth *
+ * patchHeight * bands consecutive values (rows of the patch in order, bands interleaved) and
+ * patches are stored one after the other. The destination therefore holds a column-major
+ * matrix with one patch per column or, equivalently, a row-major matrix with one patch per row
+ * (e.g., an OpenCV Mat with one row per patch, see {@link
+ * org.hipi.opencv.OpenCVUtils#extractPatches}).
+ *
+ * Patch positions are sampled in one of three ways:
+ * <ul>
+ * <li>{@link #grid}: all patches on a regular grid with a given stride</li>
+ * <li>{@link #spread}: a fixed number of columns and rows of patches evenly spread over the
+ * image, so that every image yields the same number of patches</li>
+ * <li>{@link #random}: a fixed number of patches at uniformly random positions drawn from a
+ * seeded generator, so that images of equal size yield the same positions</li>
+ * </ul>
+ *
+ * Optionally, a mean patch is subtracted from and a weighting patch is multiplied with every
+ * patch as it is copied. Values are those returned by {@link PixelArray#getElemFloat}.
+ */
+public class PatchExtractor {
+
+  private enum Sampling { GRID, SPREAD, RANDOM }
+
+  private final int patchWidth;
+  private final int patchHeight;
+  private Sampling sampling = Sampling.GRID;
+  private int strideX;
+  private int strideY;
+  private int cols;
+  private int rows;
+  private int count;
+  private long seed;
+  private float[] mean = null;
+  private float[] weights = null;
+
+  /**
+   * Creates an extractor of non-overlapping patches on a regular grid.
+   *
+   * @param patchWidth width of patches
+   * @param patchHeight height of patches
+   */
+  public PatchExtractor(int patchWidth, int patchHeight) throws IllegalArgumentException {
+    if (patchWidth <= 0 || patchHeight <= 0) {
+      throw new IllegalArgumentException("Invalid patch dimensions [" + patchWidth + "x" + patchHeight + "].");
+    }
+    this.patchWidth = patchWidth;
+    this.patchHeight = patchHeight;
+    this.strideX = patchWidth;
+    this.strideY = patchHeight;
+  }
+
+  /**
+   * Samples all patches whose upper left corners lie on a regular grid.
+   *
+   * @param strideX horizontal distance between patches
+   * @param strideY vertical distance between patches
+   *
+   * @return this extractor
+   */
+  public PatchExtractor grid(int strideX, int strideY) throws IllegalArgumentException {
+    if (strideX <= 0 || strideY <= 0) {
+      throw new IllegalArgumentException("Strides must be positive.");
+    }
+    this.sampling = Sampling.GRID;
+    this.strideX = strideX;
+    this.strideY = strideY;
+    return this;
+  }
+
+  /**
+   * Samples cols * rows patches evenly spread over the image. Column i of patches starts at
+   * horizontal position (width - patchWidth) * i / cols, and similarly for rows.
+   *
+   * @param cols number of columns of patches
+   * @param rows number of rows of patches
+   *
+   * @return this extractor
+   */
+  public PatchExtractor spread(int cols, int rows) throws IllegalArgumentException {
+    if (cols <= 0 || rows <= 0) {
+      throw new IllegalArgumentException("Number of columns and rows of patches must be positive.");
+    }
+    this.sampling = Sampling.SPREAD;
+    this.cols = cols;
+    this.rows = rows;
+    return this;
+  }
+
+  /**
+   * Samples patches at uniformly random positions.
+   *
+   * @param count number of patches
+   * @param seed seed of the random number generator, which is reset for every image
+   *
+   * @return this extractor
+   */
+  public PatchExtractor random(int count, long seed) throws IllegalArgumentException {
+    if (count <= 0) {
+      throw new IllegalArgumentException("Number of patches must be positive.");
+    }
+    this.sampling = Sampling.RANDOM;
+    this.count = count;
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * Sets a mean patch that is subtracted from every patch.
+   *
+   * @param mean flattened mean patch (see {@link #getPatchLength}), or null to disable
+   *
+   * @return this extractor
+   */
+  public PatchExtractor subtractMean(float[] mean) {
+    this.mean = (mean == null ? null : mean.clone());
+    return this;
+  }
+
+  /**
+   * Sets a weighting patch that every patch is multiplied with (after mean subtraction), e.g., a
+   * Gaussian window.
+   *
+   * @param weights flattened weighting patch (see {@link #getPatchLength}), or null to disable
+   *
+   * @return this extractor
+   */
+  public PatchExtractor weight(float[] weights) {
+    this.weights = (weights == null ? null : weights.clone());
+    return this;
+  }
+
+  public int getPatchWidth() {
+    return patchWidth;
+  }
+
+  public int getPatchHeight() {
+    return patchHeight;
+  }
+
+  /**
+   * @param bands number of bands of images
+   *
+   * @return number of values of a flattened patch
+   */
+  public int getPatchLength(int bands) {
+    return patchWidth*patchHeight*bands;
+  }
+
+  /**
+   * @param width width of image
+   * @param height height of image
+   *
+   * @return number of patches extracted from an image of the given dimensions
+   */
+  public int getNumPatches(int width, int height) {
+    if (width < patchWidth || height < patchHeight) {
+      return 0;
+    }
+    switch (sampling) {
+    case SPREAD:
+      return cols*rows;
+    case RANDOM:
+      return count;
+    case GRID:
+    default:
+      return ((width - patchWidth)/strideX + 1) * ((height - patchHeight)/strideY + 1);
+    }
+  }
+
+  // Upper left corners of patches as {x0, y0, x1, y1, ...}
+  private int[] getPositions(int width, int height) {
+    int n = getNumPatches(width, height);
+    int[] positions = new int[2*n];
+    int p = 0;
+    switch (sampling) {
+    case SPREAD:
+      for (int i=0; i<cols; i++) {
+	int x = (width - patchWidth)*i/cols;
+	for (int j=0; j<rows; j++) {
+	  positions[p++] = x;
+	  positions[p++] = (height - patchHeight)*j/rows;
+	}
+      }
+      break;
+    case RANDOM:
+      Random random = new Random(seed);
+      for (int i=0; i<n; i++) {
+	positions[p++] = random.nextInt(width - patchWidth + 1);
+	positions[p++] = random.nextInt(height - patchHeight + 1);
+      }
+      break;
+    case GRID:
+    default:
+      for (int y=0; p<2*n; y+=strideY) {
+	for (int x=0; x+patchWidth<=width; x+=strideX) {
+	  positions[p++] = x;
+	  positions[p++] = y;
+	}
+      }
+      break;
+    }
+    return positions;
+  }
+
+  /**
+   * Source of rows of interleaved values.
+   */
+  private interface RowSource {
+    void read(int pos, float[] dst, int length);
+  }
+
+  /**
+   * Extracts patches from an image into an array.
+   *
+   * @param image input image (interleaved)
+   * @param patches destination array
+   * @param offset position of first value of first patch in destination array
+   *
+   * @return number of patches extracted
+   *
+   * @throws IllegalArgumentException if the destination is too small
+   */
+  public int extract(RasterImage image, float[] patches, int offset) throws IllegalArgumentException {
+    FloatBuffer buffer = FloatBuffer.wrap(patches);
+    buffer.position(offset);
+    return extract(image, buffer);
+  }
+
+  /**
+   * Extracts patches from an image into a buffer, starting at its current position, which is
+   * advanced past the last patch. Patches of successive images may therefore be batched into
+   * one matrix.
+   *
+   * @param image input image (interleaved)
+   * @param patches destination buffer
+   *
+   * @return number of patches extracted
+   *
+   * @throws IllegalArgumentException if the destination is too small
+   */
+  public int extract(RasterImage image, FloatBuffer patches) throws IllegalArgumentException {
+    image.checkInterleaved();
+    final PixelArray pa = image.getPixelArray();
+    return extract((pos, dst, length) -> pa.copyTo(pos, dst, 0, length),
+		   image.getWidth(), image.getHeight(), image.getNumBands(), patches);
+  }
+
+  /**
+   * Extracts patches from interleaved pixel data (e.g., the buffer of a continuous 32-bit
+   * floating point OpenCV Mat) into a buffer, starting at its current position, which is
+   * advanced past the last patch.
+   *
+   * @param data interleaved pixel data, starting at position zero
+   * @param width width of image
+   * @param height height of image
+   * @param bands number of bands of image
+   * @param patches destination buffer
+   *
+   * @return number of patches extracted
+   *
+   * @throws IllegalArgumentException if the source or destination is too small
+   */
+  public int extract(FloatBuffer data, int width, int height, int bands, FloatBuffer patches)
+    throws IllegalArgumentException {
+    if ((long)width*height*bands > data.capacity()) {
+      throw new IllegalArgumentException("Pixel data is smaller than image dimensions [" + width + "x" + height + "x" + bands + "].");
+    }
+    final FloatBuffer src = data.duplicate();
+    return extract((pos, dst, length) -> {
+	src.position(pos);
+	src.get(dst, 0, length);
+      }, width, height, bands, patches);
+  }
+
+  private int extract(RowSource source, int width, int height, int bands, FloatBuffer patches)
+    throws IllegalArgumentException {
+    int length = getPatchLength(bands);
+    if ((mean != null && mean.length != length) || (weights != null && weights.length != length)) {
+      throw new IllegalArgumentException("Length of mean or weighting patch does not match patch length [" + length + "].");
+    }
+    int n = getNumPatches(width, height);
+    if ((long)n*length > patches.remaining()) {
+      throw new IllegalArgumentException("Destination too small for " + n + " patches of length " + length + ".");
+    }
+    int[] positions = getPositions(width, height);
+    int rowLength = patchWidth*bands;
+    float[] row = new float[rowLength];
+    for (int p=0; p<n; p++) {
+      int x = positions[2*p];
+      int y = positions[2*p+1];
+      for (int r=0, k=0; r<patchHeight; r++) {
+	source.read(((y+r)*width + x)*bands, row, rowLength);
+	if (mean != null) {
+	  for (int i=0; i<rowLength; i++) {
+	    row[i] -= mean[k+i];
+	  }
+	}
+	if (weights != null) {
+	  for (int i=0; i<rowLength; i++) {
+	    row[i] *= weights[k+i];
+	  }
+	}
+	patches.put(row, 0, rowLength);
+	k += rowLength;
+      }
+    }
+    return n;
+  }
+
+}
@@ -1,5 +1,13 @@
 package org.hipi.image;
 
+import org.hipi.util.ByteUtils;
+import org.hipi.util.PixelBufferPool;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.function.IntUnaryOperator;
+
 /**
  * An abstract base class representing a flat array of image pixel values. Concrete base classes
  * enforce a particular scalar value data type (e.g., byte, float, double, int, etc.).
@@ -14,9 +22,26 @@ public abstract class PixelArray {
   public static final int TYPE_INT   = 3;
   public static final int TYPE_FLOAT  = 4;
   public static final int TYPE_DOUBLE  = 5;
+  public static final int TYPE_HALF  = 6;
   public static final int TYPE_UNDEFINED = 32;
 
-  private static final int dataTypeSize[] = {1,2,2,4,4,8};
+  private static final int dataTypeSize[] = {1,2,2,4,4,8,2};
+
+  /**
+   * Order in which the values of a multi-band image are stored.
+   */
+  public enum Layout {
+    /**
+     * Bands of each pixel are adjacent (e.g., RGBRGBRGB...). Value of band c of pixel (i,j) of
+     * a (w x h) image with b bands is at index (j*w+i)*b+c.
+     */
+    INTERLEAVED,
+    /**
+     * Each band is stored as a separate plane in raster-scan order (e.g., RRR...GGG...BBB...).
+     * Value of band c of pixel (i,j) of a (w x h) image is at index (c*h+j)*w+i.
+     */
+    PLANAR
+  }
 
   /**
    * Integer value indicating underlying scalar value data type.
@@ -28,6 +53,16 @@ public abstract class PixelArray {
    */
   protected int size;
 
+  /**
+   * Pool from which backing arrays are drawn, or null to allocate them directly.
+   */
+  protected PixelBufferPool pool = null;
+
+  /**
+   * Order in which the values of multi-band images are stored.
+   */
+  protected Layout layout = Layout.INTERLEAVED;
+
   /**
    * Static function that reports size, in bytes, of a single scalar value for different types
    * of pixel arrays.
@@ -37,7 +72,7 @@ public abstract class PixelArray {
    * @return size, in bytes, of single scalar value for specified type
    */
   public static int getDataTypeSize(int type) {
-    if (type < TYPE_BYTE || type > TYPE_DOUBLE) {
+    if (type < TYPE_BYTE || type > TYPE_HALF) {
       throw new IllegalArgumentException("Unknown data type "+type);
     }
     return dataTypeSize[type];
@@ -63,6 +98,218 @@ public abstract class PixelArray {
 
   public abstract void setSize(int size) throws IllegalArgumentException;
 
+  /**
+   * Sets the pool from which this pixel array draws its backing array in {@link #setSize} and
+   * to which it returns the array when it is resized or released. Pixel arrays that do not keep
+   * their values in a Java array ignore the pool.
+   *
+   * @param pool buffer pool, or null to allocate arrays directly
+   */
+  public void setBufferPool(PixelBufferPool pool) {
+    this.pool = pool;
+  }
+
+  public PixelBufferPool getBufferPool() {
+    return pool;
+  }
+
+  /**
+   * Empties the pixel array and returns its backing storage to its buffer pool, if any. Any
+   * reference to the backing storage obtained earlier must not be used afterwards.
+   */
+  public void release() {
+    setSize(0);
+  }
+
+  /**
+   * Reads pixel values in the representation produced by {@link #getByteArray} and resizes the
+   * pixel array to hold them. Concrete pixel arrays override this to read directly into their
+   * backing array, which is reused if it already has the right size.
+   *
+   * @param input input to read from
+   * @param size number of pixel values to read
+   *
+   * @throws IOException if reading from the input fails
+   */
+  public void readFrom(DataInput input, int size) throws IOException {
+    byte[] bytes = new byte[size*getDataTypeSize(dataType)];
+    input.readFully(bytes);
+    setFromByteArray(bytes);
+  }
+
+  // Size in bytes of blocks used to read multi-byte values
+  private static final int READ_BLOCK_SIZE = 1 << 16;
+
+  private byte[] acquireReadBlock(int numBytes) {
+    int length = Math.min(numBytes, READ_BLOCK_SIZE);
+    return (pool != null ? pool.acquireBytes(length) : new byte[length]);
+  }
+
+  /**
+   * Reads big-endian floats into an array one block at a time.
+   */
+  protected void readFloats(DataInput input, float[] dst, int length) throws IOException {
+    byte[] block = acquireReadBlock(length*4);
+    for (int pos=0; pos<length; ) {
+      int count = Math.min(block.length/4, length-pos);
+      input.readFully(block, 0, count*4);
+      ByteUtils.byteArrayToFloatArray(block, 0, dst, pos, count, ByteOrder.BIG_ENDIAN);
+      pos += count;
+    }
+    if (pool != null) {
+      pool.release(block);
+    }
+  }
+
+  /**
+   * Reads big-endian shorts into an array one block at a time.
+   */
+  protected void readShorts(DataInput input, short[] dst, int length) throws IOException {
+    byte[] block = acquireReadBlock(length*2);
+    for (int pos=0; pos<length; ) {
+      int count = Math.min(block.length/2, length-pos);
+      input.readFully(block, 0, count*2);
+      ByteUtils.byteArrayToShortArray(block, 0, dst, pos, count, ByteOrder.BIG_ENDIAN);
+      pos += count;
+    }
+    if (pool != null) {
+      pool.release(block);
+    }
+  }
+
+  public Layout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Sets the layout of this pixel array without moving any values, e.g., before filling a pixel
+   * array with values that are already stored in the given layout. Use {@link #convertLayout}
+   * to rearrange existing values.
+   *
+   * @param layout layout of values
+   */
+  public void setLayout(Layout layout) {
+    this.layout = layout;
+  }
+
+  /**
+   * Rearranges the values of this pixel array into another layout. The values are moved within
+   * the backing storage of this pixel array, which is kept; a scratch copy is drawn from the
+   * buffer pool, if any.
+   *
+   * @param numBands number of bands (values per pixel)
+   * @param target layout to convert to
+   *
+   * @throws IllegalArgumentException if the size of the pixel array is not a multiple of the
+   * number of bands
+   */
+  public void convertLayout(int numBands, Layout target) throws IllegalArgumentException {
+    if (numBands <= 0 || size % numBands != 0) {
+      throw new IllegalArgumentException("Size of pixel array is not a multiple of number of bands [" + numBands + "].");
+    }
+    if (target != layout && numBands > 1 && size > 0) {
+      transposeBands(size/numBands, numBands, target == Layout.PLANAR);
+    }
+    layout = target;
+  }
+
+  /**
+   * Moves values between interleaved and planar order. The generic implementation goes
+   * through {@link #getByteArray} and {@link #setFromByteArray}. Concrete pixel arrays override
+   * this with loops over their backing arrays.
+   *
+   * @param numPixels number of pixels
+   * @param numBands number of bands
+   * @param toPlanar true to convert from interleaved to planar order, false for the reverse
+   */
+  protected void transposeBands(int numPixels, int numBands, boolean toPlanar) {
+    byte[] bytes = getByteArray();
+    byte[] result = new byte[bytes.length];
+    transposeBands(bytes, result, numPixels, numBands, getDataTypeSize(dataType), toPlanar);
+    setFromByteArray(result);
+  }
+
+  /**
+   * Moves values of a given size in bytes between interleaved and planar order (e.g., the
+   * representation produced by {@link #getByteArray}).
+   *
+   * @param src source values
+   * @param dst destination (must not overlap source)
+   * @param numPixels number of pixels
+   * @param numBands number of bands
+   * @param elemSize size of a single value in bytes
+   * @param toPlanar true to convert from interleaved to planar order, false for the reverse
+   */
+  public static void transposeBands(byte[] src, byte[] dst, int numPixels, int numBands, int elemSize,
+				    boolean toPlanar) {
+    if (elemSize == 1) {
+      transposeBands(src, dst, numPixels, numBands, toPlanar);
+      return;
+    }
+    for (int c=0; c<numBands; c++) {
+      for (int p=0; p<numPixels; p++) {
+	int interleaved = (p*numBands + c)*elemSize;
+	int planar = (c*numPixels + p)*elemSize;
+	if (toPlanar) {
+	  System.arraycopy(src, interleaved, dst, planar, elemSize);
+	} else {
+	  System.arraycopy(src, planar, dst, interleaved, elemSize);
+	}
+      }
+    }
+  }
+
+  // Typed transpositions used by the concrete pixel arrays. Values are read sequentially and
+  // written to one stream per band, or the reverse.
+
+  static void transposeBands(byte[] src, byte[] dst, int numPixels, int numBands, boolean toPlanar) {
+    if (toPlanar) {
+      for (int p=0, i=0; p<numPixels; p++) {
+	for (int c=0; c<numBands; c++) {
+	  dst[c*numPixels + p] = src[i++];
+	}
+      }
+    } else {
+      for (int p=0, i=0; p<numPixels; p++) {
+	for (int c=0; c<numBands; c++) {
+	  dst[i++] = src[c*numPixels + p];
+	}
+      }
+    }
+  }
+
+  static void transposeBands(short[] src, short[] dst, int numPixels, int numBands, boolean toPlanar) {
+    if (toPlanar) {
+      for (int p=0, i=0; p<numPixels; p++) {
+	for (int c=0; c<numBands; c++) {
+	  dst[c*numPixels + p] = src[i++];
+	}
+      }
+    } else {
+      for (int p=0, i=0; p<numPixels; p++) {
+	for (int c=0; c<numBands; c++) {
+	  dst[i++] = src[c*numPixels + p];
+	}
+      }
+    }
+  }
+
+  static void transposeBands(float[] src, float[] dst, int numPixels, int numBands, boolean toPlanar) {
+    if (toPlanar) {
+      for (int p=0, i=0; p<numPixels; p++) {
+	for (int c=0; c<numBands; c++) {
+	  dst[c*numPixels + p] = src[i++];
+	}
+      }
+    } else {
+      for (int p=0, i=0; p<numPixels; p++) {
+	for (int c=0; c<numBands; c++) {
+	  dst[i++] = src[c*numPixels + p];
+	}
+      }
+    }
+  }
+
   public abstract byte[] getByteArray();
 
   public abstract void setFromByteArray(byte[] bytes) throws IllegalArgumentException;
@@ -91,4 +338,161 @@ public abstract class PixelArray {
     setElem(i,(int)val);
   }
 
+  /**
+   * Operator on a single floating point pixel value, used by {@link #forEachFloat}.
+   */
+  public interface FloatUnaryOperator {
+    float applyAsFloat(float value);
+  }
+
+  //
+  // Bulk accessors. The implementations below are generic and go through the per-element
+  // accessors. Concrete pixel arrays override them with loops over their backing arrays.
+  //
+
+  /**
+   * Copies a range of elements into a float array. Values are those returned by {@link
+   * #getElemFloat}.
+   *
+   * @param srcPos index of first element to copy
+   * @param dst destination array
+   * @param dstPos starting position in destination array
+   * @param length number of elements to copy
+   */
+  public void copyTo(int srcPos, float[] dst, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      dst[dstPos+i] = getElemFloat(srcPos+i);
+    }
+  }
+
+  /**
+   * Copies a range of elements into a byte array. Values are those returned by {@link
+   * #getElem}, clamped to [0,255].
+   *
+   * @param srcPos index of first element to copy
+   * @param dst destination array
+   * @param dstPos starting position in destination array
+   * @param length number of elements to copy
+   */
+  public void copyTo(int srcPos, byte[] dst, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      dst[dstPos+i] = (byte)Math.max(0, Math.min(255, getElem(srcPos+i)));
+    }
+  }
+
+  /**
+   * Sets a range of elements from a float array using {@link #setElemFloat}.
+   *
+   * @param src source array
+   * @param srcPos starting position in source array
+   * @param dstPos index of first element to set
+   * @param length number of elements to copy
+   */
+  public void copyFrom(float[] src, int srcPos, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      setElemFloat(dstPos+i, src[srcPos+i]);
+    }
+  }
+
+  /**
+   * Sets a range of elements from a byte array of unsigned values using {@link #setElem}.
+   *
+   * @param src source array
+   * @param srcPos starting position in source array
+   * @param dstPos index of first element to set
+   * @param length number of elements to copy
+   */
+  public void copyFrom(byte[] src, int srcPos, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      setElem(dstPos+i, src[srcPos+i] & 0xff);
+    }
+  }
+
+  /**
+   * Copies a range of elements into a byte array as 8-bit gamma compressed non-linear sRGB
+   * values. Values are those returned by {@link #getElemNonLinSRGB}.
+   *
+   * @param srcPos index of first element to copy
+   * @param dst destination array
+   * @param dstPos starting position in destination array
+   * @param length number of elements to copy
+   */
+  public void copyToNonLinSRGB(int srcPos, byte[] dst, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      dst[dstPos+i] = (byte)getElemNonLinSRGB(srcPos+i);
+    }
+  }
+
+  /**
+   * Sets a range of elements from a byte array of 8-bit gamma compressed non-linear sRGB values
+   * using {@link #setElemNonLinSRGB}.
+   *
+   * @param src source array
+   * @param srcPos starting position in source array
+   * @param dstPos index of first element to set
+   * @param length number of elements to copy
+   */
+  public void copyFromNonLinSRGB(byte[] src, int srcPos, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      setElemNonLinSRGB(dstPos+i, src[srcPos+i] & 0xff);
+    }
+  }
+
+  /**
+   * Sets a range of elements from another pixel array. Arrays of the same type are copied
+   * verbatim, otherwise values are transferred with {@link #getElemFloat} and {@link
+   * #setElemFloat}.
+   *
+   * @param src source pixel array
+   * @param srcPos index of first element to copy in source pixel array
+   * @param dstPos index of first element to set
+   * @param length number of elements to copy
+   */
+  public void copyFrom(PixelArray src, int srcPos, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      setElemFloat(dstPos+i, src.getElemFloat(srcPos+i));
+    }
+  }
+
+  /**
+   * Sets a range of elements to a value using {@link #setElemFloat}.
+   *
+   * @param from index of first element to set
+   * @param to index after last element to set
+   * @param val value
+   */
+  public void fill(int from, int to, float val) {
+    for (int i=from; i<to; i++) {
+      setElemFloat(i, val);
+    }
+  }
+
+  /**
+   * Replaces the elements of one band of an interleaved pixel array with the result of applying
+   * an operator to their values (see {@link #getElemFloat}).
+   *
+   * @param band index of band
+   * @param numBands number of interleaved bands
+   * @param op operator applied to each element
+   */
+  public void forEachFloat(int band, int numBands, FloatUnaryOperator op) {
+    for (int i=band; i<size; i+=numBands) {
+      setElemFloat(i, op.applyAsFloat(getElemFloat(i)));
+    }
+  }
+
+  /**
+   * Replaces the elements of one band of an interleaved pixel array with the result of applying
+   * an operator to their integer values (see {@link #getElem}).
+   *
+   * @param band index of band
+   * @param numBands number of interleaved bands
+   * @param op operator applied to each element
+   */
+  public void forEachInt(int band, int numBands, IntUnaryOperator op) {
+    for (int i=band; i<size; i+=numBands) {
+      setElem(i, op.applyAsInt(getElem(i)));
+    }
+  }
+
 }
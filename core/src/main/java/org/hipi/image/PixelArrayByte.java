@@ -2,6 +2,11 @@ package org.hipi.image;
 
 import org.hipi.image.PixelArray;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
 /**
  * A flat array of image pixel values represented as Java bytes.
  */
@@ -9,6 +14,9 @@ public class PixelArrayByte extends PixelArray {
 
   byte data[];
 
+  // True if data was supplied by the caller of setFromByteArray and must not be reused
+  private boolean adopted = false;
+
   public PixelArrayByte(int size) {
     super(TYPE_BYTE, size);
     data = new byte[size];
@@ -24,27 +32,70 @@ public class PixelArrayByte extends PixelArray {
   }
 
   public void setSize(int size) throws IllegalArgumentException {
+    resize(size, true);
+  }
+
+  // Reuses the current array if it has the right size, otherwise returns it to the buffer pool
+  // (if any) and obtains a new one
+  private void resize(int size, boolean clear) throws IllegalArgumentException {
     if (size < 0) {
       throw new IllegalArgumentException("Invalid size of pixel array.");
     }
     this.size = size;
+    if (data != null && data.length == size && !adopted) {
+      if (clear) {
+	Arrays.fill(data, (byte)0);
+      }
+      return;
+    }
+    if (pool != null && !adopted) {
+      pool.release(data);
+    }
+    adopted = false;
     if (size == 0) {
       this.data = null;
     } else {
-      this.data = new byte[size];
+      this.data = (pool != null ? pool.acquireBytes(size) : new byte[size]);
     }
   }
 
+  @Override
+  public void readFrom(DataInput input, int size) throws IOException {
+    resize(size, false);
+    if (size > 0) {
+      input.readFully(data, 0, size);
+    }
+  }
+
+  @Override
+  protected void transposeBands(int numPixels, int numBands, boolean toPlanar) {
+    byte[] scratch = (pool != null ? pool.acquireBytes(size) : new byte[size]);
+    System.arraycopy(data, 0, scratch, 0, size);
+    transposeBands(scratch, data, numPixels, numBands, toPlanar);
+    if (pool != null) {
+      pool.release(scratch);
+    }
+  }
+
+  @Override
+  public void copyToNonLinSRGB(int srcPos, byte[] dst, int dstPos, int length) {
+    System.arraycopy(data, srcPos, dst, dstPos, length);
+  }
+
+  @Override
+  public void copyFromNonLinSRGB(byte[] src, int srcPos, int dstPos, int length) {
+    System.arraycopy(src, srcPos, data, dstPos, length);
+  }
+
   public byte[] getByteArray() {
     return data;
   }
 
   public void setFromByteArray(byte[] bytes) throws IllegalArgumentException {
-    if (bytes == null || bytes.length == 0) {
-      data = null;
-      this.size = 0;
-    } else {
+    resize(0, false);
+    if (bytes != null && bytes.length > 0) {
       data = bytes;
+      adopted = true;
       this.size = data.length;
     }
   }
@@ -85,4 +136,56 @@ public class PixelArrayByte extends PixelArray {
     data[i] = (byte)(((int)Math.max(0.0,Math.min(255.0,val*255.0))) & 0xff);
   }
 
+  @Override
+  public void copyTo(int srcPos, float[] dst, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      dst[dstPos+i] = (float)(data[srcPos+i] & 0xff)/255.0f;
+    }
+  }
+
+  @Override
+  public void copyTo(int srcPos, byte[] dst, int dstPos, int length) {
+    System.arraycopy(data, srcPos, dst, dstPos, length);
+  }
+
+  @Override
+  public void copyFrom(float[] src, int srcPos, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      float val = src[srcPos+i] * 255.0f;
+      data[dstPos+i] = (byte)(val <= 0.0f ? 0 : (val >= 255.0f ? 255 : (int)val));
+    }
+  }
+
+  @Override
+  public void copyFrom(byte[] src, int srcPos, int dstPos, int length) {
+    System.arraycopy(src, srcPos, data, dstPos, length);
+  }
+
+  @Override
+  public void copyFrom(PixelArray src, int srcPos, int dstPos, int length) {
+    src.copyTo(srcPos, data, dstPos, length);
+  }
+
+  @Override
+  public void fill(int from, int to, float val) {
+    float scaled = val * 255.0f;
+    Arrays.fill(data, from, to, (byte)(scaled <= 0.0f ? 0 : (scaled >= 255.0f ? 255 : (int)scaled)));
+  }
+
+  @Override
+  public void forEachFloat(int band, int numBands, FloatUnaryOperator op) {
+    for (int i=band; i<size; i+=numBands) {
+      float val = op.applyAsFloat((float)(data[i] & 0xff)/255.0f) * 255.0f;
+      data[i] = (byte)(val <= 0.0f ? 0 : (val >= 255.0f ? 255 : (int)val));
+    }
+  }
+
+  @Override
+  public void forEachInt(int band, int numBands, IntUnaryOperator op) {
+    for (int i=band; i<size; i+=numBands) {
+      int val = op.applyAsInt(data[i] & 0xff);
+      data[i] = (byte)(val < 0 ? 0 : (val > 255 ? 255 : val));
+    }
+  }
+
 }
@@ -0,0 +1,114 @@
+package org.hipi.image;
+
+import org.hipi.image.PixelArray;
+import org.hipi.util.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Abstract base class for pixel arrays whose values are stored off the Java heap in a direct
+ * {@link ByteBuffer} in native byte order. Keeping large images outside the heap reduces garbage
+ * collection pressure, and the buffer can be handed to native code (e.g., wrapped as an OpenCV
+ * Mat by {@link org.hipi.opencv.OpenCVUtils#wrapRasterImageAsMat}) without copying.
+ *
+ * Buffers are obtained from a {@link DirectBufferPool}. Call {@link #release} once the pixel
+ * values are no longer needed so that the native memory is returned to the pool and reused by
+ * the next image; resizing the array releases the previous buffer automatically. Arrays that
+ * are never released are reclaimed by the garbage collector as usual.
+ */
+public abstract class PixelArrayDirect extends PixelArray {
+
+  protected ByteBuffer buffer;
+
+  private final DirectBufferPool directPool;
+
+  protected PixelArrayDirect(int dataType, DirectBufferPool pool) {
+    super(dataType, 0);
+    this.directPool = pool;
+    this.buffer = null;
+  }
+
+  /**
+   * Provides direct access to the underlying buffer. The buffer has position 0 and its limit
+   * equals the size of the pixel array in bytes. The buffer is only valid until the next call to
+   * {@link #setSize}, {@link #setFromByteArray} or {@link #release}.
+   *
+   * @return direct buffer in native byte order, or null if the array is empty
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Called whenever the underlying buffer changes so that subclasses can update their views.
+   */
+  protected abstract void bufferChanged();
+
+  public void setSize(int size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Invalid size of pixel array.");
+    }
+    long numBytes = (long)size * getDataTypeSize(dataType);
+    if (numBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Pixel array too large for direct buffer [" + size + "].");
+    }
+    release();
+    this.size = size;
+    if (size > 0) {
+      buffer = directPool.acquire((int)numBytes);
+    }
+    bufferChanged();
+  }
+
+  /**
+   * Rearranges values within the current buffer, so that views of the buffer remain valid. The
+   * values are copied into one scratch buffer from the direct buffer pool and transposed from
+   * there straight back into the current buffer, without copies on the Java heap.
+   */
+  @Override
+  protected void transposeBands(int numPixels, int numBands, boolean toPlanar) {
+    int elemSize = getDataTypeSize(dataType);
+    ByteBuffer scratch = directPool.acquire(size*elemSize).order(buffer.order());
+    scratch.put(buffer.duplicate());
+    for (int p=0; p<numPixels; p++) {
+      for (int b=0; b<numBands; b++) {
+	int interleaved = (p*numBands + b)*elemSize;
+	int planar = (b*numPixels + p)*elemSize;
+	int from = (toPlanar ? interleaved : planar);
+	int to = (toPlanar ? planar : interleaved);
+	switch (elemSize) {
+	case 1:
+	  buffer.put(to, scratch.get(from));
+	  break;
+	case 2:
+	  buffer.putShort(to, scratch.getShort(from));
+	  break;
+	case 4:
+	  buffer.putInt(to, scratch.getInt(from));
+	  break;
+	default:
+	  buffer.putLong(to, scratch.getLong(from));
+	  break;
+	}
+      }
+    }
+    directPool.release(scratch);
+  }
+
+  /**
+   * Returns the underlying buffer to the direct buffer pool and empties the pixel array. Any
+   * view of the buffer obtained from {@link #getBuffer} (including OpenCV Mats that wrap it)
+   * must not be used afterwards.
+   */
+  @Override
+  public void release() {
+    if (buffer != null) {
+      ByteBuffer old = buffer;
+      buffer = null;
+      size = 0;
+      bufferChanged();
+      directPool.release(old);
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package org.hipi.image;
+
+import org.hipi.image.PixelArrayDirect;
+import org.hipi.util.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A flat array of image pixel values represented as bytes stored in a direct (off-heap) buffer.
+ * Values have the same interpretation as those in a {@link PixelArrayByte} (i.e., 8-bit
+ * gamma-compressed non-linear sRGB).
+ */
+public class PixelArrayDirectByte extends PixelArrayDirect {
+
+  public PixelArrayDirectByte() {
+    this(DirectBufferPool.getInstance());
+  }
+
+  public PixelArrayDirectByte(DirectBufferPool pool) {
+    super(TYPE_BYTE, pool);
+  }
+
+  public PixelArrayDirectByte(int size) {
+    this();
+    setSize(size);
+  }
+
+  protected void bufferChanged() {
+  }
+
+  public byte[] getByteArray() {
+    byte[] bytes = new byte[size];
+    if (size > 0) {
+      copyTo(0, bytes, 0, size);
+    }
+    return bytes;
+  }
+
+  public void setFromByteArray(byte[] bytes) throws IllegalArgumentException {
+    if (bytes == null || bytes.length == 0) {
+      setSize(0);
+    } else {
+      setSize(bytes.length);
+      copyFrom(bytes, 0, 0, bytes.length);
+    }
+  }
+
+  public int getElem(int i) {
+    return buffer.get(i) & 0xff;
+  }
+
+  public int getElemNonLinSRGB(int i) {
+    // Assumes values are stored in gamma compressed non-linear sRGB
+    // space
+    return getElem(i);
+  }
+
+  public void setElem(int i, int val) {
+    buffer.put(i, (byte)(val < 0 ? 0 : (val > 255 ? 255 : val)));
+  }
+
+  public void setElemNonLinSRGB(int i, int val) {
+    setElem(i, val);
+  }
+
+  public float getElemFloat(int i) {
+    return (float)(buffer.get(i) & 0xff)/255.0f;
+  }
+
+  public void setElemFloat(int i, float val) {
+    buffer.put(i, (byte)(((int)Math.max(0.0,Math.min(255.0,val*255.0))) & 0xff));
+  }
+
+  public double getElemDouble(int i) {
+    return (double)(buffer.get(i) & 0xff)/255.0;
+  }
+
+  public void setElemDouble(int i, double val) {
+    buffer.put(i, (byte)(((int)Math.max(0.0,Math.min(255.0,val*255.0))) & 0xff));
+  }
+
+  @Override
+  public void copyTo(int srcPos, float[] dst, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      dst[dstPos+i] = (float)(buffer.get(srcPos+i) & 0xff)/255.0f;
+    }
+  }
+
+  @Override
+  public void copyTo(int srcPos, byte[] dst, int dstPos, int length) {
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(srcPos);
+    dup.get(dst, dstPos, length);
+  }
+
+  @Override
+  public void copyFrom(float[] src, int srcPos, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      float val = src[srcPos+i] * 255.0f;
+      buffer.put(dstPos+i, (byte)(val <= 0.0f ? 0 : (val >= 255.0f ? 255 : (int)val)));
+    }
+  }
+
+  @Override
+  public void copyFrom(byte[] src, int srcPos, int dstPos, int length) {
+    ByteBuffer dup = buffer.duplicate();
+    dup.position(dstPos);
+    dup.put(src, srcPos, length);
+  }
+
+  @Override
+  public void copyFrom(PixelArray src, int srcPos, int dstPos, int length) {
+    if (src instanceof PixelArrayDirectByte) {
+      ByteBuffer from = ((PixelArrayDirectByte)src).buffer.duplicate();
+      from.limit(srcPos + length).position(srcPos);
+      ByteBuffer to = buffer.duplicate();
+      to.position(dstPos);
+      to.put(from);
+    } else if (src instanceof PixelArrayByte) {
+      copyFrom(((PixelArrayByte)src).getData(), srcPos, dstPos, length);
+    } else {
+      super.copyFrom(src, srcPos, dstPos, length);
+    }
+  }
+
+  @Override
+  public void fill(int from, int to, float val) {
+    float scaled = val * 255.0f;
+    byte b = (byte)(scaled <= 0.0f ? 0 : (scaled >= 255.0f ? 255 : (int)scaled));
+    for (int i=from; i<to; i++) {
+      buffer.put(i, b);
+    }
+  }
+
+  @Override
+  public void forEachInt(int band, int numBands, IntUnaryOperator op) {
+    for (int i=band; i<size; i+=numBands) {
+      int val = op.applyAsInt(buffer.get(i) & 0xff);
+      buffer.put(i, (byte)(val < 0 ? 0 : (val > 255 ? 255 : val)));
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+package org.hipi.image;
+
+import org.hipi.image.PixelArrayDirect;
+import org.hipi.util.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A flat array of image pixel values represented as floats stored in a direct (off-heap) buffer
+ * in native byte order. Values have the same interpretation as those in a {@link
+ * PixelArrayFloat} (i.e., linear RGB), and {@link #getByteArray} produces the same big-endian
+ * representation so that images can be serialized interchangeably.
+ */
+public class PixelArrayDirectFloat extends PixelArrayDirect {
+
+  private FloatBuffer floats;
+
+  public PixelArrayDirectFloat() {
+    this(DirectBufferPool.getInstance());
+  }
+
+  public PixelArrayDirectFloat(DirectBufferPool pool) {
+    super(TYPE_FLOAT, pool);
+  }
+
+  public PixelArrayDirectFloat(int size) {
+    this();
+    setSize(size);
+  }
+
+  protected void bufferChanged() {
+    floats = (buffer == null ? null : buffer.asFloatBuffer());
+  }
+
+  /**
+   * Provides direct access to the underlying buffer as floats. The same restrictions as for
+   * {@link #getBuffer} apply.
+   *
+   * @return float view of direct buffer, or null if the array is empty
+   */
+  public FloatBuffer getFloatBuffer() {
+    return floats;
+  }
+
+  public byte[] getByteArray() {
+    byte[] bytes = new byte[size*4];
+    if (size > 0) {
+      ByteBuffer.wrap(bytes).asFloatBuffer().put(floats.duplicate());
+    }
+    return bytes;
+  }
+
+  public void setFromByteArray(byte[] bytes) throws IllegalArgumentException {
+    if (bytes == null || bytes.length == 0) {
+      setSize(0);
+    } else {
+      if (bytes.length % 4 != 0) {
+	throw new IllegalArgumentException("Size of byte array is not a multiple of float size.");
+      }
+      setSize(bytes.length/4);
+      floats.duplicate().put(ByteBuffer.wrap(bytes).asFloatBuffer());
+    }
+  }
+
+  public int getElem(int i) {
+    return (int)(Math.max(0,Math.min(255,(int)(floats.get(i)*255.0f))));
+  }
+
+  public int getElemNonLinSRGB(int i) {
+    return PixelArrayFloat.linearToNonLinSRGB(floats.get(i));
+  }
+
+  public void setElem(int i, int val) {
+    floats.put(i, ((float)val)/255.0f);
+  }
+
+  public void setElemNonLinSRGB(int i, int val) {
+    floats.put(i, PixelArrayFloat.nonLinSRGBToLinear(val));
+  }
+
+  public float getElemFloat(int i) {
+    return floats.get(i);
+  }
+
+  public void setElemFloat(int i, float val) {
+    floats.put(i, val);
+  }
+
+  public double getElemDouble(int i) {
+    return (double)floats.get(i);
+  }
+
+  public void setElemDouble(int i, double val) {
+    floats.put(i, (float)val);
+  }
+
+  @Override
+  public void copyTo(int srcPos, float[] dst, int dstPos, int length) {
+    FloatBuffer dup = floats.duplicate();
+    dup.position(srcPos);
+    dup.get(dst, dstPos, length);
+  }
+
+  @Override
+  public void copyTo(int srcPos, byte[] dst, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      float val = floats.get(srcPos+i) * 255.0f;
+      dst[dstPos+i] = (byte)(val <= 0.0f ? 0 : (val >= 255.0f ? 255 : (int)val));
+    }
+  }
+
+  @Override
+  public void copyFrom(float[] src, int srcPos, int dstPos, int length) {
+    FloatBuffer dup = floats.duplicate();
+    dup.position(dstPos);
+    dup.put(src, srcPos, length);
+  }
+
+  @Override
+  public void copyFrom(byte[] src, int srcPos, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      floats.put(dstPos+i, (float)(src[srcPos+i] & 0xff)/255.0f);
+    }
+  }
+
+  @Override
+  public void copyFrom(PixelArray src, int srcPos, int dstPos, int length) {
+    if (src instanceof PixelArrayDirectFloat) {
+      FloatBuffer from = ((PixelArrayDirectFloat)src).floats.duplicate();
+      from.limit(srcPos + length).position(srcPos);
+      FloatBuffer to = floats.duplicate();
+      to.position(dstPos);
+      to.put(from);
+    } else if (src instanceof PixelArrayFloat) {
+      copyFrom(((PixelArrayFloat)src).getData(), srcPos, dstPos, length);
+    } else {
+      super.copyFrom(src, srcPos, dstPos, length);
+    }
+  }
+
+  @Override
+  public void fill(int from, int to, float val) {
+    for (int i=from; i<to; i++) {
+      floats.put(i, val);
+    }
+  }
+
+  @Override
+  public void forEachFloat(int band, int numBands, FloatUnaryOperator op) {
+    for (int i=band; i<size; i+=numBands) {
+      floats.put(i, op.applyAsFloat(floats.get(i)));
+    }
+  }
+
+}
@@ -0,0 +1,249 @@
+package org.hipi.image;
+
+import org.hipi.image.PixelArray;
+import org.hipi.util.ByteUtils;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A flat array of image pixel values stored as IEEE 754 half-precision (binary16) floating point
+ * numbers. Values are accessed as Java floats and have the same (linear) interpretation as those
+ * in a {@link PixelArrayFloat}, at half the memory cost. Half-precision numbers have an 11-bit
+ * significand, which is more than sufficient for pixel values in [0,1].
+ */
+public class PixelArrayHalf extends PixelArray {
+
+  short data[];
+
+  public PixelArrayHalf() {
+    super(TYPE_HALF, 0);
+    data = null;
+  }
+
+  public PixelArrayHalf(int size) {
+    super(TYPE_HALF, size);
+    data = new short[size];
+  }
+
+  /**
+   * Provides direct access to the underlying binary16 values.
+   */
+  public short[] getData() {
+    return data;
+  }
+
+  // LUT for binary16 => float (exact)
+  private static final float[] halfToFloatLUT = new float[1 << 16];
+
+  static {
+    for (int i=0; i<(1 << 16); i++) {
+      int sign = (i & 0x8000) << 16;
+      int exp = (i >>> 10) & 0x1f;
+      int mant = i & 0x3ff;
+      if (exp == 0) {
+	// Zero or subnormal
+	float val = mant * (1.0f / (1 << 24));
+	halfToFloatLUT[i] = (sign != 0 ? -val : val);
+      } else if (exp == 0x1f) {
+	// Infinity or NaN
+	halfToFloatLUT[i] = Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+      } else {
+	halfToFloatLUT[i] = Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+      }
+    }
+  }
+
+  /**
+   * Converts a binary16 value to a float.
+   *
+   * @param half binary16 bit pattern
+   *
+   * @return float value
+   */
+  public static float halfToFloat(short half) {
+    return halfToFloatLUT[half & 0xffff];
+  }
+
+  /**
+   * Converts a float to the nearest binary16 value (ties to even). Values that are too large
+   * become infinity, NaN is preserved.
+   *
+   * @param val float value
+   *
+   * @return binary16 bit pattern
+   */
+  public static short floatToHalf(float val) {
+    int bits = Float.floatToRawIntBits(val);
+    int sign = (bits >>> 16) & 0x8000;
+    int exp = (bits >>> 23) & 0xff;
+    int mant = bits & 0x7fffff;
+
+    if (exp == 0xff) {
+      // Infinity or NaN
+      return (short)(sign | 0x7c00 | (mant != 0 ? 0x200 | (mant >>> 13) : 0));
+    }
+
+    int e = exp - 127 + 15;
+    if (e >= 0x1f) {
+      // Overflow
+      return (short)(sign | 0x7c00);
+    }
+
+    if (e <= 0) {
+      // Subnormal or zero
+      if (e < -10) {
+	return (short)sign;
+      }
+      mant |= 0x800000;
+      int shift = 14 - e;
+      int half = mant >>> shift;
+      int rem = mant & ((1 << shift) - 1);
+      int halfway = 1 << (shift - 1);
+      if (rem > halfway || (rem == halfway && (half & 1) != 0)) {
+	half++;
+      }
+      return (short)(sign | half);
+    }
+
+    // Round significand to 10 bits, a carry correctly propagates into the exponent
+    int half = (e << 10) | (mant >>> 13);
+    int rem = mant & 0x1fff;
+    if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) {
+      half++;
+    }
+    return (short)(sign | half);
+  }
+
+  public void setSize(int size) throws IllegalArgumentException {
+    resize(size, true);
+  }
+
+  // Reuses the current array if it has the right size, otherwise returns it to the buffer pool
+  // (if any) and obtains a new one
+  private void resize(int size, boolean clear) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Invalid size of pixel array.");
+    }
+    this.size = size;
+    if (data != null && data.length == size) {
+      if (clear) {
+	Arrays.fill(data, (short)0);
+      }
+      return;
+    }
+    if (pool != null) {
+      pool.release(data);
+    }
+    if (size == 0) {
+      this.data = null;
+    } else {
+      this.data = (pool != null ? pool.acquireShorts(size) : new short[size]);
+    }
+  }
+
+  @Override
+  public void readFrom(DataInput input, int size) throws IOException {
+    resize(size, false);
+    readShorts(input, data, size);
+  }
+
+  @Override
+  protected void transposeBands(int numPixels, int numBands, boolean toPlanar) {
+    short[] scratch = (pool != null ? pool.acquireShorts(size) : new short[size]);
+    System.arraycopy(data, 0, scratch, 0, size);
+    transposeBands(scratch, data, numPixels, numBands, toPlanar);
+    if (pool != null) {
+      pool.release(scratch);
+    }
+  }
+
+  public byte[] getByteArray() {
+    return ByteUtils.shortArrayToByteArray(data);
+  }
+
+  public void setFromByteArray(byte[] bytes) throws IllegalArgumentException {
+    if (bytes == null || bytes.length == 0) {
+      resize(0, false);
+      return;
+    }
+    if (bytes.length % 2 != 0) {
+      throw new IllegalArgumentException("Length of byte array is not evenly divisible by 2.");
+    }
+    // Converts straight into the current array if it has the right size
+    resize(bytes.length / 2, false);
+    ByteUtils.byteArrayToShortArray(bytes, 0, data, 0, size, ByteOrder.BIG_ENDIAN);
+  }
+
+  public int getElem(int i) {
+    // Round rather than truncate (as PixelArrayFloat does) so that values set with setElem are
+    // returned unchanged despite the reduced precision
+    return (int)(Math.max(0,Math.min(255,(int)(halfToFloatLUT[data[i] & 0xffff]*255.0f+0.5f))));
+  }
+
+  public int getElemNonLinSRGB(int i) {
+    return PixelArrayFloat.linearToNonLinSRGB(halfToFloatLUT[data[i] & 0xffff]);
+  }
+
+  public void setElem(int i, int val) {
+    data[i] = floatToHalf(((float)val)/255.0f);
+  }
+
+  public void setElemNonLinSRGB(int i, int val) {
+    data[i] = floatToHalf(PixelArrayFloat.nonLinSRGBToLinear(val));
+  }
+
+  public float getElemFloat(int i) {
+    return halfToFloatLUT[data[i] & 0xffff];
+  }
+
+  public void setElemFloat(int i, float val) {
+    data[i] = floatToHalf(val);
+  }
+
+  public double getElemDouble(int i) {
+    return (double)halfToFloatLUT[data[i] & 0xffff];
+  }
+
+  public void setElemDouble(int i, double val) {
+    data[i] = floatToHalf((float)val);
+  }
+
+  @Override
+  public void copyTo(int srcPos, float[] dst, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      dst[dstPos+i] = halfToFloatLUT[data[srcPos+i] & 0xffff];
+    }
+  }
+
+  @Override
+  public void copyFrom(float[] src, int srcPos, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      data[dstPos+i] = floatToHalf(src[srcPos+i]);
+    }
+  }
+
+  @Override
+  public void copyFrom(PixelArray src, int srcPos, int dstPos, int length) {
+    if (src instanceof PixelArrayHalf) {
+      System.arraycopy(((PixelArrayHalf)src).data, srcPos, data, dstPos, length);
+    } else {
+      super.copyFrom(src, srcPos, dstPos, length);
+    }
+  }
+
+  @Override
+  public void fill(int from, int to, float val) {
+    Arrays.fill(data, from, to, floatToHalf(val));
+  }
+
+  @Override
+  public void forEachFloat(int band, int numBands, FloatUnaryOperator op) {
+    for (int i=band; i<size; i+=numBands) {
+      data[i] = floatToHalf(op.applyAsFloat(halfToFloatLUT[data[i] & 0xffff]));
+    }
+  }
+
+}
@@ -0,0 +1,177 @@
+package org.hipi.image;
+
+import org.hipi.image.PixelArray;
+import org.hipi.util.ByteUtils;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A flat array of image pixel values represented as unsigned 16-bit integers stored in Java
+ * shorts. Like the values of a {@link PixelArrayByte}, values are understood to be gamma
+ * compressed non-linear sRGB, only with 16 bits of precision (e.g., as stored in 16-bit PNG
+ * images).
+ *
+ * To interoperate with the other pixel arrays, {@link #getElem} and {@link #setElem} use the
+ * 8-bit range [0,255] and {@link #getElemFloat} and {@link #setElemFloat} use the range [0,1].
+ * The full 16-bit values are available through {@link #getElemUShort}, {@link #setElemUShort}
+ * and {@link #getData}.
+ */
+public class PixelArrayUShort extends PixelArray {
+
+  short data[];
+
+  public PixelArrayUShort() {
+    super(TYPE_USHORT, 0);
+    data = null;
+  }
+
+  public PixelArrayUShort(int size) {
+    super(TYPE_USHORT, size);
+    data = new short[size];
+  }
+
+  /**
+   * Provides direct access to the underlying array. Values are unsigned, use {@code (v &
+   * 0xffff)} to read them.
+   */
+  public short[] getData() {
+    return data;
+  }
+
+  public void setSize(int size) throws IllegalArgumentException {
+    resize(size, true);
+  }
+
+  // Reuses the current array if it has the right size, otherwise returns it to the buffer pool
+  // (if any) and obtains a new one
+  private void resize(int size, boolean clear) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Invalid size of pixel array.");
+    }
+    this.size = size;
+    if (data != null && data.length == size) {
+      if (clear) {
+	Arrays.fill(data, (short)0);
+      }
+      return;
+    }
+    if (pool != null) {
+      pool.release(data);
+    }
+    if (size == 0) {
+      this.data = null;
+    } else {
+      this.data = (pool != null ? pool.acquireShorts(size) : new short[size]);
+    }
+  }
+
+  @Override
+  public void readFrom(DataInput input, int size) throws IOException {
+    resize(size, false);
+    readShorts(input, data, size);
+  }
+
+  @Override
+  protected void transposeBands(int numPixels, int numBands, boolean toPlanar) {
+    short[] scratch = (pool != null ? pool.acquireShorts(size) : new short[size]);
+    System.arraycopy(data, 0, scratch, 0, size);
+    transposeBands(scratch, data, numPixels, numBands, toPlanar);
+    if (pool != null) {
+      pool.release(scratch);
+    }
+  }
+
+  public byte[] getByteArray() {
+    return ByteUtils.shortArrayToByteArray(data);
+  }
+
+  public void setFromByteArray(byte[] bytes) throws IllegalArgumentException {
+    if (bytes == null || bytes.length == 0) {
+      resize(0, false);
+      return;
+    }
+    if (bytes.length % 2 != 0) {
+      throw new IllegalArgumentException("Length of byte array is not evenly divisible by 2.");
+    }
+    // Converts straight into the current array if it has the right size
+    resize(bytes.length / 2, false);
+    ByteUtils.byteArrayToShortArray(bytes, 0, data, 0, size, ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * @return 16-bit value of element i in [0,65535]
+   */
+  public int getElemUShort(int i) {
+    return data[i] & 0xffff;
+  }
+
+  /**
+   * Sets element i to a 16-bit value, clamped to [0,65535].
+   */
+  public void setElemUShort(int i, int val) {
+    data[i] = (short)(val < 0 ? 0 : (val > 65535 ? 65535 : val));
+  }
+
+  public int getElem(int i) {
+    // Round to nearest 8-bit value
+    return ((data[i] & 0xffff) * 255 + 32767) / 65535;
+  }
+
+  public int getElemNonLinSRGB(int i) {
+    // Assumes values are stored in gamma compressed non-linear sRGB
+    // space
+    return getElem(i);
+  }
+
+  public void setElem(int i, int val) {
+    data[i] = (short)((val < 0 ? 0 : (val > 255 ? 255 : val)) * 257);
+  }
+
+  public void setElemNonLinSRGB(int i, int val) {
+    setElem(i, val);
+  }
+
+  public float getElemFloat(int i) {
+    return (float)(data[i] & 0xffff)/65535.0f;
+  }
+
+  public void setElemFloat(int i, float val) {
+    float scaled = val * 65535.0f + 0.5f;
+    data[i] = (short)(scaled <= 0.0f ? 0 : (scaled >= 65535.0f ? 65535 : (int)scaled));
+  }
+
+  public double getElemDouble(int i) {
+    return (double)(data[i] & 0xffff)/65535.0;
+  }
+
+  public void setElemDouble(int i, double val) {
+    double scaled = val * 65535.0 + 0.5;
+    data[i] = (short)(scaled <= 0.0 ? 0 : (scaled >= 65535.0 ? 65535 : (int)scaled));
+  }
+
+  @Override
+  public void copyTo(int srcPos, float[] dst, int dstPos, int length) {
+    for (int i=0; i<length; i++) {
+      dst[dstPos+i] = (float)(data[srcPos+i] & 0xffff)/65535.0f;
+    }
+  }
+
+  @Override
+  public void copyFrom(PixelArray src, int srcPos, int dstPos, int length) {
+    if (src instanceof PixelArrayUShort) {
+      System.arraycopy(((PixelArrayUShort)src).data, srcPos, data, dstPos, length);
+    } else {
+      super.copyFrom(src, srcPos, dstPos, length);
+    }
+  }
+
+  @Override
+  public void fill(int from, int to, float val) {
+    float scaled = val * 65535.0f + 0.5f;
+    Arrays.fill(data, from, to, (short)(scaled <= 0.0f ? 0 : (scaled >= 65535.0f ? 65535 : (int)scaled)));
+  }
+
+}
@@ -14,12 +14,17 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.lang.IllegalArgumentException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Abstract class that represents a raster (uncompressed) 2D image. A RasterImage extends the
  * abstract base class {@link HipiImage} and consists of a {@link HipiImageHeader} and a {@link
- * PixelArray}, which represents a flat array of uncompressed image pixel data stored in interleaved
- * raster-scan order (e.g., RGBRGBRGB...).
+ * PixelArray}, which represents a flat array of uncompressed image pixel data stored in raster-scan
+ * order. Bands are interleaved (e.g., RGBRGBRGB...) by default; multi-band images can also be
+ * stored in planar order (e.g., RRR...GGG...BBB...), see {@link #setLayout}. Operations that
+ * work on regions of an image, such as {@link #crop} and {@link #getView}, require the
+ * interleaved layout.
  */
 public abstract class RasterImage extends HipiImage {
 
@@ -40,6 +45,53 @@ public abstract class RasterImage extends HipiImage {
     return pixelArray;
   }
 
+  /**
+   * @return order in which the bands of the pixels of this image are stored
+   */
+  public PixelArray.Layout getLayout() {
+    return pixelArray.getLayout();
+  }
+
+  /**
+   * Converts the pixel data of this image to another layout in place (see {@link
+   * PixelArray#convertLayout}). Per-band loops over a planar image access contiguous memory,
+   * e.g., when computing per-channel statistics or feeding channel-major (CHW) models.
+   *
+   * @param layout target layout
+   */
+  public void setLayout(PixelArray.Layout layout) {
+    pixelArray.convertLayout(getNumBands(), layout);
+  }
+
+  /**
+   * Returns the position of a value in the pixel array of this image, taking the layout into
+   * account.
+   *
+   * @param x horizontal position of pixel
+   * @param y vertical position of pixel
+   * @param band band
+   *
+   * @return index of the value in the pixel array
+   */
+  public int getIndex(int x, int y, int band) {
+    if (pixelArray.getLayout() == PixelArray.Layout.PLANAR) {
+      return (band*getHeight() + y)*getWidth() + x;
+    }
+    return (y*getWidth() + x)*getNumBands() + band;
+  }
+
+  /**
+   * Verifies that the pixel data of this image is interleaved (or has a single band, in which
+   * case both layouts are the same).
+   *
+   * @throws IllegalArgumentException if the pixel data is stored in planar order
+   */
+  public void checkInterleaved() throws IllegalArgumentException {
+    if (pixelArray.getLayout() != PixelArray.Layout.INTERLEAVED && getNumBands() > 1) {
+      throw new IllegalArgumentException("Operation requires an image with interleaved layout.");
+    }
+  }
+
   /**
    * Compares two RasterImage objects for equality allowing for some
    * amount of differences in pixel values.
@@ -62,7 +114,8 @@ public abstract class RasterImage extends HipiImage {
 
   /**
    * Crops a raster image to a (width x height) rectangular region
-   * with top-left corner at (x,y) pixel location.
+   * with top-left corner at (x,y) pixel location. Rows are copied
+   * verbatim if the output has the same pixel type as this image.
    *
    * @param x horizontal position of upper left corner of crop rectangle
    * @param y vertical position of upper left corner of crop rectangle
@@ -72,74 +125,181 @@ public abstract class RasterImage extends HipiImage {
    */
   public void crop(int x, int y, int width, int height, RasterImage output)
     throws IllegalArgumentException {
-    int w = this.getWidth();
-    int h = this.getHeight();
-    int b = this.getNumBands();
-
     // Verify crop dimensions
-    if (x < 0 || width <= 0 || x+width > w || y < 0 || height <= 0 || y+height > h) {
+    if (x < 0 || width <= 0 || x+width > getWidth() || y < 0 || height <= 0 || y+height > getHeight()) {
       throw new IllegalArgumentException("Invalid crop region.");
     }
 
     // Verify crop output target
-    if (width != output.getWidth() || height != output.getHeight() || b != output.getNumBands()) {
+    if (width != output.getWidth() || height != output.getHeight() || getNumBands() != output.getNumBands()) {
       throw new IllegalArgumentException("Mismatch between size of crop region and size of crop " + 
         "output target.");
     }
 
-    PixelArray pa = output.getPixelArray();
+    getView(x, y, width, height).copyTo(output);
+  }
 
-    // Assemble cropped output
-    for (int j=y; j<y+height; j++) {
-      for (int i=x; i<x+width; i++) {
-	for (int c=0; c<b; c++) {
-	  pa.setElem(((j-y)*width+(i-x))*b+c,pixelArray.getElem((j*w+i)*b+c));
-	}
-      }
-    }    
+  /**
+   * Resizes a raster image to the dimensions of the output image.
+   *
+   * @param output output {@link RasterImage} target (must be initialized
+   * with the target dimensions and the number of bands of this image)
+   * @param interpolation resampling filter
+   *
+   * @see ImageResizer
+   */
+  public void resize(RasterImage output, ImageResizer.Interpolation interpolation)
+    throws IllegalArgumentException {
+    ImageResizer.resize(this, output, interpolation);
   }
 
   /**
-   * Convert image to another color space.
+   * Returns this image if its pixel data is interleaved, otherwise a
+   * copy of it with interleaved pixel data (e.g., for encoders and
+   * other consumers that expect interleaved order).
    *
-   * @param colorSpace target color space
-   * @param output output {@link RasterImage} target (must be initialized)
-   * 
+   * @return image with interleaved pixel data
    */
-  public void convertToColorSpace(HipiColorSpace colorSpace, RasterImage output)
+  public RasterImage getInterleaved() throws IllegalArgumentException {
+    if (pixelArray.getLayout() == PixelArray.Layout.INTERLEAVED || getNumBands() == 1) {
+      return this;
+    }
+    RasterImage copy = null;
+    try {
+      copy = getClass().newInstance();
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Failed to create copy of image [" + e.getMessage() + "].");
+    }
+    copy.getPixelArray().setLayout(PixelArray.Layout.PLANAR);
+    copy.setHeader(header);
+    copy.getPixelArray().copyFrom(pixelArray, 0, 0, pixelArray.getSize());
+    copy.setLayout(PixelArray.Layout.INTERLEAVED);
+    return copy;
+  }
+
+  /**
+   * Creates a view of a (width x height) rectangular region with
+   * top-left corner at (x,y) pixel location. The view refers to the
+   * pixel data of this image; no pixel values are copied.
+   *
+   * @param x horizontal position of upper left corner of region
+   * @param y vertical position of upper left corner of region
+   * @param width width of region
+   * @param height height of region
+   *
+   * @return view of the region
+   */
+  public ImageView getView(int x, int y, int width, int height)
     throws IllegalArgumentException {
-    if (getColorSpace() == colorSpace) {
-      throw new IllegalArgumentException("Cannot convert color space to itself.");
+    if (x < 0 || width <= 0 || x+width > getWidth() || y < 0 || height <= 0 || y+height > getHeight()) {
+      throw new IllegalArgumentException("Invalid view region.");
     }
-    if (getColorSpace() == HipiColorSpace.RGB && output.getColorSpace() == HipiColorSpace.LUM) {
+    checkInterleaved();
+    return new ImageView(pixelArray, getWidth()*getNumBands(), getNumBands(), x, y, width, height);
+  }
 
-      int w = this.getWidth();
-      int h = this.getHeight();
-      int b = this.getNumBands();
+  /**
+   * Returns the tiles of this image in raster-scan order as views
+   * (see {@link #getView}). Consecutive tiles overlap by the given
+   * number of pixels, and tiles along the right and bottom edges are
+   * clipped to the image. No pixel values are copied.
+   *
+   * @param tileWidth width of tiles
+   * @param tileHeight height of tiles
+   * @param overlap number of pixels shared by neighboring tiles (must
+   * be smaller than both tile dimensions)
+   *
+   * @return tiles covering the image
+   */
+  public Iterable<ImageView> tiles(final int tileWidth, final int tileHeight, final int overlap)
+    throws IllegalArgumentException {
+    if (tileWidth <= 0 || tileHeight <= 0 || overlap < 0 || overlap >= tileWidth || overlap >= tileHeight) {
+      throw new IllegalArgumentException("Invalid tile dimensions.");
+    }
+    checkInterleaved();
+    final int w = getWidth();
+    final int h = getHeight();
+    final int b = getNumBands();
+    final PixelArray pa = pixelArray;
+    return new Iterable<ImageView>() {
+      public Iterator<ImageView> iterator() {
+	return new Iterator<ImageView>() {
+	  private int x = 0;
+	  private int y = 0;
+
+	  public boolean hasNext() {
+	    return y < h;
+	  }
 
-      assert b == 3;
+	  public ImageView next() {
+	    if (!hasNext()) {
+	      throw new NoSuchElementException();
+	    }
+	    ImageView tile = new ImageView(pa, w*b, b, x, y, Math.min(tileWidth, w-x), Math.min(tileHeight, h-y));
+	    // Advance to next tile, moving to the next row of tiles once a tile reaches the right edge
+	    if (x+tileWidth < w) {
+	      x += tileWidth-overlap;
+	    } else {
+	      x = 0;
+	      y = (y+tileHeight < h ? y+tileHeight-overlap : h);
+	    }
+	    return tile;
+	  }
 
-      // Verify color conversion output target
-      if (w != output.getWidth() || h != output.getHeight() || 1 != output.getNumBands()) {
-	throw new IllegalArgumentException("Invalid dimensions in color convert output target.");
+	  public void remove() {
+	    throw new UnsupportedOperationException();
+	  }
+	};
       }
+    };
+  }
 
-      PixelArray pa = output.getPixelArray();
+  /**
+   * Copies one row of interleaved pixel values into a float array. Values are those returned by
+   * {@link PixelArray#getElemFloat}.
+   *
+   * @param row index of row
+   * @param dst destination array (must hold width*bands values starting at dstPos)
+   * @param dstPos starting position in destination array
+   */
+  public void copyRowTo(int row, float[] dst, int dstPos) {
+    checkInterleaved();
+    int n = getWidth()*getNumBands();
+    pixelArray.copyTo(row*n, dst, dstPos, n);
+  }
 
-      // Perform color conversion
-      for (int j=0; j<h; j++) {
-	for (int i=0; i<w; i++) {
-	  float red = pixelArray.getElem((j*w+i)*3+0);
-	  float grn = pixelArray.getElem((j*w+i)*3+0);
-	  float blu = pixelArray.getElem((j*w+i)*3+0);
-	  float lum = red * 0.30f + grn * 0.59f + blu * 0.11f;
-	  pa.setElemFloat((j*w+i),lum);
-	}
-      }
-      
-    } else {
-      throw new IllegalArgumentException("Not implemented.");
+  /**
+   * Copies one row of interleaved pixel values into a byte array. Values are those returned by
+   * {@link PixelArray#getElem}.
+   *
+   * @param row index of row
+   * @param dst destination array (must hold width*bands values starting at dstPos)
+   * @param dstPos starting position in destination array
+   */
+  public void copyRowTo(int row, byte[] dst, int dstPos) {
+    checkInterleaved();
+    int n = getWidth()*getNumBands();
+    pixelArray.copyTo(row*n, dst, dstPos, n);
+  }
+
+  /**
+   * Convert image to another color space. See {@link ColorSpaceConverter} for the supported
+   * conversions and the conventions used for each color space.
+   *
+   * @param colorSpace target color space
+   * @param output output {@link RasterImage} target (must be initialized with the target color
+   * space and the same dimensions as this image)
+   * 
+   */
+  public void convertToColorSpace(HipiColorSpace colorSpace, RasterImage output)
+    throws IllegalArgumentException {
+    if (getColorSpace() == colorSpace) {
+      throw new IllegalArgumentException("Cannot convert color space to itself.");
+    }
+    if (output.getColorSpace() != colorSpace) {
+      throw new IllegalArgumentException("Color space of color convert output target does not match target color space.");
     }
+    ColorSpaceConverter.convert(this, output);
   }
 
   /**
@@ -159,6 +319,12 @@ public abstract class RasterImage extends HipiImage {
     case BYTE:
       typeString = "ByteImage";
       break;
+    case HALF:
+      typeString = "HalfImage";
+      break;
+    case USHORT:
+      typeString = "UShortImage";
+      break;
     default:
     }
     int w = this.getWidth();
@@ -170,10 +336,12 @@ public abstract class RasterImage extends HipiImage {
     for (int i=0; i<n; i++) {
       result.append("(");
       for (int c=0; c<b; c++) {
-	if (getType() == HipiImageType.FLOAT) {
-	  result.append(String.format("%.2f",pixelArray.getElemFloat(i*b+c)));
+	if (getType() == HipiImageType.FLOAT || getType() == HipiImageType.HALF) {
+	  result.append(String.format("%.2f",pixelArray.getElemFloat(getIndex(i%w,i/w,c))));
+	} else if (getType() == HipiImageType.USHORT) {
+	  result.append(((PixelArrayUShort)pixelArray).getElemUShort(getIndex(i%w,i/w,c)));
 	} else {
-	  result.append(pixelArray.getElem(i*b+c));
+	  result.append(pixelArray.getElem(getIndex(i%w,i/w,c)));
 	}
 	if (c<(b-1))
 	  result.append(" ");
@@ -201,18 +369,29 @@ public abstract class RasterImage extends HipiImage {
   }
 
   /**
-   * Writes raster image in a simple uncompressed binary format.
+   * Writes raster image in a simple uncompressed binary format. Pixel
+   * values are always written in interleaved order.
    * @see org.apache.hadoop.io.Writable#write
    */
   @Override
   public void write(DataOutput output) throws IOException {
     header.write(output);
-    output.write(pixelArray.getByteArray());
+    byte[] bytes = pixelArray.getByteArray();
+    int b = getNumBands();
+    if (pixelArray.getLayout() == PixelArray.Layout.PLANAR && b > 1) {
+      byte[] interleaved = new byte[bytes.length];
+      PixelArray.transposeBands(bytes, interleaved, getWidth()*getHeight(), b,
+				PixelArray.getDataTypeSize(pixelArray.getDataType()), false);
+      bytes = interleaved;
+    }
+    output.write(bytes);
   }
 
   /**
    * Reads a raster image stored in a simple uncompressed binary
-   * format.
+   * format. The pixel data is read directly into the existing pixel
+   * array, whose backing array is reused when the image size does not
+   * change. The layout of the pixel array is preserved.
    * @see org.apache.hadoop.io.Writable#readFields
    */
   @Override
@@ -222,11 +401,22 @@ public abstract class RasterImage extends HipiImage {
     int w = this.getWidth();
     int h = this.getHeight();
     int b = this.getNumBands();
-    int numBytes = w*h*b*PixelArray.getDataTypeSize(pixelArray.getDataType());
-    // Read pixel data
-    byte[] pixelBytes = new byte[numBytes];
-    input.readFully(pixelBytes);
-    pixelArray.setFromByteArray(pixelBytes);
+    // Read pixel data, which is stored in interleaved order
+    PixelArray.Layout layout = pixelArray.getLayout();
+    pixelArray.setLayout(PixelArray.Layout.INTERLEAVED);
+    pixelArray.readFrom(input, w*h*b);
+    setLayout(layout);
+  }
+
+  /**
+   * Returns the pixel data of this image to the buffer pool of its
+   * pixel array, if any (see {@link HipiImageFactory#setBufferPool}),
+   * so that it can be reused for subsequent images. Mappers may call
+   * this once they are done with an image; the image, and any array
+   * obtained from it, must not be used afterwards.
+   */
+  public void release() {
+    pixelArray.release();
   }
 
 } // public abstract class RasterImage<T>...
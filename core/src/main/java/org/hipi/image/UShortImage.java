@@ -0,0 +1,126 @@
+package org.hipi.image;
+
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.RasterImage;
+import org.hipi.image.PixelArrayUShort;
+import org.hipi.util.ByteUtils;
+
+/**
+ * A raster image represented as an array of unsigned 16-bit values. A UShortImage consists of a
+ * flat array of pixel values represented as a {@link PixelArrayUShort} object along with a {@link
+ * HipiImageHeader} object.
+ *
+ * Decoding a 16-bit image (e.g., a 16-bit PNG) into a UShortImage preserves the full precision
+ * of the stored samples. Images with 8-bit samples are expanded to 16 bits.
+ */
+public class UShortImage extends RasterImage {
+
+  public UShortImage() {
+    super((PixelArray)(new PixelArrayUShort()));
+  }
+
+  public UShortImage(int width, int height, int bands, HipiImageFormat imgFormat, HipiColorSpace colorspace) throws IllegalArgumentException {
+    super((PixelArray)(new PixelArrayUShort()));
+    HipiImageHeader header = new HipiImageHeader(imgFormat, colorspace,
+                         width, height, bands, null, null);
+    setHeader(header);
+  }
+
+  /**
+   * Get object type identifier.
+   *
+   * @return Type of object.
+   */
+  public HipiImageType getType() {
+    return HipiImageType.USHORT;
+  }
+
+  /**
+   * Provides direct access to underlying array of unsigned 16-bit pixel values.
+   */
+  public short[] getData() {
+    return ((PixelArrayUShort)this.pixelArray).getData();
+  }
+
+  /**
+   * Compares two images for equality allowing for some amount of differences in pixel values.
+   * If both images are UShortImage objects the maximum difference is in 16-bit units, otherwise
+   * it is in 8-bit units (see {@link PixelArray#getElem}).
+   *
+   * @return True if the two images have equal dimensions, color spaces, and are found to deviate
+   * by less than a maximum difference, false otherwise.
+   */
+  public boolean equalsWithTolerance(RasterImage thatImage, float maxDifference) {
+    if (thatImage == null) {
+      return false;
+    }
+    // Verify dimensions in headers are equal
+    int w = this.getWidth();
+    int h = this.getHeight();
+    int b = this.getNumBands();
+    if (this.getColorSpace() != thatImage.getColorSpace() ||
+	thatImage.getWidth() != w || thatImage.getHeight() != h ||
+	thatImage.getNumBands() != b || thatImage.getLayout() != this.getLayout()) {
+      return false;
+    }
+
+    PixelArray thisPA = this.getPixelArray();
+    PixelArray thatPA = thatImage.getPixelArray();
+
+    // Compare 16-bit values directly if possible
+    if (thatPA instanceof PixelArrayUShort) {
+      short[] thisData = getData();
+      short[] thatData = ((PixelArrayUShort)thatPA).getData();
+      for (int i=0; i<w*h*b; i++) {
+	if ((float)Math.abs((thisData[i] & 0xffff) - (thatData[i] & 0xffff)) > maxDifference) {
+	  return false;
+	}
+      }
+      return true;
+    }
+
+    // Check that pixel data is equal
+    for (int i=0; i<w*h*b; i++) {
+      if ((float)Math.abs(thisPA.getElem(i) - thatPA.getElem(i)) > maxDifference) {
+	return false;
+      }
+    }
+
+    // Passed, declare equality
+    return true;
+  }
+
+  /**
+   * Compares two UShortImage objects for equality.
+   *
+   * @return True if the two images have equal dimensions, color spaces, and pixel values, false
+   * otherwise.
+   */
+  @Override
+  public boolean equals(Object that) {
+    // Check for pointer equivalence
+    if (this == that)
+      return true;
+
+    // Verify object types are equal
+    if (!(that instanceof UShortImage))
+      return false;
+
+    return equalsWithTolerance((UShortImage)that, 0.0f);
+  }
+
+  /**
+   * Computes hash of image pixel data.
+   *
+   * @return Hash of pixel data represented as a string.
+   *
+   * @see ByteUtils#asHex is used to compute the hash.
+   */
+  @Override
+  public String hex() {
+    return ByteUtils.asHex(pixelArray.getByteArray());
+  }
+
+} // public class UShortImage
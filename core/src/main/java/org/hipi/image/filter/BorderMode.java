@@ -0,0 +1,52 @@
+package org.hipi.image.filter;
+
+/**
+ * Determines how pixel values outside the boundaries of an image are obtained during
+ * filtering. For an image row abcdefgh:
+ *
+ * <pre>
+ * CONSTANT   000|abcdefgh|000
+ * REPLICATE  aaa|abcdefgh|hhh
+ * REFLECT    dcb|abcdefgh|gfe
+ * WRAP       fgh|abcdefgh|abc
+ * </pre>
+ */
+public enum BorderMode {
+  CONSTANT, REPLICATE, REFLECT, WRAP;
+
+  /**
+   * Maps a position that may lie outside of [0,n) to a position inside it.
+   *
+   * @param i position
+   * @param n number of positions (must be positive)
+   *
+   * @return position in [0,n), or -1 if the value at the position is zero (CONSTANT mode)
+   */
+  public int map(int i, int n) {
+    if (i >= 0 && i < n) {
+      return i;
+    }
+    switch (this) {
+    case CONSTANT:
+      return -1;
+    case REPLICATE:
+      return (i < 0 ? 0 : n-1);
+    case REFLECT:
+      if (n == 1) {
+	return 0;
+      }
+      // Reflection about the first and last positions repeats with period 2(n-1)
+      int period = 2*(n-1);
+      i = i % period;
+      if (i < 0) {
+	i += period;
+      }
+      return (i < n ? i : period-i);
+    case WRAP:
+    default:
+      i = i % n;
+      return (i < 0 ? i+n : i);
+    }
+  }
+
+}
@@ -0,0 +1,297 @@
+package org.hipi.image.filter;
+
+import org.hipi.image.ImageOps;
+import org.hipi.image.PixelArray;
+import org.hipi.image.RasterImage;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+ * Applies filter kernels to raster images. Each band is filtered independently, on the values
+ * returned by {@link PixelArray#getElemFloat} (e.g., values in [0,1] for a ByteImage), and the
+ * results are stored with {@link PixelArray#setElemFloat} semantics, so that filtering a
+ * ByteImage into a ByteImage clamps negative responses to zero. Filter into a FloatImage to
+ * retain signed responses such as image gradients.
+ *
+ * The output image is processed in parallel in bands of rows (see {@link ImageOps}). Each band
+ * is further divided into tiles of rows whose (border-padded) input fits in the processor
+ * cache, and every row of a tile is computed with contiguous multiply-add loops over entire
+ * rows that the JIT compiler can vectorize. The convolve methods apply large kernels with
+ * {@link FFTConvolution} instead, whose cost does not depend on the size of the kernel.
+ */
+public final class Convolution {
+
+  // Target size of the input rows of a tile
+  private static final int TILE_BYTES = 256 << 10;
+
+  // Measured cost of FFT convolution per padded pixel and log2 of the padded size, relative to
+  // one multiply-add of direct convolution
+  private static final double FFT_COST_FACTOR = 6.0;
+
+  private Convolution() {
+  }
+
+  /**
+   * Filters an image with a Gaussian kernel of radius ceil(3*sigma), reflecting the image at its
+   * borders.
+   *
+   * @param src input image
+   * @param sigma standard deviation in pixels
+   * @param dst output image (must be initialized with the dimensions of the input)
+   */
+  public static void gaussianBlur(RasterImage src, double sigma, RasterImage dst)
+    throws IllegalArgumentException {
+    convolve(src, SeparableKernel.gaussian(sigma), BorderMode.REFLECT, dst);
+  }
+
+  /**
+   * Filters an image with a normalized box kernel, reflecting the image at its borders.
+   *
+   * @param src input image
+   * @param width width of box (must be odd)
+   * @param height height of box (must be odd)
+   * @param dst output image (must be initialized with the dimensions of the input)
+   */
+  public static void boxBlur(RasterImage src, int width, int height, RasterImage dst)
+    throws IllegalArgumentException {
+    convolve(src, SeparableKernel.box(width, height), BorderMode.REFLECT, dst);
+  }
+
+  static void checkImages(RasterImage src, RasterImage dst) throws IllegalArgumentException {
+    if (src == null || dst == null) {
+      throw new IllegalArgumentException("Input and output images must not be null.");
+    }
+    if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight() ||
+	src.getNumBands() != dst.getNumBands()) {
+      throw new IllegalArgumentException("Mismatch between size of input image and size of output target.");
+    }
+    if (src.getPixelArray() == dst.getPixelArray()) {
+      throw new IllegalArgumentException("Convolution cannot be performed in place.");
+    }
+    src.checkInterleaved();
+    dst.checkInterleaved();
+  }
+
+  // Number of output rows per tile given the length of a padded input row. Tiles have at least
+  // as many rows as the kernel overlaps with neighboring tiles, so that no more than half of
+  // the input rows of a tile are loaded twice.
+  private static int tileRows(int paddedLength, int radiusY) {
+    return Math.max(Math.max(1, 2*radiusY), TILE_BYTES/(4*paddedLength) - 2*radiusY);
+  }
+
+  // Copies a row of the input into buf, extended by padX pixels on both sides according to the
+  // border mode
+  private static void loadRow(PixelArray pa, int w, int b, int row, int padX, BorderMode border,
+			      float[] buf, int pos) {
+    pa.copyTo(row*w*b, buf, pos + padX*b, w*b);
+    for (int x=-padX; x<0; x++) {
+      loadPixel(w, b, x, padX, border, buf, pos);
+    }
+    for (int x=w; x<w+padX; x++) {
+      loadPixel(w, b, x, padX, border, buf, pos);
+    }
+  }
+
+  private static void loadPixel(int w, int b, int x, int padX, BorderMode border, float[] buf, int pos) {
+    int dst = pos + (x+padX)*b;
+    int sx = border.map(x, w);
+    if (sx < 0) {
+      Arrays.fill(buf, dst, dst+b, 0.0f);
+    } else {
+      System.arraycopy(buf, pos + (sx+padX)*b, buf, dst, b);
+    }
+  }
+
+  /**
+   * Filters an image with a separable kernel. Kernels whose width plus height is large relative
+   * to the logarithm of the image size are applied with {@link FFTConvolution}, all others with
+   * {@link #convolveDirect(RasterImage, SeparableKernel, BorderMode, RasterImage)}.
+   *
+   * @param src input image
+   * @param kernel filter kernel
+   * @param border determines pixel values outside of the input image
+   * @param dst output image (must be initialized with the dimensions of the input and must not
+   * share pixel data with it)
+   */
+  public static void convolve(RasterImage src, SeparableKernel kernel, BorderMode border,
+			      RasterImage dst) throws IllegalArgumentException {
+    checkImages(src, dst);
+    if (useFFT(src.getWidth(), src.getHeight(), kernel.getWidth(), kernel.getHeight(),
+	       kernel.getWidth() + kernel.getHeight())) {
+      FFTConvolution.convolve(src, kernel, border, dst);
+    } else {
+      convolveDirect(src, kernel, border, dst);
+    }
+  }
+
+  /**
+   * Filters an image with a general two-dimensional kernel. Kernels whose area is large relative
+   * to the logarithm of the image size are applied with {@link FFTConvolution}, all others with
+   * {@link #convolveDirect(RasterImage, Kernel, BorderMode, RasterImage)}.
+   *
+   * @param src input image
+   * @param kernel filter kernel
+   * @param border determines pixel values outside of the input image
+   * @param dst output image (must be initialized with the dimensions of the input and must not
+   * share pixel data with it)
+   */
+  public static void convolve(RasterImage src, Kernel kernel, BorderMode border,
+			      RasterImage dst) throws IllegalArgumentException {
+    checkImages(src, dst);
+    if (useFFT(src.getWidth(), src.getHeight(), kernel.getWidth(), kernel.getHeight(),
+	       kernel.getWidth() * kernel.getHeight())) {
+      FFTConvolution.convolve(src, kernel, border, dst);
+    } else {
+      convolveDirect(src, kernel, border, dst);
+    }
+  }
+
+  // Compares the number of multiply-adds per pixel of direct convolution with an estimate of the
+  // cost of the forward and inverse FFT of the padded image
+  static boolean useFFT(int w, int h, int kw, int kh, int directCost) {
+    long fw = FFT.nextFastSize(w + kw - 1);
+    long fh = FFT.nextFastSize(h + kh - 1);
+    double fftCost = FFT_COST_FACTOR * (fw*fh) * (Math.log(fw*fh)/Math.log(2.0)) / ((double)w*h);
+    return directCost > fftCost;
+  }
+
+  /**
+   * Filters an image with a separable kernel, using a horizontal pass followed by a vertical
+   * pass over each tile of rows.
+   *
+   * @param src input image
+   * @param kernel filter kernel
+   * @param border determines pixel values outside of the input image
+   * @param dst output image (must be initialized with the dimensions of the input and must not
+   * share pixel data with it)
+   */
+  public static void convolveDirect(final RasterImage src, final SeparableKernel kernel,
+			      final BorderMode border, final RasterImage dst) throws IllegalArgumentException {
+    checkImages(src, dst);
+    final int w = src.getWidth();
+    final int h = src.getHeight();
+    final int b = src.getNumBands();
+    final int n = w*b;
+    final float[] hk = kernel.horizontal;
+    final float[] vk = kernel.vertical;
+    final int rx = hk.length/2;
+    final int ry = vk.length/2;
+    final int paddedLength = (w+2*rx)*b;
+    final PixelArray in = src.getPixelArray();
+    final PixelArray out = dst.getPixelArray();
+
+    ImageOps.parallelMap(h, n, (startRow, endRow) -> {
+      int tileRows = Math.min(endRow-startRow, tileRows(paddedLength, ry));
+      float[] padded = new float[paddedLength];
+      float[] inter = new float[(tileRows+2*ry)*n];
+      float[] acc = new float[n];
+
+      for (int t0=startRow; t0<endRow; t0+=tileRows) {
+	int t1 = Math.min(endRow, t0+tileRows);
+
+	// Horizontal pass over the input rows of the tile
+	for (int r=0; r<t1-t0+2*ry; r++) {
+	  int base = r*n;
+	  Arrays.fill(inter, base, base+n, 0.0f);
+	  int row = border.map(t0-ry+r, h);
+	  if (row < 0) {
+	    continue;
+	  }
+	  loadRow(in, w, b, row, rx, border, padded, 0);
+	  for (int k=0; k<hk.length; k++) {
+	    float c = hk[k];
+	    if (c == 0.0f) {
+	      continue;
+	    }
+	    int off = k*b;
+	    for (int i=0; i<n; i++) {
+	      inter[base+i] += c * padded[off+i];
+	    }
+	  }
+	}
+
+	// Vertical pass
+	for (int y=t0; y<t1; y++) {
+	  Arrays.fill(acc, 0.0f);
+	  for (int k=0; k<vk.length; k++) {
+	    float c = vk[k];
+	    if (c == 0.0f) {
+	      continue;
+	    }
+	    int base = (y-t0+k)*n;
+	    for (int i=0; i<n; i++) {
+	      acc[i] += c * inter[base+i];
+	    }
+	  }
+	  out.copyFrom(acc, 0, y*n, n);
+	}
+      }
+    });
+  }
+
+  /**
+   * Filters an image with a general two-dimensional kernel.
+   *
+   * @param src input image
+   * @param kernel filter kernel
+   * @param border determines pixel values outside of the input image
+   * @param dst output image (must be initialized with the dimensions of the input and must not
+   * share pixel data with it)
+   */
+  public static void convolveDirect(final RasterImage src, final Kernel kernel,
+			      final BorderMode border, final RasterImage dst) throws IllegalArgumentException {
+    checkImages(src, dst);
+    final int w = src.getWidth();
+    final int h = src.getHeight();
+    final int b = src.getNumBands();
+    final int n = w*b;
+    final float[] k = kernel.data;
+    final int kw = kernel.getWidth();
+    final int kh = kernel.getHeight();
+    final int rx = kw/2;
+    final int ry = kh/2;
+    final int paddedLength = (w+2*rx)*b;
+    final PixelArray in = src.getPixelArray();
+    final PixelArray out = dst.getPixelArray();
+
+    ImageOps.parallelMap(h, n, (startRow, endRow) -> {
+      int tileRows = Math.min(endRow-startRow, tileRows(paddedLength, ry));
+      float[] rows = new float[(tileRows+2*ry)*paddedLength];
+      float[] acc = new float[n];
+
+      for (int t0=startRow; t0<endRow; t0+=tileRows) {
+	int t1 = Math.min(endRow, t0+tileRows);
+
+	// Load padded input rows of the tile
+	for (int r=0; r<t1-t0+2*ry; r++) {
+	  int row = border.map(t0-ry+r, h);
+	  if (row < 0) {
+	    Arrays.fill(rows, r*paddedLength, (r+1)*paddedLength, 0.0f);
+	  } else {
+	    loadRow(in, w, b, row, rx, border, rows, r*paddedLength);
+	  }
+	}
+
+	for (int y=t0; y<t1; y++) {
+	  Arrays.fill(acc, 0.0f);
+	  for (int j=0; j<kh; j++) {
+	    int base = (y-t0+j)*paddedLength;
+	    for (int i=0; i<kw; i++) {
+	      float c = k[j*kw+i];
+	      if (c == 0.0f) {
+		continue;
+	      }
+	      int off = base + i*b;
+	      for (int x=0; x<n; x++) {
+		acc[x] += c * rows[off+x];
+	      }
+	    }
+	  }
+	  out.copyFrom(acc, 0, y*n, n);
+	}
+      }
+    });
+  }
+
+}
@@ -0,0 +1,274 @@
+package org.hipi.image.filter;
+
+import java.lang.IllegalArgumentException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plan for complex discrete Fourier transforms of a fixed length whose prime factors are 2, 3
+ * and 5 (see {@link #nextFastSize}). The transform is a mixed-radix Cooley-Tukey decomposition
+ * with precomputed twiddle factors. Plans are immutable and can be shared between threads;
+ * {@link #getPlan} returns a cached plan for each length.
+ *
+ * The forward transform computes X[k] = sum_j x[j] exp(-2 pi i jk/n). The inverse transform
+ * uses the opposite sign and is not normalized, i.e., a forward followed by an inverse
+ * transform scales the input by n.
+ */
+public class FFT {
+
+  private static final ConcurrentHashMap<Integer, FFT> plans = new ConcurrentHashMap<Integer, FFT>();
+
+  private final int n;
+  private final int[] factors;
+  private final float[] cos;
+  private final float[] sin;
+
+  /**
+   * Returns the plan for transforms of length n, creating it if necessary.
+   *
+   * @param n length of transform (must be a positive product of 2, 3 and 5)
+   */
+  public static FFT getPlan(int n) throws IllegalArgumentException {
+    FFT plan = plans.get(n);
+    if (plan == null) {
+      plan = new FFT(n);
+      FFT existing = plans.putIfAbsent(n, plan);
+      if (existing != null) {
+	plan = existing;
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * @return smallest length greater than or equal to n that has no prime factors other than
+   * 2, 3 and 5
+   */
+  public static int nextFastSize(int n) {
+    if (n <= 1) {
+      return 1;
+    }
+    for (int m=n; ; m++) {
+      int r = m;
+      while (r % 2 == 0) r /= 2;
+      while (r % 3 == 0) r /= 3;
+      while (r % 5 == 0) r /= 5;
+      if (r == 1) {
+	return m;
+      }
+    }
+  }
+
+  public FFT(int n) throws IllegalArgumentException {
+    if (n <= 0 || nextFastSize(n) != n) {
+      throw new IllegalArgumentException("FFT length must be a positive product of 2, 3 and 5 [" + n + "].");
+    }
+    this.n = n;
+
+    // Factor n, preferring radix 4
+    int count = 0;
+    int[] f = new int[32];
+    int r = n;
+    while (r % 4 == 0) { f[count++] = 4; r /= 4; }
+    while (r % 2 == 0) { f[count++] = 2; r /= 2; }
+    while (r % 3 == 0) { f[count++] = 3; r /= 3; }
+    while (r % 5 == 0) { f[count++] = 5; r /= 5; }
+    factors = new int[count];
+    System.arraycopy(f, 0, factors, 0, count);
+
+    // Twiddle factors exp(-2 pi i j/n)
+    cos = new float[n];
+    sin = new float[n];
+    for (int j=0; j<n; j++) {
+      double a = -2.0*Math.PI*j/n;
+      cos[j] = (float)Math.cos(a);
+      sin[j] = (float)Math.sin(a);
+    }
+  }
+
+  public int getLength() {
+    return n;
+  }
+
+  /**
+   * Transforms n complex values read with a stride from the input arrays and writes the result
+   * contiguously to the output arrays. Input and output must not overlap.
+   *
+   * @param inRe real parts of input
+   * @param inIm imaginary parts of input
+   * @param inOff position of first input value
+   * @param inStride distance between consecutive input values
+   * @param outRe real parts of output
+   * @param outIm imaginary parts of output
+   * @param outOff position of first output value
+   * @param inverse true for the inverse transform
+   */
+  public void transform(float[] inRe, float[] inIm, int inOff, int inStride,
+			float[] outRe, float[] outIm, int outOff, boolean inverse) {
+    if (n == 1) {
+      outRe[outOff] = inRe[inOff];
+      outIm[outOff] = inIm[inOff];
+      return;
+    }
+    transform(inRe, inIm, inOff, inStride, outRe, outIm, outOff, n, 0, inverse ? -1 : 1);
+  }
+
+  // Decimation in time: transforms the p interleaved subsequences of length m = len/p into
+  // consecutive blocks of the output, then combines them with radix-p butterflies in place
+  private void transform(float[] inRe, float[] inIm, int inOff, int inStride,
+			 float[] outRe, float[] outIm, int outOff, int len, int level, int sign) {
+    int p = factors[level];
+    int m = len/p;
+    if (m == 1) {
+      for (int q=0; q<p; q++) {
+	outRe[outOff+q] = inRe[inOff+q*inStride];
+	outIm[outOff+q] = inIm[inOff+q*inStride];
+      }
+    } else {
+      for (int q=0; q<p; q++) {
+	transform(inRe, inIm, inOff+q*inStride, inStride*p, outRe, outIm, outOff+q*m, m, level+1, sign);
+      }
+    }
+
+    // Twiddle factor W_len^j is entry j*step of the table
+    int step = n/len;
+    switch (p) {
+    case 2:
+      butterfly2(outRe, outIm, outOff, m, step, sign);
+      break;
+    case 3:
+      butterfly3(outRe, outIm, outOff, m, step, sign);
+      break;
+    case 4:
+      butterfly4(outRe, outIm, outOff, m, step, sign);
+      break;
+    case 5:
+      butterfly5(outRe, outIm, outOff, m, step, sign);
+      break;
+    default:
+      butterfly(outRe, outIm, outOff, m, p, step, sign);
+    }
+  }
+
+  private void butterfly2(float[] re, float[] im, int off, int m, int step, int sign) {
+    for (int k=0; k<m; k++) {
+      int a = off+k;
+      int b = a+m;
+      float wr = cos[k*step];
+      float wi = sign*sin[k*step];
+      float tr = re[b]*wr - im[b]*wi;
+      float ti = re[b]*wi + im[b]*wr;
+      re[b] = re[a] - tr;
+      im[b] = im[a] - ti;
+      re[a] += tr;
+      im[a] += ti;
+    }
+  }
+
+  private static final float SIN_60 = (float)Math.sin(Math.PI/3.0);
+  private static final float COS_72 = (float)Math.cos(2.0*Math.PI/5.0);
+  private static final float SIN_72 = (float)Math.sin(2.0*Math.PI/5.0);
+  private static final float COS_144 = (float)Math.cos(4.0*Math.PI/5.0);
+  private static final float SIN_144 = (float)Math.sin(4.0*Math.PI/5.0);
+
+  private void butterfly3(float[] re, float[] im, int off, int m, int step, int sign) {
+    float s3 = sign*SIN_60;
+    for (int k=0; k<m; k++) {
+      int i0 = off+k, i1 = i0+m, i2 = i1+m;
+      int t1 = k*step, t2 = 2*k*step;
+      float r1 = re[i1]*cos[t1] - im[i1]*sign*sin[t1];
+      float m1 = re[i1]*sign*sin[t1] + im[i1]*cos[t1];
+      float r2 = re[i2]*cos[t2] - im[i2]*sign*sin[t2];
+      float m2 = re[i2]*sign*sin[t2] + im[i2]*cos[t2];
+      float sr = r1 + r2, si = m1 + m2;
+      float dr = r1 - r2, di = m1 - m2;
+      float ar = re[i0] - 0.5f*sr, ai = im[i0] - 0.5f*si;
+      re[i0] += sr; im[i0] += si;
+      re[i1] = ar + s3*di; im[i1] = ai - s3*dr;
+      re[i2] = ar - s3*di; im[i2] = ai + s3*dr;
+    }
+  }
+
+  private void butterfly5(float[] re, float[] im, int off, int m, int step, int sign) {
+    float s1 = sign*SIN_72;
+    float s2 = sign*SIN_144;
+    for (int k=0; k<m; k++) {
+      int i0 = off+k, i1 = i0+m, i2 = i1+m, i3 = i2+m, i4 = i3+m;
+      int t1 = k*step, t2 = 2*k*step, t3 = 3*k*step, t4 = 4*k*step;
+      float r1 = re[i1]*cos[t1] - im[i1]*sign*sin[t1];
+      float m1 = re[i1]*sign*sin[t1] + im[i1]*cos[t1];
+      float r2 = re[i2]*cos[t2] - im[i2]*sign*sin[t2];
+      float m2 = re[i2]*sign*sin[t2] + im[i2]*cos[t2];
+      float r3 = re[i3]*cos[t3] - im[i3]*sign*sin[t3];
+      float m3 = re[i3]*sign*sin[t3] + im[i3]*cos[t3];
+      float r4 = re[i4]*cos[t4] - im[i4]*sign*sin[t4];
+      float m4 = re[i4]*sign*sin[t4] + im[i4]*cos[t4];
+      float b1r = r1 + r4, b1i = m1 + m4;
+      float b2r = r2 + r3, b2i = m2 + m3;
+      float d1r = r1 - r4, d1i = m1 - m4;
+      float d2r = r2 - r3, d2i = m2 - m3;
+      float r0 = re[i0], m0 = im[i0];
+      float a1r = r0 + COS_72*b1r + COS_144*b2r, a1i = m0 + COS_72*b1i + COS_144*b2i;
+      float a2r = r0 + COS_144*b1r + COS_72*b2r, a2i = m0 + COS_144*b1i + COS_72*b2i;
+      float c1r = s1*d1r + s2*d2r, c1i = s1*d1i + s2*d2i;
+      float c2r = s2*d1r - s1*d2r, c2i = s2*d1i - s1*d2i;
+      re[i0] = r0 + b1r + b2r; im[i0] = m0 + b1i + b2i;
+      re[i1] = a1r + c1i; im[i1] = a1i - c1r;
+      re[i4] = a1r - c1i; im[i4] = a1i + c1r;
+      re[i2] = a2r + c2i; im[i2] = a2i - c2r;
+      re[i3] = a2r - c2i; im[i3] = a2i + c2r;
+    }
+  }
+
+  private void butterfly4(float[] re, float[] im, int off, int m, int step, int sign) {
+    for (int k=0; k<m; k++) {
+      int i0 = off+k, i1 = i0+m, i2 = i1+m, i3 = i2+m;
+      int t1 = k*step, t2 = 2*k*step, t3 = 3*k*step;
+      float r0 = re[i0], m0 = im[i0];
+      float r1 = re[i1]*cos[t1] - im[i1]*sign*sin[t1];
+      float m1 = re[i1]*sign*sin[t1] + im[i1]*cos[t1];
+      float r2 = re[i2]*cos[t2] - im[i2]*sign*sin[t2];
+      float m2 = re[i2]*sign*sin[t2] + im[i2]*cos[t2];
+      float r3 = re[i3]*cos[t3] - im[i3]*sign*sin[t3];
+      float m3 = re[i3]*sign*sin[t3] + im[i3]*cos[t3];
+      float ar = r0 + r2, ai = m0 + m2;
+      float br = r0 - r2, bi = m0 - m2;
+      float cr = r1 + r3, ci = m1 + m3;
+      // (r1 - r3) multiplied by -i (forward) or i (inverse)
+      float dr = sign*(m1 - m3), di = -sign*(r1 - r3);
+      re[i0] = ar + cr; im[i0] = ai + ci;
+      re[i1] = br + dr; im[i1] = bi + di;
+      re[i2] = ar - cr; im[i2] = ai - ci;
+      re[i3] = br - dr; im[i3] = bi - di;
+    }
+  }
+
+  private void butterfly(float[] re, float[] im, int off, int m, int p, int step, int sign) {
+    float[] tr = new float[p];
+    float[] ti = new float[p];
+    int len = m*p;
+    for (int k=0; k<m; k++) {
+      for (int q=0; q<p; q++) {
+	int t = (q*k % len)*step;
+	float wr = cos[t];
+	float wi = sign*sin[t];
+	int i = off + q*m + k;
+	tr[q] = re[i]*wr - im[i]*wi;
+	ti[q] = re[i]*wi + im[i]*wr;
+      }
+      for (int r=0; r<p; r++) {
+	float sr = 0.0f, si = 0.0f;
+	for (int q=0; q<p; q++) {
+	  // W_p^(qr) is entry (qr mod p)*m*step of the table
+	  int t = (q*r % p)*m*step;
+	  float wr = cos[t];
+	  float wi = sign*sin[t];
+	  sr += tr[q]*wr - ti[q]*wi;
+	  si += tr[q]*wi + ti[q]*wr;
+	}
+	re[off + r*m + k] = sr;
+	im[off + r*m + k] = si;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,123 @@
+package org.hipi.image.filter;
+
+import org.hipi.image.ImageOps;
+import org.hipi.image.PixelArray;
+import org.hipi.image.RasterImage;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+ * Applies filter kernels to raster images by multiplication in the frequency domain (see
+ * {@link RealFFT2D}). The cost is O(n log n) in the number of pixels n regardless of the size
+ * of the kernel, which makes this considerably faster than {@link Convolution} for large
+ * kernels. {@link Convolution#convolve(RasterImage, Kernel, BorderMode, RasterImage)} switches to
+ * this class automatically when that is expected to be faster.
+ *
+ * Each band is extended by the radius of the kernel on all sides according to the border mode
+ * and zero-padded to dimensions that are products of 2, 3 and 5, so that the cyclic convolution
+ * computed with the FFT equals the filter result inside the image. Results agree with those of
+ * {@link Convolution} up to floating point rounding.
+ */
+public final class FFTConvolution {
+
+  private FFTConvolution() {
+  }
+
+  /**
+   * Filters an image with a separable kernel.
+   *
+   * @see #convolve(RasterImage, Kernel, BorderMode, RasterImage)
+   */
+  public static void convolve(RasterImage src, SeparableKernel kernel, BorderMode border,
+			      RasterImage dst) throws IllegalArgumentException {
+    convolve(src, kernel.toKernel(), border, dst);
+  }
+
+  /**
+   * Filters an image with a general two-dimensional kernel.
+   *
+   * @param src input image
+   * @param kernel filter kernel
+   * @param border determines pixel values outside of the input image
+   * @param dst output image (must be initialized with the dimensions of the input and must not
+   * share pixel data with it)
+   */
+  public static void convolve(RasterImage src, Kernel kernel, final BorderMode border,
+			      RasterImage dst) throws IllegalArgumentException {
+    Convolution.checkImages(src, dst);
+    final int w = src.getWidth();
+    final int h = src.getHeight();
+    final int b = src.getNumBands();
+    final int n = w*b;
+    final int rx = kernel.getRadiusX();
+    final int ry = kernel.getRadiusY();
+    final int fw = FFT.nextFastSize(w+2*rx);
+    final int fh = FFT.nextFastSize(h+2*ry);
+    RealFFT2D fft = new RealFFT2D(fw, fh);
+    final int sw = fft.getSpectrumWidth();
+    int specSize = sw*fh;
+
+    // Spectrum of the kernel with its center at the origin. The kernel is mirrored so that the
+    // cyclic convolution applies it without flipping.
+    float[] plane = new float[fw*fh];
+    for (int j=0; j<kernel.getHeight(); j++) {
+      for (int i=0; i<kernel.getWidth(); i++) {
+	int x = (rx-i+fw) % fw;
+	int y = (ry-j+fh) % fh;
+	plane[y*fw+x] = kernel.get(i, j);
+      }
+    }
+    final float[] kRe = new float[specSize];
+    final float[] kIm = new float[specSize];
+    fft.forward(plane, kRe, kIm);
+
+    final PixelArray in = src.getPixelArray();
+    final float[] padded = plane;
+    final float[] specRe = new float[specSize];
+    final float[] specIm = new float[specSize];
+    float[] result = new float[w*h*b];
+    float[] row = new float[n];
+
+    for (int c=0; c<b; c++) {
+      // Band c of the input, extended at the borders and zero-padded
+      Arrays.fill(padded, 0.0f);
+      for (int y=0; y<h+2*ry; y++) {
+	int sy = border.map(y-ry, h);
+	if (sy < 0) {
+	  continue;
+	}
+	in.copyTo(sy*n, row, 0, n);
+	int base = y*fw;
+	for (int x=0; x<w+2*rx; x++) {
+	  int sx = border.map(x-rx, w);
+	  if (sx >= 0) {
+	    padded[base+x] = row[sx*b+c];
+	  }
+	}
+      }
+
+      fft.forward(padded, specRe, specIm);
+      ImageOps.parallelMap(fh, 2*sw, (start, end) -> {
+	for (int i=start*sw; i<end*sw; i++) {
+	  float re = specRe[i]*kRe[i] - specIm[i]*kIm[i];
+	  float im = specRe[i]*kIm[i] + specIm[i]*kRe[i];
+	  specRe[i] = re;
+	  specIm[i] = im;
+	}
+      });
+      fft.inverse(specRe, specIm, padded);
+
+      for (int y=0; y<h; y++) {
+	int base = (y+ry)*fw + rx;
+	int out = y*n + c;
+	for (int x=0; x<w; x++) {
+	  result[out + x*b] = padded[base+x];
+	}
+      }
+    }
+
+    dst.getPixelArray().copyFrom(result, 0, 0, w*h*b);
+  }
+
+}
@@ -0,0 +1,139 @@
+package org.hipi.image.filter;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+ * A two-dimensional filter kernel with odd width and height whose center element is aligned
+ * with the output pixel. Kernels are applied by {@link Convolution#convolve(org.hipi.image.RasterImage,
+ * Kernel, BorderMode, org.hipi.image.RasterImage)} without flipping, so that the output at
+ * pixel (x,y) is the sum over all (i,j) of k(i,j) * in(x+i-cx, y+j-cy), where (cx,cy) is the
+ * center of the kernel.
+ *
+ * Kernels are immutable. Use {@link SeparableKernel} for kernels that are the outer product of
+ * a horizontal and a vertical kernel, which are applied much faster.
+ */
+public class Kernel {
+
+  private final int width;
+  private final int height;
+  final float[] data;
+
+  /**
+   * Creates a kernel from its coefficients in raster-scan order.
+   *
+   * @param width width of kernel (must be odd)
+   * @param height height of kernel (must be odd)
+   * @param data width*height coefficients (copied)
+   */
+  public Kernel(int width, int height, float[] data) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0 || width % 2 == 0 || height % 2 == 0) {
+      throw new IllegalArgumentException("Kernel dimensions must be positive and odd [" + width + "x" + height + "].");
+    }
+    if (data == null || data.length != width*height) {
+      throw new IllegalArgumentException("Size of kernel data does not match kernel dimensions.");
+    }
+    this.width = width;
+    this.height = height;
+    this.data = data.clone();
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return horizontal distance from the center to the edge of the kernel
+   */
+  public int getRadiusX() {
+    return width/2;
+  }
+
+  /**
+   * @return vertical distance from the center to the edge of the kernel
+   */
+  public int getRadiusY() {
+    return height/2;
+  }
+
+  /**
+   * @return coefficient at column i and row j
+   */
+  public float get(int i, int j) {
+    return data[j*width+i];
+  }
+
+  /**
+   * @return copy of kernel coefficients in raster-scan order
+   */
+  public float[] getData() {
+    return data.clone();
+  }
+
+  /**
+   * Normalized box (mean) filter.
+   *
+   * @param width width of box (must be odd)
+   * @param height height of box (must be odd)
+   */
+  public static Kernel box(int width, int height) throws IllegalArgumentException {
+    return SeparableKernel.box(width, height).toKernel();
+  }
+
+  /**
+   * Normalized Gaussian filter with radius ceil(3*sigma).
+   *
+   * @param sigma standard deviation in pixels
+   */
+  public static Kernel gaussian(double sigma) throws IllegalArgumentException {
+    return SeparableKernel.gaussian(sigma).toKernel();
+  }
+
+  /**
+   * 3x3 Sobel filter that responds to horizontal gradients (increasing to the right).
+   */
+  public static Kernel sobelX() {
+    return SeparableKernel.sobelX().toKernel();
+  }
+
+  /**
+   * 3x3 Sobel filter that responds to vertical gradients (increasing downwards).
+   */
+  public static Kernel sobelY() {
+    return SeparableKernel.sobelY().toKernel();
+  }
+
+  /**
+   * 3x3 Laplacian filter (4-neighborhood).
+   */
+  public static Kernel laplacian() {
+    return new Kernel(3, 3, new float[] { 0, 1, 0, 1, -4, 1, 0, 1, 0 });
+  }
+
+  @Override
+  public boolean equals(Object that) {
+    if (this == that) {
+      return true;
+    }
+    if (!(that instanceof Kernel)) {
+      return false;
+    }
+    Kernel k = (Kernel)that;
+    return width == k.width && height == k.height && Arrays.equals(data, k.data);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31*(31*width + height) + Arrays.hashCode(data);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("Kernel: %d x %d %s", width, height, Arrays.toString(data));
+  }
+
+}
@@ -0,0 +1,178 @@
+package org.hipi.image.filter;
+
+import org.hipi.image.ImageOps;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+ * Two-dimensional discrete Fourier transform of real (width x height) arrays stored in
+ * raster-scan order. Since the spectrum of a real array is Hermitian, only the columns
+ * 0..width/2 of the spectrum are computed and stored, as (width/2+1) x height complex values in
+ * separate real and imaginary arrays.
+ *
+ * The rows of the input are transformed two at a time as the real and imaginary parts of a
+ * single complex transform, followed by complex transforms of the columns of the spectrum.
+ * Rows and columns are processed in parallel (see {@link ImageOps}). Both dimensions must be
+ * products of 2, 3 and 5 (see {@link FFT#nextFastSize}); a RealFFT2D holds no state other than
+ * the shared {@link FFT} plans and can be reused across threads.
+ */
+public class RealFFT2D {
+
+  private final int width;
+  private final int height;
+  private final int specWidth;
+  private final FFT rowPlan;
+  private final FFT colPlan;
+
+  public RealFFT2D(int width, int height) throws IllegalArgumentException {
+    this.width = width;
+    this.height = height;
+    this.specWidth = width/2+1;
+    this.rowPlan = FFT.getPlan(width);
+    this.colPlan = FFT.getPlan(height);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return number of complex values stored for each row of the spectrum (width/2+1)
+   */
+  public int getSpectrumWidth() {
+    return specWidth;
+  }
+
+  /**
+   * Computes the spectrum of a real array.
+   *
+   * @param data width*height real values in raster-scan order
+   * @param specRe real parts of spectrum (specWidth*height values, overwritten)
+   * @param specIm imaginary parts of spectrum (specWidth*height values, overwritten)
+   */
+  public void forward(final float[] data, final float[] specRe, final float[] specIm) {
+    final int pairs = (height+1)/2;
+    ImageOps.parallelMap(pairs, 2*width, (start, end) -> {
+      float[] zRe = new float[width];
+      float[] zIm = new float[width];
+      float[] outRe = new float[width];
+      float[] outIm = new float[width];
+      for (int pair=start; pair<end; pair++) {
+	int r0 = 2*pair;
+	int r1 = r0+1;
+	System.arraycopy(data, r0*width, zRe, 0, width);
+	if (r1 < height) {
+	  System.arraycopy(data, r1*width, zIm, 0, width);
+	} else {
+	  Arrays.fill(zIm, 0.0f);
+	}
+	rowPlan.transform(zRe, zIm, 0, 1, outRe, outIm, 0, false);
+
+	// Separate the spectra of the two rows: A[k] = (Z[k] + conj(Z[-k]))/2 and
+	// B[k] = (Z[k] - conj(Z[-k]))/(2i)
+	for (int k=0; k<specWidth; k++) {
+	  int nk = (width-k) % width;
+	  float zr = outRe[k], zi = outIm[k];
+	  float cr = outRe[nk], ci = -outIm[nk];
+	  specRe[r0*specWidth+k] = 0.5f*(zr + cr);
+	  specIm[r0*specWidth+k] = 0.5f*(zi + ci);
+	  if (r1 < height) {
+	    specRe[r1*specWidth+k] = 0.5f*(zi - ci);
+	    specIm[r1*specWidth+k] = -0.5f*(zr - cr);
+	  }
+	}
+      }
+    });
+    transformColumns(specRe, specIm, false);
+  }
+
+  /**
+   * Computes the real array with a given spectrum. The spectrum is overwritten.
+   *
+   * @param specRe real parts of spectrum (specWidth*height values)
+   * @param specIm imaginary parts of spectrum (specWidth*height values)
+   * @param data output array for width*height real values in raster-scan order
+   */
+  public void inverse(final float[] specRe, final float[] specIm, final float[] data) {
+    transformColumns(specRe, specIm, true);
+    final int pairs = (height+1)/2;
+    final float scale = 1.0f/((float)width*height);
+    ImageOps.parallelMap(pairs, 2*width, (start, end) -> {
+      float[] zRe = new float[width];
+      float[] zIm = new float[width];
+      float[] outRe = new float[width];
+      float[] outIm = new float[width];
+      for (int pair=start; pair<end; pair++) {
+	int r0 = 2*pair;
+	int r1 = r0+1;
+	// Z[k] = A[k] + i B[k], where A and B are the Hermitian spectra of the two rows
+	for (int k=0; k<width; k++) {
+	  int kk = (k < specWidth ? k : width-k);
+	  float conj = (k < specWidth ? 1.0f : -1.0f);
+	  float ar = specRe[r0*specWidth+kk];
+	  float ai = conj*specIm[r0*specWidth+kk];
+	  float br = 0.0f, bi = 0.0f;
+	  if (r1 < height) {
+	    br = specRe[r1*specWidth+kk];
+	    bi = conj*specIm[r1*specWidth+kk];
+	  }
+	  zRe[k] = ar - bi;
+	  zIm[k] = ai + br;
+	}
+	rowPlan.transform(zRe, zIm, 0, 1, outRe, outIm, 0, true);
+	for (int x=0; x<width; x++) {
+	  data[r0*width+x] = outRe[x]*scale;
+	}
+	if (r1 < height) {
+	  for (int x=0; x<width; x++) {
+	    data[r1*width+x] = outIm[x]*scale;
+	  }
+	}
+      }
+    });
+  }
+
+  // Number of columns gathered at a time, so that every cache line of the spectrum that is read
+  // is used for several columns
+  private static final int COLUMN_BLOCK = 16;
+
+  private void transformColumns(final float[] specRe, final float[] specIm, final boolean inverse) {
+    if (height == 1) {
+      return;
+    }
+    final int blocks = (specWidth + COLUMN_BLOCK - 1)/COLUMN_BLOCK;
+    ImageOps.parallelMap(blocks, 2*height*COLUMN_BLOCK, (start, end) -> {
+      float[] colRe = new float[COLUMN_BLOCK*height];
+      float[] colIm = new float[COLUMN_BLOCK*height];
+      float[] outRe = new float[height];
+      float[] outIm = new float[height];
+      for (int block=start; block<end; block++) {
+	int col0 = block*COLUMN_BLOCK;
+	int cols = Math.min(COLUMN_BLOCK, specWidth-col0);
+	for (int y=0; y<height; y++) {
+	  for (int c=0; c<cols; c++) {
+	    colRe[c*height+y] = specRe[y*specWidth+col0+c];
+	    colIm[c*height+y] = specIm[y*specWidth+col0+c];
+	  }
+	}
+	for (int c=0; c<cols; c++) {
+	  colPlan.transform(colRe, colIm, c*height, 1, outRe, outIm, 0, inverse);
+	  System.arraycopy(outRe, 0, colRe, c*height, height);
+	  System.arraycopy(outIm, 0, colIm, c*height, height);
+	}
+	for (int y=0; y<height; y++) {
+	  for (int c=0; c<cols; c++) {
+	    specRe[y*specWidth+col0+c] = colRe[c*height+y];
+	    specIm[y*specWidth+col0+c] = colIm[c*height+y];
+	  }
+	}
+      }
+    });
+  }
+
+}
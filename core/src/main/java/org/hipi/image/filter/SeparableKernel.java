@@ -0,0 +1,157 @@
+package org.hipi.image.filter;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+ * A two-dimensional filter kernel that is the outer product of a horizontal and a vertical
+ * one-dimensional kernel of odd length. Separable kernels are applied as a horizontal followed
+ * by a vertical pass, which takes O(w+h) rather than O(w*h) operations per pixel for a (w x h)
+ * kernel. Kernels are immutable and, like {@link Kernel}, applied without flipping.
+ */
+public class SeparableKernel {
+
+  final float[] horizontal;
+  final float[] vertical;
+
+  /**
+   * Creates a separable kernel.
+   *
+   * @param horizontal coefficients of the horizontal kernel, left to right (copied)
+   * @param vertical coefficients of the vertical kernel, top to bottom (copied)
+   */
+  public SeparableKernel(float[] horizontal, float[] vertical) throws IllegalArgumentException {
+    if (horizontal == null || vertical == null || horizontal.length % 2 == 0 || vertical.length % 2 == 0) {
+      throw new IllegalArgumentException("Kernel dimensions must be positive and odd.");
+    }
+    this.horizontal = horizontal.clone();
+    this.vertical = vertical.clone();
+  }
+
+  public int getWidth() {
+    return horizontal.length;
+  }
+
+  public int getHeight() {
+    return vertical.length;
+  }
+
+  public int getRadiusX() {
+    return horizontal.length/2;
+  }
+
+  public int getRadiusY() {
+    return vertical.length/2;
+  }
+
+  /**
+   * @return copy of the coefficients of the horizontal kernel
+   */
+  public float[] getHorizontal() {
+    return horizontal.clone();
+  }
+
+  /**
+   * @return copy of the coefficients of the vertical kernel
+   */
+  public float[] getVertical() {
+    return vertical.clone();
+  }
+
+  /**
+   * @return equivalent two-dimensional kernel
+   */
+  public Kernel toKernel() {
+    int w = horizontal.length;
+    int h = vertical.length;
+    float[] data = new float[w*h];
+    for (int j=0; j<h; j++) {
+      for (int i=0; i<w; i++) {
+	data[j*w+i] = vertical[j] * horizontal[i];
+      }
+    }
+    return new Kernel(w, h, data);
+  }
+
+  /**
+   * Normalized one-dimensional Gaussian kernel.
+   *
+   * @param sigma standard deviation in pixels
+   * @param radius kernel radius (the kernel has 2*radius+1 coefficients)
+   *
+   * @return Gaussian coefficients that sum to one
+   */
+  public static float[] gaussianCoefficients(double sigma, int radius) throws IllegalArgumentException {
+    if (!(sigma > 0.0) || radius < 0) {
+      throw new IllegalArgumentException("Invalid Gaussian kernel parameters [sigma=" + sigma + ", radius=" + radius + "].");
+    }
+    double[] g = new double[2*radius+1];
+    double sum = 0.0;
+    for (int i=-radius; i<=radius; i++) {
+      g[i+radius] = Math.exp(-0.5*i*i/(sigma*sigma));
+      sum += g[i+radius];
+    }
+    float[] coeffs = new float[g.length];
+    for (int i=0; i<g.length; i++) {
+      coeffs[i] = (float)(g[i]/sum);
+    }
+    return coeffs;
+  }
+
+  /**
+   * Normalized Gaussian filter.
+   *
+   * @param sigma standard deviation in pixels
+   * @param radius kernel radius
+   */
+  public static SeparableKernel gaussian(double sigma, int radius) throws IllegalArgumentException {
+    float[] g = gaussianCoefficients(sigma, radius);
+    return new SeparableKernel(g, g);
+  }
+
+  /**
+   * Normalized Gaussian filter with radius ceil(3*sigma).
+   *
+   * @param sigma standard deviation in pixels
+   */
+  public static SeparableKernel gaussian(double sigma) throws IllegalArgumentException {
+    return gaussian(sigma, (int)Math.ceil(3.0*sigma));
+  }
+
+  /**
+   * Normalized box (mean) filter.
+   *
+   * @param width width of box (must be odd)
+   * @param height height of box (must be odd)
+   */
+  public static SeparableKernel box(int width, int height) throws IllegalArgumentException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Kernel dimensions must be positive and odd [" + width + "x" + height + "].");
+    }
+    float[] h = new float[width];
+    Arrays.fill(h, 1.0f/width);
+    float[] v = new float[height];
+    Arrays.fill(v, 1.0f/height);
+    return new SeparableKernel(h, v);
+  }
+
+  /**
+   * 3x3 Sobel filter that responds to horizontal gradients (increasing to the right).
+   */
+  public static SeparableKernel sobelX() {
+    return new SeparableKernel(new float[] { -1, 0, 1 }, new float[] { 1, 2, 1 });
+  }
+
+  /**
+   * 3x3 Sobel filter that responds to vertical gradients (increasing downwards).
+   */
+  public static SeparableKernel sobelY() {
+    return new SeparableKernel(new float[] { 1, 2, 1 }, new float[] { -1, 0, 1 });
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SeparableKernel: %s x %s", Arrays.toString(horizontal), Arrays.toString(vertical));
+  }
+
+}
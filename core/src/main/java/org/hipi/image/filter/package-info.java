@@ -0,0 +1,5 @@
+/**
+ * Image filtering primitives: separable and general 2-D convolution with configurable border
+ * handling, and common filter kernels.
+ */
+package org.hipi.image.filter;
@@ -5,6 +5,7 @@ import org.hipi.image.HipiImageHeader.HipiImageFormat;
 import org.hipi.image.io.JpegCodec;
 import org.hipi.image.io.PngCodec;
 import org.hipi.image.io.PpmCodec;
+import org.hipi.image.io.RawPixelCodec;
 
 /**
  * Finds a suitable {@link ImageEncoder} or {@link ImageDecoder} for a specific
@@ -30,6 +31,11 @@ public final class CodecManager {
       return PngCodec.getInstance();
     case PPM:
       return PpmCodec.getInstance();
+    case RAW_BYTE:
+    case RAW_FLOAT:
+    case RAW_BYTE_LZ4:
+    case RAW_FLOAT_LZ4:
+      return RawPixelCodec.getInstance(format);
     default:
       throw new IllegalArgumentException("Image format currently unsupported.");
     }
@@ -53,6 +59,11 @@ public final class CodecManager {
       return PngCodec.getInstance();
     case PPM:
       return PpmCodec.getInstance();
+    case RAW_BYTE:
+    case RAW_FLOAT:
+    case RAW_BYTE_LZ4:
+    case RAW_FLOAT_LZ4:
+      return RawPixelCodec.getInstance(format);
     default:
       throw new IllegalArgumentException("Image format currently unsupported.");
     }
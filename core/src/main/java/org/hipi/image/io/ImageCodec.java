@@ -8,9 +8,15 @@ import org.hipi.image.HipiImage.HipiImageType;
 import org.hipi.image.RasterImage;
 import org.hipi.image.HipiImageFactory;
 import org.hipi.image.PixelArray;
+import org.hipi.image.PixelArrayUShort;
 
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -51,6 +57,17 @@ public abstract class ImageCodec implements ImageDecoder, ImageEncoder {
     return decodeImage(bufferedInputStream, header, imageFactory, false);
   }
 
+  /**
+   * Reports whether {@link #decodeImage} honors a request for a single-band {@link
+   * HipiColorSpace#LUM} image (expressed through the image header passed to it) when the image
+   * is stored in color. Codecs that rely on the default ImageIO decode method return true.
+   *
+   * @return true if the decoder can produce luminance images directly
+   */
+  public boolean supportsLuminanceDecode() {
+    return false;
+  }
+
   /**
    * Default image decode method that uses the available ImageIO plugins.
    *
@@ -61,8 +78,8 @@ public abstract class ImageCodec implements ImageDecoder, ImageEncoder {
     throws IllegalArgumentException, IOException {
     
     // Verify image factory
-    if (!(imageFactory.getType() == HipiImageType.FLOAT || imageFactory.getType() == HipiImageType.BYTE)) {
-      throw new IllegalArgumentException("Image decoder supports only FloatImage and ByteImage output types.");
+    if (!imageFactory.getType().isRaster()) {
+      throw new IllegalArgumentException("Image decoder supports only raster output types (e.g., FloatImage and ByteImage).");
     }
 
     DataInputStream dis = new DataInputStream(new BufferedInputStream(inputStream));
@@ -71,14 +88,40 @@ public abstract class ImageCodec implements ImageDecoder, ImageEncoder {
     // Find suitable ImageIO plugin (should be TwelveMonkeys)
     BufferedImage javaImage = ImageIO.read(dis);//inputStream);
 
-    int w = javaImage.getWidth();
-    int h = javaImage.getHeight();
+    RasterImage image = createOutputImage(javaImage.getWidth(), javaImage.getHeight(), imageHeader, imageFactory);
+
+    fillPixelArray(javaImage, image);
+
+    if (includeExifData) {      
+      // Extract EXIF data from image stream and store in image header
+      dis.reset();
+      try {
+       imageHeader.setExifData(ExifDataReader.extractAndFlatten(dis));
+      } catch (IOException ex) {
+        System.err.println("Failed to extract EXIF data for image record.");
+      }
+    }
+
+    return applyLayout(image, imageFactory);
+  }
+
+  /**
+   * Creates the output image for the default decode method after checking that the image
+   * dimensions and color space requested in the header are supported.
+   */
+  protected static RasterImage createOutputImage(int w, int h, HipiImageHeader imageHeader,
+						 HipiImageFactory imageFactory) throws IllegalArgumentException {
 
-    // Check that image dimensions in header match those in JPEG
+    // Check that image dimensions in header match those in image
     if (w != imageHeader.getWidth() || h != imageHeader.getHeight()) {
-      System.out.println(String.format("Dimensions read from JPEG: %d x %d", w, h));
+      System.out.println(String.format("Dimensions read from image: %d x %d", w, h));
       System.out.println(imageHeader);
-      throw new IllegalArgumentException("Image dimensions in header do not match those in JPEG.");
+      throw new IllegalArgumentException("Image dimensions in header do not match those in image.");
+    }
+
+    if (!(imageHeader.getColorSpace() == HipiColorSpace.RGB && imageHeader.getNumBands() == 3) &&
+	!(imageHeader.getColorSpace() == HipiColorSpace.LUM && imageHeader.getNumBands() == 1)) {
+      throw new IllegalArgumentException("Image decoder supports only three band RGB and single band LUM output images.");
     }
 
     // Create output image
@@ -90,42 +133,130 @@ public abstract class ImageCodec implements ImageDecoder, ImageEncoder {
       e.printStackTrace();
       System.exit(1);
     }
+    return image;
+  }
 
-    PixelArray pa = image.getPixelArray();
-    
-    for (int j=0; j<h; j++) {
-      for (int i=0; i<w; i++) {
+  /**
+   * Converts a decoded image, whose pixel data is interleaved, into the layout requested by the
+   * image factory (see {@link HipiImageFactory#setLayout}).
+   *
+   * @return the image
+   */
+  protected static RasterImage applyLayout(RasterImage image, HipiImageFactory imageFactory) {
+    image.setLayout(imageFactory.getLayout());
+    return image;
+  }
 
-	     // Retrieve 8-bit non-linear sRGB value packed into int
-       int pixel = javaImage.getRGB(i,j); 
+  /**
+   * Luminance (Y' of Y'CbCr, ITU-R BT.601 weights) of an 8-bit non-linear sRGB pixel, computed
+   * with the same fixed-point weights as the JPEG color transform. Also valid for 16-bit samples.
+   */
+  protected static int luminance(int red, int grn, int blu) {
+    return (77 * red + 150 * grn + 29 * blu + 128) >> 8;
+  }
 
-       int red = (pixel >> 16) & 0xff;
-       int grn = (pixel >>  8) & 0xff;
-       int blu = (pixel      ) & 0xff;
+  /**
+   * Copies the pixels of a decoded {@link BufferedImage} into the output image, which must be
+   * either three band RGB or single band LUM. Grayscale images are read from their raster
+   * directly so that stored gray levels are preserved; all other images are converted to 8-bit
+   * non-linear sRGB by ImageIO first. When the output image has a {@link PixelArrayUShort},
+   * 16-bit grayscale and sRGB samples are copied without reducing their precision.
+   */
+  protected static void fillPixelArray(BufferedImage javaImage, RasterImage image) {
 
-	     // Set value in pixel array using routine designed for sRGB values
-       pa.setElemNonLinSRGB((j*w+i)*3+0, red);
-       pa.setElemNonLinSRGB((j*w+i)*3+1, grn);
-       pa.setElemNonLinSRGB((j*w+i)*3+2, blu);
+    int w = image.getWidth();
+    int h = image.getHeight();
+    boolean lum = (image.getNumBands() == 1);
 
+    PixelArray pa = image.getPixelArray();
+
+    // One row of 8-bit non-linear sRGB values, converted into the pixel array in bulk
+    int rowLength = w*(lum ? 1 : 3);
+    byte[] srgb = new byte[rowLength];
+
+    ColorModel colorModel = javaImage.getColorModel();
+    if (colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY && !(colorModel instanceof IndexColorModel)) {
+      Raster raster = javaImage.getRaster();
+      int sampleSize = raster.getSampleModel().getSampleSize(0);
+      int maxValue = (1 << sampleSize) - 1;
+      int[] row = new int[w];
+      for (int j=0; j<h; j++) {
+	raster.getSamples(0, j, w, 1, 0, row);
+	if (pa instanceof PixelArrayUShort) {
+	  PixelArrayUShort pa16 = (PixelArrayUShort)pa;
+	  for (int i=0; i<w; i++) {
+	    int gray = (maxValue == 65535 ? row[i] : (row[i] * 65535 + maxValue / 2) / maxValue);
+	    for (int c=0; c<(lum ? 1 : 3); c++) {
+	      pa16.setElemUShort((j*w+i)*(lum ? 1 : 3)+c, gray);
+	    }
+	  }
+	  continue;
+	}
+	for (int i=0; i<w; i++) {
+	  int gray = (maxValue == 255 ? row[i] : (row[i] * 255 + maxValue / 2) / maxValue);
+	  if (lum) {
+	    srgb[i] = (byte)gray;
+	  } else {
+	    srgb[i*3+0] = srgb[i*3+1] = srgb[i*3+2] = (byte)gray;
+	  }
+	}
+	pa.copyFromNonLinSRGB(srgb, 0, j*rowLength, rowLength);
       }
-    } 
+      return;
+    }
 
-    if (includeExifData) {      
-      // Extract EXIF data from image stream and store in image header
-      dis.reset();
-      try {
-       imageHeader.setExifData(ExifDataReader.extractAndFlatten(dis));
-      } catch (IOException ex) {
-        System.err.println("Failed to extract EXIF data for image record.");
+    // Copy 16-bit sRGB samples (e.g., from 16-bit PNG images) directly
+    if (pa instanceof PixelArrayUShort && colorModel.getColorSpace().isCS_sRGB() &&
+	!(colorModel instanceof IndexColorModel) && javaImage.getRaster().getNumBands() >= 3 &&
+	javaImage.getRaster().getSampleModel().getSampleSize(0) == 16) {
+      PixelArrayUShort pa16 = (PixelArrayUShort)pa;
+      Raster raster = javaImage.getRaster();
+      int[][] rows = new int[3][w];
+      for (int j=0; j<h; j++) {
+	for (int c=0; c<3; c++) {
+	  raster.getSamples(0, j, w, 1, c, rows[c]);
+	}
+	for (int i=0; i<w; i++) {
+	  if (lum) {
+	    pa16.setElemUShort(j*w+i, luminance(rows[0][i], rows[1][i], rows[2][i]));
+	  } else {
+	    pa16.setElemUShort((j*w+i)*3+0, rows[0][i]);
+	    pa16.setElemUShort((j*w+i)*3+1, rows[1][i]);
+	    pa16.setElemUShort((j*w+i)*3+2, rows[2][i]);
+	  }
+	}
       }
+      return;
     }
 
-    return image;
+    // Retrieve 8-bit non-linear sRGB values packed into ints one row at a time
+    int[] row = new int[w];
+    for (int j=0; j<h; j++) {
+      javaImage.getRGB(0, j, w, 1, row, 0, w);
+      for (int i=0; i<w; i++) {
+
+	int pixel = row[i];
+
+	int red = (pixel >> 16) & 0xff;
+	int grn = (pixel >>  8) & 0xff;
+	int blu = (pixel      ) & 0xff;
+
+	if (lum) {
+	  srgb[i] = (byte)luminance(red, grn, blu);
+	} else {
+	  srgb[i*3+0] = (byte)red;
+	  srgb[i*3+1] = (byte)grn;
+	  srgb[i*3+2] = (byte)blu;
+	}
+      }
+      // Set values in pixel array using routine designed for sRGB values
+      pa.copyFromNonLinSRGB(srgb, 0, j*rowLength, rowLength);
+    }
   }
 
   /**
-   * Default method for encoding raster images that uses the available ImageIO plugins.
+   * Default method for encoding raster images that uses the available ImageIO plugins. Single
+   * band images are encoded as 8-bit grayscale images, all other images as 8-bit sRGB images.
    */
   protected void encodeRasterImage(RasterImage image, ImageWriter writer,
     ImageWriteParam writeParams) throws IOException {
@@ -133,17 +264,32 @@ public abstract class ImageCodec implements ImageDecoder, ImageEncoder {
     int w = image.getWidth();
     int h = image.getHeight();
 
-    BufferedImage bufferedImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-
     PixelArray pa = image.getPixelArray();
-    int[] rgb = new int[w*h];
-    for (int i=0; i<w*h; i++) {
 
-      int r = pa.getElemNonLinSRGB(i*3+0);
-      int g = pa.getElemNonLinSRGB(i*3+1);
-      int b = pa.getElemNonLinSRGB(i*3+2);
+    if (image.getNumBands() == 1) {
+      BufferedImage grayImage = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+      WritableRaster raster = grayImage.getRaster();
+      byte[] gray = new byte[w];
+      for (int j=0; j<h; j++) {
+	pa.copyToNonLinSRGB(j*w, gray, 0, w);
+	raster.setDataElements(0, j, w, 1, gray);
+      }
+      writer.write(null, new IIOImage(grayImage, null, null), writeParams);
+      return;
+    }
+
+    BufferedImage bufferedImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
 
-      rgb[i] = (r << 16) | (g << 8) | b;
+    int[] rgb = new int[w*h];
+    byte[] srgb = new byte[w*3];
+    for (int j=0; j<h; j++) {
+      pa.copyToNonLinSRGB(j*w*3, srgb, 0, w*3);
+      for (int i=0; i<w; i++) {
+	int r = srgb[i*3+0] & 0xff;
+	int g = srgb[i*3+1] & 0xff;
+	int b = srgb[i*3+2] & 0xff;
+	rgb[j*w+i] = (r << 16) | (g << 8) | b;
+      }
     }
     bufferedImage.setRGB(0, 0, w, h, rgb, 0, w);
     IIOImage iioImage = new IIOImage(bufferedImage, null, null);
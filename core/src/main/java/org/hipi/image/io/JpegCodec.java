@@ -11,6 +11,7 @@ import org.hipi.image.PixelArray;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
@@ -19,6 +20,7 @@ import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.HashMap;
 
+import javax.imageio.IIOException;
 import javax.imageio.IIOImage;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.ImageIO;
@@ -29,14 +31,18 @@ import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 
+import org.w3c.dom.Node;
+
 /**
  * Extends {@link ImageCodec} and serves as both an {@link ImageDecoder} and 
- * {@link ImageEncoder} for the JPEG image storage format.
+ * {@link ImageEncoder} for the JPEG image storage format. Currently only supports RGB and grayscale encodings.
  */
 public class JpegCodec extends ImageCodec {
 
   private static final JpegCodec staticObject = new JpegCodec();
 
+  private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
   public static JpegCodec getInstance() {
     return staticObject;
   }
@@ -52,7 +58,7 @@ public class JpegCodec extends ImageCodec {
     if (magic != -40)
       return null;
 
-    int width=0, height=0, depth=0;
+    int width=0, height=0, depth=0, components=0;
     
     byte[] data = new byte[6];
       
@@ -69,6 +75,7 @@ public class JpegCodec extends ImageCodec {
 	height = ((data[1] & 0xff) << 8) | (data[2] & 0xff);
 	width = ((data[3] & 0xff) << 8) | (data[4] & 0xff);
 	depth = data[0] & 0xff;
+	components = data[5] & 0xff;
 	break;
       } else {
 	while (length > 0) {
@@ -90,24 +97,174 @@ public class JpegCodec extends ImageCodec {
       exifData = ExifDataReader.extractAndFlatten(dis);
     }
     
+    // Grayscale JPEGs are reported as single band luminance images
+    if (components == 1) {
+      return new HipiImageHeader(HipiImageFormat.JPEG, HipiColorSpace.LUM,
+				 width, height, 1, null, exifData);
+    }
+
     return new HipiImageHeader(HipiImageFormat.JPEG, HipiColorSpace.RGB, 
 			       width, height, 3, null, exifData);
   }
 
+  @Override
+  public boolean supportsLuminanceDecode() {
+    return true;
+  }
+
+  /**
+   * Decodes a JPEG image. If the image header requests a single band {@link HipiColorSpace#LUM}
+   * image, the luma (Y) channel is taken directly from the undecoded YCbCr raster, which avoids
+   * the color conversion to RGB altogether. JPEGs stored in other color spaces (e.g., CMYK or
+   * Adobe RGB) fall back to full decode followed by conversion to luminance.
+   *
+   * @see ImageDecoder#decodeImage
+   */
+  @Override
+  public HipiImage decodeImage(InputStream inputStream, HipiImageHeader imageHeader,
+			       HipiImageFactory imageFactory, boolean includeExifData)
+    throws IllegalArgumentException, IOException {
+
+    if (imageHeader.getColorSpace() != HipiColorSpace.LUM || imageHeader.getNumBands() != 1) {
+      return super.decodeImage(inputStream, imageHeader, imageFactory, includeExifData);
+    }
+
+    if (!imageFactory.getType().isRaster()) {
+      throw new IllegalArgumentException("JPEG decoder supports only raster output types (e.g., FloatImage and ByteImage).");
+    }
+
+    DataInputStream dis = new DataInputStream(new BufferedInputStream(inputStream));
+    dis.mark(Integer.MAX_VALUE);
+
+    Raster raster = readLumaRaster(dis);
+    if (raster == null) {
+      dis.reset();
+      return super.decodeImage(dis, imageHeader, imageFactory, includeExifData);
+    }
+
+    int w = raster.getWidth();
+    int h = raster.getHeight();
+    RasterImage image = createOutputImage(w, h, imageHeader, imageFactory);
+    PixelArray pa = image.getPixelArray();
+
+    int[] row = new int[w];
+    for (int j=0; j<h; j++) {
+      raster.getSamples(raster.getMinX(), raster.getMinY() + j, w, 1, 0, row);
+      for (int i=0; i<w; i++) {
+	pa.setElemNonLinSRGB(j*w+i, row[i]);
+      }
+    }
+
+    if (includeExifData) {
+      // Extract EXIF data from image stream and store in image header
+      dis.reset();
+      try {
+	imageHeader.setExifData(ExifDataReader.extractAndFlatten(dis));
+      } catch (IOException ex) {
+	System.err.println("Failed to extract EXIF data for image record.");
+      }
+    }
+
+    return applyLayout(image, imageFactory);
+  }
+
+  /**
+   * Reads the JPEG raster without color conversion and returns it if its first band holds luma
+   * (single component or YCbCr images), otherwise returns null.
+   */
+  private Raster readLumaRaster(InputStream inputStream) throws IOException {
+
+    ImageInputStream iis = ImageIO.createImageInputStream(inputStream);
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+    if (!readers.hasNext()) {
+      return null;
+    }
+    ImageReader reader = readers.next();
+    try {
+      reader.setInput(iis, true, false);
+      if (!reader.canReadRaster()) {
+	return null;
+      }
+
+      IIOMetadata metadata = reader.getImageMetadata(0);
+      if (metadata == null || !isLumaFirst(metadata)) {
+	return null;
+      }
+
+      Raster raster = reader.readRaster(0, null);
+      int bands = raster.getNumBands();
+      return (bands == 1 || bands == 3) ? raster : null;
+    } catch (IIOException e) {
+      // Unsupported by this reader, use full decode
+      return null;
+    } finally {
+      reader.dispose();
+    }
+  }
+
+  /**
+   * Inspects the native JPEG metadata to decide whether the first component is luma. Three
+   * component images are YCbCr unless an Adobe marker disables the color transform or the
+   * component identifiers spell out R, G, B.
+   */
+  private static boolean isLumaFirst(IIOMetadata metadata) {
+    Node root = null;
+    try {
+      root = metadata.getAsTree(JPEG_METADATA_FORMAT);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+
+    int numComponents = 0;
+    String componentIds = "";
+    boolean adobeNoTransform = false;
+    boolean jfif = false;
+
+    for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+      for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+	String name = child.getNodeName();
+	if (name.equals("app0JFIF")) {
+	  jfif = true;
+	} else if (name.equals("app14Adobe")) {
+	  Node transform = child.getAttributes().getNamedItem("transform");
+	  adobeNoTransform = (transform != null && transform.getNodeValue().equals("0"));
+	} else if (name.equals("sof")) {
+	  for (Node spec = child.getFirstChild(); spec != null; spec = spec.getNextSibling()) {
+	    Node id = spec.getAttributes().getNamedItem("componentId");
+	    if (id != null) {
+	      componentIds += (char)Integer.parseInt(id.getNodeValue());
+	    }
+	    numComponents++;
+	  }
+	}
+      }
+    }
+
+    if (numComponents == 1) {
+      return true;
+    }
+    if (numComponents != 3 || adobeNoTransform) {
+      return false;
+    }
+    return jfif || !componentIds.equals("RGB");
+  }
+
   public void encodeImage(HipiImage image, OutputStream outputStream) throws IllegalArgumentException, IOException {
 
     if (!(RasterImage.class.isAssignableFrom(image.getClass()))) {
       throw new IllegalArgumentException("JPEG encoder supports only RasterImage input types.");
-    }    
+    }
+
+    // Encoders read pixel values in interleaved order
+    image = ((RasterImage)image).getInterleaved();
 
     if (image.getWidth() <= 0 || image.getHeight() <= 0) {
       throw new IllegalArgumentException("Invalid image resolution.");
     }
-    if (image.getColorSpace() != HipiColorSpace.RGB) {
-      throw new IllegalArgumentException("JPEG encoder supports only RGB color space.");
-    }
-    if (image.getNumBands() != 3) {
-      throw new IllegalArgumentException("JPEG encoder supports only three band images.");
+    // Single band luminance images (e.g., decoded from grayscale JPEGs) are written as grayscale
+    if (!(image.getColorSpace() == HipiColorSpace.RGB && image.getNumBands() == 3) &&
+	!(image.getColorSpace() == HipiColorSpace.LUM && image.getNumBands() == 1)) {
+      throw new IllegalArgumentException("JPEG encoder supports only three band RGB and single band LUM images.");
     }
 
     // Find suitable JPEG writer in javax.imageio.ImageReader
@@ -65,7 +65,7 @@ import javax.imageio.ImageIO;
 
 /**
  * Extends {@link ImageCodec} and serves as both an {@link ImageDecoder} and 
- * {@link ImageEncoder} for the PNG image storage format. Currently only supports RGB encodings.
+ * {@link ImageEncoder} for the PNG image storage format. Currently only supports RGB and grayscale encodings.
  */
 public class PngCodec extends ImageCodec { //implements ImageDecoder, ImageEncoder {
 
@@ -103,6 +103,7 @@ public class PngCodec extends ImageCodec { //implements ImageDecoder, ImageEncod
 
     int width = -1;
     int height = -1;
+    int colorType = -1;
     
     boolean trucking = true;
     while (trucking) {
@@ -127,6 +128,7 @@ public class PngCodec extends ImageCodec { //implements ImageDecoder, ImageEncod
 	  PNGChunk chunk = staticObject.new PNGChunk(typeBytes, data);
 	  width = (int)chunk.getUnsignedInt(0);
 	  height = (int)chunk.getUnsignedInt(4);
+	  colorType = data[9] & 0xff;
 	  break;
 	} else {
 	  // Skip data + CRC signature.
@@ -147,10 +149,21 @@ public class PngCodec extends ImageCodec { //implements ImageDecoder, ImageEncod
       exifData = ExifDataReader.extractAndFlatten(dis);
     }
 
+    // Grayscale PNGs (with or without alpha) are reported as single band luminance images
+    if (colorType == 0 || colorType == 4) {
+      return new HipiImageHeader(HipiImageFormat.PNG, HipiColorSpace.LUM,
+				 width, height, 1, null, exifData);
+    }
+
     return new HipiImageHeader(HipiImageFormat.PNG, HipiColorSpace.RGB,
 			       width, height, 3, null, exifData);
   }
 
+  @Override
+  public boolean supportsLuminanceDecode() {
+    return true;
+  }
+
   protected static void readSignature(DataInputStream in) throws IOException {
     long signature = in.readLong();
     if (signature != 0x89504e470d0a1a0aL)
@@ -356,18 +369,22 @@ public class PngCodec extends ImageCodec { //implements ImageDecoder, ImageEncod
 
     if (!(RasterImage.class.isAssignableFrom(image.getClass()))) {
       throw new IllegalArgumentException("PNG encoder supports only RasterImage input types.");
-    }    
+    }
+
+    // Encoders read pixel values in interleaved order
+    image = ((RasterImage)image).getInterleaved();
 
     if (image.getWidth() <= 0 || image.getHeight() <= 0) {
       throw new IllegalArgumentException("Invalid image dimensions.");
     }
 
-    if (image.getColorSpace() != HipiColorSpace.RGB) {
-      throw new IllegalArgumentException("PNG encoder supports only linear RGB color space.");
-    }
-
-    if (image.getNumBands() != 3) {
-      throw new IllegalArgumentException("PNG encoder supports only three band images.");
+    int mode;
+    if (image.getColorSpace() == HipiColorSpace.RGB && image.getNumBands() == 3) {
+      mode = COLOR_MODE;
+    } else if (image.getColorSpace() == HipiColorSpace.LUM && image.getNumBands() == 1) {
+      mode = GREYSCALE_MODE;
+    } else {
+      throw new IllegalArgumentException("PNG encoder supports only three band RGB and single band LUM images.");
     }
 
     crc = new CRC32();
@@ -381,7 +398,6 @@ public class PngCodec extends ImageCodec { //implements ImageDecoder, ImageEncod
     write(os, height);
     byte head[] = null;
 
-    int mode = COLOR_MODE;
     switch (mode) {
       case BW_MODE:
         head = new byte[] {1, 0, 0, 0, 0};
@@ -418,6 +434,14 @@ public class PngCodec extends ImageCodec { //implements ImageDecoder, ImageEncod
           }
         }
         break;
+      case GREYSCALE_MODE:
+        for (int y = 0; y < height; y++) {
+          bos.write(0);
+          for (int x = 0; x < width; x++) {
+            bos.write((byte)pa.getElem(y*width+x));
+          }
+        }
+        break;
     }
     bos.close();
     write(os, compressed.size());
@@ -8,16 +8,26 @@ import org.hipi.image.HipiImage.HipiImageType;
 import org.hipi.image.RasterImage;
 import org.hipi.image.HipiImageFactory;
 import org.hipi.image.PixelArray;
+import org.hipi.image.PixelArrayByte;
+import org.hipi.image.PixelArrayFloat;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Extends {@link ImageCodec} and serves as both an {@link ImageDecoder} and 
- * {@link ImageEncoder} for the PPM image storage format.
+ * {@link ImageEncoder} for the binary PPM (P6) and PGM (P5) image storage formats. Both 8-bit
+ * (max value &lt; 256) and 16-bit (max value &lt; 65536) samples are supported. PGM images are
+ * decoded as single-band images in the {@link HipiColorSpace#LUM} color space.
+ *
+ * Because these formats are uncompressed, the pixel block is read from the input stream in bulk
+ * and, when decoding an 8-bit image into a {@link org.hipi.image.ByteImage}, copied directly into
+ * the underlying {@link PixelArrayByte} without any per-pixel conversion.
  */
 public class PpmCodec extends ImageCodec {
   
@@ -34,96 +44,156 @@ public class PpmCodec extends ImageCodec {
     public int numBands;
     public int maxValue;
     public ArrayList<String> comments = new ArrayList<String>();
-    public int streamOffset; // byte offset to start of image data
-    public byte[] headerBytes = new byte[255];
 
   } // private class PpmHeader
 
-  private PpmHeader internalDecodeHeader(InputStream inputStream) throws IOException {
+  /**
+   * Reads a single byte from the stream, throwing an exception if the end of the stream is reached
+   * before the header is complete.
+   */
+  private static int readHeaderByte(InputStream inputStream) throws IOException {
+    int c = inputStream.read();
+    if (c < 0) {
+      throw new EOFException("Reached end of stream while reading PPM header.");
+    }
+    return c;
+  }
 
-    PpmHeader ppmHeader = new PpmHeader();
-    ppmHeader.numBands = 3;
+  private static boolean isWhitespace(int c) {
+    return (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0b);
+  }
 
-    inputStream.read(ppmHeader.headerBytes);
-    
-    // Only P6 supported.
-    if (ppmHeader.headerBytes[0] != 'P' || ppmHeader.headerBytes[1] != '6') {
-      byte[] format = new byte[2];
-      format[0] = ppmHeader.headerBytes[0];
-      format[1] = ppmHeader.headerBytes[1];
-      throw new IOException(String.format("PPM file has invalid or unsupported format [%s]. Only P6 is currently supported.", new String(format, "UTF-8")));
+  /**
+   * Reads a header comment, which extends to the next carriage return or line feed. The leading
+   * '#' character is assumed to have been consumed already.
+   */
+  private static void readComment(InputStream inputStream, ArrayList<String> comments) 
+    throws IOException {
+    StringBuilder comment = new StringBuilder();
+    int c = readHeaderByte(inputStream);
+    while (c != '\n' && c != '\r') {
+      comment.append((char)c);
+      c = readHeaderByte(inputStream);
     }
-    
-    int off = 3;
-    
-    // TODO: Fix this totally broken way to parse header. It assumes
-    // the header ends after the third integer is parsed. This ignores
-    // valid comment structure.
-    
-    ppmHeader.width = 0;
-    while (ppmHeader.headerBytes[off] >= '0' && 
-	   ppmHeader.headerBytes[off] <= '9') {
-      ppmHeader.width = ppmHeader.width * 10 + (ppmHeader.headerBytes[off++] - '0');
-    }
-    off++;
+    comments.add(comment.toString().trim());
+  }
 
-    ppmHeader.height = 0;
-    while (ppmHeader.headerBytes[off] >= '0' && 
-	   ppmHeader.headerBytes[off] <= '9') {
-      ppmHeader.height = ppmHeader.height * 10 + (ppmHeader.headerBytes[off++] - '0');
+  /**
+   * Reads the next non-negative decimal integer from the header, skipping any leading whitespace
+   * and comments. Consumes exactly one whitespace character following the integer, which for the
+   * max value field marks the start of the pixel data.
+   */
+  private static int readHeaderInt(InputStream inputStream, ArrayList<String> comments) 
+    throws IOException {
+    int c = readHeaderByte(inputStream);
+    for (;;) {
+      if (c == '#') {
+	readComment(inputStream, comments);
+	c = readHeaderByte(inputStream);
+      } else if (isWhitespace(c)) {
+	c = readHeaderByte(inputStream);
+      } else {
+	break;
+      }
+    }
+    if (c < '0' || c > '9') {
+      throw new IOException(String.format("Unexpected character [0x%02X] in PPM header.", c));
     }
-    off++;
+    long value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      if (value > Integer.MAX_VALUE) {
+	throw new IOException("Integer value in PPM header is too large.");
+      }
+      c = readHeaderByte(inputStream);
+    }
+    if (c == '#') {
+      // Comment immediately following the value
+      readComment(inputStream, comments);
+    } else if (!isWhitespace(c)) {
+      throw new IOException(String.format("Unexpected character [0x%02X] in PPM header.", c));
+    }
+    return (int)value;
+  }
 
-    ppmHeader.maxValue = 0;
-    while (ppmHeader.headerBytes[off] >= '0' && 
-	   ppmHeader.headerBytes[off] <= '9') {
-      ppmHeader.maxValue = ppmHeader.maxValue * 10 + (ppmHeader.headerBytes[off++] - '0');
+  private PpmHeader internalDecodeHeader(InputStream inputStream) throws IOException {
+
+    PpmHeader ppmHeader = new PpmHeader();
+
+    int m0 = readHeaderByte(inputStream);
+    int m1 = readHeaderByte(inputStream);
+
+    // Only binary P6 (color) and P5 (grayscale) are supported.
+    if (m0 != 'P' || (m1 != '6' && m1 != '5')) {
+      throw new IOException(String.format("PPM file has invalid or unsupported format [%c%c]. Only P5 and P6 are currently supported.", (char)m0, (char)m1));
     }
-    off++;
+    ppmHeader.numBands = (m1 == '6' ? 3 : 1);
 
-    ppmHeader.streamOffset = off;
-    
-    // TODO: Add support for extracting header comments and return in
-    // List<String> comments field.
+    ppmHeader.width = readHeaderInt(inputStream, ppmHeader.comments);
+    ppmHeader.height = readHeaderInt(inputStream, ppmHeader.comments);
+    ppmHeader.maxValue = readHeaderInt(inputStream, ppmHeader.comments);
+
+    if (ppmHeader.width <= 0 || ppmHeader.height <= 0) {
+      throw new IOException(String.format("PPM header reports invalid dimensions [%d x %d].", ppmHeader.width, ppmHeader.height));
+    }
+    if (ppmHeader.maxValue <= 0 || ppmHeader.maxValue > 65535) {
+      throw new IOException(String.format("PPM header reports invalid max value [%d].", ppmHeader.maxValue));
+    }
     
     return ppmHeader;
 
   }
 
+  private static HashMap<String,String> commentsToExifData(PpmHeader ppmHeader) {
+    HashMap<String,String> exifData = new HashMap<String,String>();
+    if (ppmHeader.comments.size() > 0) {
+      StringBuilder comments = new StringBuilder();
+      for (int i=0; i<ppmHeader.comments.size(); i++) {
+	if (i > 0) {
+	  comments.append("\n");
+	}
+	comments.append(ppmHeader.comments.get(i));
+      }
+      exifData.put("Comments", comments.toString());
+    }
+    return exifData;
+  }
+
   public HipiImageHeader decodeHeader(InputStream inputStream, boolean includeExifData) 
     throws IOException, IllegalArgumentException {
 
     PpmHeader ppmHeader = internalDecodeHeader(inputStream);
 
-    if (ppmHeader.maxValue != 255) {
-      throw new IOException(String.format("Only 8-bit PPMs are currently supported. Max value reported in PPM header is [%d].", ppmHeader.maxValue));
-    }
-
+    // PPM files do not carry EXIF data; header comments are reported instead
+    HashMap<String,String> exifData = null;
     if (includeExifData) {
-      // TODO: Eventually, populate exifData map with comments
-      // extracted from PPM header.
-      throw new IllegalArgumentException("Support for extracting EXIF data from PPM files not implemented.");
+      exifData = commentsToExifData(ppmHeader);
     }
 
-    return new HipiImageHeader(HipiImageFormat.PPM, HipiColorSpace.RGB,
-			       ppmHeader.width, ppmHeader.height, 3, null, null);
+    return new HipiImageHeader(HipiImageFormat.PPM, 
+			       (ppmHeader.numBands == 3 ? HipiColorSpace.RGB : HipiColorSpace.LUM),
+			       ppmHeader.width, ppmHeader.height, ppmHeader.numBands, null, exifData);
   }
 
-  /*
+  /**
+   * Decodes a binary PPM (P6) or PGM (P5) image. The pixel block is read from the input stream
+   * with a single bulk read. 8-bit samples decoded into a {@link PixelArrayByte} are stored
+   * without conversion; all other combinations of sample depth and pixel array type are converted
+   * through a lookup table computed once per image.
+   *
+   * @see ImageDecoder#decodeImage
+   */
   public HipiImage decodeImage(InputStream inputStream, HipiImageHeader imageHeader,
-			       HipiImageFactory imageFactory) throws IllegalArgumentException, IOException {
+			       HipiImageFactory imageFactory, boolean includeExifData)
+    throws IllegalArgumentException, IOException {
 
-    if (!(imageFactory.getType() == HipiImageType.FLOAT || imageFactory.getType() == HipiImageType.BYTE)) {
-      throw new IllegalArgumentException("PPM decoder supports only FloatImage and ByteImage output types.");
+    if (!imageFactory.getType().isRaster()) {
+      throw new IllegalArgumentException("PPM decoder supports only raster output types (e.g., FloatImage and ByteImage).");
     }
 
     PpmHeader ppmHeader = internalDecodeHeader(inputStream);
 
-    if (ppmHeader.maxValue != 255) {
-      throw new IOException(String.format("Only 8-bit PPMs are currently supported. Max value reported in PPM header is [%d].", ppmHeader.maxValue));
-    }
-
-    // Check that image dimensions in header match those in JPEG
+    // Check that image dimensions in header match those in PPM
     if (ppmHeader.width != imageHeader.getWidth() || 
 	ppmHeader.height != imageHeader.getHeight()) {
       throw new IllegalArgumentException("Image dimensions in header do not match those in PPM.");
@@ -133,7 +203,9 @@ public class PpmCodec extends ImageCodec {
       throw new IllegalArgumentException("Number of image bands specified in header does not match number found in PPM.");
     }
 
-    int off = ppmHeader.streamOffset;
+    if (includeExifData) {
+      imageHeader.setExifData(commentsToExifData(ppmHeader));
+    }
 
     // Create output image
     RasterImage image = null;
@@ -147,57 +219,130 @@ public class PpmCodec extends ImageCodec {
 
     PixelArray pa = image.getPixelArray();
 
-    int w = imageHeader.getWidth();
-    int h = imageHeader.getHeight();
+    int n = ppmHeader.width * ppmHeader.height * ppmHeader.numBands;
+    int bytesPerSample = (ppmHeader.maxValue < 256 ? 1 : 2);
+
+    // Fast path: 8-bit samples read straight into the byte pixel array
+    if (bytesPerSample == 1 && ppmHeader.maxValue == 255 && pa instanceof PixelArrayByte) {
+      readFully(inputStream, ((PixelArrayByte)pa).getData(), 0, n);
+      return applyLayout(image, imageFactory);
+    }
+
+    // Read entire pixel block in one pass
+    byte[] raw = new byte[n * bytesPerSample];
+    readFully(inputStream, raw, 0, raw.length);
+
+    if (bytesPerSample == 1 && ppmHeader.maxValue == 255) {
+      // Use the pixel array routine designed for 8-bit sRGB values
+      pa.copyFromNonLinSRGB(raw, 0, 0, n);
+    } else if (pa instanceof PixelArrayByte) {
+      byte[] lut = buildByteLUT(ppmHeader.maxValue);
+      byte[] data = ((PixelArrayByte)pa).getData();
+      if (bytesPerSample == 1) {
+	for (int i=0; i<n; i++) {
+	  data[i] = lut[Math.min(raw[i] & 0xff, ppmHeader.maxValue)];
+	}
+      } else {
+	for (int i=0; i<n; i++) {
+	  int v = ((raw[2*i] & 0xff) << 8) | (raw[2*i+1] & 0xff);
+	  data[i] = lut[Math.min(v, ppmHeader.maxValue)];
+	}
+      }
+    } else if (pa instanceof PixelArrayFloat) {
+      float[] lut = buildFloatLUT(ppmHeader.maxValue);
+      float[] data = ((PixelArrayFloat)pa).getData();
+      if (bytesPerSample == 1) {
+	for (int i=0; i<n; i++) {
+	  data[i] = lut[Math.min(raw[i] & 0xff, ppmHeader.maxValue)];
+	}
+      } else {
+	for (int i=0; i<n; i++) {
+	  int v = ((raw[2*i] & 0xff) << 8) | (raw[2*i+1] & 0xff);
+	  data[i] = lut[Math.min(v, ppmHeader.maxValue)];
+	}
+      }
+    } else {
+      throw new IllegalArgumentException("PPM decoder does not support pixel array type [" + pa.getDataType() + "].");
+    }
 
-    byte[] rest = new byte[w * h * 3 - (255 - off)];
-    inputStream.read(rest);
+    return applyLayout(image, imageFactory);
+  }
 
-    for (int i = 0; i < 255 - off; i++) {
-      pa.setElemNonLinSRGB(i, ppmHeader.headerBytes[i + off] & 0xff);
+  private static void readFully(InputStream inputStream, byte[] buffer, int offset, int length)
+    throws IOException {
+    while (length > 0) {
+      int numRead = inputStream.read(buffer, offset, length);
+      if (numRead < 0) {
+	throw new EOFException("Reached end of stream while reading PPM pixel data.");
+      }
+      offset += numRead;
+      length -= numRead;
     }
+  }
 
-    for (int i = 0; i < w * h * 3 - (255 - off); i++) {
-      pa.setElemNonLinSRGB(i + 255 - off, rest[i] & 0xff);
+  // Maps [0,maxValue] sample values to 8-bit gamma compressed values
+  private static byte[] buildByteLUT(int maxValue) {
+    byte[] lut = new byte[maxValue+1];
+    for (int v=0; v<=maxValue; v++) {
+      lut[v] = (byte)((v * 255 + maxValue / 2) / maxValue);
     }
+    return lut;
+  }
 
-    return image;
+  // Maps [0,maxValue] gamma compressed sample values to linear floating point values
+  private static float[] buildFloatLUT(int maxValue) {
+    float[] lut = new float[maxValue+1];
+    for (int v=0; v<=maxValue; v++) {
+      double nonlinear = (double)v / (double)maxValue;
+      lut[v] = (float)( ( nonlinear <= 0.04045 )
+			? ( nonlinear / 12.92 )
+			: ( Math.pow( (nonlinear+0.055)/1.055, 2.4 ) ) );
+    }
+    return lut;
   }
-  */
 
   public void encodeImage(HipiImage image, OutputStream outputStream) throws IllegalArgumentException, IOException {
 
     if (!(RasterImage.class.isAssignableFrom(image.getClass()))) {
       throw new IllegalArgumentException("PPM encoder supports only RasterImage input types.");
-    }    
+    }
+
+    // Encoders read pixel values in interleaved order
+    image = ((RasterImage)image).getInterleaved();
 
     if (image.getWidth() <= 0 || image.getHeight() <= 0) {
       throw new IllegalArgumentException("Invalid image resolution.");
     }
-    if (image.getColorSpace() != HipiColorSpace.RGB) {
-      throw new IllegalArgumentException("PPM encoder supports only linear RGB color space.");
-    }
-    if (image.getNumBands() != 3) {
-      throw new IllegalArgumentException("PPM encoder supports only three band images.");
+    boolean gray = false;
+    if (image.getColorSpace() == HipiColorSpace.RGB && image.getNumBands() == 3) {
+      gray = false;
+    } else if (image.getColorSpace() == HipiColorSpace.LUM && image.getNumBands() == 1) {
+      gray = true;
+    } else {
+      throw new IllegalArgumentException("PPM encoder supports only three band RGB and single band LUM images.");
     }
 
     int w = image.getWidth();
     int h = image.getHeight();
+    int b = image.getNumBands();
 
     // http://netpbm.sourceforge.net/doc/ppm.html
     PrintWriter writer = new PrintWriter(outputStream);
-    writer.print("P6\r");
+    writer.print(gray ? "P5\r" : "P6\r");
     writer.print(w + " " + h + "\r");
     writer.print("255\r");
     writer.flush();
 
     PixelArray pa = ((RasterImage)image).getPixelArray();
 
-    byte[] raw = new byte[w*h*3];
-    for (int i=0; i<w*h*3; i++) {
-      raw[i] = (byte)pa.getElemNonLinSRGB(i);
+    if (pa instanceof PixelArrayByte) {
+      outputStream.write(((PixelArrayByte)pa).getData(), 0, w*h*b);
+      return;
     }
 
+    byte[] raw = new byte[w*h*b];
+    pa.copyToNonLinSRGB(0, raw, 0, w*h*b);
+
     outputStream.write(raw);
 
   }
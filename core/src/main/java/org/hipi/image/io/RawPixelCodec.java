@@ -0,0 +1,458 @@
+package org.hipi.image.io;
+
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImage;
+import org.hipi.image.HipiImage.HipiImageType;
+import org.hipi.image.RasterImage;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.PixelArray;
+import org.hipi.image.PixelArrayByte;
+import org.hipi.image.PixelArrayFloat;
+import org.hipi.image.PixelArrayHalf;
+import org.hipi.util.ByteUtils;
+import org.hipi.util.LZ4Block;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+/**
+ * Extends {@link ImageCodec} and serves as both an {@link ImageDecoder} and
+ * {@link ImageEncoder} for the raw pixel storage formats {@link HipiImageFormat#RAW_BYTE},
+ * {@link HipiImageFormat#RAW_FLOAT}, {@link HipiImageFormat#RAW_BYTE_LZ4}, and
+ * {@link HipiImageFormat#RAW_FLOAT_LZ4}. These formats store already decoded, interleaved pixel
+ * data so that images can be re-read many times without paying the cost of JPEG or PNG
+ * decompression.
+ *
+ * A raw image consists of a 20-byte header (magic number, width, height, number of bands and
+ * color space, all big-endian ints) followed by the pixel data. 8-bit samples hold gamma
+ * compressed sRGB values, the same representation used by {@link PixelArrayByte}; floating point
+ * samples hold linear values stored as big-endian IEEE 754 floats, the same representation used
+ * by {@link PixelArrayFloat}.
+ *
+ * Floating point samples may instead be stored in another byte order (e.g., {@link
+ * ByteOrder#nativeOrder}, see {@link #encodeImage(HipiImage, OutputStream, int, ByteOrder)}).
+ * Such images start with a different magic number followed by a byte order flag (see {@link
+ * ByteUtils#byteOrderToFlag}) before the rest of the header, and are read by the same decoder.
+ *
+ * The LZ4 variants write the block size as an additional int after the header and then split
+ * the pixel data into blocks of that many bytes, each compressed independently with
+ * {@link LZ4Block} and preceded by its compressed length. Blocks that do not shrink are stored
+ * as-is and flagged by setting the high bit of the length. Floating point blocks are
+ * byte-shuffled (all first bytes, then all second bytes, etc.) before compression, which greatly
+ * improves the compression ratio of smooth image data.
+ */
+public class RawPixelCodec extends ImageCodec {
+
+  private static final int RAW_MAGIC = 0x48524157; // "HRAW"
+  private static final int RAW_MAGIC_ORDERED = 0x4852414f; // "HRAO", followed by byte order flag
+
+  private static final int STORED_BLOCK_FLAG = 0x80000000;
+
+  /**
+   * Default number of uncompressed bytes in each LZ4 block.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+
+  private static final RawPixelCodec rawByteObject =
+    new RawPixelCodec(HipiImageFormat.RAW_BYTE, false, false);
+  private static final RawPixelCodec rawFloatObject =
+    new RawPixelCodec(HipiImageFormat.RAW_FLOAT, true, false);
+  private static final RawPixelCodec rawByteLz4Object =
+    new RawPixelCodec(HipiImageFormat.RAW_BYTE_LZ4, false, true);
+  private static final RawPixelCodec rawFloatLz4Object =
+    new RawPixelCodec(HipiImageFormat.RAW_FLOAT_LZ4, true, true);
+
+  /**
+   * Find the codec instance associated with one of the raw pixel storage formats.
+   *
+   * @param format raw storage format
+   *
+   * @return codec for the given format
+   *
+   * @throws IllegalArgumentException if format is not one of the RAW_* formats
+   */
+  public static RawPixelCodec getInstance(HipiImageFormat format) throws IllegalArgumentException {
+    switch (format) {
+    case RAW_BYTE:
+      return rawByteObject;
+    case RAW_FLOAT:
+      return rawFloatObject;
+    case RAW_BYTE_LZ4:
+      return rawByteLz4Object;
+    case RAW_FLOAT_LZ4:
+      return rawFloatLz4Object;
+    default:
+      throw new IllegalArgumentException("Not a raw pixel storage format [" + format + "].");
+    }
+  }
+
+  private final HipiImageFormat format;
+  private final boolean floatSamples;
+  private final boolean compressed;
+
+  private RawPixelCodec(HipiImageFormat format, boolean floatSamples, boolean compressed) {
+    this.format = format;
+    this.floatSamples = floatSamples;
+    this.compressed = compressed;
+  }
+
+  /**
+   * @return storage format produced and consumed by this codec
+   */
+  public HipiImageFormat getFormat() {
+    return format;
+  }
+
+  private class RawHeader {
+
+    public int width;
+    public int height;
+    public int numBands;
+    public HipiColorSpace colorSpace;
+    public ByteOrder byteOrder;
+
+  } // private class RawHeader
+
+  private RawHeader internalDecodeHeader(DataInputStream dis) throws IOException {
+
+    RawHeader rawHeader = new RawHeader();
+    int magic = dis.readInt();
+    if (magic == RAW_MAGIC) {
+      rawHeader.byteOrder = ByteOrder.BIG_ENDIAN;
+    } else if (magic == RAW_MAGIC_ORDERED) {
+      try {
+	rawHeader.byteOrder = ByteUtils.flagToByteOrder(dis.readInt());
+      } catch (IllegalArgumentException e) {
+	throw new IOException("Raw image data has invalid byte order.");
+      }
+    } else {
+      throw new IOException("Raw image data has invalid signature.");
+    }
+
+    rawHeader.width = dis.readInt();
+    rawHeader.height = dis.readInt();
+    rawHeader.numBands = dis.readInt();
+    try {
+      rawHeader.colorSpace = HipiColorSpace.fromInteger(dis.readInt());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Raw image data has invalid color space.");
+    }
+
+    if (rawHeader.width <= 0 || rawHeader.height <= 0 || rawHeader.numBands <= 0) {
+      throw new IOException(String.format("Raw image data reports invalid dimensions [%d x %d x %d].",
+        rawHeader.width, rawHeader.height, rawHeader.numBands));
+    }
+    if ((long)rawHeader.width * rawHeader.height * rawHeader.numBands * (floatSamples ? 4 : 1) > Integer.MAX_VALUE) {
+      throw new IOException("Raw image data is too large.");
+    }
+
+    return rawHeader;
+  }
+
+  public HipiImageHeader decodeHeader(InputStream inputStream, boolean includeExifData)
+    throws IOException, IllegalArgumentException {
+
+    RawHeader rawHeader = internalDecodeHeader(new DataInputStream(inputStream));
+
+    // Raw pixel data carries no EXIF data
+    HashMap<String,String> exifData = null;
+    if (includeExifData) {
+      exifData = new HashMap<String,String>();
+    }
+
+    return new HipiImageHeader(format, rawHeader.colorSpace, rawHeader.width, rawHeader.height,
+			       rawHeader.numBands, null, exifData);
+  }
+
+  /**
+   * Decodes raw pixel data. 8-bit samples decoded into a {@link PixelArrayByte} are read (or
+   * decompressed) directly into the underlying array; all other combinations are converted one
+   * block at a time.
+   *
+   * @see ImageDecoder#decodeImage
+   */
+  public HipiImage decodeImage(InputStream inputStream, HipiImageHeader imageHeader,
+			       HipiImageFactory imageFactory, boolean includeExifData)
+    throws IllegalArgumentException, IOException {
+
+    if (!imageFactory.getType().isRaster()) {
+      throw new IllegalArgumentException("Raw pixel decoder supports only raster output types (e.g., FloatImage and ByteImage).");
+    }
+
+    DataInputStream dis = new DataInputStream(inputStream);
+
+    RawHeader rawHeader = internalDecodeHeader(dis);
+
+    if (rawHeader.width != imageHeader.getWidth() || rawHeader.height != imageHeader.getHeight()) {
+      throw new IllegalArgumentException("Image dimensions in header do not match those in raw image data.");
+    }
+
+    if (rawHeader.numBands != imageHeader.getNumBands()) {
+      throw new IllegalArgumentException("Number of image bands specified in header does not match number found in raw image data.");
+    }
+
+    if (includeExifData) {
+      imageHeader.setExifData(new HashMap<String,String>());
+    }
+
+    // Create output image
+    RasterImage image = null;
+    try {
+      image = (RasterImage)imageFactory.createImage(imageHeader);
+    } catch (Exception e) {
+      System.err.println(String.format("Unrecoverable exception while creating image object [%s]", e.getMessage()));
+      e.printStackTrace();
+      System.exit(1);
+    }
+
+    PixelArray pa = image.getPixelArray();
+
+    int n = rawHeader.width * rawHeader.height * rawHeader.numBands;
+    int sampleSize = (floatSamples ? 4 : 1);
+    int totalBytes = n * sampleSize;
+
+    int blockSize = DEFAULT_BLOCK_SIZE;
+    if (compressed) {
+      blockSize = dis.readInt();
+      if (blockSize <= 0 || blockSize % 4 != 0) {
+	throw new IOException("Raw image data reports invalid block size [" + blockSize + "].");
+      }
+    }
+    byte[] scratch = (compressed ? new byte[LZ4Block.maxCompressedLength(Math.min(blockSize, totalBytes))] : null);
+
+    // Fast path: 8-bit samples read straight into the byte pixel array
+    if (!floatSamples && pa instanceof PixelArrayByte) {
+      byte[] data = ((PixelArrayByte)pa).getData();
+      if (!compressed) {
+	dis.readFully(data, 0, n);
+      } else {
+	for (int pos=0; pos<n; pos+=blockSize) {
+	  readCompressedBlock(dis, data, pos, Math.min(blockSize, n - pos), scratch);
+	}
+      }
+      return applyLayout(image, imageFactory);
+    }
+
+    byte[] block = new byte[Math.min(blockSize, totalBytes)];
+    byte[] shuffled = (compressed && floatSamples ? new byte[block.length] : null);
+    PixelArrayFloat floatBlock = (floatSamples && !(pa instanceof PixelArrayFloat) ?
+				  new PixelArrayFloat(block.length / 4) : null);
+
+    for (int pos=0; pos<totalBytes; pos+=block.length) {
+
+      int len = Math.min(block.length, totalBytes - pos);
+      int first = pos / sampleSize;
+      int count = len / sampleSize;
+
+      if (!compressed) {
+	dis.readFully(block, 0, len);
+      } else if (floatSamples) {
+	readCompressedBlock(dis, shuffled, 0, len, scratch);
+	unshuffle(shuffled, block, count);
+      } else {
+	readCompressedBlock(dis, block, 0, len, scratch);
+      }
+
+      if (!floatSamples) {
+	pa.copyFromNonLinSRGB(block, 0, first, count);
+      } else if (pa instanceof PixelArrayFloat) {
+	ByteUtils.byteArrayToFloatArray(block, 0, ((PixelArrayFloat)pa).getData(), first, count, rawHeader.byteOrder);
+      } else if (pa instanceof PixelArrayHalf) {
+	// Linear values are transferred as is
+	ByteUtils.byteArrayToFloatArray(block, 0, floatBlock.getData(), 0, count, rawHeader.byteOrder);
+	pa.copyFrom(floatBlock.getData(), 0, first, count);
+      } else {
+	ByteUtils.byteArrayToFloatArray(block, 0, floatBlock.getData(), 0, count, rawHeader.byteOrder);
+	for (int i=0; i<count; i++) {
+	  pa.setElemNonLinSRGB(first + i, floatBlock.getElemNonLinSRGB(i));
+	}
+      }
+    }
+
+    return applyLayout(image, imageFactory);
+  }
+
+  private static void readCompressedBlock(DataInputStream dis, byte[] dst, int dstOff, int rawLength,
+					  byte[] scratch) throws IOException {
+    int length = dis.readInt();
+    boolean stored = ((length & STORED_BLOCK_FLAG) != 0);
+    length &= ~STORED_BLOCK_FLAG;
+    if (stored) {
+      if (length != rawLength) {
+	throw new IOException("Stored block length does not match expected length.");
+      }
+      dis.readFully(dst, dstOff, rawLength);
+      return;
+    }
+    if (length > scratch.length) {
+      throw new IOException("Compressed block length exceeds maximum for block size.");
+    }
+    dis.readFully(scratch, 0, length);
+    if (LZ4Block.decompress(scratch, 0, length, dst, dstOff, rawLength) != rawLength) {
+      throw new IOException("Decompressed block length does not match expected length.");
+    }
+  }
+
+  // Gather byte k of each 4-byte sample into plane k
+  private static void shuffle(byte[] src, byte[] dst, int count) {
+    for (int k=0; k<4; k++) {
+      int plane = k * count;
+      for (int i=0; i<count; i++) {
+	dst[plane + i] = src[4*i + k];
+      }
+    }
+  }
+
+  private static void unshuffle(byte[] src, byte[] dst, int count) {
+    for (int k=0; k<4; k++) {
+      int plane = k * count;
+      for (int i=0; i<count; i++) {
+	dst[4*i + k] = src[plane + i];
+      }
+    }
+  }
+
+  public void encodeImage(HipiImage image, OutputStream outputStream)
+    throws IllegalArgumentException, IOException {
+    encodeImage(image, outputStream, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Encodes an image using the given LZ4 block size. The block size is ignored by the
+   * uncompressed formats.
+   *
+   * @param image source image to be encoded
+   * @param outputStream output stream that will receive encoded image
+   * @param blockSize number of uncompressed bytes per block, must be a positive multiple of four
+   *
+   * @throws IllegalArgumentException if image is not a {@link RasterImage} or blockSize is invalid
+   * @throws IOException if an error is encountered while writing to the output stream
+   */
+  public void encodeImage(HipiImage image, OutputStream outputStream, int blockSize)
+    throws IllegalArgumentException, IOException {
+    encodeImage(image, outputStream, blockSize, ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * Encodes an image using the given LZ4 block size and byte order of floating point samples.
+   * Writing samples in {@link ByteOrder#nativeOrder} avoids byte swapping on little-endian
+   * machines, but produces data that versions of this codec without byte order support cannot
+   * read. The byte order is ignored by the 8-bit formats.
+   *
+   * @param image source image to be encoded
+   * @param outputStream output stream that will receive encoded image
+   * @param blockSize number of uncompressed bytes per block, must be a positive multiple of four
+   * @param byteOrder byte order of floating point samples
+   *
+   * @throws IllegalArgumentException if image is not a {@link RasterImage} or blockSize is invalid
+   * @throws IOException if an error is encountered while writing to the output stream
+   */
+  public void encodeImage(HipiImage image, OutputStream outputStream, int blockSize, ByteOrder byteOrder)
+    throws IllegalArgumentException, IOException {
+
+    if (!(RasterImage.class.isAssignableFrom(image.getClass()))) {
+      throw new IllegalArgumentException("Raw pixel encoder supports only RasterImage input types.");
+    }
+
+    // Encoders read pixel values in interleaved order
+    image = ((RasterImage)image).getInterleaved();
+
+    if (image.getWidth() <= 0 || image.getHeight() <= 0 || image.getNumBands() <= 0) {
+      throw new IllegalArgumentException("Invalid image resolution.");
+    }
+
+    if (blockSize <= 0 || blockSize % 4 != 0) {
+      throw new IllegalArgumentException("Block size must be a positive multiple of four [" + blockSize + "].");
+    }
+
+    int w = image.getWidth();
+    int h = image.getHeight();
+    int b = image.getNumBands();
+    int n = w*h*b;
+    int sampleSize = (floatSamples ? 4 : 1);
+    if ((long)n * sampleSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image is too large to be stored as raw pixel data.");
+    }
+    int totalBytes = n * sampleSize;
+
+    DataOutputStream dos = new DataOutputStream(outputStream);
+    if (floatSamples && byteOrder != ByteOrder.BIG_ENDIAN) {
+      dos.writeInt(RAW_MAGIC_ORDERED);
+      dos.writeInt(ByteUtils.byteOrderToFlag(byteOrder));
+    } else {
+      dos.writeInt(RAW_MAGIC);
+    }
+    dos.writeInt(w);
+    dos.writeInt(h);
+    dos.writeInt(b);
+    dos.writeInt(image.getColorSpace().toInteger());
+    if (compressed) {
+      dos.writeInt(blockSize);
+    }
+
+    PixelArray pa = ((RasterImage)image).getPixelArray();
+
+    if (!floatSamples && !compressed && pa instanceof PixelArrayByte) {
+      dos.write(((PixelArrayByte)pa).getData(), 0, n);
+      dos.flush();
+      return;
+    }
+
+    byte[] block = new byte[Math.min(blockSize, totalBytes)];
+    byte[] shuffled = (compressed && floatSamples ? new byte[block.length] : null);
+    byte[] scratch = (compressed ? new byte[LZ4Block.maxCompressedLength(block.length)] : null);
+    PixelArrayFloat floatBlock = (floatSamples && !(pa instanceof PixelArrayFloat) ?
+				  new PixelArrayFloat(block.length / 4) : null);
+
+    for (int pos=0; pos<totalBytes; pos+=block.length) {
+
+      int len = Math.min(block.length, totalBytes - pos);
+      int first = pos / sampleSize;
+      int count = len / sampleSize;
+
+      if (!floatSamples) {
+	pa.copyToNonLinSRGB(first, block, 0, count);
+      } else if (pa instanceof PixelArrayFloat) {
+	ByteUtils.floatArrayToByteArray(((PixelArrayFloat)pa).getData(), first, block, 0, count, byteOrder);
+      } else if (pa instanceof PixelArrayHalf) {
+	pa.copyTo(first, floatBlock.getData(), 0, count);
+	ByteUtils.floatArrayToByteArray(floatBlock.getData(), 0, block, 0, count, byteOrder);
+      } else {
+	for (int i=0; i<count; i++) {
+	  floatBlock.setElemNonLinSRGB(i, pa.getElemNonLinSRGB(first + i));
+	}
+	ByteUtils.floatArrayToByteArray(floatBlock.getData(), 0, block, 0, count, byteOrder);
+      }
+
+      if (!compressed) {
+	dos.write(block, 0, len);
+	continue;
+      }
+
+      byte[] src = block;
+      if (floatSamples) {
+	shuffle(block, shuffled, count);
+	src = shuffled;
+      }
+
+      int compressedLength = LZ4Block.compress(src, 0, len, scratch, 0);
+      if (compressedLength < len) {
+	dos.writeInt(compressedLength);
+	dos.write(scratch, 0, compressedLength);
+      } else {
+	dos.writeInt(len | STORED_BLOCK_FLAG);
+	dos.write(src, 0, len);
+      }
+    }
+
+    dos.flush();
+  }
+
+}
@@ -0,0 +1,390 @@
+package org.hipi.imagebundle;
+
+import org.hipi.image.HipiImage;
+import org.hipi.image.HipiImage.HipiImageType;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.RasterImage;
+import org.hipi.image.io.RawPixelCodec;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node-local, size-bounded cache of decoded images stored on local disk. Used by
+ * {@link HipiImageBundle.HibReader} to avoid decoding the same image record more than once
+ * when several jobs (or several passes of one job) read the same HIB on the same node.
+ *
+ * The cache is opt-in and is enabled by setting {@link #HIPI_DECODE_CACHE_ENABLED_ATTR} to true
+ * in the job configuration. Entries are keyed by a digest of the HIB data file identity, the byte
+ * offset of the image record, and the decode options (see {@link #makeKey}), and are stored in
+ * the {@link HipiImageFormat#RAW_BYTE} or {@link HipiImageFormat#RAW_FLOAT} format together
+ * with the image EXIF data.
+ *
+ * Eviction is least-recently-used based on the modification time of the cache files, which is
+ * updated on every hit so that recency is shared between tasks running on the same node. The
+ * size bound applies to the whole directory, which is shared by all task JVMs on a node: before
+ * an entry is admitted, the sizes and modification times of all entries are read again from the
+ * directory while holding a lock on the file {@code <directory>.lock} next to it, and the least
+ * recently used entries are deleted until the new entry fits.
+ */
+public class DecodedImageCache {
+
+  public static final String HIPI_DECODE_CACHE_ENABLED_ATTR = "hipi.decodecache.enabled";
+  public static final String HIPI_DECODE_CACHE_DIR_ATTR = "hipi.decodecache.dir";
+  public static final String HIPI_DECODE_CACHE_MAX_BYTES_ATTR = "hipi.decodecache.maxbytes";
+
+  /**
+   * Default upper bound on the total size of the cache directory (4 GB).
+   */
+  public static final long DEFAULT_MAX_BYTES = 4L << 30;
+
+  private static final String ENTRY_SUFFIX = ".hipix";
+  private static final String LOCK_SUFFIX = ".lock";
+  private static final int ENTRY_MAGIC = 0x48495843; // "HIXC"
+
+  private static final HashMap<String, DecodedImageCache> instances =
+    new HashMap<String, DecodedImageCache>();
+
+  /**
+   * Returns the cache shared by all readers in this JVM that use the cache directory named in
+   * the configuration, creating it if necessary.
+   *
+   * @param conf job configuration
+   *
+   * @return the cache, or null if the cache is disabled or its directory cannot be created
+   */
+  public static synchronized DecodedImageCache getInstance(Configuration conf) {
+    if (!conf.getBoolean(HIPI_DECODE_CACHE_ENABLED_ATTR, false)) {
+      return null;
+    }
+    String dir = conf.get(HIPI_DECODE_CACHE_DIR_ATTR,
+			  System.getProperty("java.io.tmpdir") + "/hipi-decode-cache");
+    DecodedImageCache cache = instances.get(dir);
+    if (cache == null) {
+      try {
+	cache = new DecodedImageCache(new File(dir),
+				      conf.getLong(HIPI_DECODE_CACHE_MAX_BYTES_ATTR, DEFAULT_MAX_BYTES));
+      } catch (IOException e) {
+	System.err.println("Failed to open decoded image cache [" + dir + "]: " + e.getMessage());
+	return null;
+      }
+      instances.put(dir, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Builds a cache key from a sequence of strings identifying an image record and the way in
+   * which it was decoded.
+   *
+   * @param parts key components (e.g., HIB path, record offset, image type)
+   *
+   * @return hexadecimal SHA-1 digest of the key components
+   */
+  public static String makeKey(String... parts) {
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+      for (String part : parts) {
+	sha1.update(part.getBytes("UTF-8"));
+	sha1.update((byte)0);
+      }
+      byte[] digest = sha1.digest();
+      StringBuilder hex = new StringBuilder(digest.length * 2);
+      for (int i=0; i<digest.length; i++) {
+	hex.append(String.format("%02x", digest[i]));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    } catch (java.io.UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private final File directory;
+  private final long maxBytes;
+
+  // Entry key => entry size in bytes, in least- to most-recently-used order
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long totalBytes = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * Opens (and creates, if necessary) a cache in the given directory. Existing entries are
+   * indexed in order of their modification times.
+   *
+   * @param directory local directory that holds cache entries
+   * @param maxBytes upper bound on the total size of all entries in the directory
+   *
+   * @throws IOException if the directory does not exist and cannot be created
+   */
+  public DecodedImageCache(File directory, long maxBytes) throws IOException {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Maximum cache size must be positive [" + maxBytes + "].");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+      throw new IOException("Unable to create cache directory [" + directory + "].");
+    }
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+
+    synchronized (DecodedImageCache.class) {
+      FileChannel lock = lockDirectory();
+      try {
+	scan();
+	evict(0);
+      } finally {
+	lock.close();
+      }
+    }
+  }
+
+  private File entryFile(String key) {
+    return new File(directory, key + ENTRY_SUFFIX);
+  }
+
+  // Locks the cache directory against the other task JVMs on this node until the returned channel
+  // is closed. File locks are held on behalf of the whole JVM, so callers must also synchronize on
+  // the class to keep two caches opened on the same directory from overlapping.
+  private FileChannel lockDirectory() throws IOException {
+    File absolute = directory.getAbsoluteFile();
+    File lockFile = new File(absolute.getParentFile(), absolute.getName() + LOCK_SUFFIX);
+    FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel();
+    try {
+      channel.lock();
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+
+  // Rebuilds the index from the entries currently in the directory, in order of their
+  // modification times
+  private void scan() {
+    entries.clear();
+    totalBytes = 0;
+    File[] files = directory.listFiles();
+    if (files != null) {
+      // Hits in other tasks update modification times, so read each of them once before sorting
+      final HashMap<File, Long> lastModified = new HashMap<File, Long>();
+      for (File file : files) {
+	lastModified.put(file, file.lastModified());
+      }
+      Arrays.sort(files, new Comparator<File>() {
+	  public int compare(File a, File b) {
+	    return Long.compare(lastModified.get(a), lastModified.get(b));
+	  }
+	});
+      for (File file : files) {
+	String name = file.getName();
+	if (file.isFile() && name.endsWith(ENTRY_SUFFIX)) {
+	  long size = file.length();
+	  entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+	  totalBytes += size;
+	}
+      }
+    }
+  }
+
+  /**
+   * Looks up a decoded image. On success the image header is updated with the cached EXIF data
+   * and the entry becomes the most recently used.
+   *
+   * @param key cache key produced by {@link #makeKey}
+   * @param imageHeader header of the image record, used to create the output image
+   * @param imageFactory factory for the desired image type
+   *
+   * @return cached image, or null if the key is not present or the entry is unusable
+   */
+  public synchronized HipiImage get(String key, HipiImageHeader imageHeader, HipiImageFactory imageFactory) {
+
+    // Note that get() (unlike containsKey()) marks the entry as most recently used
+    File file = entryFile(key);
+    if (entries.get(key) == null) {
+      if (!file.isFile()) {
+	misses++;
+	return null;
+      }
+      // Written by another task on this node, which made room for it
+      entries.put(key, file.length());
+      totalBytes += file.length();
+    }
+
+    HipiImage image = null;
+    try {
+      DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      try {
+	if (dis.readInt() != ENTRY_MAGIC) {
+	  throw new IOException("Invalid cache entry signature.");
+	}
+	HipiImageFormat format = HipiImageFormat.fromInteger(dis.readInt());
+	int numExif = dis.readInt();
+	HashMap<String,String> exifData = new HashMap<String,String>();
+	for (int i=0; i<numExif; i++) {
+	  String exifKey = dis.readUTF();
+	  exifData.put(exifKey, dis.readUTF());
+	}
+	image = RawPixelCodec.getInstance(format).decodeImage(dis, imageHeader, imageFactory, false);
+	imageHeader.setExifData(exifData);
+      } finally {
+	dis.close();
+      }
+    } catch (Exception e) {
+      System.err.println("Discarding unreadable decoded image cache entry [" + file + "]: " + e.getMessage());
+      remove(key);
+      misses++;
+      return null;
+    }
+
+    file.setLastModified(System.currentTimeMillis());
+    hits++;
+    return image;
+  }
+
+  /**
+   * Stores a decoded image. Entries are first written to a temporary file and then renamed so
+   * that concurrent readers never observe partially written entries. The rename happens under
+   * the directory lock, after the index has been rebuilt from the directory and least recently
+   * used entries have been evicted to make room. Failures are reported but otherwise ignored.
+   *
+   * @param key cache key produced by {@link #makeKey}
+   * @param image decoded image
+   */
+  public synchronized void put(String key, HipiImage image) {
+
+    if (!(image instanceof RasterImage) || entries.containsKey(key)) {
+      return;
+    }
+
+    // None of the raw formats holds 16-bit sRGB samples losslessly
+    if (image.getType() == HipiImageType.USHORT) {
+      return;
+    }
+
+    HipiImageFormat format = (image.getType() == HipiImageType.BYTE ?
+			      HipiImageFormat.RAW_BYTE : HipiImageFormat.RAW_FLOAT);
+
+    File tmpFile = null;
+    try {
+      tmpFile = File.createTempFile(key + "-", ".tmp", directory);
+      DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+      try {
+	dos.writeInt(ENTRY_MAGIC);
+	dos.writeInt(format.toInteger());
+	HashMap<String,String> exifData = image.getAllExifData();
+	dos.writeInt(exifData.size());
+	for (Map.Entry<String,String> entry : exifData.entrySet()) {
+	  dos.writeUTF(entry.getKey());
+	  dos.writeUTF(entry.getValue());
+	}
+	RawPixelCodec.getInstance(format).encodeImage(image, dos);
+      } finally {
+	dos.close();
+      }
+
+      long size = tmpFile.length();
+      if (size > maxBytes) {
+	tmpFile.delete();
+	return;
+      }
+
+      synchronized (DecodedImageCache.class) {
+	FileChannel lock = lockDirectory();
+	try {
+	  scan();
+	  if (entries.containsKey(key)) {
+	    // Another task stored the same entry first
+	    tmpFile.delete();
+	    return;
+	  }
+	  evict(size);
+	  if (!tmpFile.renameTo(entryFile(key))) {
+	    tmpFile.delete();
+	    return;
+	  }
+	  entries.put(key, size);
+	  totalBytes += size;
+	} finally {
+	  lock.close();
+	}
+      }
+    } catch (Exception e) {
+      System.err.println("Failed to store decoded image cache entry: " + e.getMessage());
+      if (tmpFile != null) {
+	tmpFile.delete();
+      }
+    }
+  }
+
+  private void remove(String key) {
+    Long size = entries.remove(key);
+    if (size != null) {
+      totalBytes -= size;
+    }
+    entryFile(key).delete();
+  }
+
+  // Remove least recently used entries until the total size plus the given number of bytes to be
+  // added is within bounds
+  private void evict(long reserve) {
+    Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+    while (totalBytes + reserve > maxBytes && iter.hasNext()) {
+      Map.Entry<String, Long> eldest = iter.next();
+      totalBytes -= eldest.getValue();
+      entryFile(eldest.getKey()).delete();
+      iter.remove();
+    }
+  }
+
+  /**
+   * @return total size in bytes of the entries known to this cache
+   */
+  public synchronized long getSizeInBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * @return number of entries known to this cache
+   */
+  public synchronized int getNumEntries() {
+    return entries.size();
+  }
+
+  /**
+   * @return number of successful lookups
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return number of failed lookups
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+}
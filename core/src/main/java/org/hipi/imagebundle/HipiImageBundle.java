@@ -1,6 +1,7 @@
 package org.hipi.imagebundle;
 
 import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
 import org.hipi.image.HipiImageHeader.HipiImageFormat;
 import org.hipi.image.HipiImage;
 import org.hipi.image.HipiImage.HipiImageType;
@@ -10,10 +11,13 @@ import org.hipi.image.FloatImage;
 import org.hipi.image.RasterImage;
 import org.hipi.image.RawImage;
 import org.hipi.image.io.CodecManager;
+import org.hipi.image.io.ImageCodec;
 import org.hipi.image.io.ImageDecoder;
 import org.hipi.image.io.ImageEncoder;
 import org.hipi.image.io.JpegCodec;
 import org.hipi.image.io.PngCodec;
+import org.hipi.image.io.PpmCodec;
+import org.hipi.image.io.RawPixelCodec;
 import org.hipi.mapreduce.Culler;
 import org.hipi.util.ByteUtils;
 
@@ -94,6 +98,20 @@ public class HipiImageBundle {
     private HipiImageHeader imageHeader = null;
     private HipiImage image = null;
 
+    // Optional node-local cache of decoded images along with the
+    // identity of the HIB data file used to build cache keys
+    private DecodedImageCache decodedImageCache = null;
+    private String dataFileKey = null;
+
+    private FileSystem fs = null;
+    private Path path = null;
+
+    // Requested color space of decoded images (UNDEFINED means as stored)
+    private HipiColorSpace decodeColorSpace = HipiColorSpace.UNDEFINED;
+
+    // Whether image bodies are decoded into HipiImage objects
+    private boolean decodeImages = true;
+
     /**
      * Creates a HibReader to read records (image headers / image
      * bodies) from a contiguous segment (file split) of a HIB data
@@ -124,6 +142,8 @@ public class HipiImageBundle {
       }
       
       // Create input stream for HIB data file
+      this.fs = fs;
+      this.path = path;
       dataInputStream = new DataInputStream(fs.open(path));
 
       // Advance input stream to requested start byte offset. This may
@@ -147,6 +167,55 @@ public class HipiImageBundle {
       this(imageFactory, cullerClass, fs, path, 0, 0); // endOffset = 0 indicates read until EOF
     }
 
+    /**
+     * Controls whether image bodies are decoded. If disabled, {@link #nextKeyValue} only reads
+     * (and culls) image headers and the encoded image bytes, which are available from {@link
+     * #getImageBytes}, and {@link #getCurrentValue} returns null. This allows callers to decode
+     * images with another library (e.g., OpenCV). The image factory may be null in this case.
+     *
+     * @param decodeImages whether to decode images (the default)
+     */
+    public void setDecodeImages(boolean decodeImages) {
+      this.decodeImages = decodeImages;
+    }
+
+    /**
+     * Enables lookup of decoded images in a {@link DecodedImageCache} before decoding, and
+     * storage of newly decoded images in the cache. Has no effect on images of type RAW.
+     *
+     * @param cache the cache to use, or null to disable caching
+     *
+     * @throws IOException if the status of the HIB data file cannot be determined
+     */
+    public void setDecodedImageCache(DecodedImageCache cache) throws IOException {
+      decodedImageCache = cache;
+      if (cache != null) {
+        // Include length and modification time so that entries for a
+        // rewritten HIB are never reused
+        FileStatus status = fs.getFileStatus(path);
+        dataFileKey = fs.makeQualified(path).toString() + ":" + status.getLen() + ":" + status.getModificationTime();
+      }
+    }
+
+    /**
+     * Requests that color images be decoded directly into a different color space. Currently
+     * only {@link HipiColorSpace#LUM} is supported, which produces single band luminance images
+     * (and matching image headers) from RGB records whose decoder supports it (see {@link
+     * ImageCodec#supportsLuminanceDecode}). Records in other storage formats are decoded as
+     * stored.
+     *
+     * @param colorSpace {@link HipiColorSpace#LUM}, or {@link HipiColorSpace#UNDEFINED} to
+     * decode images in their stored color space
+     *
+     * @throws IllegalArgumentException if the color space is not supported
+     */
+    public void setDecodeColorSpace(HipiColorSpace colorSpace) throws IllegalArgumentException {
+      if (colorSpace != HipiColorSpace.UNDEFINED && colorSpace != HipiColorSpace.LUM) {
+        throw new IllegalArgumentException("Unsupported decode color space [" + colorSpace + "].");
+      }
+      decodeColorSpace = colorSpace;
+    }
+
     /**
      * Returns current amount of progress reading file.
      * 
@@ -269,6 +338,7 @@ public class HipiImageBundle {
 
         // Advance byte offset by length of 12-byte signature plus
         // image header length plus image pixel data length
+        long recordOffset = currentOffset;
         currentOffset += 12 + imageHeaderLength + imageLength;
 
         // Attempt to decode image header
@@ -300,12 +370,40 @@ public class HipiImageBundle {
           }
         }
 
+        // Leave decoding to the caller, if requested
+        if (!decodeImages) {
+          return true;
+        }
+
+        // Request single band luminance output from decoders that can
+        // produce it directly
+        if (decodeColorSpace == HipiColorSpace.LUM &&
+            imageHeader.getColorSpace() == HipiColorSpace.RGB &&
+            decoder instanceof ImageCodec && ((ImageCodec)decoder).supportsLuminanceDecode()) {
+          HipiImageHeader lumHeader = new HipiImageHeader(imageHeader.getStorageFormat(), HipiColorSpace.LUM,
+            imageHeader.getWidth(), imageHeader.getHeight(), 1, null, imageHeader.getAllExifData());
+          lumHeader.setMetaData(imageHeader.getAllMetaData());
+          imageHeader = lumHeader;
+        }
+
         // Call appropriate decode function based on type of image object
         switch (imageFactory.getType()) {
           case FLOAT:
           case BYTE:
+          case HALF:
+          case USHORT:
           try {
-            image = decoder.decodeImage(imageByteStream, imageHeader, imageFactory, true);
+            String cacheKey = null;
+            if (decodedImageCache != null) {
+              cacheKey = DecodedImageCache.makeKey(dataFileKey, Long.toString(recordOffset), imageFactory.getType().toString(), imageHeader.getColorSpace().toString());
+              image = decodedImageCache.get(cacheKey, imageHeader, imageFactory);
+            }
+            if (image == null) {
+              image = decoder.decodeImage(imageByteStream, imageHeader, imageFactory, true);
+              if (decodedImageCache != null) {
+                decodedImageCache.put(cacheKey, image);
+              }
+            }
           } catch (Exception e) {
             System.err.println("Runtime exception while attempting to decode raster image: " + 
               e.getMessage());
@@ -621,9 +719,16 @@ public class HipiImageBundle {
       decoder = PngCodec.getInstance();
       break;
       case PPM:
-      throw new IllegalArgumentException("Not implemented.");
+      decoder = PpmCodec.getInstance();
+      break;
+      case RAW_BYTE:
+      case RAW_FLOAT:
+      case RAW_BYTE_LZ4:
+      case RAW_FLOAT_LZ4:
+      decoder = RawPixelCodec.getInstance(imageFormat);
+      break;
       case UNDEFINED:
-      defult:
+      default:
       throw new IllegalArgumentException("Unrecognized or unsupported image format.");
     }
 
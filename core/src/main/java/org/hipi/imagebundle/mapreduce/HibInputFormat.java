@@ -2,7 +2,9 @@ package org.hipi.imagebundle.mapreduce;
 
 import org.hipi.image.HipiImage;
 import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
 import org.hipi.imagebundle.HipiImageBundle;
+import org.hipi.util.PixelBufferPool;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
@@ -34,6 +36,37 @@ import java.util.Set;
 
 public class HibInputFormat extends FileInputFormat<HipiImageHeader, HipiImage> {
 
+  /**
+   * Name of a {@link HipiColorSpace} into which images are decoded (e.g., "LUM" to obtain single
+   * band luminance images straight from the decoder). Images are decoded in their stored color
+   * space if unset. See {@link HipiImageBundle.HibReader#setDecodeColorSpace}.
+   */
+  public static final String HIPI_DECODE_COLOR_SPACE_ATTR = "hipi.decode.colorspace";
+
+  /**
+   * Upper bound, in bytes, on the pixel arrays kept in the {@link PixelBufferPool} shared by the
+   * record readers of a task. Decoded images draw their pixel arrays from the pool, and mappers
+   * return them by calling {@link org.hipi.image.RasterImage#release} at the end of the map
+   * method. The pool is disabled if unset or zero.
+   */
+  public static final String HIPI_BUFFER_POOL_MAX_BYTES_ATTR = "hipi.bufferpool.maxbytes";
+
+  /**
+   * Name of a {@link org.hipi.image.PixelArray.Layout} in which the pixel data of decoded images
+   * is stored (e.g., "PLANAR" to obtain channel-major images). Images are interleaved if unset.
+   */
+  public static final String HIPI_PIXEL_LAYOUT_ATTR = "hipi.pixel.layout";
+
+  /**
+   * String representation of an {@link org.hipi.image.ImagePipeline} that is applied to every
+   * decoded raster image before it is passed to the mapper (e.g.,
+   * "grayscale|resize:224,224,AREA|normalize:0.5/0.25"). The stages run as a single fused pass
+   * that writes directly into the image handed to the mapper. Keys still describe the stored
+   * images. Pipelines that normalize require a FloatImage (or HalfImage) mapper, and images
+   * that do not fit the pipeline are skipped. No preprocessing is done if unset.
+   */
+  public static final String HIPI_IMAGE_PIPELINE_ATTR = "hipi.image.pipeline";
+
   /**
    * Creates a {@link HibRecordReader}
    */
@@ -4,9 +4,15 @@ import org.hipi.image.HipiImage;
 import org.hipi.image.FloatImage;
 import org.hipi.image.ByteImage;
 import org.hipi.image.HipiImageFactory;
+import org.hipi.image.ImagePipeline;
+import org.hipi.image.RasterImage;
+import org.hipi.image.PixelArray;
 import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.imagebundle.DecodedImageCache;
 import org.hipi.imagebundle.HipiImageBundle;
 import org.hipi.mapreduce.Culler;
+import org.hipi.util.PixelBufferPool;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -29,12 +35,16 @@ public class HibRecordReader extends RecordReader<HipiImageHeader, HipiImage> {
 
   private Configuration conf;
   private HipiImageBundle.HibReader reader;
+  private HipiImageFactory imageFactory;
+  private ImagePipeline pipeline = null;
+  private PixelArray.Layout pipelineLayout = null;
+  private HipiImage value = null;
 
   @Override
   public void initialize(InputSplit split, TaskAttemptContext context) 
   throws IOException, IllegalArgumentException {
 
-    HipiImageFactory imageFactory = null;
+    imageFactory = null;
     try {
       imageFactory = new HipiImageFactory(context.getMapperClass());
     } catch (Exception ex) {
@@ -45,6 +55,37 @@ public class HibRecordReader extends RecordReader<HipiImageHeader, HipiImage> {
 
     FileSplit bundleSplit = (FileSplit)split;
     conf = context.getConfiguration();
+
+    // Draw pixel arrays from a shared pool, if enabled
+    long bufferPoolMaxBytes = conf.getLong(HibInputFormat.HIPI_BUFFER_POOL_MAX_BYTES_ATTR, 0);
+    if (bufferPoolMaxBytes > 0) {
+      PixelBufferPool bufferPool = PixelBufferPool.getInstance();
+      bufferPool.setMaxBytes(bufferPoolMaxBytes);
+      imageFactory.setBufferPool(bufferPool);
+    }
+
+    // Preprocess decoded images, if requested
+    String pipelineSpec = conf.get(HibInputFormat.HIPI_IMAGE_PIPELINE_ATTR);
+    if (pipelineSpec != null) {
+      pipeline = ImagePipeline.parse(pipelineSpec);
+      if (pipeline.isEmpty()) {
+	pipeline = null;
+      } else {
+	// Fail here rather than skipping every record
+	pipeline.checkOutputType(imageFactory.getType());
+      }
+    }
+
+    // Decode into the requested pixel layout, if any (the pipeline reads interleaved images,
+    // so its output is converted instead)
+    String pixelLayout = conf.get(HibInputFormat.HIPI_PIXEL_LAYOUT_ATTR);
+    if (pixelLayout != null) {
+      if (pipeline == null) {
+	imageFactory.setLayout(PixelArray.Layout.valueOf(pixelLayout));
+      } else {
+	pipelineLayout = PixelArray.Layout.valueOf(pixelLayout);
+      }
+    }
     
     Path path = bundleSplit.getPath();
     FileSystem fs = path.getFileSystem(conf);
@@ -56,6 +97,15 @@ public class HibRecordReader extends RecordReader<HipiImageHeader, HipiImage> {
 		       " and ends at byte offset " + (bundleSplit.getStart() + bundleSplit.getLength() - 1));
     
     reader = new HipiImageBundle.HibReader(imageFactory, cullerClass, fs, path, bundleSplit.getStart(), bundleSplit.getStart() + bundleSplit.getLength() - 1);
+
+    // Decode directly into the requested color space, if any
+    String decodeColorSpace = conf.get(HibInputFormat.HIPI_DECODE_COLOR_SPACE_ATTR);
+    if (decodeColorSpace != null) {
+      reader.setDecodeColorSpace(HipiColorSpace.valueOf(decodeColorSpace));
+    }
+
+    // Consult node-local decoded image cache, if enabled
+    reader.setDecodedImageCache(DecodedImageCache.getInstance(conf));
   }
   
   @Override
@@ -70,7 +120,7 @@ public class HibRecordReader extends RecordReader<HipiImageHeader, HipiImage> {
 
   @Override
   public HipiImage getCurrentValue() throws IOException, InterruptedException  {
-    return reader.getCurrentValue();
+    return value;
   }
   
   @Override
@@ -80,6 +130,32 @@ public class HibRecordReader extends RecordReader<HipiImageHeader, HipiImage> {
   
   @Override
   public boolean nextKeyValue() throws IOException, InterruptedException  {
-    return reader.nextKeyValue();
+    while (reader.nextKeyValue()) {
+      value = reader.getCurrentValue();
+      if (pipeline == null || !(value instanceof RasterImage)) {
+	return true;
+      }
+      RasterImage decoded = (RasterImage)value;
+      RasterImage output = null;
+      try {
+	output = pipeline.apply(decoded, imageFactory);
+      } catch (IllegalArgumentException e) {
+	// Image does not fit the pipeline (e.g., smaller than the crop region or with a
+	// different number of bands); skip it like records that fail to decode
+	System.err.println("Skipping image record that does not fit image pipeline [" + pipeline + "]: " +
+			   e.getMessage());
+	decoded.release();
+	continue;
+      }
+      // The decoded image is not referenced anywhere else (cached images are stored on disk)
+      decoded.release();
+      if (pipelineLayout != null) {
+	output.setLayout(pipelineLayout);
+      }
+      value = output;
+      return true;
+    }
+    value = null;
+    return false;
   }
 }
@@ -0,0 +1,267 @@
+package org.hipi.opencv;
+
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pool of OpenCV {@link Mat} objects that explicitly manages their native memory. JavaCPP frees
+ * native memory only when the garbage collector finalizes the corresponding Java objects, which
+ * may happen long after a task has exceeded its physical memory limit because the (small) Java
+ * heap looks healthy. Mats obtained from a pool are instead freed deterministically, either when
+ * they are evicted from the pool or when the pool is closed. Released Mats that were allocated
+ * by {@link #acquire} are reused by subsequent calls for the same type and dimensions, and the
+ * least recently released Mats are evicted once idle Mats hold more than a given number of bytes
+ * (e.g., when image dimensions vary). Mats allocated elsewhere and handed to the pool with
+ * {@link #adopt} are freed when they are released, since their memory may not be safe to reuse.
+ *
+ * A pool is typically created in the setup method of a mapper or reducer and closed in its
+ * cleanup method, and Mats are acquired within a {@link MatScope} that returns them to the pool
+ * when it is closed. The pool keeps track of the number of native bytes allocated and freed,
+ * which {@link #updateCounters} reports as Hadoop counters of the task.
+ *
+ * Pools are not thread-safe.
+ */
+public class MatPool implements AutoCloseable {
+
+  /**
+   * Hadoop counters reported by {@link #updateCounters}.
+   */
+  public enum Counter {
+    NATIVE_BYTES_ALLOCATED,
+    NATIVE_BYTES_FREED
+  }
+
+  /**
+   * Default limit on the number of bytes held by idle Mats (256 MB).
+   */
+  public static final long DEFAULT_MAX_IDLE_BYTES = 256L << 20;
+
+  // Released Mats indexed by type and dimensions, and in order of release
+  private final Map<String, ArrayDeque<Mat>> idle = new HashMap<String, ArrayDeque<Mat>>();
+  private final ArrayDeque<Mat> idleOrder = new ArrayDeque<Mat>();
+
+  // Size in bytes of every Mat owned by the pool (in use or idle) when it was allocated
+  private final Map<Mat, Long> owned = new IdentityHashMap<Mat, Long>();
+
+  // Mats allocated by acquire, which are the only ones that are reused
+  private final Set<Mat> allocated = Collections.newSetFromMap(new IdentityHashMap<Mat, Boolean>());
+
+  private final long maxIdleBytes;
+  private long idleBytes = 0;
+  private long bytesAllocated = 0;
+  private long bytesFreed = 0;
+  private long reportedAllocated = 0;
+  private long reportedFreed = 0;
+  private boolean closed = false;
+
+  public MatPool() {
+    this(DEFAULT_MAX_IDLE_BYTES);
+  }
+
+  /**
+   * @param maxIdleBytes limit on the number of bytes held by idle Mats, beyond which the least
+   * recently released Mats are freed
+   */
+  public MatPool(long maxIdleBytes) throws IllegalArgumentException {
+    if (maxIdleBytes < 0) {
+      throw new IllegalArgumentException("Invalid idle limit [" + maxIdleBytes + "].");
+    }
+    this.maxIdleBytes = maxIdleBytes;
+  }
+
+  private static String getKey(int rows, int cols, int type) {
+    return type + ":" + rows + "x" + cols;
+  }
+
+  private static long getBytes(Mat mat) {
+    return mat.total() * mat.elemSize();
+  }
+
+  private void checkOpen() throws IllegalStateException {
+    if (closed) {
+      throw new IllegalStateException("Mat pool has been closed.");
+    }
+  }
+
+  /**
+   * Returns a Mat of the given dimensions and type, reusing an idle Mat if possible. The values
+   * of the Mat are undefined.
+   *
+   * @param rows number of rows
+   * @param cols number of columns
+   * @param type OpenCV type (e.g., opencv_core.CV_32FC1)
+   *
+   * @return Mat owned by the pool, which must be returned with {@link #release}
+   */
+  public Mat acquire(int rows, int cols, int type) throws IllegalStateException {
+    checkOpen();
+    ArrayDeque<Mat> mats = idle.get(getKey(rows, cols, type));
+    if (mats != null && !mats.isEmpty()) {
+      Mat mat = mats.pop();
+      removeIdentical(idleOrder, mat);
+      idleBytes -= owned.get(mat);
+      return mat;
+    }
+    Mat mat = adopt(new Mat(rows, cols, type));
+    allocated.add(mat);
+    return mat;
+  }
+
+  /**
+   * Transfers ownership of a Mat allocated elsewhere (e.g., the result of an OpenCV function)
+   * to the pool, which accounts for its native memory and frees it when it is released or when
+   * the pool is closed. Adopted Mats are never reused, and must own their data: views of other
+   * Mats (e.g., rows or regions of interest) are rejected, and Mats that wrap memory owned by
+   * Java objects (e.g., {@link OpenCVUtils#wrapRasterImageAsMat}) must not be adopted.
+   *
+   * @param mat Mat to adopt
+   *
+   * @return the Mat
+   *
+   * @throws IllegalArgumentException if the Mat is a submatrix or is not continuous
+   */
+  public Mat adopt(Mat mat) throws IllegalStateException, IllegalArgumentException {
+    checkOpen();
+    if (mat.isSubmatrix() || !mat.isContinuous()) {
+      throw new IllegalArgumentException("Cannot adopt a view of another Mat.");
+    }
+    if (!owned.containsKey(mat)) {
+      long bytes = getBytes(mat);
+      owned.put(mat, bytes);
+      bytesAllocated += bytes;
+    }
+    return mat;
+  }
+
+  /**
+   * Returns a Mat to the pool. The Mat is kept for reuse if it was allocated by {@link #acquire}
+   * and is still continuous and of the size it had when it was allocated, and freed otherwise.
+   * Least recently released Mats are freed while idle Mats exceed the idle limit.
+   *
+   * @param mat Mat previously obtained from {@link #acquire} or passed to {@link #adopt}
+   */
+  public void release(Mat mat) throws IllegalArgumentException {
+    Long bytes = owned.get(mat);
+    if (bytes == null && closed) {
+      return; // Already freed by close
+    }
+    if (bytes == null) {
+      throw new IllegalArgumentException("Mat is not owned by this pool.");
+    }
+    if (allocated.contains(mat) && mat.dims() <= 2 && mat.isContinuous() && getBytes(mat) == bytes) {
+      String key = getKey(mat.rows(), mat.cols(), mat.type());
+      ArrayDeque<Mat> mats = idle.get(key);
+      if (mats == null) {
+        mats = new ArrayDeque<Mat>();
+        idle.put(key, mats);
+      }
+      mats.push(mat);
+      idleOrder.addLast(mat);
+      idleBytes += bytes;
+    } else {
+      owned.remove(mat);
+      allocated.remove(mat);
+      free(mat, bytes);
+    }
+
+    // Evict least recently released Mats
+    while (idleBytes > maxIdleBytes) {
+      Mat evicted = idleOrder.removeFirst();
+      removeIdentical(idle.get(getKey(evicted.rows(), evicted.cols(), evicted.type())), evicted);
+      long evictedBytes = owned.remove(evicted);
+      allocated.remove(evicted);
+      idleBytes -= evictedBytes;
+      free(evicted, evictedBytes);
+    }
+  }
+
+  // Removes an object from a deque by identity (Pointer.equals compares native addresses)
+  private static void removeIdentical(ArrayDeque<Mat> mats, Mat mat) {
+    for (Iterator<Mat> it = mats.iterator(); it.hasNext();) {
+      if (it.next() == mat) {
+        it.remove();
+        return;
+      }
+    }
+  }
+
+  // Frees the native data and header of a Mat
+  private void free(Mat mat, long bytes) {
+    mat.release();
+    mat.deallocate();
+    bytesFreed += bytes;
+  }
+
+  /**
+   * Frees other native objects (e.g., Scalars) immediately rather than when they are finalized.
+   *
+   * @param pointer native object to free
+   */
+  public static void free(Pointer pointer) {
+    if (pointer instanceof Mat) {
+      ((Mat)pointer).release();
+    }
+    pointer.deallocate();
+  }
+
+  /**
+   * @return number of bytes of native memory allocated by Mats owned by this pool
+   */
+  public long getBytesAllocated() {
+    return bytesAllocated;
+  }
+
+  /**
+   * @return number of bytes of native memory freed by this pool
+   */
+  public long getBytesFreed() {
+    return bytesFreed;
+  }
+
+  /**
+   * @return number of bytes of native memory held by idle Mats
+   */
+  public long getIdleBytes() {
+    return idleBytes;
+  }
+
+  /**
+   * Increments the {@link Counter} counters of a task by the number of bytes allocated and freed
+   * since the previous call.
+   *
+   * @param context context of the task (e.g., of a mapper or reducer)
+   */
+  public void updateCounters(TaskAttemptContext context) {
+    context.getCounter(Counter.NATIVE_BYTES_ALLOCATED).increment(bytesAllocated - reportedAllocated);
+    context.getCounter(Counter.NATIVE_BYTES_FREED).increment(bytesFreed - reportedFreed);
+    reportedAllocated = bytesAllocated;
+    reportedFreed = bytesFreed;
+  }
+
+  /**
+   * Frees all Mats owned by the pool, including those that are still in use. Subsequent calls
+   * to {@link #release} have no effect.
+   */
+  @Override
+  public void close() {
+    for (Map.Entry<Mat, Long> entry : owned.entrySet()) {
+      free(entry.getKey(), entry.getValue());
+    }
+    owned.clear();
+    allocated.clear();
+    idle.clear();
+    idleOrder.clear();
+    idleBytes = 0;
+    closed = true;
+  }
+
+}
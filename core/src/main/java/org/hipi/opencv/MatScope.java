@@ -0,0 +1,104 @@
+package org.hipi.opencv;
+
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scope of native OpenCV objects meant for try-with-resources statements, e.g., around the body
+ * of a map method:
+ *
+ * <pre>
+ * try (MatScope scope = new MatScope(pool)) {
+ *   Mat image = scope.mat(height, width, opencv_core.CV_32FC1);
+ *   Mat gray = scope.adopt(OpenCVUtils.convertRasterImageToMat(rasterImage));
+ *   ...
+ * }
+ * </pre>
+ *
+ * Mats acquired through the scope are returned to its {@link MatPool} when the scope is closed,
+ * while adopted Mats and other native objects passed to {@link #track} are freed, so that no
+ * native memory allocated within the scope waits for the garbage collector. Objects that must
+ * outlive the scope are removed from it with {@link #detach}. Mats passed to Hadoop's {@code
+ * context.write} may remain in the scope, since output records are serialized when written.
+ */
+public class MatScope implements AutoCloseable {
+
+  private final MatPool pool;
+  private final List<Mat> mats = new ArrayList<Mat>();
+  private final List<Pointer> pointers = new ArrayList<Pointer>();
+
+  /**
+   * @param pool pool from which Mats are acquired and to which they are returned
+   */
+  public MatScope(MatPool pool) throws IllegalArgumentException {
+    if (pool == null) {
+      throw new IllegalArgumentException("Must provide valid non-null MatPool object.");
+    }
+    this.pool = pool;
+  }
+
+  /**
+   * Acquires a Mat from the pool for the lifetime of the scope. See {@link MatPool#acquire}.
+   */
+  public Mat mat(int rows, int cols, int type) {
+    Mat mat = pool.acquire(rows, cols, type);
+    mats.add(mat);
+    return mat;
+  }
+
+  /**
+   * Transfers ownership of a Mat allocated elsewhere (e.g., the result of an OpenCV function) to
+   * the pool for the lifetime of the scope. See {@link MatPool#adopt}.
+   */
+  public Mat adopt(Mat mat) {
+    pool.adopt(mat);
+    mats.add(mat);
+    return mat;
+  }
+
+  /**
+   * Frees a native object other than a Mat (e.g., a Scalar or a MatExpr) when the scope is
+   * closed.
+   */
+  public <P extends Pointer> P track(P pointer) {
+    pointers.add(pointer);
+    return pointer;
+  }
+
+  /**
+   * Removes an object from the scope, so that it is not returned or freed when the scope is
+   * closed. Mats remain owned by the pool.
+   */
+  public <P extends Pointer> P detach(P pointer) {
+    for (int i=mats.size()-1; i>=0; i--) {
+      if (mats.get(i) == pointer) {
+        mats.remove(i);
+      }
+    }
+    for (int i=pointers.size()-1; i>=0; i--) {
+      if (pointers.get(i) == pointer) {
+        pointers.remove(i);
+      }
+    }
+    return pointer;
+  }
+
+  /**
+   * Returns Mats to the pool (in reverse order of acquisition) and frees other native objects.
+   */
+  @Override
+  public void close() {
+    for (int i=pointers.size()-1; i>=0; i--) {
+      MatPool.free(pointers.get(i));
+    }
+    pointers.clear();
+    for (int i=mats.size()-1; i>=0; i--) {
+      pool.release(mats.get(i));
+    }
+    mats.clear();
+  }
+
+}
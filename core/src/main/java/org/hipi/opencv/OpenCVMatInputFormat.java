@@ -0,0 +1,51 @@
+package org.hipi.opencv;
+
+import org.hipi.image.HipiImageHeader;
+import org.hipi.imagebundle.mapreduce.HibInputFormat;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Input format for HIB files that passes images to the mapper as OpenCV {@link Mat} objects,
+ * e.g., for mappers declared as {@code Mapper<HipiImageHeader, Mat, ...>}. Images are decoded
+ * by OpenCV straight into a Mat of the requested type (see {@link #HIPI_OPENCV_MAT_TYPE_ATTR})
+ * that is reused across records, instead of being decoded into a {@link
+ * org.hipi.image.RasterImage} and then converted. Splits are computed in the same way as by
+ * {@link HibInputFormat}. See {@link OpenCVMatRecordReader} for details.
+ */
+public class OpenCVMatInputFormat extends FileInputFormat<HipiImageHeader, Mat> {
+
+  /**
+   * OpenCV type of the Mats passed to the mapper (e.g., opencv_core.CV_32FC1 for single channel
+   * floating point images). Supported depths are CV_8U, CV_16U and CV_32F with one or three
+   * channels. Defaults to CV_8UC3 if unset.
+   */
+  public static final String HIPI_OPENCV_MAT_TYPE_ATTR = "hipi.opencv.mat.type";
+
+  /**
+   * Creates an {@link OpenCVMatRecordReader}
+   */
+  @Override
+  public RecordReader<HipiImageHeader, Mat> createRecordReader(InputSplit split,
+    TaskAttemptContext context)
+  throws IOException, InterruptedException {
+    return new OpenCVMatRecordReader();
+  }
+
+  /**
+   * See {@link HibInputFormat#getSplits}.
+   */
+  @Override
+  public List<InputSplit> getSplits(JobContext job) throws IOException  {
+    return HibInputFormat.computeSplits(job, listStatus(job));
+  }
+
+}
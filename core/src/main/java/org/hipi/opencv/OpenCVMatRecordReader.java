@@ -0,0 +1,214 @@
+package org.hipi.opencv;
+
+import static org.bytedeco.javacpp.opencv_imgcodecs.IMREAD_ANYDEPTH;
+import static org.bytedeco.javacpp.opencv_imgcodecs.IMREAD_COLOR;
+import static org.bytedeco.javacpp.opencv_imgcodecs.IMREAD_GRAYSCALE;
+
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.PixelArrayFloat;
+import org.hipi.image.RasterImage;
+import org.hipi.image.io.CodecManager;
+import org.hipi.imagebundle.HipiImageBundle;
+import org.hipi.mapreduce.Culler;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_imgcodecs;
+import org.bytedeco.javacpp.opencv_imgproc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * MapReduce {@link RecordReader} that reads HIB files and produces OpenCV {@link Mat} objects.
+ * Records are read with {@link HipiImageBundle.HibReader} without decoding them into {@link
+ * org.hipi.image.HipiImage} objects. JPEG, PNG and PPM images are decoded by OpenCV ({@link
+ * opencv_imgcodecs#imdecode}) directly in the requested number of channels, and images stored in
+ * the raw pixel formats are decoded by their HIPI codec and converted. The result is converted
+ * to the requested depth if necessary, scaling values so that the full range of an 8-bit or
+ * 16-bit image maps to [0,1] in floating point Mats.
+ *
+ * Following OpenCV conventions, three channel Mats are in BGR order, and floating point values
+ * are scaled sample values (i.e., not gamma expanded as in {@link org.hipi.image.FloatImage}).
+ * This also holds for records stored in the floating point raw formats, whose linear values are
+ * converted to non-linear sRGB values first (in floating point for floating point Mats, and
+ * quantized to 8 bits otherwise).
+ *
+ * The Mats passed to the mapper are reused for subsequent records; mappers that hold on to a Mat
+ * beyond a call to the map method must clone it.
+ */
+public class OpenCVMatRecordReader extends RecordReader<HipiImageHeader, Mat> {
+
+  private HipiImageBundle.HibReader reader;
+  private int matType;
+
+  // Reusable buffers for encoded and decoded images
+  private BytePointer encoded = null;
+  private int encodedCapacity = 0;
+  private final Mat decoded = new Mat();
+  private final Mat converted = new Mat();
+
+  private HipiImageHeader key = null;
+  private Mat value = null;
+
+  @Override
+  public void initialize(InputSplit split, TaskAttemptContext context)
+  throws IOException, IllegalArgumentException {
+
+    // Verify that the mapper takes Mats
+    Class<?> valueClass = null;
+    try {
+      valueClass = HipiImageFactory.getMapperValueClass((Class<? extends Mapper<?,?,?,?>>)context.getMapperClass());
+    } catch (Exception ex) {
+      System.err.println(ex.getMessage());
+      ex.printStackTrace();
+      System.exit(1);
+    }
+    if (!Mat.class.isAssignableFrom(valueClass)) {
+      throw new IllegalArgumentException("Found image class [" + valueClass + "], but mappers " +
+        "used with OpenCVMatInputFormat must take a Mat.");
+    }
+
+    Configuration conf = context.getConfiguration();
+    matType = conf.getInt(OpenCVMatInputFormat.HIPI_OPENCV_MAT_TYPE_ATTR, opencv_core.CV_8UC3);
+    int depth = opencv_core.CV_MAT_DEPTH(matType);
+    int channels = opencv_core.CV_MAT_CN(matType);
+    if ((depth != opencv_core.CV_8U && depth != opencv_core.CV_16U && depth != opencv_core.CV_32F) ||
+        (channels != 1 && channels != 3)) {
+      throw new IllegalArgumentException("Unsupported OpenCV Mat type [" + matType + "].");
+    }
+
+    FileSplit bundleSplit = (FileSplit)split;
+    Path path = bundleSplit.getPath();
+    FileSystem fs = path.getFileSystem(conf);
+
+    Class<? extends Culler> cullerClass = (Class<? extends Culler>)conf.getClass(Culler.HIPI_CULLER_CLASS_ATTR, Culler.class);
+
+    reader = new HipiImageBundle.HibReader(null, cullerClass, fs, path, bundleSplit.getStart(), bundleSplit.getStart() + bundleSplit.getLength() - 1);
+    reader.setDecodeImages(false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  @Override
+  public HipiImageHeader getCurrentKey() throws IOException, InterruptedException  {
+    return key;
+  }
+
+  @Override
+  public Mat getCurrentValue() throws IOException, InterruptedException  {
+    return value;
+  }
+
+  @Override
+  public float getProgress() throws IOException  {
+    return reader.getProgress();
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException, InterruptedException  {
+    while (reader.nextKeyValue()) {
+      key = reader.getCurrentKey();
+      try {
+	value = decode(key, reader.getImageBytes());
+	if (value != null) {
+	  return true;
+	}
+	System.err.println("Failed to decode image record, skipping.");
+      } catch (Exception e) {
+	System.err.println("Runtime exception while attempting to decode image record: " + e.getMessage());
+	e.printStackTrace();
+	// Attempt to keep going
+      }
+    }
+    key = null;
+    value = null;
+    return false;
+  }
+
+  // Largest value of each supported depth, which maps to 1.0 in floating point Mats
+  private static double getMaxValue(int depth) {
+    switch (depth) {
+    case opencv_core.CV_8U:
+      return 255.0;
+    case opencv_core.CV_16U:
+      return 65535.0;
+    default:
+      return 1.0;
+    }
+  }
+
+  private Mat decode(HipiImageHeader header, byte[] bytes) throws IOException {
+    int channels = opencv_core.CV_MAT_CN(matType);
+    HipiImageFormat format = header.getStorageFormat();
+
+    Mat image = null;
+    if (format == HipiImageFormat.JPEG || format == HipiImageFormat.PNG || format == HipiImageFormat.PPM) {
+      // Copy the encoded bytes into native memory that is reused across records
+      if (encoded == null || encodedCapacity < bytes.length) {
+	encodedCapacity = Math.max(bytes.length, 2*encodedCapacity);
+	encoded = new BytePointer(encodedCapacity);
+      }
+      encoded.put(bytes, 0, bytes.length);
+      Mat buffer = new Mat(1, bytes.length, opencv_core.CV_8UC1, encoded);
+      int flags = (channels == 1 ? IMREAD_GRAYSCALE : IMREAD_COLOR) | IMREAD_ANYDEPTH;
+      image = opencv_imgcodecs.imdecode(buffer, flags, decoded);
+    } else {
+      // OpenCV does not read the raw pixel formats. Floating point raw records hold linear values,
+      // which are converted to non-linear sRGB values, as JPEG and PNG records hold, so that the
+      // same picture yields the same Mat regardless of its storage format. For floating point
+      // Mats, this is done in floating point to keep the precision of the record
+      boolean floatRecord = (format == HipiImageFormat.RAW_FLOAT || format == HipiImageFormat.RAW_FLOAT_LZ4);
+      boolean floatMat = (opencv_core.CV_MAT_DEPTH(matType) == opencv_core.CV_32F);
+      RasterImage raster = null;
+      if (floatRecord && floatMat) {
+	raster = (RasterImage)CodecManager.getDecoder(format).decodeImage(new ByteArrayInputStream(bytes), header,
+									  HipiImageFactory.getFloatImageFactory(), false);
+	float[] data = ((FloatImage)raster).getData();
+	PixelArrayFloat.linearToNonLinSRGB(data, 0, data, 0, raster.getWidth()*raster.getHeight()*raster.getNumBands());
+      } else {
+	raster = (RasterImage)CodecManager.getDecoder(format).decodeImage(new ByteArrayInputStream(bytes), header,
+									  HipiImageFactory.getByteImageFactory(), false);
+      }
+      Mat rgb = OpenCVUtils.convertRasterImageToMat(raster);
+      if (raster.getNumBands() == 3) {
+	opencv_imgproc.cvtColor(rgb, decoded, (channels == 1 ? opencv_imgproc.CV_RGB2GRAY : opencv_imgproc.CV_RGB2BGR));
+      } else if (raster.getNumBands() == 1 && channels == 3) {
+	opencv_imgproc.cvtColor(rgb, decoded, opencv_imgproc.CV_GRAY2BGR);
+      } else if (raster.getNumBands() == 1) {
+	rgb.copyTo(decoded);
+      } else {
+	throw new IllegalArgumentException("Unsupported number of bands [" + raster.getNumBands() + "].");
+      }
+      image = decoded;
+    }
+    if (image == null || image.empty()) {
+      return null;
+    }
+
+    // Convert to requested depth, if necessary
+    if (image.type() == matType) {
+      return image;
+    }
+    int depth = opencv_core.CV_MAT_DEPTH(matType);
+    double scale = getMaxValue(depth) / getMaxValue(image.depth());
+    image.convertTo(converted, matType, scale, 0.0);
+    return converted;
+  }
+
+}
@@ -1,7 +1,5 @@
 package org.hipi.opencv;
 
-import org.hipi.util.ByteUtils;
-
 import org.apache.hadoop.io.Writable;
 import org.bytedeco.javacpp.opencv_core;
 import org.bytedeco.javacpp.opencv_core.Mat;
@@ -9,6 +7,7 @@ import org.bytedeco.javacpp.opencv_core.Mat;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
@@ -16,12 +15,31 @@ import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 
 /**
- * Implementation of Hadoop {@link Writable} interface which encapsulates {@link Mat} objects.
+ * Implementation of Hadoop {@link Writable} interface which encapsulates {@link Mat} objects of
+ * any number of dimensions and channels.
+ *
+ * By default, {@link #setMat(Mat)} and {@link #getMat()} copy the Mat so that the writable and
+ * the caller never share pixel data. Large matrices (e.g., covariance matrices) can be passed
+ * without copying with {@link #setMat(Mat, boolean)}, which transfers ownership of the Mat to
+ * the writable, and {@link #getMat(boolean)}, which returns the encapsulated Mat itself.
+ *
+ * Serialization streams values between the Mat buffer and the {@link DataOutput} or {@link
+ * DataInput} in chunks through a small scratch buffer that is reused across calls, so no
+ * temporary array of the size of the Mat is allocated, and {@link #readFields} reuses the
+ * encapsulated Mat if its type and dimensions match. Values are written in big-endian order.
+ * Matrices with one or two dimensions are written as the type, number of rows and number of
+ * columns followed by the values; matrices with more dimensions write the negated number of
+ * dimensions and the size of every dimension in place of rows and columns.
  */
 public class OpenCVMatWritable implements Writable {
 
+  // Size of the scratch buffer used for serialization
+  private static final int SCRATCH_SIZE = 1 << 16;
+
   private Mat mat = null;
 
+  private byte[] scratch = null;
+
   public OpenCVMatWritable() {
     mat = new Mat();
     assert mat != null;
@@ -33,72 +51,134 @@ public class OpenCVMatWritable implements Writable {
     setMat(mat);
   }
 
+  /**
+   * @param mat Mat to encapsulate
+   * @param copy whether to copy the Mat; if false, the writable takes ownership of the Mat, which
+   * the caller must not modify afterwards
+   */
+  public OpenCVMatWritable(Mat mat, boolean copy) {
+    setMat(mat, copy);
+  }
+
   public void setMat(Mat mat) throws IllegalArgumentException {
+    setMat(mat, true);
+  }
+
+  /**
+   * Sets the encapsulated Mat.
+   *
+   * @param mat Mat to encapsulate
+   * @param copy whether to copy the Mat; if false, the writable takes ownership of the Mat, which
+   * the caller must not modify afterwards (it is overwritten by subsequent calls to {@link
+   * #readFields})
+   */
+  public void setMat(Mat mat, boolean copy) throws IllegalArgumentException {
     if (mat == null) {
       throw new IllegalArgumentException("Must provide valid non-null Mat object.");
     }
-    int dims = mat.dims();
-    if (!(dims == 1 || dims == 2)) {
-      throw new IllegalArgumentException("Currently supports only 1D or 2D arrays. "
-          + "Input mat dims: " + dims);
-    }
-    
-    Mat matCopy = new Mat(mat.rows(), mat.cols(), mat.type());
-    mat.copyTo(matCopy);
-    this.mat = matCopy;
+    this.mat = (copy ? mat.clone() : mat);
   }
 
   public Mat getMat() {
-    Mat matCopy = new Mat(mat.rows(), mat.cols(), mat.type());
-    mat.copyTo(matCopy);
-    return matCopy;
+    return getMat(true);
+  }
+
+  /**
+   * Returns the encapsulated Mat.
+   *
+   * @param copy whether to return a copy; if false, the encapsulated Mat itself is returned,
+   * which remains valid until the next call to {@link #setMat} or {@link #readFields}
+   *
+   * @return encapsulated Mat or a copy of it
+   */
+  public Mat getMat(boolean copy) {
+    return (copy ? mat.clone() : mat);
+  }
+
+  // Size in bytes of a single value of the given depth
+  private static int getDepthSize(int depth) throws IOException {
+    switch (depth) {
+      case opencv_core.CV_8U:
+      case opencv_core.CV_8S:
+        return 1;
+      case opencv_core.CV_16U:
+      case opencv_core.CV_16S:
+        return 2;
+      case opencv_core.CV_32S:
+      case opencv_core.CV_32F:
+        return 4;
+      case opencv_core.CV_64F:
+        return 8;
+      default:
+        throw new IOException("Unsupported matrix depth [" + depth + "].");
+    }
+  }
+
+  private byte[] getScratch() {
+    if (scratch == null) {
+      scratch = new byte[SCRATCH_SIZE];
+    }
+    return scratch;
   }
 
   public void write(DataOutput out) throws IOException {
 
     assert mat != null;
     int dims = mat.dims();
-    assert (dims == 1 || dims == 2); // handle only 1- or 2-D arrays
-
     int type = mat.type();
     out.writeInt(type);
-    out.writeInt(mat.rows());
-    out.writeInt(mat.cols());
+    if (dims <= 2) {
+      out.writeInt(mat.rows());
+      out.writeInt(mat.cols());
+    } else {
+      out.writeInt(-dims);
+      for (int i = 0; i < dims; i++) {
+        out.writeInt(mat.size(i));
+      }
+    }
 
-    int elms = (int)(mat.total() * mat.channels());
-    if (elms > 0) {
-      int depth =  opencv_core.CV_MAT_DEPTH(type);
+    long total = mat.total() * mat.channels();
+    if (total > Integer.MAX_VALUE) {
+      throw new IOException("Matrix too large to serialize [" + total + " values].");
+    }
+    int elms = (int)total;
+    if (elms == 0) {
+      return;
+    }
+
+    // Submatrices are compacted first
+    Mat src = (mat.isContinuous() ? mat : mat.clone());
+
+    int depth = opencv_core.CV_MAT_DEPTH(type);
+    int elemSize = getDepthSize(depth);
+    byte[] bytes = getScratch();
+    int chunk = bytes.length / elemSize;
+    Buffer data = src.createBuffer();
+    for (int pos = 0; pos < elms; pos += chunk) {
+      int n = Math.min(chunk, elms - pos);
+      data.limit(pos + n);
+      data.position(pos);
+      ByteBuffer view = ByteBuffer.wrap(bytes, 0, n * elemSize);
       switch (depth) {
         case opencv_core.CV_8U:
         case opencv_core.CV_8S:
-          byte [] data = new byte[elms];
-          ((ByteBuffer)mat.createBuffer()).get(data);
-          out.write(data);
+          ((ByteBuffer)data).get(bytes, 0, n);
           break;
         case opencv_core.CV_16U:
-        case opencv_core.CV_16S:      
-          short [] shortData = new short[elms];
-          ((ShortBuffer)mat.createBuffer()).get(shortData);
-          out.write(ByteUtils.shortArrayToByteArray(shortData));
+        case opencv_core.CV_16S:
+          view.asShortBuffer().put((ShortBuffer)data);
           break;
         case opencv_core.CV_32S:
-          int [] intData = new int[elms];
-          ((IntBuffer)mat.createBuffer()).get(intData);
-          out.write(ByteUtils.intArrayToByteArray(intData));
+          view.asIntBuffer().put((IntBuffer)data);
           break;
         case opencv_core.CV_32F:
-          float [] floatData = new float[elms];
-          ((FloatBuffer)mat.createBuffer()).get(floatData);
-          out.write(ByteUtils.floatArrayToByteArray(floatData));
-          break;
-        case opencv_core.CV_64F:
-          double [] doubleData = new double[elms];
-          ((DoubleBuffer)mat.createBuffer()).get(doubleData);
-          out.write(ByteUtils.doubleArrayToByteArray(doubleData));
+          view.asFloatBuffer().put((FloatBuffer)data);
           break;
         default:
-          throw new IOException("Unsupported matrix depth [" + depth + "].");
+          view.asDoubleBuffer().put((DoubleBuffer)data);
+          break;
       }
+      out.write(bytes, 0, n * elemSize);
     }
 
   }
@@ -106,45 +186,76 @@ public class OpenCVMatWritable implements Writable {
   public void readFields(DataInput in) throws IOException {
     int type = in.readInt();
     int depth = opencv_core.CV_MAT_DEPTH(type);
+    int elemSize = getDepthSize(depth);
     int rows = in.readInt();
-    int cols = in.readInt();
+    int[] sizes = null;
+    int cols = 0;
+    if (rows < 0) {
+      sizes = new int[-rows];
+      for (int i = 0; i < sizes.length; i++) {
+        sizes[i] = in.readInt();
+      }
+    } else {
+      cols = in.readInt();
+    }
+
+    // Reuse the current Mat if it has the same type and dimensions
+    if (!hasShape(type, rows, cols, sizes)) {
+      mat = (sizes == null ? new Mat(rows, cols, type) : new Mat(sizes.length, sizes, type));
+    }
 
-    mat = new Mat(rows, cols, type);
-    
     int elms = (int)(mat.total() * mat.channels());
-    
-    switch (depth) {
-      case opencv_core.CV_8U:
-      case opencv_core.CV_8S:
-        byte[] data = new byte[elms];
-        in.readFully(data);
-        ((ByteBuffer)mat.createBuffer()).put(data);
-        break;
-      case opencv_core.CV_16U:
-      case opencv_core.CV_16S:
-        byte[] shortDataAsBytes = new byte[elms * 2]; // 2 bytes per short
-        in.readFully(shortDataAsBytes);
-        ((ShortBuffer)mat.createBuffer()).put(ByteUtils.byteArrayToShortArray(shortDataAsBytes));
-        break;
-      case opencv_core.CV_32S:
-        byte[] intDataAsBytes = new byte[elms * 4]; // 4 bytes per int
-        in.readFully(intDataAsBytes);
-        ((IntBuffer)mat.createBuffer()).put(ByteUtils.byteArrayToIntArray(intDataAsBytes));
-        break;
-      case opencv_core.CV_32F:
-        byte[] floatDataAsBytes = new byte[elms * 4]; // 4 bytes per float
-        in.readFully(floatDataAsBytes);
-        ((FloatBuffer)mat.createBuffer()).put(ByteUtils.byteArrayToFloatArray(floatDataAsBytes));
-        break;
-      case opencv_core.CV_64F:
-        byte[] doubleDataAsBytes = new byte[elms * 8]; // 8 bytes per double
-        in.readFully(doubleDataAsBytes);
-        ((DoubleBuffer)mat.createBuffer()).put(ByteUtils.byteArrayToDoubleArray(doubleDataAsBytes));
-        break;
-      default:
-        throw new IOException("Unsupported matrix depth [" + depth + "].");
+    if (elms == 0) {
+      return;
+    }
+
+    byte[] bytes = getScratch();
+    int chunk = bytes.length / elemSize;
+    Buffer data = mat.createBuffer();
+    for (int pos = 0; pos < elms; pos += chunk) {
+      int n = Math.min(chunk, elms - pos);
+      in.readFully(bytes, 0, n * elemSize);
+      data.limit(pos + n);
+      data.position(pos);
+      ByteBuffer view = ByteBuffer.wrap(bytes, 0, n * elemSize);
+      switch (depth) {
+        case opencv_core.CV_8U:
+        case opencv_core.CV_8S:
+          ((ByteBuffer)data).put(bytes, 0, n);
+          break;
+        case opencv_core.CV_16U:
+        case opencv_core.CV_16S:
+          ((ShortBuffer)data).put(view.asShortBuffer());
+          break;
+        case opencv_core.CV_32S:
+          ((IntBuffer)data).put(view.asIntBuffer());
+          break;
+        case opencv_core.CV_32F:
+          ((FloatBuffer)data).put(view.asFloatBuffer());
+          break;
+        default:
+          ((DoubleBuffer)data).put(view.asDoubleBuffer());
+          break;
+      }
     }
   }
 
+  private boolean hasShape(int type, int rows, int cols, int[] sizes) {
+    if (mat == null || mat.type() != type || !mat.isContinuous()) {
+      return false;
+    }
+    if (sizes == null) {
+      return mat.dims() <= 2 && mat.rows() == rows && mat.cols() == cols;
+    }
+    if (mat.dims() != sizes.length) {
+      return false;
+    }
+    for (int i = 0; i < sizes.length; i++) {
+      if (mat.size(i) != sizes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
 
 }
@@ -1,13 +1,26 @@
 package org.hipi.opencv;
 
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.PatchExtractor;
 import org.hipi.image.PixelArray;
+import org.hipi.image.PixelArrayByte;
+import org.hipi.image.PixelArrayDirect;
+import org.hipi.image.PixelArrayDirectFloat;
+import org.hipi.image.PixelArrayFloat;
+import org.hipi.image.PixelArrayHalf;
+import org.hipi.image.PixelArrayUShort;
 import org.hipi.image.RasterImage;
 import org.hipi.util.ByteUtils;
 import org.apache.hadoop.mapreduce.RecordReader;
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacpp.opencv_core;
 import org.bytedeco.javacpp.opencv_core.Mat;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
@@ -29,7 +42,8 @@ public class OpenCVUtils {
   
   /**
    * Returns the OpenCV data type which is associated with a particular {@link PixelArray} data type 
-   * and number of bands.
+   * and number of bands. Half-precision pixel arrays ({@link PixelArray#TYPE_HALF}) map to 32-bit
+   * floating point matrices since OpenCV 3 has no half-precision matrix type.
    * 
    * @return integer representation of OpenCV data type
    */
@@ -50,6 +64,7 @@ public class OpenCVUtils {
         depthIndex = 3;
         break;
       case PixelArray.TYPE_FLOAT:
+      case PixelArray.TYPE_HALF:
         depthIndex = 4;
         break;
       case PixelArray.TYPE_DOUBLE:
@@ -72,7 +87,8 @@ public class OpenCVUtils {
   }
   
   /**
-   * Converts an input {@link RasterImage} into an {@link Mat}. 
+   * Converts an input {@link RasterImage} into an {@link Mat}. Mats store channels interleaved,
+   * so the pixel data of planar images is interleaved first.
    * 
    * @return {@link Mat} of same data type and dimensions as input image
    * @throws IllegalArgumentException
@@ -92,6 +108,8 @@ public class OpenCVUtils {
           + "[" + image.getNumBands() + "]");
     }
     
+    image = image.getInterleaved();
+
     // Generate opencv data type based on input pixel array data type / number of bands
     int pixelArrayDataType = image.getPixelArray().getDataType();
     int numBands = image.getNumBands();
@@ -104,11 +122,41 @@ public class OpenCVUtils {
     // Create output mat
     Mat mat = new Mat(image.getHeight(), image.getWidth(), openCVType);
     
+    // Float pixel arrays are transferred directly, without a round trip through bytes
+    PixelArray pa = image.getPixelArray();
+    int depth = opencv_core.CV_MAT_DEPTH(mat.type());
+    if (depth == opencv_core.CV_32F && pa instanceof PixelArrayDirectFloat) {
+      ((FloatBuffer)mat.createBuffer()).put(((PixelArrayDirectFloat)pa).getFloatBuffer().duplicate());
+      return mat;
+    }
+    if (depth == opencv_core.CV_8U && pa instanceof PixelArrayDirect) {
+      ((ByteBuffer)mat.createBuffer()).put(((PixelArrayDirect)pa).getBuffer().duplicate());
+      return mat;
+    }
+    if (depth == opencv_core.CV_32F && pa instanceof PixelArrayFloat) {
+      ((FloatBuffer)mat.createBuffer()).put(((PixelArrayFloat)pa).getData());
+      return mat;
+    }
+    if (depth == opencv_core.CV_32F && pa instanceof PixelArrayHalf) {
+      // Widen one row at a time
+      FloatBuffer buffer = (FloatBuffer)mat.createBuffer();
+      int rowSize = image.getWidth() * numBands;
+      float[] row = new float[rowSize];
+      for (int j=0; j<image.getHeight(); j++) {
+        pa.copyTo(j * rowSize, row, 0, rowSize);
+        buffer.put(row);
+      }
+      return mat;
+    }
+    if (depth == opencv_core.CV_16U && pa instanceof PixelArrayUShort) {
+      ((ShortBuffer)mat.createBuffer()).put(((PixelArrayUShort)pa).getData());
+      return mat;
+    }
+
     // Access raster image data
-    byte[] data = image.getPixelArray().getByteArray();
+    byte[] data = pa.getByteArray();
     
     // Transfer data into mat
-    int depth = opencv_core.CV_MAT_DEPTH(mat.type());
     switch(depth) {
       case opencv_core.CV_8U:
       case opencv_core.CV_8S:
@@ -116,16 +164,16 @@ public class OpenCVUtils {
         break;
       case opencv_core.CV_16U:
       case opencv_core.CV_16S:      
-        ((ShortBuffer)mat.createBuffer()).put(ByteUtils.byteArrayToShortArray(data));
+        ((ShortBuffer)mat.createBuffer()).put(ByteUtils.asShortBuffer(data, ByteOrder.BIG_ENDIAN));
         break;
       case opencv_core.CV_32S:
-        ((IntBuffer)mat.createBuffer()).put(ByteUtils.byteArrayToIntArray(data));
+        ((IntBuffer)mat.createBuffer()).put(ByteUtils.asIntBuffer(data, ByteOrder.BIG_ENDIAN));
         break;
       case opencv_core.CV_32F:
-        ((FloatBuffer)mat.createBuffer()).put(ByteUtils.byteArrayToFloatArray(data));
+        ((FloatBuffer)mat.createBuffer()).put(ByteUtils.asFloatBuffer(data, ByteOrder.BIG_ENDIAN));
         break;
       case opencv_core.CV_64F:
-        ((DoubleBuffer)mat.createBuffer()).put(ByteUtils.byteArrayToDoubleArray(data));
+        ((DoubleBuffer)mat.createBuffer()).put(ByteUtils.asDoubleBuffer(data, ByteOrder.BIG_ENDIAN));
         break;
       default:
         throw new IllegalArgumentException("Unsupported matrix depth [" + depth + "].");
@@ -133,4 +181,199 @@ public class OpenCVUtils {
     
     return mat;
   } 
+
+  /**
+   * Converts an input {@link RasterImage} into an {@link Mat}, sharing the pixel data instead of
+   * copying it if possible and requested. Pixel data is shared if the image is backed by a
+   * {@link PixelArrayDirect} and stored interleaved (see {@link #wrapRasterImageAsMat} for the
+   * restrictions that apply to the returned Mat in that case), and copied as in {@link
+   * #convertRasterImageToMat(RasterImage)} otherwise.
+   *
+   * @param image input image
+   * @param share whether the returned Mat may share pixel data with the image
+   *
+   * @return {@link Mat} of same data type and dimensions as input image
+   * @throws IllegalArgumentException
+   */
+  public static Mat convertRasterImageToMat(RasterImage image, boolean share) throws IllegalArgumentException {
+    if(share && image != null && image.getPixelArray() instanceof PixelArrayDirect &&
+       image.getLayout() == PixelArray.Layout.INTERLEAVED) {
+      return wrapRasterImageAsMat(image);
+    }
+    return convertRasterImageToMat(image);
+  }
+
+  /**
+   * Converts a {@link Mat} into a new {@link RasterImage} created with an image factory. The
+   * factory determines the pixel type, which must match the depth of the Mat (CV_8U for 8-bit
+   * images, CV_16U for 16-bit images and CV_32F for floating point and half-precision images);
+   * use {@link Mat#convertTo} first to convert between depths. Single band images are assigned
+   * the LUM color space, three band images the RGB color space (no channel reordering is done,
+   * consistent with {@link #convertRasterImageToMat(RasterImage)}).
+   *
+   * @param mat input Mat (two dimensional, one to four channels)
+   * @param imageFactory factory used to create the output image
+   *
+   * @return {@link RasterImage} of same dimensions as the input Mat
+   * @throws IllegalArgumentException if the Mat is not supported by the image type
+   */
+  public static RasterImage convertMatToRasterImage(Mat mat, HipiImageFactory imageFactory)
+    throws IllegalArgumentException {
+
+    if(mat == null) {
+      throw new IllegalArgumentException("Input Mat is null.");
+    }
+    if(mat.dims() > 2 || mat.rows() <= 0 || mat.cols() <= 0) {
+      throw new IllegalArgumentException("Input Mat has invalid dimensions: "
+          + "[" + mat.rows() + "," + mat.cols() + "]");
+    }
+    int numBands = mat.channels();
+    HipiColorSpace colorSpace = (numBands == 1 ? HipiColorSpace.LUM :
+				 (numBands == 3 ? HipiColorSpace.RGB : HipiColorSpace.UNDEFINED));
+    HipiImageHeader header = new HipiImageHeader(HipiImageFormat.UNDEFINED, colorSpace,
+      mat.cols(), mat.rows(), numBands, null, null);
+
+    RasterImage image = null;
+    try {
+      image = (RasterImage)imageFactory.createImage(header);
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Failed to create image from Mat: " + e.getMessage(), e);
+    }
+    convertMatToRasterImage(mat, image);
+    return image;
+  }
+
+  /**
+   * Copies the contents of a {@link Mat} into an existing {@link RasterImage} with a single bulk
+   * copy (or one copy per row for half-precision images).
+   *
+   * @param mat input Mat
+   * @param image output image (interleaved, with the dimensions and number of bands of the Mat
+   * and a pixel type that matches its depth, see {@link #generateOpenCVType})
+   *
+   * @throws IllegalArgumentException if the Mat does not match the image
+   */
+  public static void convertMatToRasterImage(Mat mat, RasterImage image) throws IllegalArgumentException {
+
+    if(mat == null || image == null) {
+      throw new IllegalArgumentException("Input Mat or output RasterImage is null.");
+    }
+    image.checkInterleaved();
+    if(mat.dims() > 2 || mat.rows() != image.getHeight() || mat.cols() != image.getWidth()) {
+      throw new IllegalArgumentException("Dimensions of Mat [" + mat.rows() + "," + mat.cols()
+          + "] do not match RasterImage [" + image.getHeight() + "," + image.getWidth() + "]");
+    }
+    PixelArray pa = image.getPixelArray();
+    int openCVType = generateOpenCVType(pa.getDataType(), image.getNumBands());
+    if(openCVType == -1 || openCVType != mat.type()) {
+      throw new IllegalArgumentException("Type of Mat [" + mat.type() + "] does not match "
+          + "PixelArray data type: [" + pa.getDataType() + "] and / or RasterImage numBands: ["
+          + image.getNumBands() + "]");
+    }
+
+    // Submatrices are compacted first
+    if(!mat.isContinuous()) {
+      mat = mat.clone();
+    }
+
+    int size = image.getWidth() * image.getHeight() * image.getNumBands();
+    if (pa instanceof PixelArrayDirectFloat) {
+      FloatBuffer src = (FloatBuffer)mat.createBuffer();
+      src.limit(size);
+      ((PixelArrayDirectFloat)pa).getFloatBuffer().duplicate().put(src);
+    } else if (pa instanceof PixelArrayDirect) {
+      ByteBuffer src = (ByteBuffer)mat.createBuffer();
+      src.limit(size);
+      ((PixelArrayDirect)pa).getBuffer().duplicate().put(src);
+    } else if (pa instanceof PixelArrayFloat) {
+      ((FloatBuffer)mat.createBuffer()).get(((PixelArrayFloat)pa).getData(), 0, size);
+    } else if (pa instanceof PixelArrayByte) {
+      ((ByteBuffer)mat.createBuffer()).get(((PixelArrayByte)pa).getData(), 0, size);
+    } else if (pa instanceof PixelArrayUShort) {
+      ((ShortBuffer)mat.createBuffer()).get(((PixelArrayUShort)pa).getData(), 0, size);
+    } else if (pa instanceof PixelArrayHalf) {
+      // Narrow one row at a time
+      FloatBuffer src = (FloatBuffer)mat.createBuffer();
+      int rowSize = image.getWidth() * image.getNumBands();
+      float[] row = new float[rowSize];
+      for (int j=0; j<image.getHeight(); j++) {
+        src.get(row);
+        pa.copyFrom(row, 0, j * rowSize, rowSize);
+      }
+    } else {
+      throw new IllegalArgumentException("Unsupported pixel array [" + pa.getClass().getName() + "].");
+    }
+  }
+
+  /**
+   * Wraps the pixel data of a {@link RasterImage} backed by a {@link PixelArrayDirect} (e.g., a
+   * {@link org.hipi.image.DirectByteImage} or {@link org.hipi.image.DirectFloatImage}) as a
+   * {@link Mat} without copying. Changes made through the returned Mat are visible in the image
+   * and vice versa. The Mat does not own the pixel data, so it must not be used after the image
+   * is resized or its pixel array is released.
+   *
+   * @return {@link Mat} that shares pixel data with input image
+   * @throws IllegalArgumentException if the image is not backed by a direct pixel array, is
+   * stored in planar layout or has unsupported dimensions
+   */
+  public static Mat wrapRasterImageAsMat(RasterImage image) throws IllegalArgumentException {
+
+    if(image == null) {
+      throw new IllegalArgumentException("Input RasterImage is null.");
+    }
+    if(!(image.getPixelArray() instanceof PixelArrayDirect)) {
+      throw new IllegalArgumentException("Input RasterImage is not backed by a direct pixel array.");
+    }
+    image.checkInterleaved();
+    if(image.getWidth() <= 0 || image.getHeight() <= 0) {
+      throw new IllegalArgumentException("Input RasterImage has invalid dimensions: "
+          + "[" + image.getWidth() + "," + image.getHeight() + "]");
+    }
+
+    PixelArrayDirect pa = (PixelArrayDirect)image.getPixelArray();
+    int numBands = image.getNumBands();
+    int openCVType = generateOpenCVType(pa.getDataType(), numBands);
+    if(openCVType == -1) {
+      throw new IllegalArgumentException("Invalid PixelArray data type: "
+          + "[" + pa.getDataType() + "] and / or RasterImage numBands: [" + numBands + "]");
+    }
+
+    return new Mat(image.getHeight(), image.getWidth(), openCVType, new BytePointer(pa.getBuffer()));
+  }
+
+  /**
+   * Extracts patches from a continuous 32-bit floating point {@link Mat} straight into a
+   * preallocated patch matrix with one flattened patch per row (i.e., the transpose of a matrix
+   * with one patch per column, see {@link PatchExtractor}).
+   *
+   * @param extractor patch extractor
+   * @param image input Mat (CV_32FC1 to CV_32FC4, continuous)
+   * @param patches output Mat (CV_32FC1, continuous, at least as many rows as patches and one
+   * column per value of a flattened patch)
+   *
+   * @return number of patches extracted
+   * @throws IllegalArgumentException if either Mat has an unsupported type or shape
+   */
+  public static int extractPatches(PatchExtractor extractor, Mat image, Mat patches)
+    throws IllegalArgumentException {
+
+    if(image == null || patches == null) {
+      throw new IllegalArgumentException("Input or output Mat is null.");
+    }
+    if(image.depth() != opencv_core.CV_32F || !image.isContinuous() || image.dims() > 2) {
+      throw new IllegalArgumentException("Input Mat must be a continuous 32-bit floating point matrix.");
+    }
+    if(patches.type() != opencv_core.CV_32FC1 || !patches.isContinuous()) {
+      throw new IllegalArgumentException("Output Mat must be a continuous single channel 32-bit floating point matrix.");
+    }
+    int bands = image.channels();
+    if(patches.cols() != extractor.getPatchLength(bands) ||
+       patches.rows() < extractor.getNumPatches(image.cols(), image.rows())) {
+      throw new IllegalArgumentException("Output Mat has invalid dimensions: "
+          + "[" + patches.rows() + "," + patches.cols() + "]");
+    }
+
+    return extractor.extract((FloatBuffer)image.createBuffer(), image.cols(), image.rows(), bands,
+			     (FloatBuffer)patches.createBuffer());
+  }
 }
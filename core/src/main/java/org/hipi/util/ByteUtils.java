@@ -1,25 +1,77 @@
 package org.hipi.util;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.InputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import java.nio.DoubleBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
  * Various static helper methods that come in handy when serializing and deserializing arrays of
  * different Java types and performing certain operations with byte arrays like conversion to
  * string and computing hashes.
+ *
+ * The methods that return a new array always use big-endian byte order. Conversions between
+ * existing arrays (e.g., {@link #byteArrayToFloatArray(byte[], int, float[], int, int,
+ * ByteOrder)}) and buffer views over existing byte arrays (e.g., {@link #asFloatBuffer}) take
+ * the byte order as a parameter, so that data may also be kept in {@link ByteOrder#nativeOrder}
+ * where a format records its byte order (see {@link #byteOrderToFlag}).
  */
 public class ByteUtils {
 
+  // Largest array length supported by common JVMs
+  private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+  // Largest size hint taken from InputStream.available()
+  private static final int MAX_AVAILABLE_HINT = 64 << 20;
+
+  /**
+   * Flag recording big-endian byte order in serialized formats.
+   */
+  public static final int BIG_ENDIAN_FLAG = 0;
+
+  /**
+   * Flag recording little-endian byte order in serialized formats.
+   */
+  public static final int LITTLE_ENDIAN_FLAG = 1;
+
+  /**
+   * @param order byte order
+   *
+   * @return {@link #BIG_ENDIAN_FLAG} or {@link #LITTLE_ENDIAN_FLAG}
+   */
+  public static int byteOrderToFlag(ByteOrder order) {
+    return (order == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN_FLAG : BIG_ENDIAN_FLAG);
+  }
+
+  /**
+   * @param flag {@link #BIG_ENDIAN_FLAG} or {@link #LITTLE_ENDIAN_FLAG}
+   *
+   * @return corresponding byte order
+   *
+   * @throws IllegalArgumentException if the flag is invalid
+   */
+  public static ByteOrder flagToByteOrder(int flag) throws IllegalArgumentException {
+    switch (flag) {
+      case BIG_ENDIAN_FLAG:
+        return ByteOrder.BIG_ENDIAN;
+      case LITTLE_ENDIAN_FLAG:
+        return ByteOrder.LITTLE_ENDIAN;
+      default:
+        throw new IllegalArgumentException("Invalid byte order flag [" + flag + "].");
+    }
+  }
+
   /**
    * Reads the contents of an stream until exhausted and converts contents to an array of bytes.
+   * The stream is closed afterwards.
    *
    * @param stream
    */
@@ -27,13 +79,47 @@ public class ByteUtils {
     if (stream == null) {
       return new byte[] {};
     }
-    byte[] buffer = new byte[1024];
-    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    // For files, the number of bytes available is usually the remaining length, but other streams
+    // may report larger estimates, so the hint is capped
+    return inputStreamToByteArray(stream, Math.min(stream.available(), MAX_AVAILABLE_HINT));
+  }
+
+  /**
+   * Reads the contents of an stream until exhausted and converts contents to an array of bytes.
+   * The stream is closed afterwards. If the stream holds exactly sizeHint bytes, they are read
+   * straight into the returned array without intermediate copies; otherwise the array is grown
+   * or trimmed as needed.
+   *
+   * @param stream
+   * @param sizeHint expected number of bytes in the stream (e.g., the length of a file), or
+   * zero if unknown
+   */
+  public static byte[] inputStreamToByteArray(InputStream stream, int sizeHint) throws IOException {
+    if (stream == null) {
+      return new byte[] {};
+    }
+    byte[] buffer = new byte[sizeHint > 0 ? Math.min(sizeHint, MAX_ARRAY_LENGTH) : 8192];
+    int length = 0;
     boolean error = false;
     try {
-      int numRead = 0;
-      while ((numRead = stream.read(buffer)) > -1) {
-        output.write(buffer, 0, numRead);
+      while (true) {
+        if (length == buffer.length) {
+          // Probe for the end of the stream before growing a full array
+          int next = stream.read();
+          if (next < 0) {
+            break;
+          }
+          if (length == MAX_ARRAY_LENGTH) {
+            throw new IOException("Stream is too large to be read into an array.");
+          }
+          buffer = Arrays.copyOf(buffer, (int)Math.min(2L * buffer.length, MAX_ARRAY_LENGTH));
+          buffer[length++] = (byte)next;
+        }
+        int numRead = stream.read(buffer, length, buffer.length - length);
+        if (numRead < 0) {
+          break;
+        }
+        length += numRead;
       }
     } catch (IOException ioe) {
       error = true; // this error should be thrown, even if there is an error closing stream
@@ -50,8 +136,44 @@ public class ByteUtils {
         }
       }
     }
-    output.flush();
-    return output.toByteArray();
+    return (length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+  }
+
+  /**
+   * Reads exactly length bytes from a stream of known length into an array (the equivalent of
+   * {@link java.io.DataInput#readFully} for plain streams). The stream is not closed.
+   *
+   * @param stream input stream
+   * @param bytes destination array
+   * @param offset position in destination array of first byte
+   * @param length number of bytes to read
+   *
+   * @throws EOFException if the stream ends before length bytes have been read
+   */
+  public static void readFully(InputStream stream, byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      int numRead = stream.read(bytes, offset, length);
+      if (numRead < 0) {
+        throw new EOFException("Stream ended " + length + " bytes before expected length.");
+      }
+      offset += numRead;
+      length -= numRead;
+    }
+  }
+
+  /**
+   * Reads exactly length bytes from a stream of known length into a new array. See {@link
+   * #readFully(InputStream, byte[], int, int)}.
+   *
+   * @param stream input stream
+   * @param length number of bytes to read
+   *
+   * @return array of length bytes
+   */
+  public static byte[] readFully(InputStream stream, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    readFully(stream, bytes, 0, length);
+    return bytes;
   }
 
 
@@ -126,120 +248,271 @@ public class ByteUtils {
   }
 
   /**
-   * Convert from an array of bytes to an array of shorts
+   * Convert from an array of bytes to an array of shorts (big-endian)
+   *
    * @param byteArray
    */
-  public static short[] byteArrayToShortArray(byte[] byteArray) {
-    
-    if(byteArray.length % 2 != 0) {
+  public static short[] byteArrayToShortArray(byte[] byteArray) throws IllegalArgumentException {
+    if (byteArray.length % 2 != 0) {
       throw new IllegalArgumentException("Length of byteArray is not evenly divisible by 2, "
           + "which is the number of bytes in one short.");
     }
-    short shortArray[] = new short[byteArray.length / 2];
-    ByteBuffer byteBuf = ByteBuffer.wrap(byteArray);
-    ShortBuffer shortBuff = byteBuf.asShortBuffer();
-    shortBuff.get(shortArray);
+    short[] shortArray = new short[byteArray.length / 2];
+    byteArrayToShortArray(byteArray, 0, shortArray, 0, shortArray.length, ByteOrder.BIG_ENDIAN);
     return shortArray;
   }
-  
+
   /**
-   * Convert from an array of shorts to an array of bytes
-   * 
+   * Convert from an array of bytes to an existing array of shorts
+   *
+   * @param byteArray source array
+   * @param byteOffset position in source array of first byte
+   * @param shortArray destination array
+   * @param shortOffset position in destination array of first short
+   * @param count number of shorts to convert
+   * @param order byte order of source array
+   */
+  public static void byteArrayToShortArray(byte[] byteArray, int byteOffset, short[] shortArray, int shortOffset,
+    int count, ByteOrder order) {
+    ByteBuffer.wrap(byteArray, byteOffset, count*2).order(order).asShortBuffer().get(shortArray, shortOffset, count);
+  }
+
+  /**
+   * Convert from an array of shorts to an array of bytes (big-endian)
+   *
    * @param shortArray
    */
-  public static byte[] shortArrayToByteArray(short shortArray[]) {
-    byte byteArray[] = new byte[shortArray.length*2]; // 2 bytes per short
-    ByteBuffer byteBuf = ByteBuffer.wrap(byteArray);
-    ShortBuffer shortBuf = byteBuf.asShortBuffer();
-    shortBuf.put(shortArray);
+  public static byte[] shortArrayToByteArray(short[] shortArray) {
+    byte[] byteArray = new byte[shortArray.length*2]; // 2 bytes per short
+    shortArrayToByteArray(shortArray, 0, byteArray, 0, shortArray.length, ByteOrder.BIG_ENDIAN);
     return byteArray;
   }
 
-  
-  /** 
-   * Convert from an array of bytes to an array of ints
+  /**
+   * Convert from an array of shorts to an existing array of bytes
+   *
+   * @param shortArray source array
+   * @param shortOffset position in source array of first short
+   * @param byteArray destination array
+   * @param byteOffset position in destination array of first byte
+   * @param count number of shorts to convert
+   * @param order byte order of destination array
+   */
+  public static void shortArrayToByteArray(short[] shortArray, int shortOffset, byte[] byteArray, int byteOffset,
+    int count, ByteOrder order) {
+    ByteBuffer.wrap(byteArray, byteOffset, count*2).order(order).asShortBuffer().put(shortArray, shortOffset, count);
+  }
+
+  /**
+   * View of an array of bytes as a buffer of shorts, without copying. Changes to either are
+   * visible in the other.
+   *
+   * @param byteArray array of bytes
+   * @param order byte order of array
+   */
+  public static ShortBuffer asShortBuffer(byte[] byteArray, ByteOrder order) {
+    return ByteBuffer.wrap(byteArray).order(order).asShortBuffer();
+  }
+
+  /**
+   * Convert from an array of bytes to an array of ints (big-endian)
+   *
    * @param byteArray
    */
-  public static int[] byteArrayToIntArray(byte[] byteArray) {
-    if(byteArray.length % 4 != 0) {
+  public static int[] byteArrayToIntArray(byte[] byteArray) throws IllegalArgumentException {
+    if (byteArray.length % 4 != 0) {
       throw new IllegalArgumentException("Length of byteArray is not evenly divisible by 4, "
           + "which is the number of bytes in one int.");
     }
-    int intArray[] = new int[byteArray.length / 4];
-    ByteBuffer byteBuf = ByteBuffer.wrap(byteArray);
-    IntBuffer intBuff = byteBuf.asIntBuffer();
-    intBuff.get(intArray);
+    int[] intArray = new int[byteArray.length / 4];
+    byteArrayToIntArray(byteArray, 0, intArray, 0, intArray.length, ByteOrder.BIG_ENDIAN);
     return intArray;
   }
 
   /**
-   * Convert from an array of ints to an array of bytes
+   * Convert from an array of bytes to an existing array of ints
+   *
+   * @param byteArray source array
+   * @param byteOffset position in source array of first byte
+   * @param intArray destination array
+   * @param intOffset position in destination array of first int
+   * @param count number of ints to convert
+   * @param order byte order of source array
+   */
+  public static void byteArrayToIntArray(byte[] byteArray, int byteOffset, int[] intArray, int intOffset,
+    int count, ByteOrder order) {
+    ByteBuffer.wrap(byteArray, byteOffset, count*4).order(order).asIntBuffer().get(intArray, intOffset, count);
+  }
+
+  /**
+   * Convert from an array of ints to an array of bytes (big-endian)
+   *
    * @param intArray
    */
   public static byte[] intArrayToByteArray(int[] intArray) {
     byte[] byteArray = new byte[intArray.length*4]; // 4 bytes per int
-    ByteBuffer byteBuf = ByteBuffer.wrap(byteArray);
-    IntBuffer intBuff = byteBuf.asIntBuffer();
-    intBuff.put(intArray);
+    intArrayToByteArray(intArray, 0, byteArray, 0, intArray.length, ByteOrder.BIG_ENDIAN);
     return byteArray;
   }
 
   /**
-   * Convert from an array of bytes to an array of floats
-   * 
+   * Convert from an array of ints to an existing array of bytes
+   *
+   * @param intArray source array
+   * @param intOffset position in source array of first int
+   * @param byteArray destination array
+   * @param byteOffset position in destination array of first byte
+   * @param count number of ints to convert
+   * @param order byte order of destination array
+   */
+  public static void intArrayToByteArray(int[] intArray, int intOffset, byte[] byteArray, int byteOffset,
+    int count, ByteOrder order) {
+    ByteBuffer.wrap(byteArray, byteOffset, count*4).order(order).asIntBuffer().put(intArray, intOffset, count);
+  }
+
+  /**
+   * View of an array of bytes as a buffer of ints, without copying. Changes to either are
+   * visible in the other.
+   *
+   * @param byteArray array of bytes
+   * @param order byte order of array
+   */
+  public static IntBuffer asIntBuffer(byte[] byteArray, ByteOrder order) {
+    return ByteBuffer.wrap(byteArray).order(order).asIntBuffer();
+  }
+
+  /**
+   * Convert from an array of bytes to an array of floats (big-endian)
+   *
    * @param byteArray
    */
-  public static float[] byteArrayToFloatArray(byte byteArray[]) throws IllegalArgumentException {
+  public static float[] byteArrayToFloatArray(byte[] byteArray) throws IllegalArgumentException {
     if (byteArray.length % 4 != 0) {
       throw new IllegalArgumentException("Length of byteArray is not evenly divisible by 4, "
           + "which is the number of bytes in one float.");
     }
-    float floatArray[] = new float[byteArray.length / 4];
-    ByteBuffer byteBuf = ByteBuffer.wrap(byteArray);
-    FloatBuffer floatBuf = byteBuf.asFloatBuffer();
-    floatBuf.get(floatArray);
+    float[] floatArray = new float[byteArray.length / 4];
+    byteArrayToFloatArray(byteArray, 0, floatArray, 0, floatArray.length, ByteOrder.BIG_ENDIAN);
     return floatArray;
   }
-  
+
   /**
-   * Convert from an array of floats to an array of bytes
-   * 
+   * Convert from an array of bytes to an existing array of floats
+   *
+   * @param byteArray source array
+   * @param byteOffset position in source array of first byte
+   * @param floatArray destination array
+   * @param floatOffset position in destination array of first float
+   * @param count number of floats to convert
+   * @param order byte order of source array
+   */
+  public static void byteArrayToFloatArray(byte[] byteArray, int byteOffset, float[] floatArray, int floatOffset,
+    int count, ByteOrder order) {
+    ByteBuffer.wrap(byteArray, byteOffset, count*4).order(order).asFloatBuffer().get(floatArray, floatOffset, count);
+  }
+
+  /**
+   * Convert from an array of floats to an array of bytes (big-endian)
+   *
    * @param floatArray
    */
-  public static byte[] floatArrayToByteArray(float floatArray[]) {
-    byte byteArray[] = new byte[floatArray.length*4]; // 4 bytes per float
-    ByteBuffer byteBuf = ByteBuffer.wrap(byteArray);
-    FloatBuffer floatBuf = byteBuf.asFloatBuffer();
-    floatBuf.put(floatArray);
+  public static byte[] floatArrayToByteArray(float[] floatArray) {
+    byte[] byteArray = new byte[floatArray.length*4]; // 4 bytes per float
+    floatArrayToByteArray(floatArray, 0, byteArray, 0, floatArray.length, ByteOrder.BIG_ENDIAN);
     return byteArray;
   }
-  
+
+  /**
+   * Convert from an array of floats to an existing array of bytes
+   *
+   * @param floatArray source array
+   * @param floatOffset position in source array of first float
+   * @param byteArray destination array
+   * @param byteOffset position in destination array of first byte
+   * @param count number of floats to convert
+   * @param order byte order of destination array
+   */
+  public static void floatArrayToByteArray(float[] floatArray, int floatOffset, byte[] byteArray, int byteOffset,
+    int count, ByteOrder order) {
+    ByteBuffer.wrap(byteArray, byteOffset, count*4).order(order).asFloatBuffer().put(floatArray, floatOffset, count);
+  }
+
   /**
-   * Convert from an array of bytes to an array of doubles
+   * View of an array of bytes as a buffer of floats, without copying. Changes to either are
+   * visible in the other.
+   *
+   * @param byteArray array of bytes
+   * @param order byte order of array
+   */
+  public static FloatBuffer asFloatBuffer(byte[] byteArray, ByteOrder order) {
+    return ByteBuffer.wrap(byteArray).order(order).asFloatBuffer();
+  }
+
+  /**
+   * Convert from an array of bytes to an array of doubles (big-endian)
+   *
    * @param byteArray
    */
-  public static double[] byteArrayToDoubleArray(byte[] byteArray) {
+  public static double[] byteArrayToDoubleArray(byte[] byteArray) throws IllegalArgumentException {
     if (byteArray.length % 8 != 0) {
       throw new IllegalArgumentException("Length of byteArray is not evenly divisible by 8, "
           + "which is the number of bytes in one double.");
     }
-    double doubleArray[] = new double[byteArray.length / 8];
-    ByteBuffer byteBuf = ByteBuffer.wrap(byteArray);
-    DoubleBuffer doubleBuff = byteBuf.asDoubleBuffer();
-    doubleBuff.get(doubleArray);
+    double[] doubleArray = new double[byteArray.length / 8];
+    byteArrayToDoubleArray(byteArray, 0, doubleArray, 0, doubleArray.length, ByteOrder.BIG_ENDIAN);
     return doubleArray;
   }
 
   /**
-   * Convert from an array of doubles to an array of bytes
+   * Convert from an array of bytes to an existing array of doubles
+   *
+   * @param byteArray source array
+   * @param byteOffset position in source array of first byte
+   * @param doubleArray destination array
+   * @param doubleOffset position in destination array of first double
+   * @param count number of doubles to convert
+   * @param order byte order of source array
+   */
+  public static void byteArrayToDoubleArray(byte[] byteArray, int byteOffset, double[] doubleArray, int doubleOffset,
+    int count, ByteOrder order) {
+    ByteBuffer.wrap(byteArray, byteOffset, count*8).order(order).asDoubleBuffer().get(doubleArray, doubleOffset, count);
+  }
+
+  /**
+   * Convert from an array of doubles to an array of bytes (big-endian)
+   *
    * @param doubleArray
    */
   public static byte[] doubleArrayToByteArray(double[] doubleArray) {
     byte[] byteArray = new byte[doubleArray.length*8]; // 8 bytes per double
-    ByteBuffer byteBuf = ByteBuffer.wrap(byteArray);
-    DoubleBuffer doubleBuff = byteBuf.asDoubleBuffer();
-    doubleBuff.put(doubleArray);
+    doubleArrayToByteArray(doubleArray, 0, byteArray, 0, doubleArray.length, ByteOrder.BIG_ENDIAN);
     return byteArray;
   }
 
+  /**
+   * Convert from an array of doubles to an existing array of bytes
+   *
+   * @param doubleArray source array
+   * @param doubleOffset position in source array of first double
+   * @param byteArray destination array
+   * @param byteOffset position in destination array of first byte
+   * @param count number of doubles to convert
+   * @param order byte order of destination array
+   */
+  public static void doubleArrayToByteArray(double[] doubleArray, int doubleOffset, byte[] byteArray, int byteOffset,
+    int count, ByteOrder order) {
+    ByteBuffer.wrap(byteArray, byteOffset, count*8).order(order).asDoubleBuffer().put(doubleArray, doubleOffset, count);
+  }
+
+  /**
+   * View of an array of bytes as a buffer of doubles, without copying. Changes to either are
+   * visible in the other.
+   *
+   * @param byteArray array of bytes
+   * @param order byte order of array
+   */
+  public static DoubleBuffer asDoubleBuffer(byte[] byteArray, ByteOrder order) {
+    return ByteBuffer.wrap(byteArray).order(order).asDoubleBuffer();
+  }
+
 }
@@ -0,0 +1,196 @@
+package org.hipi.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Thread-safe pool of direct (off-heap) {@link ByteBuffer} objects in native byte order.
+ *
+ * Direct buffers are expensive to allocate and, before Java 9, can only be freed by the garbage
+ * collector once the owning ByteBuffer object is unreachable. Code that repeatedly needs large
+ * native buffers (e.g., one per decoded image) should therefore {@link #acquire} them from a pool
+ * and {@link #release} them when done so that the same native memory is reused.
+ *
+ * Buffers are grouped into size classes spaced at quarter powers of two (4, 5, 6, 7, 8, 10, 12,
+ * 14, 16 KB, ...), so that a buffer exceeds the requested size by less than 25% while buffers for
+ * similar sizes (e.g., images of slightly different dimensions) are still shared. Requests beyond
+ * the largest class are allocated with the exact size and never pooled. The total capacity of the
+ * buffers held by the pool (i.e., released and not yet reacquired) is bounded; buffers released
+ * while the pool is full are simply dropped and left to the garbage collector.
+ */
+public class DirectBufferPool {
+
+  /**
+   * Default upper bound on the total capacity of pooled buffers (256 MB).
+   */
+  public static final long DEFAULT_MAX_POOLED_BYTES = 256L << 20;
+
+  // Capacity of the smallest size class is 1 << MIN_SHIFT (4 KB)
+  private static final int MIN_SHIFT = 12;
+
+  // Size classes per power of two
+  private static final int STEPS = 4;
+
+  // Number of size classes (the largest class, 1.75 GB, is the largest one below 2 GB)
+  private static final int NUM_CLASSES = (30 - MIN_SHIFT)*STEPS + STEPS;
+
+  private static final DirectBufferPool staticInstance = new DirectBufferPool(DEFAULT_MAX_POOLED_BYTES);
+
+  /**
+   * @return pool shared by all direct pixel arrays in this JVM
+   */
+  public static DirectBufferPool getInstance() {
+    return staticInstance;
+  }
+
+  private final ArrayDeque<ByteBuffer>[] free;
+  private long maxPooledBytes;
+  private long pooledBytes = 0;
+
+  private long allocations = 0;
+  private long reuses = 0;
+
+  @SuppressWarnings("unchecked")
+  public DirectBufferPool(long maxPooledBytes) {
+    if (maxPooledBytes < 0) {
+      throw new IllegalArgumentException("Maximum pool size must be non-negative [" + maxPooledBytes + "].");
+    }
+    this.maxPooledBytes = maxPooledBytes;
+    this.free = (ArrayDeque<ByteBuffer>[])new ArrayDeque<?>[NUM_CLASSES];
+    for (int i=0; i<free.length; i++) {
+      free[i] = new ArrayDeque<ByteBuffer>();
+    }
+  }
+
+  // Smallest size class whose capacity is at least the given number of bytes (may be
+  // NUM_CLASSES or larger for requests beyond the largest class)
+  private static int sizeClass(int numBytes) {
+    if (numBytes <= (1 << MIN_SHIFT)) {
+      return 0;
+    }
+    // 2^e < numBytes <= 2^(e+1), and numBytes is rounded up to a multiple of 2^(e-2)
+    int e = 31 - Integer.numberOfLeadingZeros(numBytes - 1);
+    int q = (int)(((long)numBytes + (1L << (e-2)) - 1) >> (e-2));
+    return (e - MIN_SHIFT)*STEPS + (q - STEPS);
+  }
+
+  private static long classCapacity(int c) {
+    return (long)(STEPS + c % STEPS) << (MIN_SHIFT - 2 + c / STEPS);
+  }
+
+  /**
+   * Returns a zero-filled direct buffer in native byte order with position 0 and limit equal to
+   * the requested size. The capacity of the buffer may exceed the requested size.
+   *
+   * @param numBytes requested size in bytes
+   *
+   * @return direct buffer
+   *
+   * @throws IllegalArgumentException if the requested size is negative
+   */
+  public ByteBuffer acquire(int numBytes) throws IllegalArgumentException {
+    if (numBytes < 0) {
+      throw new IllegalArgumentException("Invalid buffer size [" + numBytes + "].");
+    }
+    int c = sizeClass(numBytes);
+    if (c >= NUM_CLASSES) {
+      synchronized (this) {
+	allocations++;
+      }
+      return ByteBuffer.allocateDirect(numBytes).order(ByteOrder.nativeOrder());
+    }
+    ByteBuffer buffer = null;
+    synchronized (this) {
+      buffer = free[c].pollLast();
+      if (buffer != null) {
+	pooledBytes -= buffer.capacity();
+	reuses++;
+      } else {
+	allocations++;
+      }
+    }
+    if (buffer == null) {
+      // Fresh direct buffers are zero-filled by the JVM
+      buffer = ByteBuffer.allocateDirect((int)classCapacity(c)).order(ByteOrder.nativeOrder());
+    } else {
+      clear(buffer, numBytes);
+    }
+    buffer.clear();
+    buffer.limit(numBytes);
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer obtained from {@link #acquire} to the pool. The caller must not access the
+   * buffer, or any view of it, afterwards.
+   *
+   * @param buffer buffer to release (ignored if null or not direct)
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return;
+    }
+    int c = sizeClass(buffer.capacity());
+    if (c >= NUM_CLASSES || buffer.capacity() != classCapacity(c)) {
+      // Not one of ours
+      return;
+    }
+    synchronized (this) {
+      if (pooledBytes + buffer.capacity() <= maxPooledBytes) {
+	free[c].addLast(buffer);
+	pooledBytes += buffer.capacity();
+      }
+    }
+  }
+
+  private static final byte[] zeros = new byte[1 << 13];
+
+  private static void clear(ByteBuffer buffer, int numBytes) {
+    ByteBuffer dup = buffer.duplicate();
+    dup.clear();
+    while (dup.position() < numBytes) {
+      dup.put(zeros, 0, Math.min(zeros.length, numBytes - dup.position()));
+    }
+  }
+
+  /**
+   * Sets the upper bound on the total capacity of pooled buffers and drops pooled buffers until
+   * the pool is within the new bound.
+   *
+   * @param maxPooledBytes new upper bound in bytes
+   */
+  public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+    if (maxPooledBytes < 0) {
+      throw new IllegalArgumentException("Maximum pool size must be non-negative [" + maxPooledBytes + "].");
+    }
+    this.maxPooledBytes = maxPooledBytes;
+    for (int c=free.length-1; c>=0 && pooledBytes > maxPooledBytes; c--) {
+      while (pooledBytes > maxPooledBytes && !free[c].isEmpty()) {
+	pooledBytes -= free[c].pollFirst().capacity();
+      }
+    }
+  }
+
+  /**
+   * @return total capacity in bytes of the buffers currently held by the pool
+   */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * @return number of buffers allocated because no pooled buffer was available
+   */
+  public synchronized long getAllocations() {
+    return allocations;
+  }
+
+  /**
+   * @return number of buffers served from the pool
+   */
+  public synchronized long getReuses() {
+    return reuses;
+  }
+
+}
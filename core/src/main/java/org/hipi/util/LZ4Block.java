@@ -0,0 +1,271 @@
+package org.hipi.util;
+
+import java.io.IOException;
+
+/**
+ * Minimal implementation of the LZ4 block format (no frame, no checksums). Compression uses a
+ * single-probe hash table over 4-byte sequences, which favors speed over compression ratio and is
+ * well suited to raw pixel data that is written once and read many times. Decompression performs
+ * full bounds checking and never writes past the end of the destination range.
+ *
+ * The produced blocks are compatible with the reference LZ4 block decoder.
+ *
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 Block Format</a>
+ */
+public class LZ4Block {
+
+  private static final int MIN_MATCH = 4;
+  private static final int LAST_LITERALS = 5;
+  private static final int MF_LIMIT = 12;
+  private static final int MAX_DISTANCE = 65535;
+  private static final int HASH_LOG = 14;
+  private static final int ML_MASK = 15;
+  private static final int RUN_MASK = 15;
+
+  private LZ4Block() {
+  }
+
+  /**
+   * Upper bound on the size of a compressed block for a given input length.
+   *
+   * @param length number of uncompressed bytes
+   *
+   * @return maximum number of bytes {@link #compress} may write
+   */
+  public static int maxCompressedLength(int length) {
+    if (length < 0) {
+      throw new IllegalArgumentException("Invalid length [" + length + "].");
+    }
+    return length + length / 255 + 16;
+  }
+
+  private static int readInt(byte[] buf, int i) {
+    return (buf[i] & 0xff) | ((buf[i+1] & 0xff) << 8) | ((buf[i+2] & 0xff) << 16) | ((buf[i+3] & 0xff) << 24);
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  private static int writeLength(byte[] dst, int op, int length) {
+    while (length >= 255) {
+      dst[op++] = (byte)255;
+      length -= 255;
+    }
+    dst[op++] = (byte)length;
+    return op;
+  }
+
+  /**
+   * Compresses a range of bytes into a single LZ4 block.
+   *
+   * @param src source buffer
+   * @param srcOff offset of first byte to compress
+   * @param srcLen number of bytes to compress
+   * @param dst destination buffer, which must have at least
+   * {@link #maxCompressedLength}(srcLen) bytes available starting at dstOff
+   * @param dstOff offset at which to begin writing the compressed block
+   *
+   * @return number of bytes written to dst
+   */
+  public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+    if (srcOff < 0 || srcLen < 0 || srcOff + srcLen > src.length) {
+      throw new IllegalArgumentException("Invalid source range.");
+    }
+    if (dstOff < 0 || dst.length - dstOff < maxCompressedLength(srcLen)) {
+      throw new IllegalArgumentException("Destination buffer is too small.");
+    }
+
+    final int srcEnd = srcOff + srcLen;
+    final int mfLimit = srcEnd - MF_LIMIT;
+    final int matchLimit = srcEnd - LAST_LITERALS;
+
+    int anchor = srcOff;
+    int op = dstOff;
+
+    if (srcLen > MF_LIMIT) {
+
+      int[] hashTable = new int[1 << HASH_LOG];
+      java.util.Arrays.fill(hashTable, -1);
+
+      int ip = srcOff;
+      hashTable[hash(readInt(src, ip))] = ip;
+      ip++;
+
+      int searchCount = 0;
+      while (ip < mfLimit) {
+
+	int h = hash(readInt(src, ip));
+	int ref = hashTable[h];
+	hashTable[h] = ip;
+
+	if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != readInt(src, ip)) {
+	  // Step faster through incompressible regions
+	  ip += 1 + (searchCount++ >>> 6);
+	  continue;
+	}
+	searchCount = 0;
+
+	// Extend match backwards into pending literals
+	while (ip > anchor && ref > srcOff && src[ip-1] == src[ref-1]) {
+	  ip--;
+	  ref--;
+	}
+
+	// Extend match forwards
+	int matchLength = MIN_MATCH;
+	while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+	  matchLength++;
+	}
+
+	// Emit token, literals, offset and match length
+	int literalLength = ip - anchor;
+	int tokenPos = op++;
+	int token;
+	if (literalLength >= RUN_MASK) {
+	  token = RUN_MASK << 4;
+	  op = writeLength(dst, op, literalLength - RUN_MASK);
+	} else {
+	  token = literalLength << 4;
+	}
+	System.arraycopy(src, anchor, dst, op, literalLength);
+	op += literalLength;
+
+	int offset = ip - ref;
+	dst[op++] = (byte)offset;
+	dst[op++] = (byte)(offset >>> 8);
+
+	int ml = matchLength - MIN_MATCH;
+	if (ml >= ML_MASK) {
+	  token |= ML_MASK;
+	  op = writeLength(dst, op, ml - ML_MASK);
+	} else {
+	  token |= ml;
+	}
+	dst[tokenPos] = (byte)token;
+
+	ip += matchLength;
+	anchor = ip;
+
+	if (ip < mfLimit) {
+	  hashTable[hash(readInt(src, ip - 2))] = ip - 2;
+	}
+      }
+    }
+
+    // Last sequence consists only of literals
+    int literalLength = srcEnd - anchor;
+    if (literalLength >= RUN_MASK) {
+      dst[op++] = (byte)(RUN_MASK << 4);
+      op = writeLength(dst, op, literalLength - RUN_MASK);
+    } else {
+      dst[op++] = (byte)(literalLength << 4);
+    }
+    System.arraycopy(src, anchor, dst, op, literalLength);
+    op += literalLength;
+
+    return op - dstOff;
+  }
+
+  /**
+   * Decompresses a single LZ4 block.
+   *
+   * @param src buffer containing compressed block
+   * @param srcOff offset of first byte of compressed block
+   * @param srcLen length of compressed block in bytes
+   * @param dst destination buffer
+   * @param dstOff offset at which to begin writing uncompressed bytes
+   * @param dstLen maximum number of uncompressed bytes to write
+   *
+   * @return number of bytes written to dst
+   *
+   * @throws IOException if the compressed block is malformed or does not fit in the destination
+   */
+  public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+    throws IOException {
+    if (srcOff < 0 || srcLen < 0 || srcOff + srcLen > src.length) {
+      throw new IllegalArgumentException("Invalid source range.");
+    }
+    if (dstOff < 0 || dstLen < 0 || dstOff + dstLen > dst.length) {
+      throw new IllegalArgumentException("Invalid destination range.");
+    }
+
+    final int srcEnd = srcOff + srcLen;
+    final int dstEnd = dstOff + dstLen;
+
+    int ip = srcOff;
+    int op = dstOff;
+
+    for (;;) {
+
+      if (ip >= srcEnd) {
+	throw new IOException("Malformed LZ4 block: unexpected end of input.");
+      }
+      int token = src[ip++] & 0xff;
+
+      // Literals
+      int literalLength = token >>> 4;
+      if (literalLength == RUN_MASK) {
+	int b;
+	do {
+	  if (ip >= srcEnd) {
+	    throw new IOException("Malformed LZ4 block: unexpected end of input.");
+	  }
+	  b = src[ip++] & 0xff;
+	  literalLength += b;
+	} while (b == 255);
+      }
+      if (literalLength > srcEnd - ip || literalLength > dstEnd - op) {
+	throw new IOException("Malformed LZ4 block: literal run exceeds buffer bounds.");
+      }
+      System.arraycopy(src, ip, dst, op, literalLength);
+      ip += literalLength;
+      op += literalLength;
+
+      if (ip == srcEnd) {
+	// Last sequence has no match
+	break;
+      }
+
+      // Match
+      if (srcEnd - ip < 2) {
+	throw new IOException("Malformed LZ4 block: unexpected end of input.");
+      }
+      int offset = (src[ip] & 0xff) | ((src[ip+1] & 0xff) << 8);
+      ip += 2;
+      if (offset == 0 || offset > op - dstOff) {
+	throw new IOException("Malformed LZ4 block: invalid match offset [" + offset + "].");
+      }
+
+      int matchLength = token & ML_MASK;
+      if (matchLength == ML_MASK) {
+	int b;
+	do {
+	  if (ip >= srcEnd) {
+	    throw new IOException("Malformed LZ4 block: unexpected end of input.");
+	  }
+	  b = src[ip++] & 0xff;
+	  matchLength += b;
+	} while (b == 255);
+      }
+      matchLength += MIN_MATCH;
+      if (matchLength > dstEnd - op) {
+	throw new IOException("Malformed LZ4 block: match exceeds destination bounds.");
+      }
+
+      int ref = op - offset;
+      if (offset >= matchLength) {
+	System.arraycopy(dst, ref, dst, op, matchLength);
+	op += matchLength;
+      } else {
+	// Overlapping copy replicates the last offset bytes
+	for (int i=0; i<matchLength; i++) {
+	  dst[op++] = dst[ref++];
+	}
+      }
+    }
+
+    return op - dstOff;
+  }
+
+}
@@ -0,0 +1,231 @@
+package org.hipi.util;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Thread-safe pool of the Java arrays that hold pixel data (byte[], short[] and float[]). Pixel
+ * arrays that are given a pool (see {@link org.hipi.image.PixelArray#setBufferPool}) draw their
+ * arrays from it and return them when they are resized or released, so that decoding a stream
+ * of same-sized images reaches a steady state in which no pixel data is allocated at all.
+ *
+ * Arrays are pooled by type and exact length, since pixel arrays expose their backing arrays
+ * directly and callers rely on their length. Pooled arrays are only softly reachable, so the
+ * garbage collector may reclaim them under memory pressure, and the total size of the pooled
+ * arrays is bounded; when the bound is exceeded the least recently returned arrays are dropped.
+ */
+public class PixelBufferPool {
+
+  /**
+   * Default upper bound on the total size of pooled arrays (256 MB).
+   */
+  public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+  private static final int BYTE = 0;
+  private static final int SHORT = 1;
+  private static final int FLOAT = 2;
+
+  private static final PixelBufferPool staticInstance = new PixelBufferPool(DEFAULT_MAX_BYTES);
+
+  /**
+   * @return pool shared by all image factories in this JVM
+   */
+  public static PixelBufferPool getInstance() {
+    return staticInstance;
+  }
+
+  private static class Entry {
+    final long key;
+    final long bytes;
+    final SoftReference<Object> ref;
+
+    Entry(long key, long bytes, Object array) {
+      this.key = key;
+      this.bytes = bytes;
+      this.ref = new SoftReference<Object>(array);
+    }
+  }
+
+  // Array type and length => pooled arrays, most recently returned last
+  private final HashMap<Long, ArrayDeque<Entry>> buckets = new HashMap<Long, ArrayDeque<Entry>>();
+
+  // All pooled arrays, least recently returned first
+  private final LinkedHashSet<Entry> entries = new LinkedHashSet<Entry>();
+
+  private long maxBytes;
+  private long pooledBytes = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+
+  public PixelBufferPool(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Maximum pool size must be non-negative [" + maxBytes + "].");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  private static long makeKey(int type, int length) {
+    return ((long)type << 32) | length;
+  }
+
+  // Returns a pooled array of the given type and length, or null if there is none
+  private synchronized Object poll(int type, int length) {
+    ArrayDeque<Entry> bucket = buckets.get(makeKey(type, length));
+    while (bucket != null && !bucket.isEmpty()) {
+      Entry entry = bucket.pollLast();
+      entries.remove(entry);
+      pooledBytes -= entry.bytes;
+      Object array = entry.ref.get();
+      if (array != null) {
+	hits++;
+	return array;
+      }
+      // Reclaimed by the garbage collector
+    }
+    misses++;
+    return null;
+  }
+
+  private synchronized void offer(int type, int length, int elemSize, Object array) {
+    long bytes = (long)length * elemSize;
+    if (length == 0 || bytes > maxBytes) {
+      return;
+    }
+    Entry entry = new Entry(makeKey(type, length), bytes, array);
+    ArrayDeque<Entry> bucket = buckets.get(entry.key);
+    if (bucket == null) {
+      bucket = new ArrayDeque<Entry>();
+      buckets.put(entry.key, bucket);
+    }
+    bucket.addLast(entry);
+    entries.add(entry);
+    pooledBytes += bytes;
+    evict();
+  }
+
+  // Drop least recently returned arrays until the pool is within bounds
+  private void evict() {
+    Iterator<Entry> iter = entries.iterator();
+    while (pooledBytes > maxBytes && iter.hasNext()) {
+      Entry eldest = iter.next();
+      iter.remove();
+      pooledBytes -= eldest.bytes;
+      ArrayDeque<Entry> bucket = buckets.get(eldest.key);
+      bucket.remove(eldest);
+      if (bucket.isEmpty()) {
+	buckets.remove(eldest.key);
+      }
+    }
+  }
+
+  /**
+   * Returns a zero-filled byte array of the given length, reusing a pooled array if possible.
+   */
+  public byte[] acquireBytes(int length) {
+    byte[] array = (byte[])poll(BYTE, length);
+    if (array == null) {
+      return new byte[length];
+    }
+    Arrays.fill(array, (byte)0);
+    return array;
+  }
+
+  /**
+   * Returns a zero-filled short array of the given length, reusing a pooled array if possible.
+   */
+  public short[] acquireShorts(int length) {
+    short[] array = (short[])poll(SHORT, length);
+    if (array == null) {
+      return new short[length];
+    }
+    Arrays.fill(array, (short)0);
+    return array;
+  }
+
+  /**
+   * Returns a zero-filled float array of the given length, reusing a pooled array if possible.
+   */
+  public float[] acquireFloats(int length) {
+    float[] array = (float[])poll(FLOAT, length);
+    if (array == null) {
+      return new float[length];
+    }
+    Arrays.fill(array, 0.0f);
+    return array;
+  }
+
+  /**
+   * Returns an array to the pool. The caller must not access the array afterwards.
+   *
+   * @param array array to return (ignored if null)
+   */
+  public void release(byte[] array) {
+    if (array != null) {
+      offer(BYTE, array.length, 1, array);
+    }
+  }
+
+  /**
+   * Returns an array to the pool. The caller must not access the array afterwards.
+   *
+   * @param array array to return (ignored if null)
+   */
+  public void release(short[] array) {
+    if (array != null) {
+      offer(SHORT, array.length, 2, array);
+    }
+  }
+
+  /**
+   * Returns an array to the pool. The caller must not access the array afterwards.
+   *
+   * @param array array to return (ignored if null)
+   */
+  public void release(float[] array) {
+    if (array != null) {
+      offer(FLOAT, array.length, 4, array);
+    }
+  }
+
+  /**
+   * Sets the upper bound on the total size of pooled arrays and drops pooled arrays until the
+   * pool is within the new bound.
+   *
+   * @param maxBytes new upper bound in bytes
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Maximum pool size must be non-negative [" + maxBytes + "].");
+    }
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  /**
+   * @return total size in bytes of the pooled arrays (including any that the garbage collector
+   * has reclaimed since they were returned)
+   */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  /**
+   * @return number of requests served with a pooled array
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return number of requests that required a new array
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+}
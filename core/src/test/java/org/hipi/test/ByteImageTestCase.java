@@ -0,0 +1,130 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.ImageOps;
+import org.hipi.image.PixelArray;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ByteImageTestCase {
+
+  @After
+  public void tearDown() {
+    ImageOps.setMinElementsPerTask(ImageOps.DEFAULT_MIN_ELEMENTS_PER_TASK);
+  }
+
+  private static ByteImage randomImage(int w, int h, int b, long seed) {
+    ByteImage image = new ByteImage(w, h, b);
+    new Random(seed).nextBytes(image.getData());
+    return image;
+  }
+
+  private static ByteImage copy(ByteImage image) {
+    ByteImage result = new ByteImage(image.getWidth(), image.getHeight(), image.getNumBands());
+    System.arraycopy(image.getData(), 0, result.getData(), 0, image.getData().length);
+    return result;
+  }
+
+  @Test
+  public void testArithmetic() {
+    ImageOps.setMinElementsPerTask(64);
+    ByteImage a = randomImage(31, 17, 3, 1);
+    ByteImage b = randomImage(31, 17, 3, 2);
+    int n = 31*17*3;
+
+    ByteImage sum = copy(a);
+    sum.add(b);
+    ByteImage diff = copy(a);
+    diff.subtract(b);
+    ByteImage absDiff = copy(a);
+    absDiff.absDiff(b);
+    ByteImage plus = copy(a);
+    plus.add(100);
+    ByteImage minus = copy(a);
+    minus.add(-100);
+    ByteImage blend = copy(a);
+    blend.blend(b, 0.25f);
+    for (int i=0; i<n; i++) {
+      int va = a.getData()[i] & 0xff;
+      int vb = b.getData()[i] & 0xff;
+      assertEquals(Math.min(255, va+vb), sum.getData()[i] & 0xff);
+      assertEquals(Math.max(0, va-vb), diff.getData()[i] & 0xff);
+      assertEquals(Math.abs(va-vb), absDiff.getData()[i] & 0xff);
+      assertEquals(Math.min(255, va+100), plus.getData()[i] & 0xff);
+      assertEquals(Math.max(0, va-100), minus.getData()[i] & 0xff);
+      assertEquals(0.75*va + 0.25*vb, blend.getData()[i] & 0xff, 0.5);
+    }
+
+    // Blending with weights 0 and 1 reproduces the inputs
+    ByteImage blend0 = copy(a);
+    blend0.blend(b, 0.0f);
+    assertArrayEquals(a.getData(), blend0.getData());
+    ByteImage blend1 = copy(a);
+    blend1.blend(b, 1.0f);
+    assertArrayEquals(b.getData(), blend1.getData());
+  }
+
+  @Test
+  public void testThresholdAndLookupTable() {
+    ByteImage a = randomImage(20, 10, 1, 3);
+    ByteImage thresholded = copy(a);
+    thresholded.threshold(127);
+    byte[] lut = new byte[256];
+    for (int v=0; v<256; v++) {
+      lut[v] = (byte)(255 - v);
+    }
+    ByteImage inverted = copy(a);
+    inverted.applyLookupTable(lut);
+    for (int i=0; i<200; i++) {
+      int va = a.getData()[i] & 0xff;
+      assertEquals(va > 127 ? 255 : 0, thresholded.getData()[i] & 0xff);
+      assertEquals(255 - va, inverted.getData()[i] & 0xff);
+    }
+  }
+
+  @Test
+  public void testMinMax() {
+    ImageOps.setMinElementsPerTask(64);
+    ByteImage a = randomImage(40, 30, 3, 4);
+    int[] min = {255, 255, 255};
+    int[] max = {0, 0, 0};
+    for (int i=0; i<40*30*3; i++) {
+      int v = a.getData()[i] & 0xff;
+      min[i%3] = Math.min(min[i%3], v);
+      max[i%3] = Math.max(max[i%3], v);
+    }
+    assertArrayEquals(min, a.getMin());
+    assertArrayEquals(max, a.getMax());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testMismatch() {
+    new ByteImage(4, 4, 3).add(new ByteImage(4, 4, 1));
+  }
+
+  @Test
+  public void testLayoutMismatch() {
+    ByteImage a = randomImage(5, 4, 3, 7);
+    ByteImage b = randomImage(5, 4, 3, 8);
+    b.setLayout(PixelArray.Layout.PLANAR);
+    try {
+      a.add(b);
+      fail("Expected IllegalArgumentException for planar and interleaved operands.");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      a.blend(b, 0.5f);
+      fail("Expected IllegalArgumentException for planar and interleaved operands.");
+    } catch (IllegalArgumentException e) {
+    }
+    // Operands of the same layout are accepted
+    a.setLayout(PixelArray.Layout.PLANAR);
+    a.subtract(b);
+  }
+
+}
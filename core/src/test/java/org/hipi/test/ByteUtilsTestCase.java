@@ -2,11 +2,18 @@ package org.hipi.test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import org.hipi.util.ByteUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
 public class ByteUtilsTestCase {
 
@@ -121,4 +128,112 @@ public class ByteUtilsTestCase {
 
 
 
+  @Test
+  public void testConversionIntoExistingArrays() {
+    for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+      ByteBuffer bb = ByteBuffer.allocate(3 + floatArray.length * 4).order(order);
+      bb.position(3);
+      for (int i = 0; i < floatArray.length; i++) {
+        bb.putFloat(floatArray[i]);
+      }
+      byte[] bytes = bb.array();
+
+      float[] floats = new float[floatArray.length + 1];
+      ByteUtils.byteArrayToFloatArray(bytes, 3, floats, 1, floatArray.length, order);
+      for (int i = 0; i < floatArray.length; i++) {
+        assertEquals(floatArray[i], floats[i + 1], 0.0f);
+      }
+
+      byte[] newBytes = new byte[bytes.length];
+      ByteUtils.floatArrayToByteArray(floats, 1, newBytes, 3, floatArray.length, order);
+      assertArrayEquals(bytes, newBytes);
+
+      // Views share the byte array
+      FloatBuffer view = ByteUtils.asFloatBuffer(newBytes, order);
+      view.put(0, 1.5f);
+      view.put(1, -2.5f);
+      ByteUtils.byteArrayToFloatArray(newBytes, 0, floats, 0, 2, order);
+      assertEquals(1.5f, floats[0], 0.0f);
+      assertEquals(-2.5f, floats[1], 0.0f);
+    }
+
+    int[] ints = new int[intArray.length];
+    ByteUtils.byteArrayToIntArray(buildConvertedIntArray(), 0, ints, 0, ints.length, ByteOrder.BIG_ENDIAN);
+    assertArrayEquals(intArray, ints);
+    assertEquals(ByteOrder.LITTLE_ENDIAN, ByteUtils.flagToByteOrder(ByteUtils.byteOrderToFlag(ByteOrder.LITTLE_ENDIAN)));
+    assertEquals(ByteOrder.BIG_ENDIAN, ByteUtils.flagToByteOrder(ByteUtils.byteOrderToFlag(ByteOrder.BIG_ENDIAN)));
+  }
+
+  // Stream that reports a given number of bytes available, returns at most 7 bytes per read and
+  // records the array it last read into
+  private static class TrickleStream extends ByteArrayInputStream {
+    private final int available;
+    byte[] target = null;
+    TrickleStream(byte[] bytes, int available) {
+      super(bytes);
+      this.available = available;
+    }
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      target = b;
+      return super.read(b, off, Math.min(len, 7));
+    }
+    @Override
+    public synchronized int available() {
+      return available;
+    }
+  }
+
+  private static TrickleStream trickle(byte[] bytes) {
+    return new TrickleStream(bytes, 0);
+  }
+
+  @Test
+  public void testInputStreamToByteArray() throws IOException {
+    byte[] bytes = new byte[20000];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (i * 31);
+    }
+    assertArrayEquals(bytes, ByteUtils.inputStreamToByteArray(new ByteArrayInputStream(bytes)));
+    assertArrayEquals(bytes, ByteUtils.inputStreamToByteArray(trickle(bytes)));
+
+    // An exact size hint reads straight into the returned array
+    TrickleStream exact = trickle(bytes);
+    byte[] result = ByteUtils.inputStreamToByteArray(exact, bytes.length);
+    assertArrayEquals(bytes, result);
+    assertSame(exact.target, result);
+
+    // Too small and too large size hints grow or trim the array
+    assertArrayEquals(bytes, ByteUtils.inputStreamToByteArray(trickle(bytes), 100));
+    assertArrayEquals(bytes, ByteUtils.inputStreamToByteArray(trickle(bytes), bytes.length - 1));
+    assertArrayEquals(bytes, ByteUtils.inputStreamToByteArray(trickle(bytes), bytes.length + 1));
+    assertArrayEquals(bytes, ByteUtils.inputStreamToByteArray(trickle(bytes), 3 * bytes.length));
+    assertEquals(0, ByteUtils.inputStreamToByteArray(trickle(new byte[0]), 0).length);
+    assertEquals(0, ByteUtils.inputStreamToByteArray(trickle(new byte[0]), 10).length);
+    assertEquals(0, ByteUtils.inputStreamToByteArray(null).length);
+
+    // Exact estimates of available bytes are used as size hints, excessive ones are capped
+    TrickleStream available = new TrickleStream(bytes, bytes.length);
+    result = ByteUtils.inputStreamToByteArray(available);
+    assertArrayEquals(bytes, result);
+    assertSame(available.target, result);
+    assertArrayEquals(bytes, ByteUtils.inputStreamToByteArray(new TrickleStream(bytes, Integer.MAX_VALUE)));
+  }
+
+  @Test
+  public void testReadFully() throws IOException {
+    byte[] bytes = new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+    byte[] dst = new byte[18];
+    ByteUtils.readFully(trickle(bytes), dst, 2, bytes.length);
+    for (int i = 0; i < bytes.length; i++) {
+      assertEquals(bytes[i], dst[i + 2]);
+    }
+    assertArrayEquals(bytes, ByteUtils.readFully(trickle(bytes), bytes.length));
+  }
+
+  @Test(expected=EOFException.class)
+  public void testReadFullyPastEnd() throws IOException {
+    ByteUtils.readFully(trickle(new byte[10]), 11);
+  }
+
 }
@@ -0,0 +1,175 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.ColorSpaceConverter;
+import org.hipi.image.DirectFloatImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HalfImage;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.RasterImage;
+import org.hipi.image.UShortImage;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ColorSpaceConverterTestCase {
+
+  private static ByteImage makeByteImage(int w, int h, HipiColorSpace colorSpace) {
+    ByteImage image = new ByteImage();
+    image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, colorSpace, w, h,
+					(colorSpace == HipiColorSpace.LUM ? 1 : 3), null, null));
+    return image;
+  }
+
+  private static ByteImage makeRandomRGB(int w, int h, long seed) {
+    ByteImage image = makeByteImage(w, h, HipiColorSpace.RGB);
+    new Random(seed).nextBytes(image.getData());
+    return image;
+  }
+
+  @Test
+  public void testRGBToLum() {
+    ByteImage rgb = makeByteImage(4, 1, HipiColorSpace.RGB);
+    byte[] data = rgb.getData();
+    int[] pixels = {255, 0, 0,  0, 255, 0,  0, 0, 255,  200, 100, 50};
+    for (int i=0; i<pixels.length; i++) {
+      data[i] = (byte)pixels[i];
+    }
+    ByteImage lum = makeByteImage(4, 1, HipiColorSpace.LUM);
+    rgb.convertToColorSpace(HipiColorSpace.LUM, lum);
+
+    // Each channel contributes with its own weight
+    int[] expected = {76, 150, 29, 124};
+    for (int i=0; i<4; i++) {
+      assertEquals(expected[i], lum.getPixelArray().getElem(i));
+    }
+
+    FloatImage rgbFloat = new FloatImage(1, 1, 3, HipiImageFormat.UNDEFINED, HipiColorSpace.RGB);
+    rgbFloat.getData()[0] = 1.0f;
+    rgbFloat.getData()[1] = 0.5f;
+    rgbFloat.getData()[2] = 0.25f;
+    FloatImage lumFloat = new FloatImage(1, 1, 1, HipiImageFormat.UNDEFINED, HipiColorSpace.LUM);
+    rgbFloat.convertToColorSpace(HipiColorSpace.LUM, lumFloat);
+    assertEquals(0.299f + 0.587f * 0.5f + 0.114f * 0.25f, lumFloat.getData()[0], 1e-6f);
+  }
+
+  @Test
+  public void testByteRoundTrips() {
+    ByteImage rgb = makeRandomRGB(97, 31, 7);
+
+    HipiColorSpace[] colorSpaces = {HipiColorSpace.YCBCR, HipiColorSpace.HSV};
+    int[] tolerances = {2, 4};
+    for (int k=0; k<colorSpaces.length; k++) {
+      ByteImage converted = makeByteImage(97, 31, colorSpaces[k]);
+      ColorSpaceConverter.convert(rgb, converted);
+      ByteImage back = makeByteImage(97, 31, HipiColorSpace.RGB);
+      ColorSpaceConverter.convert(converted, back);
+      assertTrue("round trip through " + colorSpaces[k] + " failed",
+		 rgb.equalsWithTolerance(back, tolerances[k]));
+    }
+
+    // Gray pixels have zero chroma and saturation
+    ByteImage gray = makeByteImage(1, 1, HipiColorSpace.RGB);
+    gray.getData()[0] = gray.getData()[1] = gray.getData()[2] = (byte)100;
+    ByteImage ycc = makeByteImage(1, 1, HipiColorSpace.YCBCR);
+    ColorSpaceConverter.convert(gray, ycc);
+    assertEquals(100, ycc.getPixelArray().getElem(0));
+    assertEquals(128, ycc.getPixelArray().getElem(1));
+    assertEquals(128, ycc.getPixelArray().getElem(2));
+    ByteImage hsv = makeByteImage(1, 1, HipiColorSpace.HSV);
+    ColorSpaceConverter.convert(gray, hsv);
+    assertEquals(0, hsv.getPixelArray().getElem(1));
+    assertEquals(100, hsv.getPixelArray().getElem(2));
+  }
+
+  @Test
+  public void testFloatRoundTrips() {
+    int w = 41, h = 13;
+    FloatImage rgb = new FloatImage(w, h, 3, HipiImageFormat.UNDEFINED, HipiColorSpace.RGB);
+    Random random = new Random(11);
+    for (int i=0; i<w*h*3; i++) {
+      rgb.getData()[i] = random.nextFloat();
+    }
+
+    HipiColorSpace[] colorSpaces = {HipiColorSpace.YCBCR, HipiColorSpace.HSV};
+    for (HipiColorSpace colorSpace : colorSpaces) {
+      FloatImage converted = new FloatImage(w, h, 3, HipiImageFormat.UNDEFINED, colorSpace);
+      ColorSpaceConverter.convert(rgb, converted);
+      FloatImage back = new FloatImage(w, h, 3, HipiImageFormat.UNDEFINED, HipiColorSpace.RGB);
+      ColorSpaceConverter.convert(converted, back);
+      assertArrayEquals("round trip through " + colorSpace + " failed", rgb.getData(), back.getData(), 1e-5f);
+    }
+
+    // Pure red has hue 0, pure blue has hue 2/3
+    FloatImage colors = new FloatImage(2, 1, 3, HipiImageFormat.UNDEFINED, HipiColorSpace.RGB);
+    colors.getData()[0] = 1.0f;
+    colors.getData()[5] = 0.5f;
+    FloatImage hsv = new FloatImage(2, 1, 3, HipiImageFormat.UNDEFINED, HipiColorSpace.HSV);
+    ColorSpaceConverter.convert(colors, hsv);
+    assertArrayEquals(new float[] {0.0f, 1.0f, 1.0f, 2.0f/3.0f, 1.0f, 0.5f}, hsv.getData(), 1e-6f);
+  }
+
+  @Test
+  public void testParallelMatchesSerial() {
+    int w = 600, h = 500;
+    ByteImage rgb = makeRandomRGB(w, h, 3);
+    ByteImage serial = makeByteImage(w, h, HipiColorSpace.HSV);
+    ByteImage parallel = makeByteImage(w, h, HipiColorSpace.HSV);
+    ColorSpaceConverter.convert(rgb, serial, false);
+    ColorSpaceConverter.convert(rgb, parallel, true);
+    assertArrayEquals(serial.getData(), parallel.getData());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testUnsupportedConversion() {
+    ByteImage ycc = makeByteImage(2, 2, HipiColorSpace.YCBCR);
+    ByteImage hsv = makeByteImage(2, 2, HipiColorSpace.HSV);
+    ColorSpaceConverter.convert(ycc, hsv);
+  }
+
+  @Test
+  public void testMixedPixelTypes() {
+    int w = 37, h = 5;
+    ByteImage rgb = makeRandomRGB(w, h, 5);
+    FloatImage rgbFloat = new FloatImage(w, h, 3, HipiImageFormat.UNDEFINED, HipiColorSpace.RGB);
+    for (int i=0; i<w*h*3; i++) {
+      rgbFloat.getData()[i] = rgb.getPixelArray().getElemFloat(i);
+    }
+
+    // Byte to float conversions match the float kernels applied to the byte values
+    HipiColorSpace[] colorSpaces = {HipiColorSpace.LUM, HipiColorSpace.YCBCR, HipiColorSpace.HSV};
+    for (HipiColorSpace colorSpace : colorSpaces) {
+      int bands = (colorSpace == HipiColorSpace.LUM ? 1 : 3);
+      FloatImage expected = new FloatImage(w, h, bands, HipiImageFormat.UNDEFINED, colorSpace);
+      ColorSpaceConverter.convert(rgbFloat, expected);
+      FloatImage converted = new FloatImage(w, h, bands, HipiImageFormat.UNDEFINED, colorSpace);
+      ColorSpaceConverter.convert(rgb, converted);
+      assertArrayEquals("byte to float conversion to " + colorSpace + " failed", expected.getData(), converted.getData(), 1e-6f);
+    }
+
+    // Direct, half-precision and 16-bit images
+    RasterImage[] images = {new DirectFloatImage(), new HalfImage(), new UShortImage()};
+    for (RasterImage image : images) {
+      image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, w, h, 3, null, null));
+      image.getPixelArray().copyFrom(rgbFloat.getData(), 0, 0, w*h*3);
+      FloatImage lum = new FloatImage(w, h, 1, HipiImageFormat.UNDEFINED, HipiColorSpace.LUM);
+      ColorSpaceConverter.convert(image, lum, true);
+      ByteImage hsv = makeByteImage(w, h, HipiColorSpace.HSV);
+      ColorSpaceConverter.convert(image, hsv);
+      for (int i=0; i<w*h; i++) {
+	float r = image.getPixelArray().getElemFloat(i*3);
+	float g = image.getPixelArray().getElemFloat(i*3+1);
+	float b = image.getPixelArray().getElemFloat(i*3+2);
+	assertEquals(0.299f * r + 0.587f * g + 0.114f * b, lum.getData()[i], 1e-5f);
+	assertEquals(Math.max(r, Math.max(g, b)), hsv.getPixelArray().getElemFloat(i*3+2), 1.0f/255.0f);
+      }
+      image.release();
+    }
+  }
+
+}
@@ -0,0 +1,274 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.ImageOps;
+import org.hipi.image.RasterImage;
+import org.hipi.image.filter.BorderMode;
+import org.hipi.image.filter.Convolution;
+import org.hipi.image.filter.FFT;
+import org.hipi.image.filter.FFTConvolution;
+import org.hipi.image.filter.Kernel;
+import org.hipi.image.filter.RealFFT2D;
+import org.hipi.image.filter.SeparableKernel;
+import org.hipi.image.io.PpmCodec;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+public class ConvolutionTestCase {
+
+  @After
+  public void tearDown() {
+    ImageOps.setMinElementsPerTask(ImageOps.DEFAULT_MIN_ELEMENTS_PER_TASK);
+  }
+
+  // Direct evaluation of the filter definition
+  private static float[] reference(RasterImage src, Kernel kernel, BorderMode border) {
+    int w = src.getWidth();
+    int h = src.getHeight();
+    int b = src.getNumBands();
+    int rx = kernel.getRadiusX();
+    int ry = kernel.getRadiusY();
+    float[] result = new float[w*h*b];
+    for (int y=0; y<h; y++) {
+      for (int x=0; x<w; x++) {
+	for (int c=0; c<b; c++) {
+	  double sum = 0.0;
+	  for (int j=0; j<kernel.getHeight(); j++) {
+	    int sy = border.map(y+j-ry, h);
+	    for (int i=0; i<kernel.getWidth(); i++) {
+	      int sx = border.map(x+i-rx, w);
+	      if (sx >= 0 && sy >= 0) {
+		sum += kernel.get(i, j) * src.getPixelArray().getElemFloat((sy*w+sx)*b+c);
+	      }
+	    }
+	  }
+	  result[(y*w+x)*b+c] = (float)sum;
+	}
+      }
+    }
+    return result;
+  }
+
+  private static FloatImage makeImage(int w, int h, int b) {
+    FloatImage image = new FloatImage(w, h, b);
+    for (int i=0; i<w*h*b; i++) {
+      image.getData()[i] = ((i * 7919) % 1009) / 1009.0f;
+    }
+    return image;
+  }
+
+  @Test
+  public void testBorderModes() {
+    int[] positions = { -7, -2, -1, 0, 4, 5, 6, 12 };
+    int[] constant = { -1, -1, -1, 0, 4, -1, -1, -1 };
+    int[] replicate = { 0, 0, 0, 0, 4, 4, 4, 4 };
+    int[] reflect = { 1, 2, 1, 0, 4, 3, 2, 4 };
+    int[] wrap = { 3, 3, 4, 0, 4, 0, 1, 2 };
+    for (int i=0; i<positions.length; i++) {
+      assertEquals(constant[i], BorderMode.CONSTANT.map(positions[i], 5));
+      assertEquals(replicate[i], BorderMode.REPLICATE.map(positions[i], 5));
+      assertEquals(reflect[i], BorderMode.REFLECT.map(positions[i], 5));
+      assertEquals(wrap[i], BorderMode.WRAP.map(positions[i], 5));
+    }
+    assertEquals(0, BorderMode.REFLECT.map(-3, 1));
+  }
+
+  @Test
+  public void testKernels() {
+    SeparableKernel g = SeparableKernel.gaussian(1.0);
+    assertEquals(7, g.getWidth());
+    float sum = 0.0f;
+    for (float c : g.getHorizontal()) {
+      sum += c;
+    }
+    assertEquals(1.0f, sum, 1e-6f);
+    assertEquals(new Kernel(3, 3, new float[] { -1, 0, 1, -2, 0, 2, -1, 0, 1 }), Kernel.sobelX());
+    assertEquals(new Kernel(3, 3, new float[] { -1, -2, -1, 0, 0, 0, 1, 2, 1 }), Kernel.sobelY());
+    try {
+      Kernel.box(4, 3);
+      fail("Expected IllegalArgumentException for even kernel size.");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testBorderHandling() {
+    // Split the image into many bands and use kernels larger than the image
+    ImageOps.setMinElementsPerTask(16);
+    FloatImage src = makeImage(5, 13, 2);
+    FloatImage dst = new FloatImage(5, 13, 2);
+    SeparableKernel[] kernels = { SeparableKernel.gaussian(0.8), SeparableKernel.sobelY(),
+				  new SeparableKernel(new float[] { 0.1f, 0.2f, 0.3f, 0.4f, 0.5f, 0.6f, 0.7f, 0.8f, 0.9f, 1.0f, 1.1f, 1.2f, 1.3f },
+						      new float[] { 1.0f, -2.0f, 3.0f }) };
+    for (BorderMode border : BorderMode.values()) {
+      for (SeparableKernel kernel : kernels) {
+	float[] expected = reference(src, kernel.toKernel(), border);
+	Convolution.convolve(src, kernel, border, dst);
+	assertArrayEquals(border + " " + kernel, expected, dst.getData(), 1e-5f);
+	Convolution.convolve(src, kernel.toKernel(), border, dst);
+	assertArrayEquals(border + " " + kernel, expected, dst.getData(), 1e-5f);
+      }
+      Convolution.convolve(src, Kernel.laplacian(), border, dst);
+      assertArrayEquals(reference(src, Kernel.laplacian(), border), dst.getData(), 1e-5f);
+    }
+  }
+
+  @Test
+  public void testConvolutionTestData() throws IOException {
+    File[] files = new File("../testdata/convolution").listFiles();
+    int count = 0;
+    for (File file : files) {
+      if (!file.isFile() || !file.getName().endsWith(".ppm")) {
+	continue;
+      }
+      System.out.println("Testing convolution for: " + file.getPath());
+      FloatImage src = (FloatImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream(file), HipiImageFactory.getFloatImageFactory(), false);
+      int w = src.getWidth();
+      int h = src.getHeight();
+      FloatImage dst = new FloatImage(w, h, 3);
+
+      SeparableKernel gaussian = SeparableKernel.gaussian(1.2);
+      float[] expected = reference(src, gaussian.toKernel(), BorderMode.REFLECT);
+      Convolution.gaussianBlur(src, 1.2, dst);
+      assertArrayEquals(file.getPath(), expected, dst.getData(), 1e-5f);
+      Convolution.convolve(src, gaussian.toKernel(), BorderMode.REFLECT, dst);
+      assertArrayEquals(file.getPath(), expected, dst.getData(), 1e-5f);
+
+      // Gradients of an 8-bit image keep their sign in a float output image
+      ByteImage byteSrc = (ByteImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream(file), HipiImageFactory.getByteImageFactory(), false);
+      Convolution.convolve(byteSrc, SeparableKernel.sobelX(), BorderMode.REPLICATE, dst);
+      assertArrayEquals(file.getPath(), reference(byteSrc, Kernel.sobelX(), BorderMode.REPLICATE), dst.getData(), 1e-5f);
+
+      // Box filter from 8-bit to 8-bit image
+      ByteImage byteDst = new ByteImage();
+      byteDst.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, w, h, 3, null, null));
+      Convolution.boxBlur(byteSrc, 3, 3, byteDst);
+      float[] box = reference(byteSrc, Kernel.box(3, 3), BorderMode.REFLECT);
+      for (int i=0; i<w*h*3; i++) {
+	assertEquals(box[i]*255.0f, byteDst.getPixelArray().getElem(i), 1.0f);
+      }
+      count++;
+    }
+    assertTrue(count > 0);
+  }
+
+  @Test
+  public void testFFT() {
+    assertEquals(1, FFT.nextFastSize(1));
+    assertEquals(15, FFT.nextFastSize(14));
+    assertEquals(1080, FFT.nextFastSize(1034));
+    for (int n : new int[] { 1, 2, 3, 4, 5, 6, 8, 12, 15, 30, 60, 100, 256, 270 }) {
+      FFT plan = FFT.getPlan(n);
+      assertSame(plan, FFT.getPlan(n));
+      float[] re = new float[2*n];
+      float[] im = new float[2*n];
+      for (int j=0; j<n; j++) {
+	// Interleave with unrelated values to exercise the input stride
+	re[2*j] = (float)Math.sin(j*1.3 + 0.2);
+	im[2*j] = (float)Math.cos(j*0.7);
+	re[2*j+1] = 100.0f;
+      }
+      float[] outRe = new float[n];
+      float[] outIm = new float[n];
+      plan.transform(re, im, 0, 2, outRe, outIm, 0, false);
+      for (int k=0; k<n; k++) {
+	double sr = 0.0, si = 0.0;
+	for (int j=0; j<n; j++) {
+	  double a = -2.0*Math.PI*j*k/n;
+	  sr += re[2*j]*Math.cos(a) - im[2*j]*Math.sin(a);
+	  si += re[2*j]*Math.sin(a) + im[2*j]*Math.cos(a);
+	}
+	assertEquals("n=" + n, sr, outRe[k], 1e-4*n);
+	assertEquals("n=" + n, si, outIm[k], 1e-4*n);
+      }
+
+      // Inverse transform scales by n
+      float[] backRe = new float[n];
+      float[] backIm = new float[n];
+      plan.transform(outRe, outIm, 0, 1, backRe, backIm, 0, true);
+      for (int j=0; j<n; j++) {
+	assertEquals(re[2*j]*n, backRe[j], 1e-4*n);
+	assertEquals(im[2*j]*n, backIm[j], 1e-4*n);
+      }
+    }
+    try {
+      FFT.getPlan(7);
+      fail("Expected IllegalArgumentException for FFT length 7.");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testRealFFT2D() {
+    ImageOps.setMinElementsPerTask(16);
+    int[][] sizes = { { 8, 5 }, { 9, 6 }, { 1, 3 }, { 6, 1 }, { 40, 27 } };
+    for (int[] size : sizes) {
+      int w = size[0], h = size[1];
+      RealFFT2D fft = new RealFFT2D(w, h);
+      int sw = fft.getSpectrumWidth();
+      float[] data = makeImage(w, h, 1).getData();
+      float[] specRe = new float[sw*h];
+      float[] specIm = new float[sw*h];
+      fft.forward(data, specRe, specIm);
+      for (int v=0; v<h; v++) {
+	for (int u=0; u<sw; u++) {
+	  double sr = 0.0, si = 0.0;
+	  for (int y=0; y<h; y++) {
+	    for (int x=0; x<w; x++) {
+	      double a = -2.0*Math.PI*((double)u*x/w + (double)v*y/h);
+	      sr += data[y*w+x]*Math.cos(a);
+	      si += data[y*w+x]*Math.sin(a);
+	    }
+	  }
+	  assertEquals(sr, specRe[v*sw+u], 1e-3);
+	  assertEquals(si, specIm[v*sw+u], 1e-3);
+	}
+      }
+      float[] back = new float[w*h];
+      fft.inverse(specRe, specIm, back);
+      assertArrayEquals(data, back, 1e-5f);
+    }
+  }
+
+  @Test
+  public void testFFTConvolution() throws IOException {
+    // FFT and direct convolution agree for all border modes
+    ImageOps.setMinElementsPerTask(256);
+    FloatImage src = makeImage(23, 17, 3);
+    FloatImage direct = new FloatImage(23, 17, 3);
+    FloatImage fft = new FloatImage(23, 17, 3);
+    Kernel kernel = new SeparableKernel(SeparableKernel.gaussianCoefficients(2.0, 6),
+					new float[] { 0.5f, -1.0f, 2.0f, 0.25f, 1.0f }).toKernel();
+    for (BorderMode border : BorderMode.values()) {
+      Convolution.convolveDirect(src, kernel, border, direct);
+      FFTConvolution.convolve(src, kernel, border, fft);
+      assertArrayEquals(border.toString(), direct.getData(), fft.getData(), 1e-5f);
+    }
+
+    // Large kernels switch to the FFT automatically
+    FloatImage image = (FloatImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream("../testdata/convolution/jpg.ppm"), HipiImageFactory.getFloatImageFactory(), false);
+    FloatImage blurred = new FloatImage(image.getWidth(), image.getHeight(), 3);
+    Kernel large = Kernel.gaussian(4.0);
+    Convolution.convolve(image, large, BorderMode.REFLECT, blurred);
+    assertArrayEquals(reference(image, large, BorderMode.REFLECT), blurred.getData(), 1e-5f);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInPlace() {
+    FloatImage image = makeImage(4, 4, 1);
+    Convolution.gaussianBlur(image, 1.0, image);
+  }
+
+}
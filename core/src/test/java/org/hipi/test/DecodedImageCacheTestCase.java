@@ -0,0 +1,165 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.imagebundle.DecodedImageCache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+public class DecodedImageCacheTestCase {
+
+  private File cacheDir;
+
+  @Before
+  public void setUp() throws IOException {
+    TestUtils.setupTmpDirectory();
+    cacheDir = new File(TestUtils.getTmpPath("decoded-image-cache"));
+    if (cacheDir.exists()) {
+      for (File file : cacheDir.listFiles()) {
+	file.delete();
+      }
+    }
+  }
+
+  private static HipiImageHeader makeHeader(int w, int h) {
+    HipiImageHeader header = new HipiImageHeader(HipiImageFormat.JPEG, HipiColorSpace.RGB, w, h, 3, null, new HashMap<String,String>());
+    return header;
+  }
+
+  private static ByteImage makeImage(int w, int h, int seed) {
+    ByteImage image = new ByteImage();
+    image.setHeader(makeHeader(w, h));
+    for (int i=0; i<w*h*3; i++) {
+      image.getPixelArray().setElem(i, (i * 31 + seed) % 256);
+    }
+    return image;
+  }
+
+  @Test
+  public void testPutGet() throws IOException {
+    DecodedImageCache cache = new DecodedImageCache(cacheDir, 1 << 20);
+
+    String key = DecodedImageCache.makeKey("hdfs://test.hib.dat", "1234", "BYTE");
+    assertEquals(40, key.length());
+    assertNull(cache.get(key, makeHeader(16, 8), HipiImageFactory.getByteImageFactory()));
+
+    ByteImage image = makeImage(16, 8, 7);
+    HashMap<String,String> exif = new HashMap<String,String>();
+    exif.put("Model", "Camera");
+    HipiImageHeader exifHeader = makeHeader(16, 8);
+    exifHeader.setExifData(exif);
+    image.setHeader(exifHeader);
+    cache.put(key, image);
+    assertEquals(1, cache.getNumEntries());
+
+    HipiImageHeader header = makeHeader(16, 8);
+    ByteImage cached = (ByteImage)cache.get(key, header, HipiImageFactory.getByteImageFactory());
+    assertNotNull(cached);
+    assertArrayEquals(image.getData(), cached.getData());
+    assertEquals("Camera", cached.getExifData("Model"));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // Float images are stored losslessly as well
+    String floatKey = DecodedImageCache.makeKey("hdfs://test.hib.dat", "1234", "FLOAT");
+    FloatImage floatImage = new FloatImage(5, 4, 3);
+    for (int i=0; i<5*4*3; i++) {
+      floatImage.getData()[i] = i / 7.0f;
+    }
+    cache.put(floatKey, floatImage);
+    FloatImage cachedFloat = (FloatImage)cache.get(floatKey, new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.UNDEFINED, 5, 4, 3, null, null), HipiImageFactory.getFloatImageFactory());
+    assertArrayEquals(floatImage.getData(), cachedFloat.getData(), 0.0f);
+
+    // Entries are visible to a second cache opened on the same directory
+    DecodedImageCache reopened = new DecodedImageCache(cacheDir, 1 << 20);
+    assertEquals(2, reopened.getNumEntries());
+    assertNotNull(reopened.get(key, makeHeader(16, 8), HipiImageFactory.getByteImageFactory()));
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    // Each entry is a little over 3000 bytes, allow room for three
+    DecodedImageCache cache = new DecodedImageCache(cacheDir, 10000);
+
+    String[] keys = new String[4];
+    for (int i=0; i<4; i++) {
+      keys[i] = DecodedImageCache.makeKey("test.hib.dat", Integer.toString(i));
+    }
+
+    cache.put(keys[0], makeImage(32, 32, 0));
+    cache.put(keys[1], makeImage(32, 32, 1));
+    cache.put(keys[2], makeImage(32, 32, 2));
+
+    // Touch first entry so that second becomes least recently used
+    assertNotNull(cache.get(keys[0], makeHeader(32, 32), HipiImageFactory.getByteImageFactory()));
+
+    cache.put(keys[3], makeImage(32, 32, 3));
+    assertEquals(3, cache.getNumEntries());
+    assertTrue(cache.getSizeInBytes() <= 10000);
+    assertNull(cache.get(keys[1], makeHeader(32, 32), HipiImageFactory.getByteImageFactory()));
+    assertNotNull(cache.get(keys[0], makeHeader(32, 32), HipiImageFactory.getByteImageFactory()));
+    assertNotNull(cache.get(keys[3], makeHeader(32, 32), HipiImageFactory.getByteImageFactory()));
+  }
+
+  @Test
+  public void testSharedDirectoryBound() throws IOException {
+    // Two caches on the same directory stand in for two task JVMs on the same node
+    DecodedImageCache first = new DecodedImageCache(cacheDir, 10000);
+    DecodedImageCache second = new DecodedImageCache(cacheDir, 10000);
+
+    String[] keys = new String[4];
+    for (int i=0; i<4; i++) {
+      keys[i] = DecodedImageCache.makeKey("test.hib.dat", Integer.toString(i));
+    }
+    first.put(keys[0], makeImage(32, 32, 0));
+    first.put(keys[1], makeImage(32, 32, 1));
+    second.put(keys[2], makeImage(32, 32, 2));
+
+    // Recency is taken from the modification times of the entries
+    long now = System.currentTimeMillis();
+    for (int i=0; i<3; i++) {
+      assertTrue(new File(cacheDir, keys[i] + ".hipix").setLastModified(now - (3 - i) * 10000));
+    }
+    second.put(keys[3], makeImage(32, 32, 3));
+
+    // The least recently used entry written by the other cache was evicted
+    long totalBytes = 0;
+    for (File file : cacheDir.listFiles()) {
+      totalBytes += file.length();
+    }
+    assertEquals(3, cacheDir.listFiles().length);
+    assertTrue(totalBytes <= 10000);
+    assertNull(first.get(keys[0], makeHeader(32, 32), HipiImageFactory.getByteImageFactory()));
+    assertNotNull(first.get(keys[3], makeHeader(32, 32), HipiImageFactory.getByteImageFactory()));
+  }
+
+  @Test
+  public void testCorruptEntry() throws IOException {
+    DecodedImageCache cache = new DecodedImageCache(cacheDir, 1 << 20);
+    String key = DecodedImageCache.makeKey("test.hib.dat", "0");
+    cache.put(key, makeImage(8, 8, 0));
+
+    File[] files = cacheDir.listFiles();
+    assertEquals(1, files.length);
+    FileOutputStream fos = new FileOutputStream(files[0]);
+    fos.write(new byte[] {1, 2, 3});
+    fos.close();
+
+    assertNull(cache.get(key, makeHeader(8, 8), HipiImageFactory.getByteImageFactory()));
+    assertEquals(0, cache.getNumEntries());
+    assertEquals(0, cacheDir.listFiles().length);
+  }
+
+}
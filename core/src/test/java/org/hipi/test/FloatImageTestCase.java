@@ -5,7 +5,9 @@ import static org.junit.Assert.*;
 import org.hipi.image.RasterImage;
 import org.hipi.image.FloatImage;
 import org.hipi.image.ByteImage;
+import org.hipi.image.ImageView;
 import org.hipi.image.HipiImageFactory;
+import org.hipi.image.PixelArray;
 import org.hipi.image.HipiImageHeader;
 import org.hipi.image.HipiImage.HipiImageType;
 import org.hipi.image.HipiImageHeader.HipiColorSpace;
@@ -70,4 +72,118 @@ public class FloatImageTestCase {
     
   }  
 
+  @Test
+  public void testCropAndViews() {
+    FloatImage image = new FloatImage(7, 5, 3);
+    float[] data = image.getData();
+    for (int i=0; i<7*5*3; i++) {
+      data[i] = i / 105.0f;
+    }
+
+    // Crop same and different pixel types
+    FloatImage cropped = new FloatImage(3, 2, 3);
+    image.crop(2, 1, 3, 2, cropped);
+    ByteImage croppedBytes = new ByteImage();
+    croppedBytes.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, 3, 2, 3, null, null));
+    image.crop(2, 1, 3, 2, croppedBytes);
+    for (int j=0; j<2; j++) {
+      for (int i=0; i<3*3; i++) {
+	assertEquals(data[((j+1)*7+2)*3+i], cropped.getData()[j*9+i], 0.0f);
+	assertEquals(image.getPixelArray().getElem(((j+1)*7+2)*3+i), croppedBytes.getPixelArray().getElem(j*9+i));
+      }
+    }
+
+    // Views refer to the pixel data of the image
+    ImageView view = image.getView(2, 1, 3, 2);
+    assertEquals(data[(1*7+2)*3], view.getElemFloat(0, 0, 0), 0.0f);
+    assertEquals(data[(2*7+4)*3+2], view.getElemFloat(2, 1, 2), 0.0f);
+    float[] packed = new float[3*2*3];
+    view.copyTo(packed, 0);
+    assertArrayEquals(cropped.getData(), packed, 0.0f);
+    ImageView sub = view.getView(1, 1, 2, 1);
+    assertEquals(3, sub.getX());
+    assertEquals(2, sub.getY());
+    sub.setElemFloat(1, 0, 1, 2.0f);
+    assertEquals(2.0f, data[(2*7+4)*3+1], 0.0f);
+    sub.fill(0.0f);
+    assertEquals(0.0f, data[(2*7+3)*3], 0.0f);
+    assertTrue(data[(2*7+5)*3] != 0.0f);
+
+    try {
+      image.getView(5, 0, 3, 1);
+      fail("Expected IllegalArgumentException for view outside of image.");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  @Test
+  public void testTiles() {
+    FloatImage image = new FloatImage(10, 7, 1);
+    for (int i=0; i<10*7; i++) {
+      image.getData()[i] = i;
+    }
+
+    // Tiles of 4x4 pixels overlapping by 1 pixel; no tiles start past the last tile that reaches
+    // the edge of the image
+    int[] xs = {0, 3, 6, 0, 3, 6};
+    int[] ys = {0, 0, 0, 3, 3, 3};
+    int[] ws = {4, 4, 4, 4, 4, 4};
+    int[] hs = {4, 4, 4, 4, 4, 4};
+    int n = 0;
+    for (ImageView tile : image.tiles(4, 4, 1)) {
+      assertEquals(xs[n], tile.getX());
+      assertEquals(ys[n], tile.getY());
+      assertEquals(ws[n], tile.getWidth());
+      assertEquals(hs[n], tile.getHeight());
+      assertEquals((float)(ys[n]*10 + xs[n]), tile.getElemFloat(0, 0, 0), 0.0f);
+      n++;
+    }
+    assertEquals(6, n);
+
+    // Tiles along the edges are clipped
+    ImageView last = null;
+    for (ImageView tile : image.tiles(4, 3, 0)) {
+      last = tile;
+    }
+    assertEquals(8, last.getX());
+    assertEquals(6, last.getY());
+    assertEquals(2, last.getWidth());
+    assertEquals(1, last.getHeight());
+
+    // Non-overlapping tiles cover every pixel exactly once
+    float sum = 0.0f;
+    float[] row = new float[3];
+    for (ImageView tile : image.tiles(3, 2, 0)) {
+      for (int j=0; j<tile.getHeight(); j++) {
+	tile.copyRowTo(j, row, 0);
+	for (int i=0; i<tile.getWidth(); i++) {
+	  sum += row[i];
+	}
+      }
+    }
+    assertEquals(69.0f*70.0f/2.0f, sum, 0.0f);
+  }
+
+  @Test
+  public void testLayoutMismatch() {
+    FloatImage a = new FloatImage(5, 4, 3);
+    FloatImage b = new FloatImage(5, 4, 3);
+    b.setLayout(PixelArray.Layout.PLANAR);
+    try {
+      a.add(b);
+      fail("Expected IllegalArgumentException for planar and interleaved operands.");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      a.multiply(b);
+      fail("Expected IllegalArgumentException for planar and interleaved operands.");
+    } catch (IllegalArgumentException e) {
+    }
+    // Single band images have the same data in both layouts
+    FloatImage c = new FloatImage(5, 4, 1);
+    FloatImage d = new FloatImage(5, 4, 1);
+    d.setLayout(PixelArray.Layout.PLANAR);
+    c.add(d);
+  }
+
 }
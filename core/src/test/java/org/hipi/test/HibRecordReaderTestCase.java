@@ -0,0 +1,104 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.PixelArrayFloat;
+import org.hipi.image.io.PngCodec;
+import org.hipi.imagebundle.HipiImageBundle;
+import org.hipi.imagebundle.mapreduce.HibInputFormat;
+import org.hipi.imagebundle.mapreduce.HibRecordReader;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class HibRecordReaderTestCase {
+
+  public static class FloatImageMapper extends Mapper<HipiImageHeader, FloatImage, NullWritable, NullWritable> {
+  }
+
+  // Adds a PNG image of the given dimensions with values that depend on the band
+  private static void addImage(HipiImageBundle hib, int w, int h, int bands) throws IOException {
+    HipiColorSpace colorSpace = (bands == 1 ? HipiColorSpace.LUM : HipiColorSpace.RGB);
+    ByteImage image = new ByteImage();
+    image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, colorSpace, w, h, bands, null, null));
+    for (int i=0; i<w*h*bands; i++) {
+      image.getPixelArray().setElem(i, 64 * (i % bands + 1));
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PngCodec.getInstance().encodeImage(image, bos);
+    HipiImageHeader header = new HipiImageHeader(HipiImageFormat.PNG, colorSpace, w, h, bands, null, null);
+    header.addMetaData("size", w + "x" + h + "x" + bands);
+    hib.addImage(header, new ByteArrayInputStream(bos.toByteArray()));
+  }
+
+  @Test
+  public void testPipelineSkipsMismatchedImages() throws IOException, InterruptedException {
+    Job job = Job.getInstance();
+    Configuration conf = job.getConfiguration();
+    conf.set("fs.defaultFS", "file:///");
+    job.setMapperClass(FloatImageMapper.class);
+
+    // Images that are too small for the crop region or have a different number of bands than the
+    // normalization parameters do not fit the pipeline
+    Path hibPath = new Path(TestUtils.getTmpPath("pipeline.hib"));
+    HipiImageBundle hib = new HipiImageBundle(hibPath, conf);
+    hib.openForWrite(true);
+    addImage(hib, 40, 30, 3);
+    addImage(hib, 20, 20, 1);
+    addImage(hib, 10, 8, 3);
+    addImage(hib, 16, 24, 3);
+    addImage(hib, 32, 32, 1);
+    hib.close();
+    conf.set(HibInputFormat.HIPI_IMAGE_PIPELINE_ATTR, "crop:0,0,16,16|normalize:0.25,0.5,0.75/0.5,0.5,0.5");
+
+    hib = new HipiImageBundle(hibPath, conf);
+    hib.openForRead();
+    FileStatus dataFile = hib.getDataFileStatus();
+    hib.close();
+
+    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID("hrr-test", 0, TaskType.MAP, 0, 0));
+    HibRecordReader reader = new HibRecordReader();
+    reader.initialize(new FileSplit(dataFile.getPath(), 0, dataFile.getLen(), null), context);
+
+    // Mismatched images are skipped without failing the task
+    String[] expected = {"40x30x3", "16x24x3"};
+    for (String size : expected) {
+      assertTrue(reader.nextKeyValue());
+      assertEquals(size, reader.getCurrentKey().getMetaData("size"));
+      FloatImage image = (FloatImage)reader.getCurrentValue();
+      assertEquals(16, image.getWidth());
+      assertEquals(16, image.getHeight());
+      assertEquals(3, image.getNumBands());
+      for (int c=0; c<3; c++) {
+	PixelArrayFloat stored = new PixelArrayFloat(1);
+	stored.setElemNonLinSRGB(0, 64 * (c + 1));
+	float normalized = (stored.getElemFloat(0) - 0.25f * (c + 1)) / 0.5f;
+	assertEquals(normalized, image.getData()[c], 1e-5f);
+	assertEquals(normalized, image.getData()[(15*16+15)*3+c], 1e-5f);
+      }
+    }
+    assertFalse(reader.nextKeyValue());
+    assertNull(reader.getCurrentValue());
+    reader.close();
+  }
+
+}
@@ -14,6 +14,7 @@ import org.hipi.imagebundle.HipiImageBundle;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 
 import org.junit.Test;
@@ -23,6 +24,8 @@ import org.junit.BeforeClass;
 import java.io.FileInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 
@@ -118,6 +121,27 @@ public class HipiImageBundleTestCase {
 
   }
 
+  @Test
+  public void testReadWithoutDecoding() throws IOException {
+    HipiImageBundle hib = createHibAndOpen(HipiImageBundle.FILE_MODE_READ, null);
+    Path dataPath = hib.getDataFileStatus().getPath();
+    hib.close();
+
+    HipiImageBundle.HibReader reader = new HipiImageBundle.HibReader(null, null,
+      FileSystem.getLocal(new Configuration()), dataPath);
+    reader.setDecodeImages(false);
+    int count = 0;
+    while (reader.nextKeyValue()) {
+      HipiImageHeader header = reader.getCurrentKey();
+      assertNull(reader.getCurrentValue());
+      byte[] source = Files.readAllBytes(Paths.get(header.getMetaData("path")));
+      assertArrayEquals(count + " image bytes fail", source, reader.getImageBytes());
+      count++;
+    }
+    reader.close();
+    assertEquals(7, count);
+  }
+
   // Skip test because hard-coded byte offsets may not match due to differences in image encodings
   // (i.e. different versions of ImageIO plugins will produce different compressed byte streams)
   @Ignore
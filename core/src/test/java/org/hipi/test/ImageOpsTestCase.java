@@ -0,0 +1,146 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.ImageOps;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ImageOpsTestCase {
+
+  @Before
+  public void setUp() {
+    // Split even small test images into many tasks
+    ImageOps.setMinElementsPerTask(64);
+  }
+
+  @After
+  public void tearDown() {
+    ImageOps.setMinElementsPerTask(ImageOps.DEFAULT_MIN_ELEMENTS_PER_TASK);
+  }
+
+  private static FloatImage makeImage(int w, int h, int b, float offset) {
+    FloatImage image = new FloatImage(w, h, b);
+    float[] data = image.getData();
+    for (int i=0; i<w*h*b; i++) {
+      data[i] = (i % 251) / 251.0f + offset;
+    }
+    return image;
+  }
+
+  @Test
+  public void testParallelMap() {
+    // Every row is visited exactly once
+    final int h = 301;
+    final AtomicInteger[] visits = new AtomicInteger[h];
+    for (int j=0; j<h; j++) {
+      visits[j] = new AtomicInteger();
+    }
+    final AtomicInteger calls = new AtomicInteger();
+    ImageOps.parallelMap(h, 17*3, (startRow, endRow) -> {
+      calls.incrementAndGet();
+      for (int j=startRow; j<endRow; j++) {
+	visits[j].incrementAndGet();
+      }
+    });
+    for (int j=0; j<h; j++) {
+      assertEquals(1, visits[j].get());
+    }
+    assertTrue(calls.get() > 1);
+
+    // Images below the threshold are processed in one call
+    ImageOps.setMinElementsPerTask(ImageOps.DEFAULT_MIN_ELEMENTS_PER_TASK);
+    calls.set(0);
+    ImageOps.parallelMap(makeImage(10, 10, 3, 0.0f), (startRow, endRow) -> {
+      calls.incrementAndGet();
+      assertEquals(0, startRow);
+      assertEquals(10, endRow);
+    });
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testArithmetic() {
+    int w = 37, h = 91, b = 3;
+    FloatImage image = makeImage(w, h, b, 0.0f);
+    FloatImage other = makeImage(w, h, b, 0.5f);
+    float[] expected = image.getData().clone();
+    for (int i=0; i<w*h*b; i++) {
+      expected[i] = ((expected[i] + other.getData()[i]) * other.getData()[i] + 2.0f) * 0.25f;
+    }
+    image.add(other);
+    image.multiply(other);
+    image.add(2.0f);
+    image.scale(0.25f);
+    assertArrayEquals(expected, image.getData(), 0.0f);
+  }
+
+  @Test
+  public void testParallelMapPixels() {
+    ByteImage image = new ByteImage();
+    image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, 40, 30, 3, null, null));
+    for (int i=0; i<40*30*3; i++) {
+      image.getPixelArray().setElem(i, i % 256);
+    }
+    ImageOps.parallelMapInt(image, (value) -> value * 2);
+    for (int i=0; i<40*30*3; i++) {
+      assertEquals(Math.min(255, (i % 256) * 2), image.getPixelArray().getElem(i));
+    }
+
+    FloatImage floatImage = makeImage(40, 30, 3, 0.0f);
+    ImageOps.parallelMapFloat(floatImage, (value) -> value * value);
+    for (int i=0; i<40*30*3; i++) {
+      float v = (i % 251) / 251.0f;
+      assertEquals(v * v, floatImage.getData()[i], 0.0f);
+    }
+  }
+
+  @Test
+  public void testParallelReduce() {
+    final FloatImage image = makeImage(53, 127, 3, 0.0f);
+    final float[] data = image.getData();
+    final int n = 53*3;
+    ImageOps.RowReducer<Double> sum = (startRow, endRow) -> {
+      double s = 0.0;
+      for (int i=startRow*n; i<endRow*n; i++) {
+	s += data[i];
+      }
+      return s;
+    };
+    double expected = 0.0;
+    for (int i=0; i<data.length; i++) {
+      expected += data[i];
+    }
+    double result = ImageOps.parallelReduce(image, sum, Double::sum);
+    assertEquals(expected, result, 1e-6);
+
+    // Partial results are combined in the same order every time
+    for (int k=0; k<10; k++) {
+      assertEquals(result, ImageOps.parallelReduce(image, sum, Double::sum), 0.0);
+    }
+
+    // Partial results of adjacent bands are combined in row order
+    String rows = ImageOps.parallelReduce(image, (startRow, endRow) -> {
+	StringBuilder sb = new StringBuilder();
+	for (int j=startRow; j<endRow; j++) {
+	  sb.append(j).append(',');
+	}
+	return sb.toString();
+      }, (a, b) -> a + b);
+    StringBuilder expectedRows = new StringBuilder();
+    for (int j=0; j<127; j++) {
+      expectedRows.append(j).append(',');
+    }
+    assertEquals(expectedRows.toString(), rows);
+  }
+
+}
@@ -0,0 +1,119 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImage.HipiImageType;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.ImageOps;
+import org.hipi.image.ImagePipeline;
+import org.hipi.image.ImageResizer.Interpolation;
+import org.hipi.image.RasterImage;
+import org.hipi.image.io.PpmCodec;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+public class ImagePipelineTestCase {
+
+  @After
+  public void tearDown() {
+    ImageOps.setMinElementsPerTask(ImageOps.DEFAULT_MIN_ELEMENTS_PER_TASK);
+  }
+
+  private static FloatImage makeFloatImage(int w, int h, int b, HipiColorSpace colorSpace) {
+    FloatImage image = new FloatImage();
+    image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, colorSpace, w, h, b, null, null));
+    return image;
+  }
+
+  @Test
+  public void testMatchesSequentialSteps() throws IOException {
+    String path = "../testdata/convolution/panda.ppm";
+    FloatImage src = (FloatImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream(path), HipiImageFactory.getFloatImageFactory(), false);
+    int cw = src.getWidth()/2;
+    int ch = src.getHeight()/2;
+
+    // Unfused reference: one intermediate image per step
+    FloatImage cropped = makeFloatImage(cw, ch, 3, HipiColorSpace.RGB);
+    src.crop(10, 20, cw, ch, cropped);
+    FloatImage gray = makeFloatImage(cw, ch, 1, HipiColorSpace.LUM);
+    cropped.convertToColorSpace(HipiColorSpace.LUM, gray);
+    FloatImage resized = makeFloatImage(64, 48, 1, HipiColorSpace.LUM);
+    gray.resize(resized, Interpolation.AREA);
+
+    ImagePipeline pipeline = new ImagePipeline().normalize(new float[] {0.5f}, new float[] {0.25f})
+      .resize(64, 48, Interpolation.AREA).grayscale().crop(10, 20, cw, ch);
+    ImageOps.setMinElementsPerTask(64);
+    RasterImage fused = pipeline.apply(src, HipiImageFactory.getFloatImageFactory());
+    assertEquals(64, fused.getWidth());
+    assertEquals(48, fused.getHeight());
+    assertEquals(1, fused.getNumBands());
+    assertEquals(HipiColorSpace.LUM, fused.getColorSpace());
+    for (int i=0; i<64*48; i++) {
+      assertEquals((resized.getData()[i] - 0.5f)/0.25f, ((FloatImage)fused).getData()[i], 1e-4f);
+    }
+
+    // An 8-bit pipeline without normalization matches resizing the 8-bit image
+    ByteImage byteSrc = (ByteImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream(path), HipiImageFactory.getByteImageFactory(), false);
+    ByteImage byteResized = new ByteImage(40, 30, 3);
+    byteSrc.resize(byteResized, Interpolation.BILINEAR);
+    RasterImage byteFused = new ImagePipeline().resize(40, 30, Interpolation.BILINEAR).apply(byteSrc, HipiImageFactory.getByteImageFactory());
+    assertArrayEquals(byteResized.getData(), ((ByteImage)byteFused).getData());
+  }
+
+  @Test
+  public void testParse() {
+    ImagePipeline pipeline = ImagePipeline.parse("crop:1,2,30,40 | grayscale | resize:16,8,lanczos | normalize:0.1,0.2,0.3/1,2,3");
+    String spec = pipeline.toString();
+    assertEquals("crop:1,2,30,40|grayscale|resize:16,8,LANCZOS|normalize:0.1,0.2,0.3/1.0,2.0,3.0", spec);
+    assertEquals(spec, ImagePipeline.parse(spec).toString());
+    assertEquals(16, pipeline.getOutputWidth(100));
+    assertEquals(8, pipeline.getOutputHeight(100));
+    assertEquals(1, pipeline.getOutputNumBands(3));
+    assertTrue(ImagePipeline.parse("").isEmpty());
+    assertEquals(30, ImagePipeline.parse("crop:1,2,30,40").getOutputWidth(100));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidStage() {
+    ImagePipeline.parse("grayscale|sharpen:2");
+  }
+
+  @Test
+  public void testNormalizeRequiresFloatOutput() throws IOException {
+    ImagePipeline pipeline = ImagePipeline.parse("normalize:0.5/0.25");
+    pipeline.checkOutputType(HipiImageType.FLOAT);
+    try {
+      pipeline.checkOutputType(HipiImageType.BYTE);
+      fail("Expected IllegalArgumentException for normalization into 8-bit images.");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      pipeline.apply(new FloatImage(4, 4, 1), HipiImageFactory.getByteImageFactory());
+      fail("Expected IllegalArgumentException for normalization into 8-bit images.");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      pipeline.apply(new FloatImage(4, 4, 1), new ByteImage(4, 4, 1));
+      fail("Expected IllegalArgumentException for normalization into 8-bit images.");
+    } catch (IllegalArgumentException e) {
+    }
+
+    // Other stages write 8-bit images
+    ImagePipeline.parse("grayscale").checkOutputType(HipiImageType.BYTE);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testCropOutsideImage() {
+    new ImagePipeline().crop(2, 2, 4, 4).apply(new FloatImage(5, 5, 1), new FloatImage(4, 4, 1));
+  }
+
+}
@@ -0,0 +1,151 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.ImageOps;
+import org.hipi.image.ImageResizer;
+import org.hipi.image.ImageResizer.Interpolation;
+import org.hipi.image.io.PpmCodec;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+public class ImageResizerTestCase {
+
+  @After
+  public void tearDown() {
+    ImageOps.setMinElementsPerTask(ImageOps.DEFAULT_MIN_ELEMENTS_PER_TASK);
+  }
+
+  private static ByteImage makeByteImage(int w, int h, int b) {
+    ByteImage image = new ByteImage();
+    image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, w, h, b, null, null));
+    return image;
+  }
+
+  @Test
+  public void testConstantAndIdentity() {
+    ByteImage src = makeByteImage(13, 9, 3);
+    for (int i=0; i<13*9*3; i++) {
+      src.getPixelArray().setElem(i, 128);
+    }
+    ByteImage same = makeByteImage(13, 9, 3);
+    ByteImage small = makeByteImage(5, 4, 3);
+    ByteImage large = makeByteImage(29, 20, 3);
+    for (Interpolation interpolation : Interpolation.values()) {
+      src.resize(same, interpolation);
+      assertArrayEquals(interpolation.toString(), src.getData(), same.getData());
+      src.resize(small, interpolation);
+      src.resize(large, interpolation);
+      for (int i=0; i<5*4*3; i++) {
+	assertEquals(interpolation.toString(), 128, small.getPixelArray().getElem(i));
+      }
+      for (int i=0; i<29*20*3; i++) {
+	assertEquals(interpolation.toString(), 128, large.getPixelArray().getElem(i));
+      }
+    }
+  }
+
+  @Test
+  public void testInterpolation() {
+    FloatImage src = new FloatImage(8, 6, 1);
+    for (int y=0; y<6; y++) {
+      for (int x=0; x<8; x++) {
+	src.getData()[y*8+x] = x + 10*y;
+      }
+    }
+
+    // Area shrinking by two averages blocks of 2x2 pixels
+    FloatImage half = new FloatImage(4, 3, 1);
+    ImageResizer.resize(src, half, Interpolation.AREA);
+    for (int y=0; y<3; y++) {
+      for (int x=0; x<4; x++) {
+	assertEquals(2*x + 0.5f + 10*(2*y + 0.5f), half.getData()[y*4+x], 1e-4f);
+      }
+    }
+
+    // Nearest neighbor enlarging by two replicates pixels
+    FloatImage twice = new FloatImage(16, 12, 1);
+    ImageResizer.resize(src, twice, Interpolation.NEAREST);
+    for (int y=0; y<12; y++) {
+      for (int x=0; x<16; x++) {
+	assertEquals(src.getData()[(y/2)*8+x/2], twice.getData()[y*16+x], 0.0f);
+      }
+    }
+
+    // Bilinear interpolation reproduces linear functions away from the borders
+    ImageResizer.resize(src, twice, Interpolation.BILINEAR);
+    for (int y=1; y<11; y++) {
+      for (int x=1; x<15; x++) {
+	float sx = (x+0.5f)/2.0f - 0.5f;
+	float sy = (y+0.5f)/2.0f - 0.5f;
+	assertEquals(sx + 10*sy, twice.getData()[y*16+x], 1e-4f);
+      }
+    }
+
+    // Lanczos preserves linear functions in the interior as well
+    ImageResizer.resize(src, half, Interpolation.LANCZOS);
+    assertEquals(2*1 + 0.5f + 10*(2*1 + 0.5f), half.getData()[1*4+1], 0.1f);
+  }
+
+  @Test
+  public void testThumbnail() throws IOException {
+    String path = "../testdata/convolution/panda.ppm";
+    ByteImage src = (ByteImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream(path), HipiImageFactory.getByteImageFactory(), false);
+    FloatImage floatSrc = (FloatImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream(path), HipiImageFactory.getFloatImageFactory(), false);
+    int w = src.getWidth()/7;
+    int h = src.getHeight()/7;
+
+    for (Interpolation interpolation : Interpolation.values()) {
+      ByteImage serial = makeByteImage(w, h, 3);
+      ImageOps.setMinElementsPerTask(Integer.MAX_VALUE);
+      src.resize(serial, interpolation);
+
+      // Results do not depend on how the output is split into bands
+      ImageOps.setMinElementsPerTask(64);
+      ByteImage parallel = makeByteImage(w, h, 3);
+      src.resize(parallel, interpolation);
+      assertArrayEquals(interpolation.toString(), serial.getData(), parallel.getData());
+
+      // Float output from a byte image matches the 8-bit output up to rounding and clamping
+      FloatImage floatOut = new FloatImage(w, h, 3);
+      src.resize(floatOut, interpolation);
+      for (int i=0; i<w*h*3; i++) {
+	float expected = Math.max(0.0f, Math.min(255.0f, floatOut.getData()[i]*255.0f));
+	assertEquals(expected, serial.getPixelArray().getElem(i), 0.5f + 1e-3f);
+      }
+    }
+
+    // Shrinking a float image by an integer factor with area averages blocks of linear values
+    FloatImage cropped = new FloatImage(w*7, h*7, 3);
+    floatSrc.crop(0, 0, w*7, h*7, cropped);
+    FloatImage floatThumb = new FloatImage(w, h, 3);
+    cropped.resize(floatThumb, Interpolation.AREA);
+    for (int ty=0; ty<h; ty+=h/5) {
+      for (int tx=0; tx<w; tx+=w/5) {
+	double sum = 0.0;
+	for (int y=0; y<7; y++) {
+	  for (int x=0; x<7; x++) {
+	    sum += cropped.getData()[((ty*7 + y)*w*7 + tx*7 + x)*3 + 1];
+	  }
+	}
+	assertEquals(sum/49.0, floatThumb.getData()[(ty*w + tx)*3 + 1], 1e-5);
+      }
+    }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testBandMismatch() {
+    ImageResizer.resize(new FloatImage(4, 4, 3), new FloatImage(2, 2, 1), Interpolation.AREA);
+  }
+
+}
@@ -0,0 +1,115 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.IntegralImage;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class IntegralImageTestCase {
+
+  private static ByteImage makeByteImage(int w, int h, int b) {
+    ByteImage image = new ByteImage();
+    image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, w, h, b, null, null));
+    return image;
+  }
+
+  @Test
+  public void testByteImage() {
+    int w = 23, h = 17, b = 3;
+    ByteImage image = makeByteImage(w, h, b);
+    Random random = new Random(1);
+    for (int i=0; i<w*h*b; i++) {
+      image.getPixelArray().setElem(i, random.nextInt(256));
+    }
+    IntegralImage integral = new IntegralImage(image, true);
+    assertTrue(integral.isExact());
+    assertTrue(integral.hasSquaredSums());
+
+    for (int trial=0; trial<200; trial++) {
+      int x = random.nextInt(w+1);
+      int y = random.nextInt(h+1);
+      int rw = random.nextInt(w-x+1);
+      int rh = random.nextInt(h-y+1);
+      int c = random.nextInt(b);
+      long sum = 0;
+      long squaredSum = 0;
+      for (int j=y; j<y+rh; j++) {
+	for (int i=x; i<x+rw; i++) {
+	  long v = image.getPixelArray().getElem((j*w+i)*b+c);
+	  sum += v;
+	  squaredSum += v*v;
+	}
+      }
+      assertEquals(sum, integral.getSumLong(x, y, rw, rh, c));
+      assertEquals(sum, integral.getSum(x, y, rw, rh, c), 0.0);
+      assertEquals(squaredSum, integral.getSquaredSum(x, y, rw, rh, c), 0.0);
+      if (rw > 0 && rh > 0) {
+	double n = rw*rh;
+	double mean = sum/n;
+	assertEquals(mean, integral.getMean(x, y, rw, rh, c), 1e-9);
+	assertEquals(squaredSum/n - mean*mean, integral.getVariance(x, y, rw, rh, c), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testNoOverflow() {
+    // 256*256*255*255 exceeds the range of an int
+    int w = 256, h = 256;
+    ByteImage image = makeByteImage(w, h, 1);
+    for (int i=0; i<w*h; i++) {
+      image.getPixelArray().setElem(i, 255);
+    }
+    IntegralImage integral = new IntegralImage(image, true);
+    assertEquals((long)w*h*255, integral.getSumLong(0, 0, w, h, 0));
+    assertEquals((double)w*h*255*255, integral.getSquaredSum(0, 0, w, h, 0), 0.0);
+    assertEquals(0.0, integral.getVariance(0, 0, w, h, 0), 0.0);
+  }
+
+  @Test
+  public void testFloatImage() {
+    int w = 19, h = 11, b = 2;
+    FloatImage image = new FloatImage(w, h, b);
+    Random random = new Random(2);
+    for (int i=0; i<w*h*b; i++) {
+      image.getData()[i] = random.nextFloat();
+    }
+    IntegralImage integral = new IntegralImage(image, false);
+    assertFalse(integral.isExact());
+    assertFalse(integral.hasSquaredSums());
+    for (int trial=0; trial<100; trial++) {
+      int x = random.nextInt(w);
+      int y = random.nextInt(h);
+      int rw = 1 + random.nextInt(w-x);
+      int rh = 1 + random.nextInt(h-y);
+      int c = random.nextInt(b);
+      double sum = 0.0;
+      for (int j=y; j<y+rh; j++) {
+	for (int i=x; i<x+rw; i++) {
+	  sum += image.getData()[(j*w+i)*b+c];
+	}
+      }
+      assertEquals(sum, integral.getSum(x, y, rw, rh, c), 1e-9);
+      assertEquals(sum/(rw*rh), integral.getMean(x, y, rw, rh, c), 1e-9);
+    }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInvalidRegion() {
+    new IntegralImage(new FloatImage(4, 4, 1), false).getSum(2, 2, 3, 1, 0);
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testMissingSquaredSums() {
+    new IntegralImage(new FloatImage(4, 4, 1), false).getVariance(0, 0, 4, 4, 0);
+  }
+
+}
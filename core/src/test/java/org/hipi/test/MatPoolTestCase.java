@@ -0,0 +1,112 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.opencv.MatPool;
+import org.hipi.opencv.MatScope;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Rect;
+import org.junit.Test;
+
+public class MatPoolTestCase {
+
+  @Test
+  public void testScopeReturnsMatsToPool() {
+    MatPool pool = new MatPool();
+    Mat first = null;
+    try (MatScope scope = new MatScope(pool)) {
+      first = scope.mat(8, 4, opencv_core.CV_32FC1);
+      assertEquals(8 * 4 * 4, pool.getBytesAllocated());
+      assertEquals(0, pool.getIdleBytes());
+    }
+    assertEquals(8 * 4 * 4, pool.getIdleBytes());
+
+    // Mats of the same type and dimensions are reused, others are allocated
+    try (MatScope scope = new MatScope(pool)) {
+      assertSame(first, scope.mat(8, 4, opencv_core.CV_32FC1));
+      assertNotSame(first, scope.mat(8, 4, opencv_core.CV_8UC1));
+      assertEquals(0, pool.getIdleBytes());
+    }
+    assertEquals(8 * 4 * 4 + 8 * 4, pool.getBytesAllocated());
+    assertEquals(0, pool.getBytesFreed());
+
+    pool.close();
+    assertEquals(pool.getBytesAllocated(), pool.getBytesFreed());
+    assertEquals(0, pool.getIdleBytes());
+  }
+
+  @Test
+  public void testIdleLimitEvictsLeastRecentlyReleased() {
+    MatPool pool = new MatPool(2 * 100);
+    Mat a = pool.acquire(10, 10, opencv_core.CV_8UC1);
+    Mat b = pool.acquire(10, 10, opencv_core.CV_8UC1);
+    Mat c = pool.acquire(5, 20, opencv_core.CV_8UC1);
+    pool.release(a);
+    pool.release(b);
+    pool.release(c);
+    assertEquals(2 * 100, pool.getIdleBytes());
+    assertEquals(100, pool.getBytesFreed());
+
+    // a was evicted
+    assertSame(b, pool.acquire(10, 10, opencv_core.CV_8UC1));
+    assertNotSame(a, pool.acquire(10, 10, opencv_core.CV_8UC1));
+    pool.close();
+  }
+
+  @Test
+  public void testDetach() {
+    MatPool pool = new MatPool();
+    Mat kept = null;
+    try (MatScope scope = new MatScope(pool)) {
+      kept = scope.detach(scope.mat(3, 3, opencv_core.CV_64FC1));
+    }
+    assertEquals(0, pool.getIdleBytes());
+    pool.release(kept);
+    assertEquals(3 * 3 * 8, pool.getIdleBytes());
+    pool.close();
+
+    // Releasing after close has no effect
+    pool.release(kept);
+  }
+
+  @Test
+  public void testAdoptedMatsAreNotReused() {
+    MatPool pool = new MatPool();
+    Mat adopted = pool.adopt(new Mat(4, 4, opencv_core.CV_8UC1));
+    assertEquals(4 * 4, pool.getBytesAllocated());
+
+    // Adopted Mats are freed when they are released
+    pool.release(adopted);
+    assertEquals(0, pool.getIdleBytes());
+    assertEquals(4 * 4, pool.getBytesFreed());
+    Mat acquired = pool.acquire(4, 4, opencv_core.CV_8UC1);
+    assertNotSame(adopted, acquired);
+    pool.release(acquired);
+    assertEquals(4 * 4, pool.getIdleBytes());
+
+    // Views of other Mats are rejected
+    Mat parent = new Mat(8, 8, opencv_core.CV_8UC1);
+    try {
+      pool.adopt(parent.row(2));
+      fail("Expected IllegalArgumentException for row of a Mat.");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      pool.adopt(new Mat(parent, new Rect(1, 1, 3, 3)));
+      fail("Expected IllegalArgumentException for region of interest of a Mat.");
+    } catch (IllegalArgumentException e) {
+    }
+    assertEquals(4 * 4 * 2, pool.getBytesAllocated());
+    MatPool.free(parent);
+    pool.close();
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testReleaseForeignMat() {
+    MatPool pool = new MatPool();
+    pool.release(new Mat(2, 2, opencv_core.CV_8UC1));
+  }
+
+}
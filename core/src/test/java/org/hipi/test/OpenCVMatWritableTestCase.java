@@ -202,6 +202,84 @@ public class OpenCVMatWritableTestCase {
     Assert.assertArrayEquals(testData, recreatedTestData, delta);
   }
   
+  @Test
+  public void serializeAndRecreateMultiChannelMat() {
+    
+    float[] testData = new float[3 * 5 * 3];
+    for (int i = 0; i < testData.length; i++) {
+      testData[i] = 0.5f * i - 7.0f;
+    }
+    
+    Mat inputMat = new Mat(new Size(5, 3), opencv_core.CV_32FC3);
+    ((FloatBuffer) inputMat.createBuffer()).put(testData);
+    
+    OpenCVMatWritable openCVMatWritable = new OpenCVMatWritable(inputMat);
+    
+    ByteArrayOutputStream baos = serializeOpenCVMatWritable(openCVMatWritable);
+    OpenCVMatWritable newOpenCVMatWritable = deserializeOpenCVMatWritable(baos);
+    
+    Mat recreatedMat = newOpenCVMatWritable.getMat();
+    
+    assertEquals(3, recreatedMat.rows());
+    assertEquals(5, recreatedMat.cols());
+    assertEquals(opencv_core.CV_32FC3, recreatedMat.type());
+    
+    float[] recreatedTestData = new float[testData.length];
+    ((FloatBuffer) recreatedMat.createBuffer()).get(recreatedTestData);
+    Assert.assertArrayEquals(testData, recreatedTestData, 0.0f);
+  }
+  
+  @Test
+  public void serializeAndRecreateThreeDimensionalMat() {
+    
+    int[] sizes = new int[] {4, 3, 2};
+    short[] testData = new short[4 * 3 * 2];
+    for (int i = 0; i < testData.length; i++) {
+      testData[i] = (short) (i * 1000 - 5000);
+    }
+    
+    Mat inputMat = new Mat(sizes.length, sizes, opencv_core.CV_16SC1);
+    ((ShortBuffer) inputMat.createBuffer()).put(testData);
+    
+    OpenCVMatWritable openCVMatWritable = new OpenCVMatWritable(inputMat);
+    
+    ByteArrayOutputStream baos = serializeOpenCVMatWritable(openCVMatWritable);
+    OpenCVMatWritable newOpenCVMatWritable = deserializeOpenCVMatWritable(baos);
+    
+    Mat recreatedMat = newOpenCVMatWritable.getMat(false);
+    
+    assertEquals(3, recreatedMat.dims());
+    for (int i = 0; i < sizes.length; i++) {
+      assertEquals(sizes[i], recreatedMat.size(i));
+    }
+    assertEquals(opencv_core.CV_16SC1, recreatedMat.type());
+    
+    short[] recreatedTestData = new short[testData.length];
+    ((ShortBuffer) recreatedMat.createBuffer()).get(recreatedTestData);
+    Assert.assertArrayEquals(testData, recreatedTestData);
+  }
+  
+  @Test
+  public void noCopyModeAliasesMat() throws IOException {
+    
+    Mat inputMat = new Mat(new Size(4, 2), opencv_core.CV_32SC1);
+    OpenCVMatWritable openCVMatWritable = new OpenCVMatWritable(inputMat, false);
+    assertSame(inputMat, openCVMatWritable.getMat(false));
+    assertNotSame(inputMat, openCVMatWritable.getMat());
+    
+    // Deserializing a Mat of the same shape reuses the encapsulated Mat
+    int[] testData = new int[] {1, -2, 3, -4, 5, -6, 7, -8};
+    Mat otherMat = new Mat(new Size(4, 2), opencv_core.CV_32SC1);
+    ((IntBuffer) otherMat.createBuffer()).put(testData);
+    ByteArrayOutputStream baos = serializeOpenCVMatWritable(new OpenCVMatWritable(otherMat, false));
+    openCVMatWritable.readFields(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+    assertSame(inputMat, openCVMatWritable.getMat(false));
+    
+    int[] recreatedTestData = new int[testData.length];
+    ((IntBuffer) inputMat.createBuffer()).get(recreatedTestData);
+    Assert.assertArrayEquals(testData, recreatedTestData);
+  }
+  
   private ByteArrayOutputStream serializeOpenCVMatWritable(OpenCVMatWritable openCVMatWritable) {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     
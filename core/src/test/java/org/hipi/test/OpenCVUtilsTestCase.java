@@ -191,4 +191,25 @@ public class OpenCVUtilsTestCase {
       assertArrayEquals("contents of converted mat are incorrect", image.getData(), convertedData);
     }
   }
+
+  @Test
+  public void testConvertMatToRasterImage() throws IllegalArgumentException, IOException {
+    for(FloatImage image : createTestFloatImages()) {
+      Mat mat = OpenCVUtils.convertRasterImageToMat(image);
+      FloatImage converted = (FloatImage)OpenCVUtils.convertMatToRasterImage(mat, HipiImageFactory.getFloatImageFactory());
+      assertEquals("color space of converted image is incorrect", HipiColorSpace.RGB, converted.getColorSpace());
+      assertArrayEquals("contents of converted image are incorrect", image.getData(), converted.getData(), 0.0f);
+    }
+    for(ByteImage image : createTestByteImages()) {
+      Mat mat = OpenCVUtils.convertRasterImageToMat(image);
+      ByteImage converted = (ByteImage)OpenCVUtils.convertMatToRasterImage(mat, HipiImageFactory.getByteImageFactory());
+      assertArrayEquals("contents of converted image are incorrect", image.getData(), converted.getData());
+    }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testConvertMatToRasterImageTypeMismatch() {
+    Mat mat = new Mat(4, 4, opencv_core.CV_8UC3);
+    OpenCVUtils.convertMatToRasterImage(mat, new FloatImage(4, 4, 3));
+  }
 }
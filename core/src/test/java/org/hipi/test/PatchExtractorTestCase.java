@@ -0,0 +1,111 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.FloatImage;
+import org.hipi.image.PatchExtractor;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+public class PatchExtractorTestCase {
+
+  private static FloatImage randomImage(int w, int h, int b, long seed) {
+    FloatImage image = new FloatImage(w, h, b);
+    Random random = new Random(seed);
+    for (int i=0; i<w*h*b; i++) {
+      image.getData()[i] = random.nextFloat();
+    }
+    return image;
+  }
+
+  // Asserts that a patch in the destination matches the image region at (x,y)
+  private static void assertPatch(FloatImage image, int x, int y, int pw, int ph, float[] patches, int offset) {
+    int w = image.getWidth();
+    int b = image.getNumBands();
+    for (int r=0, k=0; r<ph; r++) {
+      for (int i=0; i<pw*b; i++, k++) {
+	assertEquals(image.getData()[((y+r)*w + x)*b + i], patches[offset+k], 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void testGrid() {
+    FloatImage image = randomImage(10, 7, 2, 1);
+    PatchExtractor extractor = new PatchExtractor(3, 2).grid(3, 2);
+    int n = extractor.getNumPatches(10, 7);
+    assertEquals(3*3, n);
+    int length = extractor.getPatchLength(2);
+    assertEquals(12, length);
+    float[] patches = new float[1 + n*length];
+    assertEquals(n, extractor.extract(image, patches, 1));
+    int p = 0;
+    for (int y=0; y+2<=7; y+=2) {
+      for (int x=0; x+3<=10; x+=3, p++) {
+	assertPatch(image, x, y, 3, 2, patches, 1 + p*length);
+      }
+    }
+  }
+
+  @Test
+  public void testSpreadWithMeanAndWeights() {
+    FloatImage image = randomImage(40, 30, 1, 2);
+    int N = 8;
+    float[] mean = new float[N*N];
+    float[] weights = new float[N*N];
+    for (int k=0; k<N*N; k++) {
+      mean[k] = 0.01f*k;
+      weights[k] = 1.0f + k;
+    }
+    PatchExtractor plain = new PatchExtractor(N, N).spread(4, 3);
+    PatchExtractor weighted = new PatchExtractor(N, N).spread(4, 3).subtractMean(mean).weight(weights);
+    assertEquals(12, weighted.getNumPatches(40, 30));
+    float[] raw = new float[12*N*N];
+    float[] patches = new float[12*N*N];
+    plain.extract(image, raw, 0);
+    weighted.extract(image, patches, 0);
+
+    // Positions follow the evenly spread scheme of the covariance example
+    int p = 0;
+    for (int i=0; i<4; i++) {
+      for (int j=0; j<3; j++, p++) {
+	assertPatch(image, (40-N)*i/4, (30-N)*j/3, N, N, raw, p*N*N);
+      }
+    }
+    for (int i=0; i<12*N*N; i++) {
+      int k = i % (N*N);
+      assertEquals((raw[i] - mean[k])*weights[k], patches[i], 1e-6f);
+    }
+  }
+
+  @Test
+  public void testRandomAndBuffers() {
+    FloatImage image = randomImage(20, 16, 3, 3);
+    PatchExtractor extractor = new PatchExtractor(5, 4).random(7, 42);
+    int length = extractor.getPatchLength(3);
+
+    // Repeatable for a fixed seed, and independent of the source of the pixel data
+    float[] first = new float[7*length];
+    extractor.extract(image, first, 0);
+    FloatBuffer batch = FloatBuffer.allocate(14*length);
+    assertEquals(7, extractor.extract(image, batch));
+    assertEquals(7, extractor.extract(FloatBuffer.wrap(image.getData()), 20, 16, 3, batch));
+    assertEquals(14*length, batch.position());
+    for (int i=0; i<7*length; i++) {
+      assertEquals(first[i], batch.get(i), 0.0f);
+      assertEquals(first[i], batch.get(7*length + i), 0.0f);
+    }
+
+    // Images smaller than a patch yield no patches
+    assertEquals(0, extractor.getNumPatches(4, 16));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testDestinationTooSmall() {
+    new PatchExtractor(2, 2).extract(new FloatImage(4, 4, 1), new float[15], 0);
+  }
+
+}
@@ -0,0 +1,204 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.DirectByteImage;
+import org.hipi.image.DirectFloatImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.PixelArray;
+import org.hipi.image.PixelArrayByte;
+import org.hipi.image.PixelArrayDirectByte;
+import org.hipi.image.PixelArrayDirectFloat;
+import org.hipi.image.PixelArrayFloat;
+import org.hipi.image.io.JpegCodec;
+import org.hipi.util.DirectBufferPool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+public class PixelArrayDirectTestCase {
+
+  private static void assertSameValues(PixelArray expected, PixelArray actual) {
+    assertEquals(expected.getSize(), actual.getSize());
+    for (int i=0; i<expected.getSize(); i++) {
+      assertEquals(expected.getElem(i), actual.getElem(i));
+      assertEquals(expected.getElemNonLinSRGB(i), actual.getElemNonLinSRGB(i));
+      assertEquals(expected.getElemFloat(i), actual.getElemFloat(i), 0.0f);
+    }
+    assertArrayEquals(expected.getByteArray(), actual.getByteArray());
+  }
+
+  @Test
+  public void testMatchesHeapArrays() {
+    int n = 1000;
+    Random random = new Random(5);
+
+    PixelArrayByte heapByte = new PixelArrayByte(n);
+    PixelArrayDirectByte directByte = new PixelArrayDirectByte(n);
+    PixelArrayFloat heapFloat = new PixelArrayFloat(n);
+    PixelArrayDirectFloat directFloat = new PixelArrayDirectFloat(n);
+    assertEquals(ByteOrder.nativeOrder(), directFloat.getBuffer().order());
+    assertEquals(n*4, directFloat.getBuffer().limit());
+
+    for (int i=0; i<n; i++) {
+      int val = random.nextInt(300) - 20;
+      heapByte.setElemNonLinSRGB(i, val);
+      directByte.setElemNonLinSRGB(i, val);
+      heapFloat.setElemNonLinSRGB(i, val);
+      directFloat.setElemNonLinSRGB(i, val);
+    }
+    assertSameValues(heapByte, directByte);
+    assertSameValues(heapFloat, directFloat);
+
+    // Bulk accessors agree with heap arrays, including transfers between the two
+    float[] values = new float[n];
+    for (int i=0; i<n; i++) {
+      values[i] = random.nextFloat() * 1.2f - 0.1f;
+    }
+    heapByte.copyFrom(values, 0, 0, n);
+    directByte.copyFrom(values, 0, 0, n);
+    heapFloat.copyFrom(values, 0, 0, n);
+    directFloat.copyFrom(values, 0, 0, n);
+    assertSameValues(heapByte, directByte);
+    assertSameValues(heapFloat, directFloat);
+
+    PixelArrayDirectFloat copy = new PixelArrayDirectFloat(n);
+    copy.copyFrom(directFloat, 10, 20, 500);
+    heapFloat.copyFrom(directFloat, 10, 20, 500);
+    for (int i=0; i<500; i++) {
+      assertEquals(directFloat.getElemFloat(10+i), copy.getElemFloat(20+i), 0.0f);
+    }
+    PixelArrayByte heapCopy = new PixelArrayByte(n);
+    heapCopy.copyFrom(directByte, 0, 0, n);
+    assertArrayEquals(heapCopy.getData(), directByte.getByteArray());
+
+    directFloat.fill(0, n, 0.25f);
+    assertEquals(0.25f, directFloat.getElemFloat(n-1), 0.0f);
+  }
+
+  @Test
+  public void testLayoutMatchesHeapArrays() {
+    int w = 7, h = 5, b = 3;
+    Random random = new Random(9);
+    FloatImage heap = new FloatImage(w, h, b);
+    DirectFloatImage direct = new DirectFloatImage(w, h, b);
+    for (int i=0; i<w*h*b; i++) {
+      float val = random.nextFloat();
+      heap.getData()[i] = val;
+      direct.getPixelArray().setElemFloat(i, val);
+    }
+    FloatBuffer view = direct.getFloatBuffer();
+    heap.setLayout(PixelArray.Layout.PLANAR);
+    direct.setLayout(PixelArray.Layout.PLANAR);
+    assertSameValues(heap.getPixelArray(), direct.getPixelArray());
+    // Views of the buffer remain valid
+    assertEquals(heap.getData()[1], view.get(1), 0.0f);
+    heap.setLayout(PixelArray.Layout.INTERLEAVED);
+    direct.setLayout(PixelArray.Layout.INTERLEAVED);
+    assertSameValues(heap.getPixelArray(), direct.getPixelArray());
+  }
+
+  @Test
+  public void testWritableCompatibility() throws IOException {
+    DirectFloatImage direct = new DirectFloatImage(7, 5, 3);
+    for (int i=0; i<7*5*3; i++) {
+      direct.getPixelArray().setElemFloat(i, i / 11.0f);
+    }
+
+    // Direct and heap images share the same serialized representation
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    direct.write(new DataOutputStream(bos));
+    FloatImage heap = new FloatImage();
+    heap.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    for (int i=0; i<7*5*3; i++) {
+      assertEquals(i / 11.0f, heap.getData()[i], 0.0f);
+    }
+
+    bos = new ByteArrayOutputStream();
+    heap.write(new DataOutputStream(bos));
+    DirectFloatImage readBack = new DirectFloatImage();
+    readBack.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    assertTrue(readBack.equals(direct));
+    assertTrue(readBack.equalsWithTolerance(heap, 0.0f));
+  }
+
+  @Test
+  public void testReleaseAndReuse() {
+    DirectBufferPool pool = new DirectBufferPool(1 << 20);
+
+    PixelArrayDirectByte pa = new PixelArrayDirectByte(pool);
+    pa.setSize(5000);
+    pa.setElem(4999, 200);
+    ByteBuffer buffer = pa.getBuffer();
+    assertEquals(1, pool.getAllocations());
+
+    pa.release();
+    assertEquals(0, pa.getSize());
+    assertNull(pa.getBuffer());
+    assertEquals(5120, pool.getPooledBytes());
+
+    // Reused buffers are cleared
+    PixelArrayDirectByte other = new PixelArrayDirectByte(pool);
+    other.setSize(5100);
+    assertSame(buffer, other.getBuffer());
+    assertEquals(0, other.getElem(4999));
+    assertEquals(1, pool.getAllocations());
+    assertEquals(1, pool.getReuses());
+
+    // Resizing releases the previous buffer
+    other.setSize(100);
+    assertEquals(5120, pool.getPooledBytes());
+
+    pool.setMaxPooledBytes(0);
+    assertEquals(0, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testPooledCapacity() {
+    DirectBufferPool pool = new DirectBufferPool(0);
+    Random random = new Random(5);
+    for (int i=0; i<1000; i++) {
+      int numBytes = (i < 500 ? random.nextInt(1 << 16) : 4096 + i);
+      int capacity = pool.acquire(numBytes).capacity();
+      assertTrue(capacity >= numBytes);
+      // Capacity exceeds the requested size by less than 25% (beyond the smallest class)
+      assertTrue(capacity == 4096 || (long)capacity*4 < (long)numBytes*5);
+    }
+    assertEquals(4096, pool.acquire(4096).capacity());
+    assertEquals(5120, pool.acquire(4097).capacity());
+    assertEquals(8192, pool.acquire(8192).capacity());
+    assertEquals(10240, pool.acquire(8193).capacity());
+    assertEquals(160 << 20, pool.acquire(144 << 20).capacity());
+  }
+
+  @Test
+  public void testDecodeIntoDirectImage() throws Exception {
+    JpegCodec jpegCodec = JpegCodec.getInstance();
+    String jpgPath = "../testdata/jpeg-and-png/01.jpg";
+
+    HipiImageHeader header = jpegCodec.decodeHeader(new FileInputStream(jpgPath));
+    ByteImage heap = (ByteImage)jpegCodec.decodeImage(new FileInputStream(jpgPath), header,
+      HipiImageFactory.getByteImageFactory(), false);
+    DirectByteImage direct = (DirectByteImage)jpegCodec.decodeImage(new FileInputStream(jpgPath),
+      header, HipiImageFactory.forImageClass(DirectByteImage.class), false);
+
+    assertTrue(direct.equalsWithTolerance(heap, 0.0f));
+    assertEquals(heap.getWidth()*heap.getHeight()*3, direct.getBuffer().limit());
+    direct.release();
+    assertNull(direct.getBuffer());
+  }
+
+}
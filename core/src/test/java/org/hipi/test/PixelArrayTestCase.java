@@ -6,10 +6,26 @@ import static org.junit.Assume.*;
 import org.hipi.image.PixelArray;
 import org.hipi.image.PixelArrayFloat;
 import org.hipi.image.PixelArrayByte;
+import org.hipi.image.PixelArrayHalf;
+import org.hipi.image.PixelArrayUShort;
+import org.hipi.image.PixelArrayDirectByte;
+import org.hipi.image.PixelArrayDirectFloat;
+import org.hipi.util.PixelBufferPool;
+import org.hipi.image.HalfImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.ByteImage;
+import org.hipi.image.ImageOps;
 
 import org.junit.Test;
 import org.junit.Ignore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
 public class PixelArrayTestCase {
 
   @Ignore
@@ -200,4 +216,298 @@ public class PixelArrayTestCase {
     }
   }
 
+  private static PixelArray[] makeArrays(int n) {
+    PixelArrayByte pab = new PixelArrayByte(n);
+    PixelArrayFloat paf = new PixelArrayFloat(n);
+    for (int i=0; i<n; i++) {
+      pab.setElem(i, (i * 37) % 256);
+      paf.setElemFloat(i, (i % 11) / 8.0f - 0.2f);
+    }
+    return new PixelArray[] {pab, paf};
+  }
+
+  @Test
+  public void testBulkAccessors() {
+    int n = 50;
+    for (PixelArray pa : makeArrays(n)) {
+
+      // Bulk copies agree with per-element accessors
+      float[] floats = new float[n + 2];
+      byte[] bytes = new byte[n + 2];
+      pa.copyTo(3, floats, 2, n - 3);
+      pa.copyTo(3, bytes, 2, n - 3);
+      for (int i=3; i<n; i++) {
+	assertEquals(pa.getElemFloat(i), floats[i - 1], 0.0f);
+	assertEquals(Math.max(0, Math.min(255, pa.getElem(i))), bytes[i - 1] & 0xff);
+      }
+
+      for (PixelArray target : makeArrays(n)) {
+	PixelArray expected = makeArrays(n)[target instanceof PixelArrayByte ? 0 : 1];
+	for (int i=0; i<n; i++) {
+	  expected.setElemFloat(i, pa.getElemFloat(i));
+	}
+	target.copyFrom(pa, 0, 0, n);
+	for (int i=0; i<n; i++) {
+	  assertEquals(expected.getElemFloat(i), target.getElemFloat(i), 0.0f);
+	}
+
+	target.copyFrom(floats, 2, 5, 10);
+	target.copyFrom(bytes, 2, 20, 10);
+	for (int i=0; i<10; i++) {
+	  expected.setElemFloat(5 + i, floats[2 + i]);
+	  expected.setElem(20 + i, bytes[2 + i] & 0xff);
+	}
+	for (int i=0; i<n; i++) {
+	  assertEquals(expected.getElemFloat(i), target.getElemFloat(i), 0.0f);
+	}
+      }
+
+      pa.fill(10, 20, 0.5f);
+      PixelArray single = (pa instanceof PixelArrayByte ? new PixelArrayByte(1) : new PixelArrayFloat(1));
+      single.setElemFloat(0, 0.5f);
+      for (int i=10; i<20; i++) {
+	assertEquals(single.getElemFloat(0), pa.getElemFloat(i), 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void testFloatSRGBConversion() {
+    // Linear values of all 8-bit sRGB values map back to them without quantization
+    float[] values = new float[256];
+    byte[] srgb = new byte[256];
+    for (int i=0; i<256; i++) {
+      srgb[i] = (byte)i;
+    }
+    PixelArrayFloat.nonLinSRGBToLinear(srgb, 0, values, 0, 256);
+    PixelArrayFloat.linearToNonLinSRGB(values, 0, values, 0, 256);
+    for (int i=0; i<256; i++) {
+      assertEquals(i / 255.0f, values[i], 1e-4f);
+    }
+
+    // Values in between are kept, and values outside of [0,1] are clamped
+    float[] linear = {0.001f, 0.2f, 0.20001f, -0.5f, 1.5f};
+    float[] nonLinear = new float[5];
+    PixelArrayFloat.linearToNonLinSRGB(linear, 0, nonLinear, 0, 5);
+    assertEquals(0.01292f, nonLinear[0], 1e-6f);
+    assertTrue(nonLinear[2] > nonLinear[1]);
+    assertEquals(0.0f, nonLinear[3], 0.0f);
+    assertEquals(1.0f, nonLinear[4], 1e-6f);
+  }
+
+  @Test
+  public void testForEach() {
+    int n = 30;
+    for (PixelArray pa : makeArrays(n)) {
+      PixelArray original = makeArrays(n)[pa instanceof PixelArrayByte ? 0 : 1];
+
+      // Only the second of three interleaved bands is modified
+      pa.forEachFloat(1, 3, new PixelArray.FloatUnaryOperator() {
+	  public float applyAsFloat(float value) {
+	    return value * 0.5f;
+	  }
+	});
+      pa.forEachInt(2, 3, (value) -> value + 10);
+      for (int i=0; i<n; i++) {
+	PixelArray expected = (pa instanceof PixelArrayByte ? new PixelArrayByte(1) : new PixelArrayFloat(1));
+	if (i % 3 == 1) {
+	  expected.setElemFloat(0, original.getElemFloat(i) * 0.5f);
+	} else if (i % 3 == 2) {
+	  expected.setElem(0, original.getElem(i) + 10);
+	} else {
+	  expected.setElemFloat(0, original.getElemFloat(i));
+	}
+	assertEquals(expected.getElemFloat(0), pa.getElemFloat(i), 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void testHalfConversions() {
+    // Exactly representable values
+    float[] exact = {0.0f, -0.0f, 1.0f, -2.0f, 0.5f, 65504.0f, 6.1035156e-5f, 5.9604645e-8f, 1.0f/1024.0f};
+    for (float val : exact) {
+      assertEquals(Float.floatToIntBits(val), Float.floatToIntBits(PixelArrayHalf.halfToFloat(PixelArrayHalf.floatToHalf(val))));
+    }
+    assertEquals((short)0x3c00, PixelArrayHalf.floatToHalf(1.0f));
+    assertEquals((short)0x7c00, PixelArrayHalf.floatToHalf(1e6f));
+    assertTrue(Float.isNaN(PixelArrayHalf.halfToFloat(PixelArrayHalf.floatToHalf(Float.NaN))));
+    assertEquals(Float.NEGATIVE_INFINITY, PixelArrayHalf.halfToFloat(PixelArrayHalf.floatToHalf(Float.NEGATIVE_INFINITY)), 0.0f);
+
+    // Ties round to even
+    assertEquals((short)0x3c00, PixelArrayHalf.floatToHalf(1.0f + 1.0f/2048.0f));
+    assertEquals((short)0x3c02, PixelArrayHalf.floatToHalf(1.0f + 3.0f/2048.0f));
+
+    // Every binary16 value survives a round trip through float
+    for (int i=0; i<(1 << 16); i++) {
+      float val = PixelArrayHalf.halfToFloat((short)i);
+      if (!Float.isNaN(val)) {
+	assertEquals(i, PixelArrayHalf.floatToHalf(val) & 0xffff);
+      }
+    }
+
+    // Pixel values in [0,1] are within half a unit in the last place
+    PixelArrayHalf pa = new PixelArrayHalf(1001);
+    for (int i=0; i<=1000; i++) {
+      pa.setElemFloat(i, i / 1000.0f);
+      assertEquals(i / 1000.0f, pa.getElemFloat(i), 1.0f/4096.0f);
+    }
+
+    // 8-bit values survive a round trip, sRGB values agree with PixelArrayFloat up to the
+    // resolution of the gamma compression LUT
+    PixelArrayFloat paf = new PixelArrayFloat(256);
+    PixelArrayHalf pah = new PixelArrayHalf(256);
+    for (int i=0; i<256; i++) {
+      pah.setElem(i, i);
+      assertEquals(i, pah.getElem(i));
+      paf.setElemNonLinSRGB(i, i);
+      pah.setElemNonLinSRGB(i, i);
+      assertEquals(paf.getElemNonLinSRGB(i), pah.getElemNonLinSRGB(i), 1.0);
+    }
+  }
+
+  @Test
+  public void testUShortConversions() {
+    PixelArrayUShort pa = new PixelArrayUShort(3);
+    assertEquals(2, PixelArray.getDataTypeSize(pa.getDataType()));
+    for (int val=0; val<256; val++) {
+      pa.setElem(0, val);
+      assertEquals(val * 257, pa.getElemUShort(0));
+      assertEquals(val, pa.getElem(0));
+      assertEquals(val, pa.getElemNonLinSRGB(0));
+    }
+    pa.setElemUShort(1, 70000);
+    assertEquals(65535, pa.getElemUShort(1));
+    assertEquals(1.0f, pa.getElemFloat(1), 0.0f);
+    pa.setElemFloat(2, 0.5f);
+    assertEquals(32768, pa.getElemUShort(2));
+    pa.setElemUShort(2, 0x1234);
+    byte[] bytes = pa.getByteArray();
+    assertEquals(6, bytes.length);
+    assertEquals((byte)0x12, bytes[4]);
+    assertEquals((byte)0x34, bytes[5]);
+
+    PixelArrayUShort copy = new PixelArrayUShort();
+    copy.setFromByteArray(bytes);
+    assertArrayEquals(pa.getData(), copy.getData());
+  }
+
+  @Test
+  public void testHalfImageWritable() throws IOException {
+    FloatImage floatImage = new FloatImage(9, 4, 3);
+    for (int i=0; i<9*4*3; i++) {
+      floatImage.getData()[i] = i / 107.0f;
+    }
+    HalfImage halfImage = new HalfImage(9, 4, 3);
+    halfImage.getPixelArray().copyFrom(floatImage.getPixelArray(), 0, 0, 9*4*3);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    halfImage.write(new DataOutputStream(bos));
+    ByteArrayOutputStream floatBos = new ByteArrayOutputStream();
+    floatImage.write(new DataOutputStream(floatBos));
+    assertEquals(9*4*3*2, floatBos.size() - bos.size());
+
+    HalfImage readBack = new HalfImage();
+    readBack.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    assertEquals(halfImage, readBack);
+    assertTrue(readBack.equalsWithTolerance(floatImage, 1.0f/2048.0f));
+  }
+
+  @Test
+  public void testLayoutConversion() {
+    int numPixels = 37;
+    int numBands = 3;
+    int n = numPixels*numBands;
+    PixelArrayByte pooled = new PixelArrayByte();
+    pooled.setBufferPool(new PixelBufferPool(1 << 20));
+    pooled.setSize(n);
+    PixelArray[] arrays = {new PixelArrayByte(n), pooled, new PixelArrayFloat(n), new PixelArrayHalf(n),
+			   new PixelArrayUShort(n), new PixelArrayDirectByte(n), new PixelArrayDirectFloat(n)};
+    for (PixelArray pa : arrays) {
+      for (int i=0; i<n; i++) {
+	pa.setElem(i, (i*7) % 256);
+      }
+      byte[] interleaved = pa.getByteArray();
+      assertEquals(PixelArray.Layout.INTERLEAVED, pa.getLayout());
+
+      pa.convertLayout(numBands, PixelArray.Layout.PLANAR);
+      assertEquals(PixelArray.Layout.PLANAR, pa.getLayout());
+      for (int p=0; p<numPixels; p++) {
+	for (int c=0; c<numBands; c++) {
+	  assertEquals(pa.getClass().getName(), ((p*numBands+c)*7) % 256, pa.getElem(c*numPixels+p));
+	}
+      }
+
+      pa.convertLayout(numBands, PixelArray.Layout.INTERLEAVED);
+      assertArrayEquals(pa.getClass().getName(), interleaved, pa.getByteArray());
+    }
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testLayoutConversionBandMismatch() {
+    new PixelArrayByte(10).convertLayout(3, PixelArray.Layout.PLANAR);
+  }
+
+  @Test
+  public void testBulkSRGBConversion() {
+    // Bulk conversions match the per-element routines, including values outside of [0,1]
+    float[] linear = new float[4096 + 6];
+    for (int i=0; i<4096; i++) {
+      linear[i] = i/4095.0f;
+    }
+    float[] special = {-1.0f, 1.0f, 1.0001f, 2.0f, Float.NaN, Float.MIN_VALUE};
+    System.arraycopy(special, 0, linear, 4096, special.length);
+    PixelArrayFloat pa = new PixelArrayFloat(linear.length);
+    pa.copyFrom(linear, 0, 0, linear.length);
+    byte[] srgb = new byte[linear.length];
+    pa.copyToNonLinSRGB(0, srgb, 0, linear.length);
+    for (int i=0; i<linear.length; i++) {
+      assertEquals(pa.getElemNonLinSRGB(i), srgb[i] & 0xff);
+    }
+
+    byte[] values = new byte[256];
+    for (int i=0; i<256; i++) {
+      values[i] = (byte)i;
+    }
+    PixelArrayFloat expanded = new PixelArrayFloat(256);
+    expanded.copyFromNonLinSRGB(values, 0, 0, 256);
+    PixelArrayHalf half = new PixelArrayHalf(256);
+    half.copyFromNonLinSRGB(values, 0, 0, 256);
+    PixelArrayFloat reference = new PixelArrayFloat(256);
+    for (int i=0; i<256; i++) {
+      reference.setElemNonLinSRGB(i, i);
+    }
+    assertArrayEquals(reference.getData(), expanded.getData(), 0.0f);
+    byte[] roundTrip = new byte[256];
+    half.copyToNonLinSRGB(0, roundTrip, 0, 256);
+    for (int i=0; i<256; i++) {
+      assertEquals(half.getElemNonLinSRGB(i), roundTrip[i] & 0xff);
+    }
+  }
+
+  @Test
+  public void testByteFloatImageConversion() {
+    ImageOps.setMinElementsPerTask(64);
+    try {
+      ByteImage byteImage = new ByteImage(33, 21, 3);
+      new Random(5).nextBytes(byteImage.getData());
+      for (boolean parallel : new boolean[] {false, true}) {
+	FloatImage floatImage = new FloatImage(33, 21, 3);
+	floatImage.convertFromByteImage(byteImage, parallel);
+	for (int i=0; i<33*21*3; i++) {
+	  PixelArrayFloat expected = new PixelArrayFloat(1);
+	  expected.setElemNonLinSRGB(0, byteImage.getData()[i] & 0xff);
+	  assertEquals(expected.getData()[0], floatImage.getData()[i], 0.0f);
+	}
+	ByteImage back = new ByteImage(33, 21, 3);
+	floatImage.convertToByteImage(back, parallel);
+	for (int i=0; i<33*21*3; i++) {
+	  assertEquals(floatImage.getPixelArray().getElemNonLinSRGB(i), back.getData()[i] & 0xff);
+	}
+      }
+    } finally {
+      ImageOps.setMinElementsPerTask(ImageOps.DEFAULT_MIN_ELEMENTS_PER_TASK);
+    }
+  }
+
 }
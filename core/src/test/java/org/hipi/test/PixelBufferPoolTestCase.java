@@ -0,0 +1,126 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImage.HipiImageType;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.PixelArrayByte;
+import org.hipi.util.PixelBufferPool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class PixelBufferPoolTestCase {
+
+  private static HipiImageHeader makeHeader(int w, int h) {
+    return new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, w, h, 3, null, null);
+  }
+
+  @Test
+  public void testAcquireRelease() {
+    PixelBufferPool pool = new PixelBufferPool(1000);
+
+    float[] floats = pool.acquireFloats(100);
+    assertEquals(1, pool.getMisses());
+    floats[7] = 1.0f;
+    pool.release(floats);
+    assertEquals(400, pool.getPooledBytes());
+
+    // Arrays are pooled by type and exact length and are cleared on reuse
+    assertNotSame(floats, pool.acquireFloats(99));
+    float[] reused = pool.acquireFloats(100);
+    assertSame(floats, reused);
+    assertEquals(0.0f, reused[7], 0.0f);
+    assertEquals(1, pool.getHits());
+    assertEquals(0, pool.getPooledBytes());
+
+    // Least recently returned arrays are dropped to stay within bounds
+    byte[] first = new byte[600];
+    byte[] second = new byte[600];
+    pool.release(first);
+    pool.release(second);
+    assertEquals(600, pool.getPooledBytes());
+    assertSame(second, pool.acquireBytes(600));
+    assertNotSame(first, pool.acquireBytes(600));
+
+    // Arrays larger than the bound are never pooled
+    pool.release(new short[501]);
+    assertEquals(0, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testFactoryReuse() throws Exception {
+    PixelBufferPool pool = new PixelBufferPool(1 << 20);
+    HipiImageFactory factory = new HipiImageFactory(HipiImageType.FLOAT);
+    factory.setBufferPool(pool);
+
+    FloatImage image = (FloatImage)factory.createImage(makeHeader(16, 8));
+    float[] data = image.getData();
+    data[0] = 0.5f;
+    image.release();
+
+    // Same-sized images decoded afterwards reuse the released array
+    FloatImage next = (FloatImage)factory.createImage(makeHeader(16, 8));
+    assertSame(data, next.getData());
+    assertEquals(0.0f, next.getData()[0], 0.0f);
+
+    // Resizing returns the previous array to the pool
+    next.setHeader(makeHeader(4, 4));
+    assertEquals(16*8*3*4, pool.getPooledBytes());
+  }
+
+  @Test
+  public void testReadFieldsReuse() throws IOException {
+    ByteImage source = new ByteImage();
+    source.setHeader(makeHeader(5, 3));
+    for (int i=0; i<5*3*3; i++) {
+      source.getPixelArray().setElem(i, i * 5);
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    source.write(new DataOutputStream(bos));
+
+    FloatImage floatSource = new FloatImage(5, 3, 3);
+    for (int i=0; i<5*3*3; i++) {
+      floatSource.getData()[i] = i / 45.0f;
+    }
+    ByteArrayOutputStream floatBos = new ByteArrayOutputStream();
+    floatSource.write(new DataOutputStream(floatBos));
+
+    // Reading a second record of the same size reuses the pixel array
+    ByteImage image = new ByteImage();
+    image.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    byte[] data = image.getData();
+    image.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    assertSame(data, image.getData());
+    assertArrayEquals(source.getData(), image.getData());
+
+    FloatImage floatImage = new FloatImage();
+    floatImage.readFields(new DataInputStream(new ByteArrayInputStream(floatBos.toByteArray())));
+    float[] floatData = floatImage.getData();
+    floatImage.readFields(new DataInputStream(new ByteArrayInputStream(floatBos.toByteArray())));
+    assertSame(floatData, floatImage.getData());
+    assertArrayEquals(floatSource.getData(), floatImage.getData(), 0.0f);
+
+    // Arrays supplied by the caller are neither reused nor pooled
+    PixelBufferPool pool = new PixelBufferPool(1 << 20);
+    PixelArrayByte pa = new PixelArrayByte();
+    pa.setBufferPool(pool);
+    byte[] bytes = {1, 2, 3};
+    pa.setFromByteArray(bytes);
+    pa.setSize(3);
+    assertNotSame(bytes, pa.getData());
+    assertEquals(1, bytes[0]);
+    assertEquals(0, pool.getPooledBytes());
+  }
+
+}
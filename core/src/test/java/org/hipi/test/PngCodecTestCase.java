@@ -3,8 +3,14 @@ package org.hipi.test;
 import static org.junit.Assert.*;
 import static org.junit.Assume.*;
 
+import org.hipi.image.ByteImage;
 import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageFactory;
 import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.HipiImage.HipiImageType;
+import org.hipi.image.UShortImage;
 import org.hipi.image.io.ImageDecoder;
 import org.hipi.image.io.ImageEncoder;
 import org.hipi.image.io.PngCodec;
@@ -12,11 +18,20 @@ import org.hipi.image.io.PngCodec;
 import org.junit.Test;
 import org.junit.Ignore;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Scanner;
+import java.util.Random;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
 import java.util.Iterator;
 
 import javax.imageio.ImageIO;
@@ -126,4 +141,84 @@ public class PngCodecTestCase {
     */
   }
 
+  @Test
+  public void testDecodeLuminance() throws IOException {
+    PngCodec pngCodec = PngCodec.getInstance();
+    String pngPath = "../testdata/jpeg-and-png/01.png";
+
+    HipiImageHeader header = pngCodec.decodeHeader(new FileInputStream(pngPath));
+    assertEquals(HipiColorSpace.RGB, header.getColorSpace());
+    ByteImage rgbImage = (ByteImage)pngCodec.decodeImage(new FileInputStream(pngPath), header,
+      HipiImageFactory.getByteImageFactory(), false);
+
+    HipiImageHeader lumHeader = new HipiImageHeader(HipiImageFormat.PNG, HipiColorSpace.LUM,
+      header.getWidth(), header.getHeight(), 1, null, null);
+    ByteImage lumImage = (ByteImage)pngCodec.decodeImage(new FileInputStream(pngPath), lumHeader,
+      HipiImageFactory.getByteImageFactory(), false);
+    assertEquals(1, lumImage.getNumBands());
+
+    for (int i=0; i<header.getWidth()*header.getHeight(); i++) {
+      int red = rgbImage.getPixelArray().getElem(i*3+0);
+      int grn = rgbImage.getPixelArray().getElem(i*3+1);
+      int blu = rgbImage.getPixelArray().getElem(i*3+2);
+      assertEquals((77 * red + 150 * grn + 29 * blu + 128) / 256, lumImage.getPixelArray().getElem(i));
+    }
+  }
+
+  @Test
+  public void testEncodeDecodeGrayscale() throws IOException {
+    int w = 23, h = 17;
+    ByteImage image = new ByteImage();
+    image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.LUM, w, h, 1, null, null));
+    for (int i=0; i<w*h; i++) {
+      image.getPixelArray().setElem(i, (i * 13) % 256);
+    }
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PngCodec.getInstance().encodeImage(image, bos);
+
+    // Grayscale PNGs are decoded natively to a single band without any tone change
+    HipiImageHeader header = PngCodec.getInstance().decodeHeader(new ByteArrayInputStream(bos.toByteArray()));
+    assertEquals(HipiColorSpace.LUM, header.getColorSpace());
+    assertEquals(1, header.getNumBands());
+    ByteImage decoded = (ByteImage)PngCodec.getInstance().decodeHeaderAndImage(new ByteArrayInputStream(bos.toByteArray()),
+      HipiImageFactory.getByteImageFactory(), false);
+    assertArrayEquals(image.getData(), decoded.getData());
+  }
+
+  @Test
+  public void testDecode16Bit() throws IOException {
+    int w = 19, h = 11;
+    Random random = new Random(3);
+
+    // Write 16-bit RGB and grayscale PNGs with ImageIO
+    int[] numBands = {3, 1};
+    for (int bands : numBands) {
+      ColorSpace colorSpace = ColorSpace.getInstance(bands == 3 ? ColorSpace.CS_sRGB : ColorSpace.CS_GRAY);
+      ComponentColorModel colorModel = new ComponentColorModel(colorSpace, false, false,
+        Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+      WritableRaster raster = colorModel.createCompatibleWritableRaster(w, h);
+      int[] samples = new int[w*h*bands];
+      for (int i=0; i<samples.length; i++) {
+        samples[i] = random.nextInt(65536);
+      }
+      raster.setPixels(0, 0, w, h, samples);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      assertTrue(ImageIO.write(new BufferedImage(colorModel, raster, false, null), "png", bos));
+
+      // Full precision is preserved when decoding to a UShortImage
+      UShortImage image = (UShortImage)PngCodec.getInstance().decodeHeaderAndImage(
+        new ByteArrayInputStream(bos.toByteArray()), new HipiImageFactory(HipiImageType.USHORT), false);
+      assertEquals(bands, image.getNumBands());
+      for (int i=0; i<samples.length; i++) {
+        assertEquals(samples[i], image.getData()[i] & 0xffff);
+      }
+
+      // and reduced to 8 bits when decoding to a ByteImage
+      ByteImage byteImage = (ByteImage)PngCodec.getInstance().decodeHeaderAndImage(
+        new ByteArrayInputStream(bos.toByteArray()), HipiImageFactory.getByteImageFactory(), false);
+      assertTrue(byteImage.equalsWithTolerance(image, 1.0f));
+    }
+  }
+
 }
@@ -12,6 +12,8 @@ import org.hipi.image.PixelArrayFloat;
 import org.hipi.image.PixelArray;
 import org.hipi.image.HipiImageFactory;
 import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
 import org.hipi.image.io.ImageDecoder;
 import org.hipi.image.io.ImageEncoder;
 import org.hipi.image.io.JpegCodec;
@@ -30,6 +32,8 @@ import java.awt.image.Raster;
 import java.awt.image.ColorConvertOp;
 import java.awt.color.ColorSpace;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -117,4 +121,174 @@ public class PpmCodecTestCase {
     }
   }
 
+  @Test
+  public void testDecodeImage() throws IOException {
+    ImageDecoder ppmDecoder = PpmCodec.getInstance();
+
+    File[] files = new File("../testdata/convolution").listFiles();
+
+    for (File file : files) {
+      if (file.isFile() && file.getName().endsWith(".ppm")) {
+
+	String ppmPath = file.getPath();
+	System.out.println("Testing PPM decoder for: " + ppmPath);
+
+	HipiImageHeader header = ppmDecoder.decodeHeader(new FileInputStream(ppmPath));
+	assertEquals(HipiImageFormat.PPM, header.getStorageFormat());
+	assertEquals(HipiColorSpace.RGB, header.getColorSpace());
+	assertEquals(3, header.getNumBands());
+	assertEquals(ppmPath + " file size does not match header", file.length() - header.getWidth() * header.getHeight() * 3,
+		     headerLength(ppmPath));
+
+	ByteImage byteImage = (ByteImage)ppmDecoder.decodeHeaderAndImage(new FileInputStream(ppmPath), HipiImageFactory.getByteImageFactory(), false);
+	FloatImage floatImage = (FloatImage)ppmDecoder.decodeHeaderAndImage(new FileInputStream(ppmPath), HipiImageFactory.getFloatImageFactory(), false);
+	assertEquals(header.getWidth(), byteImage.getWidth());
+	assertEquals(header.getHeight(), byteImage.getHeight());
+	assertEquals(header.getWidth(), floatImage.getWidth());
+	assertEquals(header.getHeight(), floatImage.getHeight());
+
+	// Byte pixel data must match file contents exactly
+	FileInputStream fis = new FileInputStream(ppmPath);
+	fis.skip(headerLength(ppmPath));
+	byte[] expected = new byte[header.getWidth() * header.getHeight() * 3];
+	new java.io.DataInputStream(fis).readFully(expected);
+	fis.close();
+	assertArrayEquals(ppmPath + " pixel data mismatch", expected, byteImage.getData());
+
+	// Float pixel data must match the LUT-based sRGB expansion
+	PixelArrayFloat expectedFloat = new PixelArrayFloat(expected.length);
+	for (int i=0; i<expected.length; i++) {
+	  expectedFloat.setElemNonLinSRGB(i, expected[i] & 0xff);
+	}
+	assertArrayEquals(ppmPath + " float pixel data mismatch", expectedFloat.getData(), floatImage.getData(), 0.0f);
+      }
+    }
+  }
+
+  // Number of bytes preceding pixel data in a PPM with a header of the form "P6 w h 255"
+  private static long headerLength(String ppmPath) throws IOException {
+    FileInputStream fis = new FileInputStream(ppmPath);
+    int whitespace = 0;
+    long length = 0;
+    while (whitespace < 4) {
+      int c = fis.read();
+      length++;
+      if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+	whitespace++;
+      }
+    }
+    fis.close();
+    return length;
+  }
+
+  @Test
+  public void testEncodeDecodeRoundTrip() throws IOException {
+    ByteImage rgb = new ByteImage();
+    rgb.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, 7, 5, 3, null, null));
+    ByteImage lum = new ByteImage();
+    lum.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.LUM, 7, 5, 1, null, null));
+    for (int i=0; i<7*5*3; i++) {
+      rgb.getPixelArray().setElem(i, (i*37) % 256);
+    }
+    for (int i=0; i<7*5; i++) {
+      lum.getPixelArray().setElem(i, (i*53) % 256);
+    }
+
+    ByteImage[] images = {rgb, lum};
+    for (ByteImage image : images) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      PpmCodec.getInstance().encodeImage(image, bos);
+      ByteImage decoded = (ByteImage)PpmCodec.getInstance().decodeHeaderAndImage(new ByteArrayInputStream(bos.toByteArray()), 
+        HipiImageFactory.getByteImageFactory(), false);
+      assertEquals(image.getColorSpace(), decoded.getColorSpace());
+      assertEquals(image.getNumBands(), decoded.getNumBands());
+      assertArrayEquals(image.getData(), decoded.getData());
+    }
+  }
+
+  @Test
+  public void testPlanarLayout() throws IOException {
+    ByteImage rgb = new ByteImage();
+    rgb.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.RGB, 7, 5, 3, null, null));
+    for (int i=0; i<7*5*3; i++) {
+      rgb.getPixelArray().setElem(i, (i*37) % 256);
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PpmCodec.getInstance().encodeImage(rgb, bos);
+
+    // Decoder honors the layout requested by the factory
+    HipiImageFactory factory = new HipiImageFactory(HipiImage.HipiImageType.BYTE);
+    factory.setLayout(PixelArray.Layout.PLANAR);
+    ByteImage planar = (ByteImage)PpmCodec.getInstance().decodeHeaderAndImage(new ByteArrayInputStream(bos.toByteArray()),
+      factory, false);
+    assertEquals(PixelArray.Layout.PLANAR, planar.getLayout());
+    for (int y=0; y<5; y++) {
+      for (int x=0; x<7; x++) {
+	for (int c=0; c<3; c++) {
+	  int expected = rgb.getData()[(y*7+x)*3+c];
+	  assertEquals(expected, planar.getData()[(c*5+y)*7+x]);
+	  assertEquals(expected, planar.getData()[planar.getIndex(x, y, c)]);
+	}
+      }
+    }
+    assertFalse(planar.equals(rgb));
+
+    // Encoders and serialization write interleaved values
+    ByteArrayOutputStream planarBos = new ByteArrayOutputStream();
+    PpmCodec.getInstance().encodeImage(planar, planarBos);
+    assertArrayEquals(bos.toByteArray(), planarBos.toByteArray());
+    assertEquals(PixelArray.Layout.PLANAR, planar.getLayout());
+
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    planar.write(new java.io.DataOutputStream(written));
+    ByteImage readBack = new ByteImage();
+    readBack.readFields(new java.io.DataInputStream(new ByteArrayInputStream(written.toByteArray())));
+    assertEquals(rgb, readBack);
+
+    // Region operations require the interleaved layout
+    try {
+      planar.getView(0, 0, 2, 2);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+    }
+
+    planar.setLayout(PixelArray.Layout.INTERLEAVED);
+    assertEquals(rgb, planar);
+  }
+
+  @Test
+  public void testDecodeSixteenBitPgmWithComments() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bos.write("P5\n# created by hipi\n3 2\n# sixteen bit\n65535\n".getBytes("UTF-8"));
+    int[] values = {0, 257, 32896, 65535, 1000, 65000};
+    for (int v : values) {
+      bos.write(v >> 8);
+      bos.write(v & 0xff);
+    }
+
+    HipiImageHeader header = PpmCodec.getInstance().decodeHeader(new ByteArrayInputStream(bos.toByteArray()), true);
+    assertEquals(3, header.getWidth());
+    assertEquals(2, header.getHeight());
+    assertEquals(1, header.getNumBands());
+    assertEquals(HipiColorSpace.LUM, header.getColorSpace());
+    assertEquals("created by hipi\nsixteen bit", header.getExifData("Comments"));
+
+    ByteImage byteImage = (ByteImage)PpmCodec.getInstance().decodeHeaderAndImage(new ByteArrayInputStream(bos.toByteArray()),
+      HipiImageFactory.getByteImageFactory(), false);
+    for (int i=0; i<values.length; i++) {
+      assertEquals(Math.round(values[i] * 255.0 / 65535.0), byteImage.getPixelArray().getElem(i));
+    }
+
+    FloatImage floatImage = (FloatImage)PpmCodec.getInstance().decodeHeaderAndImage(new ByteArrayInputStream(bos.toByteArray()),
+      HipiImageFactory.getFloatImageFactory(), false);
+    assertEquals(0.0f, floatImage.getData()[0], 1e-6);
+    assertEquals(1.0f, floatImage.getData()[3], 1e-6);
+    assertEquals(0.2158605f, floatImage.getData()[2], 1e-3); // sRGB 0.502 => linear 0.216
+  }
+
+  @Test(expected=IOException.class)
+  public void testUnsupportedFormat() throws IOException {
+    PpmCodec.getInstance().decodeHeader(new ByteArrayInputStream("P3\n1 1\n255\n0 0 0\n".getBytes("UTF-8")));
+  }
+
 }
@@ -0,0 +1,178 @@
+package org.hipi.test;
+
+import static org.junit.Assert.*;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageFactory;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.PixelArrayFloat;
+import org.hipi.image.RasterImage;
+import org.hipi.image.io.CodecManager;
+import org.hipi.image.io.PpmCodec;
+import org.hipi.image.io.RawPixelCodec;
+import org.hipi.util.LZ4Block;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+public class RawPixelCodecTestCase {
+
+  private static final HipiImageFormat[] rawFormats = {
+    HipiImageFormat.RAW_BYTE, HipiImageFormat.RAW_FLOAT,
+    HipiImageFormat.RAW_BYTE_LZ4, HipiImageFormat.RAW_FLOAT_LZ4 };
+
+  private static void checkLZ4RoundTrip(byte[] src) throws IOException {
+    byte[] compressed = new byte[LZ4Block.maxCompressedLength(src.length) + 3];
+    int compressedLength = LZ4Block.compress(src, 0, src.length, compressed, 3);
+    assertTrue(compressedLength <= LZ4Block.maxCompressedLength(src.length));
+    byte[] decompressed = new byte[src.length];
+    assertEquals(src.length, LZ4Block.decompress(compressed, 3, compressedLength, decompressed, 0, src.length));
+    assertArrayEquals(src, decompressed);
+  }
+
+  @Test
+  public void testLZ4RoundTrip() throws IOException {
+    Random random = new Random(42);
+
+    checkLZ4RoundTrip(new byte[0]);
+    checkLZ4RoundTrip(new byte[] {1, 2, 3});
+    checkLZ4RoundTrip(new byte[13]);
+    checkLZ4RoundTrip(new byte[100000]);
+
+    byte[] noise = new byte[70000];
+    random.nextBytes(noise);
+    checkLZ4RoundTrip(noise);
+
+    // Repeating patterns produce overlapping matches and long length fields
+    byte[] pattern = new byte[200000];
+    for (int i=0; i<pattern.length; i++) {
+      pattern[i] = (byte)((i % 3 == 0) ? random.nextInt(4) : (i % 7));
+    }
+    checkLZ4RoundTrip(pattern);
+
+    // Long literal runs followed by matches
+    byte[] mixed = new byte[150000];
+    random.nextBytes(mixed);
+    System.arraycopy(mixed, 0, mixed, 80000, 60000);
+    checkLZ4RoundTrip(mixed);
+  }
+
+  @Test
+  public void testLZ4Compresses() {
+    byte[] gradient = new byte[1 << 16];
+    for (int i=0; i<gradient.length; i++) {
+      gradient[i] = (byte)(i / 256);
+    }
+    byte[] compressed = new byte[LZ4Block.maxCompressedLength(gradient.length)];
+    assertTrue(LZ4Block.compress(gradient, 0, gradient.length, compressed, 0) < gradient.length / 16);
+  }
+
+  @Test(expected=IOException.class)
+  public void testLZ4Malformed() throws IOException {
+    // Token requests a match with offset beyond start of output
+    byte[] malformed = new byte[] {0x10, 0x41, 0x05, 0x00, 0x00};
+    LZ4Block.decompress(malformed, 0, malformed.length, new byte[64], 0, 64);
+  }
+
+  private static byte[] encode(RasterImage image, HipiImageFormat format, int blockSize) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    RawPixelCodec.getInstance(format).encodeImage(image, bos, blockSize);
+    return bos.toByteArray();
+  }
+
+  @Test
+  public void testEncodeDecodeRoundTrip() throws IOException {
+
+    String ppmPath = "../testdata/convolution/panda.ppm";
+    ByteImage byteImage = (ByteImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream(ppmPath), HipiImageFactory.getByteImageFactory(), false);
+    FloatImage floatImage = (FloatImage)PpmCodec.getInstance().decodeHeaderAndImage(new FileInputStream(ppmPath), HipiImageFactory.getFloatImageFactory(), false);
+
+    for (HipiImageFormat format : rawFormats) {
+      System.out.println("Testing raw pixel codec for: " + format);
+
+      boolean floatFormat = (format == HipiImageFormat.RAW_FLOAT || format == HipiImageFormat.RAW_FLOAT_LZ4);
+
+      // Use small blocks to exercise the block loop
+      byte[] fromByte = encode(byteImage, format, 4096);
+      byte[] fromFloat = encode(floatImage, format, 4096);
+
+      HipiImageHeader header = RawPixelCodec.getInstance(format).decodeHeader(new ByteArrayInputStream(fromByte));
+      assertEquals(format, header.getStorageFormat());
+      assertEquals(HipiColorSpace.RGB, header.getColorSpace());
+      assertEquals(byteImage.getWidth(), header.getWidth());
+      assertEquals(byteImage.getHeight(), header.getHeight());
+      assertEquals(3, header.getNumBands());
+
+      // Same-type round trips are lossless
+      if (floatFormat) {
+	FloatImage decoded = (FloatImage)CodecManager.getDecoder(format).decodeHeaderAndImage(new ByteArrayInputStream(fromFloat), HipiImageFactory.getFloatImageFactory(), false);
+	assertArrayEquals(floatImage.getData(), decoded.getData(), 0.0f);
+      } else {
+	ByteImage decoded = (ByteImage)CodecManager.getDecoder(format).decodeHeaderAndImage(new ByteArrayInputStream(fromByte), HipiImageFactory.getByteImageFactory(), false);
+	assertArrayEquals(byteImage.getData(), decoded.getData());
+      }
+
+      // Cross-type decodes agree with the pixel array sRGB conversions
+      ByteImage byteDecoded = (ByteImage)CodecManager.getDecoder(format).decodeHeaderAndImage(new ByteArrayInputStream(fromByte), HipiImageFactory.getByteImageFactory(), false);
+      FloatImage floatDecoded = (FloatImage)CodecManager.getDecoder(format).decodeHeaderAndImage(new ByteArrayInputStream(fromByte), HipiImageFactory.getFloatImageFactory(), false);
+      PixelArrayFloat expandedPA = new PixelArrayFloat(1);
+      for (int i=0; i<byteImage.getData().length; i++) {
+	expandedPA.setElemNonLinSRGB(0, byteImage.getPixelArray().getElem(i));
+	int expectedByte = (floatFormat ? expandedPA.getElemNonLinSRGB(0) : byteImage.getPixelArray().getElem(i));
+	assertEquals(expectedByte, byteDecoded.getPixelArray().getElem(i));
+	assertEquals(expandedPA.getElemFloat(0), floatDecoded.getData()[i], 0.0f);
+      }
+    }
+  }
+
+  @Test
+  public void testByteOrder() throws IOException {
+    FloatImage image = new FloatImage(13, 7, 3);
+    Random random = new Random(5);
+    for (int i=0; i<13*7*3; i++) {
+      image.getData()[i] = random.nextFloat();
+    }
+    for (HipiImageFormat format : new HipiImageFormat[] {HipiImageFormat.RAW_FLOAT, HipiImageFormat.RAW_FLOAT_LZ4}) {
+      RawPixelCodec codec = RawPixelCodec.getInstance(format);
+      ByteArrayOutputStream big = new ByteArrayOutputStream();
+      codec.encodeImage(image, big, 64);
+      ByteArrayOutputStream little = new ByteArrayOutputStream();
+      codec.encodeImage(image, little, 64, ByteOrder.LITTLE_ENDIAN);
+      assertArrayEquals(encode(image, format, 64), big.toByteArray());
+      assertFalse(Arrays.equals(big.toByteArray(), little.toByteArray()));
+
+      HipiImageHeader header = codec.decodeHeader(new ByteArrayInputStream(little.toByteArray()));
+      assertEquals(13, header.getWidth());
+      assertEquals(7, header.getHeight());
+      FloatImage decoded = (FloatImage)codec.decodeImage(new ByteArrayInputStream(little.toByteArray()), header,
+							 HipiImageFactory.getFloatImageFactory(), false);
+      assertArrayEquals(image.getData(), decoded.getData(), 0.0f);
+    }
+  }
+
+  @Test
+  public void testCompressedSize() throws IOException {
+    ByteImage image = new ByteImage();
+    image.setHeader(new HipiImageHeader(HipiImageFormat.UNDEFINED, HipiColorSpace.LUM, 640, 480, 1, null, null));
+    for (int j=0; j<480; j++) {
+      for (int i=0; i<640; i++) {
+	image.getPixelArray().setElem(j*640+i, i/4);
+      }
+    }
+    int rawLength = encode(image, HipiImageFormat.RAW_BYTE, RawPixelCodec.DEFAULT_BLOCK_SIZE).length;
+    int lz4Length = encode(image, HipiImageFormat.RAW_BYTE_LZ4, RawPixelCodec.DEFAULT_BLOCK_SIZE).length;
+    assertEquals(640*480 + 20, rawLength);
+    assertTrue(lz4Length < rawLength / 10);
+  }
+
+}
@@ -4,6 +4,7 @@ import org.hipi.mapreduce.BinaryOutputFormat;
 import org.hipi.imagebundle.mapreduce.HibInputFormat;
 import org.hipi.opencv.OpenCVMatWritable;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.NullWritable;
@@ -15,16 +16,17 @@ import java.io.IOException;
 
 public class ComputeCovariance {
   
-  public static int run(String[] args, String inputHibPath, String outputDir, String inputMeanPath) 
+  public static int run(Configuration conf, String inputHibPath, String outputDir, String inputMeanPath) 
       throws ClassNotFoundException, IllegalStateException, InterruptedException, IOException {
     
     System.out.println("Running compute covariance.");
    
-    Job job = Job.getInstance();
+    Job job = Job.getInstance(conf);
     
     job.setJarByClass(Covariance.class);
 
     job.setInputFormatClass(HibInputFormat.class);
+
     
     job.setMapOutputKeyClass(IntWritable.class);
     job.setMapOutputValueClass(OpenCVMatWritable.class);
@@ -4,6 +4,7 @@ import org.hipi.mapreduce.BinaryOutputFormat;
 import org.hipi.imagebundle.mapreduce.HibInputFormat;
 import org.hipi.opencv.OpenCVMatWritable;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.NullWritable;
@@ -15,12 +16,12 @@ import java.io.IOException;
 
 public class ComputeMean {
 
-  public static int run(String[] args, String inputHibPath, String outputDir) 
+  public static int run(Configuration conf, String inputHibPath, String outputDir) 
       throws ClassNotFoundException, IllegalStateException, InterruptedException, IOException {
 
     System.out.println("Running compute mean.");
 
-    Job job = Job.getInstance();
+    Job job = Job.getInstance(conf);
 
     job.setJarByClass(Covariance.class);
 
@@ -4,8 +4,17 @@ import static org.bytedeco.javacpp.opencv_imgproc.CV_RGB2GRAY;
 
 import org.hipi.image.FloatImage;
 import org.hipi.image.HipiImageHeader.HipiColorSpace;
+import org.hipi.imagebundle.DecodedImageCache;
+import org.hipi.opencv.MatScope;
 import org.hipi.opencv.OpenCVUtils;
 
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.Parser;
+import org.apache.commons.cli.ParseException;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
@@ -22,10 +31,17 @@ public class Covariance extends Configured implements Tool {
   
   public static final int patchSize = 64; // Patch dimensions: patchSize x patchSize
   public static final float sigma = 10; // Standard deviation of Gaussian weighting function
-  
+
+  private static final Options options = new Options();
+  private static final Parser parser = (Parser)new BasicParser();
+  static {
+    options.addOption("c", "decode-cache", true, "cache decoded images in this local directory on every node, so that the second job does not decode them again (default=disabled)");
+    options.addOption("s", "decode-cache-size", true, "upper bound on the size of the decode cache on every node in MB (default=1024)");
+  }
   
   // Used to convert input FloatImages into grayscale OpenCV Mats in MeanMapper and CovarianceMapper
-  public static boolean convertFloatImageToGrayscaleMat(FloatImage image, Mat cvImage) {
+  // (temporary Mats are freed when the caller's scope is closed)
+  public static boolean convertFloatImageToGrayscaleMat(FloatImage image, Mat cvImage, MatScope scope) {
     
     // Convert FloatImage to Mat, and convert Mat to grayscale (if necessary)
     HipiColorSpace colorSpace = image.getColorSpace();
@@ -33,13 +49,13 @@ public class Covariance extends Configured implements Tool {
       
       //if RGB, convert to grayscale
       case RGB:
-        Mat cvImageRGB = OpenCVUtils.convertRasterImageToMat(image);
+        Mat cvImageRGB = scope.adopt(OpenCVUtils.convertRasterImageToMat(image));
         opencv_imgproc.cvtColor(cvImageRGB, cvImage, CV_RGB2GRAY);
         return true;
         
-      //if LUM, already grayscale
+      //if LUM, already grayscale (copy into the caller's Mat)
       case LUM:
-        cvImage = OpenCVUtils.convertRasterImageToMat(image);
+        scope.adopt(OpenCVUtils.convertRasterImageToMat(image)).copyTo(cvImage);
         return true;
         
       //otherwise, color space is not supported for this example. Skip input image.
@@ -65,13 +81,31 @@ public class Covariance extends Configured implements Tool {
     }
   }
 
-  private static void validateArgs(String[] args, Configuration conf) throws IOException {
-    
-    if (args.length != 2) {
-      System.out.println("Usage: covar.jar <input HIB> <output directory>");
-      System.exit(1);
+  private static void usage() {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("covar.jar [options] <input HIB> <output directory>", options);
+    System.exit(1);
+  }
+
+  private static CommandLine parseArgs(String[] args) {
+    CommandLine line = null;
+    try {
+      line = parser.parse(options, args);
     }
+    catch (ParseException exp) {
+      usage();
+    }
+    if (line == null || line.getArgs().length != 2) {
+      usage();
+    }
+    if (line.hasOption("decode-cache-size") && !line.hasOption("decode-cache")) {
+      System.out.println("Option --decode-cache-size requires --decode-cache.");
+      usage();
+    }
+    return line;
+  }
 
+  private static void validateArgs(String[] args, Configuration conf) throws IOException {
     Path inputPath = new Path(args[0]);
     FileSystem fileSystem = FileSystem.get(conf);
     if (!fileSystem.exists(inputPath)) {
@@ -80,6 +114,30 @@ public class Covariance extends Configured implements Tool {
     }
     
   }
+
+  // Both jobs read the same HIB, so decoded images may be cached on the local disk of every node
+  // between the two jobs. The cache is opt-in, since it writes to the local disk of every node.
+  private static void setupDecodeCache(CommandLine line, Configuration conf) {
+    if (!line.hasOption("decode-cache")) {
+      return;
+    }
+    long maxMegabytes = 1024;
+    if (line.hasOption("decode-cache-size")) {
+      try {
+        maxMegabytes = Long.parseLong(line.getOptionValue("decode-cache-size"));
+      } catch (NumberFormatException e) {
+        maxMegabytes = -1;
+      }
+      if (maxMegabytes <= 0) {
+        System.out.println("Invalid decode cache size: " + line.getOptionValue("decode-cache-size"));
+        System.exit(1);
+      }
+    }
+    conf.setBoolean(DecodedImageCache.HIPI_DECODE_CACHE_ENABLED_ATTR, true);
+    conf.set(DecodedImageCache.HIPI_DECODE_CACHE_DIR_ATTR, line.getOptionValue("decode-cache"));
+    conf.setLong(DecodedImageCache.HIPI_DECODE_CACHE_MAX_BYTES_ATTR, maxMegabytes << 20);
+    System.out.println("Decode cache: " + line.getOptionValue("decode-cache") + " (" + maxMegabytes + " MB)");
+  }
   
   private static void validateMeanPath(String inputMeanPathString, Configuration conf) 
       throws IOException {
@@ -94,15 +152,19 @@ public class Covariance extends Configured implements Tool {
   
   public int run(String[] args) throws Exception {
     
-    // Used for initial argument validation and hdfs configuration before jobs are run
-    Configuration conf = Job.getInstance().getConfiguration();
+    // Used for initial argument validation and hdfs configuration before jobs are run, and as
+    // the base configuration of both jobs (including any generic -D options)
+    Configuration conf = Job.getInstance(getConf()).getConfiguration();
     
     // Validate arguments before any work is done
-    validateArgs(args, conf);
+    CommandLine line = parseArgs(args);
+    String[] leftArgs = line.getArgs();
+    validateArgs(leftArgs, conf);
+    setupDecodeCache(line, conf);
     
     // Build I/O path strings
-    String inputHibPath = args[0];
-    String outputBaseDir = args[1];
+    String inputHibPath = leftArgs[0];
+    String outputBaseDir = leftArgs[1];
     String outputMeanDir = outputBaseDir + "/mean-output/";
     String outputCovarianceDir = outputBaseDir + "/covariance-output/";
     String inputMeanPath = outputMeanDir + "part-r-00000"; //used to access ComputeMean result
@@ -113,7 +175,7 @@ public class Covariance extends Configured implements Tool {
     rmdir(outputCovarianceDir, conf);
 
     // Run compute mean
-    if (ComputeMean.run(args, inputHibPath, outputMeanDir) == 1) {
+    if (ComputeMean.run(conf, inputHibPath, outputMeanDir) == 1) {
       System.out.println("Compute mean job failed to complete.");
       return 1;
     }
@@ -121,7 +183,7 @@ public class Covariance extends Configured implements Tool {
     validateMeanPath(inputMeanPath, conf);
     
     // Run compute covariance
-    if (ComputeCovariance.run(args, inputHibPath, outputCovarianceDir, inputMeanPath) == 1) {
+    if (ComputeCovariance.run(conf, inputHibPath, outputCovarianceDir, inputMeanPath) == 1) {
       System.out.println("Compute covariance job failed to complete.");
       return 1;
     }
@@ -2,7 +2,11 @@ package org.hipi.tools.covar;
 
 import org.hipi.image.FloatImage;
 import org.hipi.image.HipiImageHeader;
+import org.hipi.image.PatchExtractor;
+import org.hipi.opencv.MatPool;
+import org.hipi.opencv.MatScope;
 import org.hipi.opencv.OpenCVMatWritable;
+import org.hipi.opencv.OpenCVUtils;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -10,8 +14,6 @@ import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.bytedeco.javacpp.opencv_core;
 import org.bytedeco.javacpp.opencv_core.Mat;
-import org.bytedeco.javacpp.opencv_core.Rect;
-import org.bytedeco.javacpp.opencv_core.Scalar;
 
 import java.io.IOException;
 import java.net.URI;
@@ -20,8 +22,8 @@ import java.nio.FloatBuffer;
 public class CovarianceMapper extends
     Mapper<HipiImageHeader, FloatImage, IntWritable, OpenCVMatWritable> {
 
-  Mat mean; // Stores pre-computed mean
-  Mat gaussian; // Stores gaussian matrix computed in setup
+  PatchExtractor extractor; // Subtracts pre-computed mean and applies gaussian mask computed in setup
+  MatPool pool; // Native memory of Mats is reused across images and freed in cleanup
 
   @Override
   public void setup(Context job) {
@@ -33,6 +35,7 @@ public class CovarianceMapper extends
     // Create mean mat using data from mean computation
     /////
     
+    float[] mean = new float[N * N];
     try {
       
       // Access mean data on HDFS
@@ -47,7 +50,7 @@ public class CovarianceMapper extends
       // Populate mat with mean data
       OpenCVMatWritable meanWritable = new OpenCVMatWritable();
       meanWritable.readFields(dis);
-      mean = meanWritable.getMat();
+      ((FloatBuffer)meanWritable.getMat(false).createBuffer()).get(mean);
       
     } catch (IOException ioe) {
       ioe.printStackTrace();
@@ -58,8 +61,7 @@ public class CovarianceMapper extends
     // Create a normalized gaussian array for patch masking
     /////
     
-    gaussian = new Mat(N, N, opencv_core.CV_32FC1, new Scalar(0.0));
-    FloatBuffer gaussianBuffer = gaussian.createBuffer();
+    float[] gaussian = new float[N * N];
     
     // 'center' and 'denominator' precomputed for gaussian generation
     int center = N / 2;
@@ -67,14 +69,14 @@ public class CovarianceMapper extends
     
     for (int i = 0; i < N; i++) {
       for (int j = 0; j < N; j++) {      
-        gaussianBuffer.put(i * N + j, generate2DGaussianValue(i, j, center, denominator));
+        gaussian[i * N + j] = generate2DGaussianValue(i, j, center, denominator);
       }
     }
     
     // compute euclidean distance of gaussian vector
     double sumOfSquares = 0.0;
     for(int i = 0; i < N * N; i++) {
-      sumOfSquares += gaussianBuffer.get(i) * gaussianBuffer.get(i);
+      sumOfSquares += gaussian[i] * gaussian[i];
     }
     
     double euclideanDistance = Math.sqrt(sumOfSquares);
@@ -85,7 +87,14 @@ public class CovarianceMapper extends
     }
     
     // normalize gaussian weighting matrix
-    gaussian = opencv_core.divide(gaussian, euclideanDistance).asMat();
+    for(int i = 0; i < N * N; i++) {
+      gaussian[i] /= euclideanDistance;
+    }
+
+    // Sample iMax * jMax patches (iMax = jMax = 10) spread over each image
+    extractor = new PatchExtractor(N, N).spread(10, 10).subtractMean(mean).weight(gaussian);
+
+    pool = new MatPool();
 
   }
   
@@ -107,63 +116,54 @@ public class CovarianceMapper extends
   public void map(HipiImageHeader header, FloatImage image, Context context) throws IOException,
       InterruptedException {
     
-    /////
-    // Perform conversion to OpenCV
-    /////
-    
-    Mat cvImage = new Mat(image.getHeight(), image.getWidth(), opencv_core.CV_32FC1);
-    
-    // if unable to convert input FloatImage to grayscale Mat, skip image and move on
-    if(!Covariance.convertFloatImageToGrayscaleMat(image, cvImage)) {
-      System.out.println("CovarianceMapper is skipping image with invalid color space.");
-      return;
-    }
-     
-    /////
-    // Create patches for covariance computation
-    /////
-    
-    // Specify number of patches to use in covariance computation (iMax * jMax patches)
-    int iMax = 10;
-    int jMax = 10;
+    try (MatScope scope = new MatScope(pool)) {
     
-    Mat[] patches = new Mat[iMax * jMax];
-    
-    int N = Covariance.patchSize;
+      /////
+      // Perform conversion to OpenCV
+      /////
+      
+      Mat cvImage = scope.mat(image.getHeight(), image.getWidth(), opencv_core.CV_32FC1);
+      
+      // if unable to convert input FloatImage to grayscale Mat, skip image and move on
+      if(!Covariance.convertFloatImageToGrayscaleMat(image, cvImage, scope)) {
+        System.out.println("CovarianceMapper is skipping image with invalid color space.");
+        return;
+      }
+       
+      /////
+      // Create mean-subtracted and gaussian-masked patches for covariance computation
+      /////
+      
+      int N = Covariance.patchSize;
 
-    // Create mean-subtracted and gaussian-masked patches
-    for (int i = 0; i < iMax; i++) {
-      int x = (cvImage.cols() - N) * i / iMax;
-      for (int j = 0; j < jMax; j++) {
-        int y = (cvImage.rows() - N) * j / jMax;
-        
-        Mat patch = cvImage.apply(new Rect(x, y, N, N)).clone();
-        
-        opencv_core.subtract(patch, mean, patch);
-        opencv_core.multiply(patch, gaussian, patch);
-        
-        patches[(iMax * i) + j] = patch;
+      int numPatches = extractor.getNumPatches(cvImage.cols(), cvImage.rows());
+      if (numPatches == 0) {
+        System.out.println("CovarianceMapper is skipping image smaller than patch size.");
+        return;
       }
-    }
-    
-    /////
-    // Run covariance computation
-    /////
+      
+      // Stores patches as row vectors (i.e., the transpose of a matrix of column vectors)
+      Mat patchMat = scope.mat(numPatches, N * N, opencv_core.CV_32FC1);
+      OpenCVUtils.extractPatches(extractor, cvImage, patchMat);
+      
+      /////
+      // Run covariance computation
+      /////
 
-    // Stores the (N^2 x N^2) covariance matrix patchMat*transpose(patchMat)
-    Mat covarianceMat = new Mat(N * N, N * N, opencv_core.CV_32FC1, new Scalar(0.0));
-    
-    // Stores patches as column vectors
-    Mat patchMat = new Mat(N * N, patches.length, opencv_core.CV_32FC1, new Scalar(0.0));
-   
-    // Create patchMat
-    for(int i = 0; i < patches.length; i++) {
-      patches[i].reshape(0, N * N).copyTo(patchMat.col(i));
+      // Compute the (N^2 x N^2) covariance matrix transpose(patchMat)*patchMat into a pooled Mat
+      // (the 64 MB result is reused across images instead of being allocated per image)
+      Mat covarianceMat = scope.mat(N * N, N * N, opencv_core.CV_32FC1);
+      Mat empty = scope.track(new Mat());
+      opencv_core.gemm(patchMat, patchMat, 1.0, empty, 0.0, covarianceMat, opencv_core.GEMM_1_T);
+      
+      // the covariance matrix is serialized by write, so it can be returned to the pool afterwards
+      context.write(new IntWritable(0), new OpenCVMatWritable(covarianceMat, false));
     }
-    
-    // Compute patchMat*transpose(patchMat)
-    covarianceMat = opencv_core.multiply(patchMat, patchMat.t().asMat()).asMat();
-    
-    context.write(new IntWritable(0), new OpenCVMatWritable(covarianceMat));
+  }
+
+  @Override
+  public void cleanup(Context context) {
+    pool.close();
+    pool.updateCounters(context);
   }
 }
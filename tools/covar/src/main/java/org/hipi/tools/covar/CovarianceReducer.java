@@ -1,5 +1,7 @@
 package org.hipi.tools.covar;
 
+import org.hipi.opencv.MatPool;
+import org.hipi.opencv.MatScope;
 import org.hipi.opencv.OpenCVMatWritable;
 
 import org.apache.hadoop.io.IntWritable;
@@ -14,19 +16,36 @@ import java.io.IOException;
 public class CovarianceReducer extends
     Reducer<IntWritable, OpenCVMatWritable, NullWritable, OpenCVMatWritable> {
 
+  MatPool pool; // Frees native memory of Mats in cleanup
+
+  @Override
+  public void setup(Context context) {
+    pool = new MatPool();
+  }
+
   @Override
   public void reduce(IntWritable key, Iterable<OpenCVMatWritable> values, Context context)
       throws IOException, InterruptedException {
     
     int N = Covariance.patchSize;
     
-    Mat cov = new Mat(N * N, N * N, opencv_core.CV_32FC1, new Scalar(0.0));
-    
-    // Consolidate covariance matrices
-    for(OpenCVMatWritable value : values) {
-      opencv_core.add(value.getMat(), cov, cov);
-    }
+    try (MatScope scope = new MatScope(pool)) {
       
-    context.write(NullWritable.get(), new OpenCVMatWritable(cov));
+      Mat cov = scope.mat(N * N, N * N, opencv_core.CV_32FC1);
+      cov.put(scope.track(new Scalar(0.0)));
+      
+      // Consolidate covariance matrices (deserialized into the same Mat by OpenCVMatWritable)
+      for(OpenCVMatWritable value : values) {
+        opencv_core.add(value.getMat(false), cov, cov);
+      }
+      
+      context.write(NullWritable.get(), new OpenCVMatWritable(cov, false));
+    }
+  }
+
+  @Override
+  public void cleanup(Context context) {
+    pool.close();
+    pool.updateCounters(context);
   }
 }
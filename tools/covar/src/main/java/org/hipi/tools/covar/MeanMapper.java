@@ -2,62 +2,89 @@ package org.hipi.tools.covar;
 
 import org.hipi.image.FloatImage;
 import org.hipi.image.HipiImageHeader;
+import org.hipi.image.PatchExtractor;
+import org.hipi.opencv.MatPool;
+import org.hipi.opencv.MatScope;
 import org.hipi.opencv.OpenCVMatWritable;
+import org.hipi.opencv.OpenCVUtils;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.bytedeco.javacpp.opencv_core;
 import org.bytedeco.javacpp.opencv_core.Mat;
-import org.bytedeco.javacpp.opencv_core.Rect;
-import org.bytedeco.javacpp.opencv_core.Scalar;
 
 import java.io.IOException;
+import java.nio.FloatBuffer;
 
 public class MeanMapper extends 
   Mapper<HipiImageHeader, FloatImage, IntWritable, OpenCVMatWritable> {
 
+  MatPool pool; // Native memory of Mats is reused across images and freed in cleanup
+
+  @Override
+  public void setup(Context context) {
+    pool = new MatPool();
+  }
+
   @Override
   public void map(HipiImageHeader header, FloatImage image, Context context) throws IOException,
       InterruptedException {
     
-    /////
-    // Perform conversion to OpenCV
-    /////
-    
-    Mat cvImage = new Mat(image.getHeight(), image.getWidth(), opencv_core.CV_32FC1);
+    try (MatScope scope = new MatScope(pool)) {
     
-    // if unable to convert input FloatImage to grayscale Mat, skip image and move on
-    if(!Covariance.convertFloatImageToGrayscaleMat(image, cvImage)) {
-      System.out.println("MeanMapper is skipping image with invalid color space.");
-      return;
-    }
-    
-    /////
-    // Compute mean using OpenCV
-    /////
-    
-    //patch dimensions (N X N)
-    int N = Covariance.patchSize;
- 
-    Mat mean = new Mat(N, N, opencv_core.CV_32FC1, new Scalar(0.0));
-    
-    //specify number of patches to use in mean patch computation (iMax * jMax patches)
-    int iMax = 10;
-    int jMax = 10;
-
-    //collect patches and add their values to mean patch mat
-    for (int i = 0; i < iMax; i++) {
-      int x = ((cvImage.cols() - N) * i) / iMax;
-      for (int j = 0; j < jMax; j++) {
-        int y = ((cvImage.rows() - N) * j) / jMax;
-        Mat patch = cvImage.apply(new Rect(x, y, N, N));
-        opencv_core.add(patch, mean, mean);
+      /////
+      // Perform conversion to OpenCV
+      /////
+      
+      Mat cvImage = scope.mat(image.getHeight(), image.getWidth(), opencv_core.CV_32FC1);
+      
+      // if unable to convert input FloatImage to grayscale Mat, skip image and move on
+      if(!Covariance.convertFloatImageToGrayscaleMat(image, cvImage, scope)) {
+        System.out.println("MeanMapper is skipping image with invalid color space.");
+        return;
       }
+      
+      /////
+      // Compute mean using OpenCV
+      /////
+      
+      //patch dimensions (N X N)
+      int N = Covariance.patchSize;
+
+      //collect iMax * jMax patches (one per row of patchMat) spread over the image
+      int iMax = 10;
+      int jMax = 10;
+      PatchExtractor extractor = new PatchExtractor(N, N).spread(iMax, jMax);
+      int numPatches = extractor.getNumPatches(cvImage.cols(), cvImage.rows());
+      if (numPatches == 0) {
+        System.out.println("MeanMapper is skipping image smaller than patch size.");
+        return;
+      }
+      Mat patchMat = scope.mat(numPatches, N * N, opencv_core.CV_32FC1);
+      OpenCVUtils.extractPatches(extractor, cvImage, patchMat);
+
+      //average patches into mean patch mat
+      FloatBuffer patchBuffer = patchMat.createBuffer();
+      float[] sum = new float[N * N];
+      for (int p = 0; p < numPatches; p++) {
+        for (int k = 0; k < N * N; k++) {
+          sum[k] += patchBuffer.get(p * N * N + k);
+        }
+      }
+      for (int k = 0; k < N * N; k++) {
+        sum[k] /= numPatches;
+      }
+      Mat mean = scope.mat(N, N, opencv_core.CV_32FC1);
+      ((FloatBuffer)mean.createBuffer()).put(sum);
+      
+      // the mean patch is serialized by write, so it can be returned to the pool afterwards
+      context.write(new IntWritable(0), new OpenCVMatWritable(mean, false));
     }
-    
-    //scale mean patch mat based on total number of patches
-    mean = opencv_core.divide(mean, ((double) (iMax * jMax))).asMat();
-    
-    context.write(new IntWritable(0), new OpenCVMatWritable(mean));
+  }
+
+  @Override
+  public void cleanup(Context context) {
+    pool.close();
+    pool.updateCounters(context);
   }
 }
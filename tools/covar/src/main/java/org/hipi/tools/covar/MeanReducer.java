@@ -1,5 +1,7 @@
 package org.hipi.tools.covar;
 
+import org.hipi.opencv.MatPool;
+import org.hipi.opencv.MatScope;
 import org.hipi.opencv.OpenCVMatWritable;
 
 import org.apache.hadoop.io.IntWritable;
@@ -14,29 +16,44 @@ import java.io.IOException;
 public class MeanReducer extends 
   Reducer<IntWritable, OpenCVMatWritable, NullWritable, OpenCVMatWritable> {
   
+  MatPool pool; // Frees native memory of Mats in cleanup
+
+  @Override
+  public void setup(Context context) {
+    pool = new MatPool();
+  }
+
   @Override
   public void reduce(IntWritable key, Iterable<OpenCVMatWritable> meanPatches, Context context)
       throws IOException, InterruptedException {
     
     int N = Covariance.patchSize;
     
-    //consolidate mean patches from mapper
-    Mat mean = new Mat(N, N, opencv_core.CV_32FC1, new Scalar(0.0));
-    
-    int count = 0;
-    for (OpenCVMatWritable patch : meanPatches) {
-      opencv_core.add(patch.getMat(), mean, mean);
-      count++;
+    try (MatScope scope = new MatScope(pool)) {
+      
+      //consolidate mean patches from mapper
+      Mat mean = scope.mat(N, N, opencv_core.CV_32FC1);
+      mean.put(scope.track(new Scalar(0.0)));
+      
+      int count = 0;
+      for (OpenCVMatWritable patch : meanPatches) {
+        opencv_core.add(patch.getMat(false), mean, mean);
+        count++;
+      }
+      
+      //normalize consolidated mean patch (in place)
+      if (count > 1) {
+        mean.convertTo(mean, -1, 1.0 / count, 0.0);
+      }
+      
+      //write out consolidated patch
+      context.write(NullWritable.get(), new OpenCVMatWritable(mean, false));
     }
-    
-    //normalize consolidated mean patch
-    if (count > 1) {
-      mean = opencv_core.divide(mean, (double) count).asMat();
-    }
-    
-    //write out consolidated patch
-    context.write(NullWritable.get(), new OpenCVMatWritable(mean));
   }
 
-
+  @Override
+  public void cleanup(Context context) {
+    pool.close();
+    pool.updateCounters(context);
+  }
 }
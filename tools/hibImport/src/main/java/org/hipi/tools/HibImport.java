@@ -105,6 +105,9 @@ public class HibImport {
        } else if (suffix.compareTo(".png") == 0) {
          hib.addImage(fdis, HipiImageFormat.PNG, metaData);
          System.out.println(" ** added: " + fileName);
+       } else if (suffix.compareTo(".ppm") == 0 || suffix.compareTo(".pgm") == 0) {
+         hib.addImage(fdis, HipiImageFormat.PPM, metaData);
+         System.out.println(" ** added: " + fileName);
        }
      }
 
@@ -139,6 +142,10 @@ public class HibImport {
        else if (suffix.compareTo(".png") == 0) {
          hib.addImage(fis, HipiImageFormat.PNG, metaData);
          System.out.println(" ** added: " + fileName);
+       }
+       else if (suffix.compareTo(".ppm") == 0 || suffix.compareTo(".pgm") == 0) {
+         hib.addImage(fis, HipiImageFormat.PPM, metaData);
+         System.out.println(" ** added: " + fileName);
        } 
      }
 
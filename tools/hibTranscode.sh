@@ -0,0 +1,3 @@
+#!/bin/bash
+TOOLS_DIR=`dirname $0`
+$TOOLS_DIR/runTool.sh $TOOLS_DIR/hibTranscode/build/libs/hibTranscode.jar "$@"
\ No newline at end of file
@@ -0,0 +1,286 @@
+package org.hipi.tools;
+
+import org.hipi.image.ByteImage;
+import org.hipi.image.FloatImage;
+import org.hipi.image.HipiImageHeader;
+import org.hipi.image.HipiImageHeader.HipiImageFormat;
+import org.hipi.image.RasterImage;
+import org.hipi.image.io.RawPixelCodec;
+import org.hipi.imagebundle.HipiImageBundle;
+import org.hipi.imagebundle.mapreduce.HibInputFormat;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.Parser;
+import org.apache.commons.cli.ParseException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A MapReduce program that decodes every image in a HIB and writes the pixel data to a new HIB
+ * using one of the raw pixel storage formats (see {@link RawPixelCodec}). Jobs that repeatedly
+ * process the same images can then read them back without paying the cost of JPEG or PNG
+ * decompression, at the price of a larger HIB.
+ *
+ * Each map task writes the images in its input split to a temporary HIB. A single reduce task
+ * concatenates these in input split order to produce the output HIB.
+ */
+public class HibTranscode extends Configured implements Tool {
+
+  private static final Options options = new Options();
+  private static final Parser parser = (Parser)new BasicParser();
+  static {
+    options.addOption("f", "force", false, "force overwrite if output HIB already exists");
+    options.addOption("t", "type", true, "sample type of output HIB: byte (default) or float");
+    options.addOption("c", "compress", false, "LZ4 compress pixel data");
+    options.addOption("b", "block-size", true, "uncompressed bytes per LZ4 block (default=" + RawPixelCodec.DEFAULT_BLOCK_SIZE + ")");
+  }
+
+  private static void usage() {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.setWidth(148);
+    formatter.printHelp("hibTranscode.jar <input HIB> <output HIB> [-f] [--type byte|float] [--compress] [--block-size #bytes]", options);
+    System.exit(0);
+  }
+
+  /**
+   * Shared implementation of the byte and float map tasks. Images are appended to a temporary
+   * HIB that is reported to the reduce task when the map task completes.
+   */
+  private static class TranscodeWriter {
+
+    private Configuration conf;
+    private HipiImageBundle hib;
+    private RawPixelCodec codec;
+    private int blockSize;
+    private int taskId;
+
+    public void setup(TaskAttemptContext context) throws IOException {
+      conf = context.getConfiguration();
+      codec = RawPixelCodec.getInstance(HipiImageFormat.valueOf(conf.get("hibtranscode.format")));
+      blockSize = conf.getInt("hibtranscode.blocksize", RawPixelCodec.DEFAULT_BLOCK_SIZE);
+      taskId = context.getTaskAttemptID().getTaskID().getId();
+      Path tempPath = new Path(conf.get("hibtranscode.tmpdir") + "/" + taskId + ".hib");
+      hib = new HipiImageBundle(tempPath, conf);
+      hib.openForWrite(true);
+    }
+
+    public void write(HipiImageHeader header, RasterImage image) throws IOException {
+
+      // Check for null image (malformed HIB segment of failure to decode header)
+      if (header == null || image == null) {
+        System.err.println("Failed to decode image, skipping.");
+        return;
+      }
+
+      HipiImageHeader rawHeader = new HipiImageHeader(codec.getFormat(), image.getColorSpace(),
+        image.getWidth(), image.getHeight(), image.getNumBands(), null, null);
+      rawHeader.setMetaData(header.getAllMetaData());
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      codec.encodeImage(image, bos, blockSize);
+      hib.addImage(rawHeader, new ByteArrayInputStream(bos.toByteArray()));
+    }
+
+    public void cleanup(Mapper.Context context) throws IOException, InterruptedException {
+      hib.close();
+      context.write(new IntWritable(taskId), new Text(hib.getPath().toString()));
+    }
+
+  }
+
+  public static class ByteTranscodeMapper extends Mapper<HipiImageHeader, ByteImage, IntWritable, Text> {
+
+    private TranscodeWriter writer = new TranscodeWriter();
+
+    @Override
+    public void setup(Context context) throws IOException {
+      writer.setup(context);
+    }
+
+    @Override
+    public void map(HipiImageHeader header, ByteImage image, Context context) throws IOException {
+      writer.write(header, image);
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      writer.cleanup(context);
+    }
+
+  }
+
+  public static class FloatTranscodeMapper extends Mapper<HipiImageHeader, FloatImage, IntWritable, Text> {
+
+    private TranscodeWriter writer = new TranscodeWriter();
+
+    @Override
+    public void setup(Context context) throws IOException {
+      writer.setup(context);
+    }
+
+    @Override
+    public void map(HipiImageHeader header, FloatImage image, Context context) throws IOException {
+      writer.write(header, image);
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException, InterruptedException {
+      writer.cleanup(context);
+    }
+
+  }
+
+  /**
+   * Concatenates the temporary HIBs produced by the map tasks. Keys are map task ids, so the
+   * temporary HIBs arrive in input split order.
+   */
+  public static class HibTranscodeReducer extends Reducer<IntWritable, Text, IntWritable, Text> {
+
+    private Configuration conf;
+    private FileSystem fileSystem;
+    private HipiImageBundle hib;
+
+    @Override
+    public void setup(Context context) throws IOException {
+      conf = context.getConfiguration();
+      fileSystem = FileSystem.get(conf);
+      hib = new HipiImageBundle(new Path(conf.get("hibtranscode.outfile")), conf);
+      hib.openForWrite(true);
+    }
+
+    @Override
+    public void reduce(IntWritable key, Iterable<Text> values, Context context)
+      throws IOException, InterruptedException {
+      for (Text tempString : values) {
+        HipiImageBundle inputBundle = new HipiImageBundle(new Path(tempString.toString()), conf);
+        hib.append(inputBundle);
+        fileSystem.delete(inputBundle.getPath(), false);
+        fileSystem.delete(new Path(inputBundle.getPath().toString() + ".dat"), false);
+        context.write(key, tempString);
+        context.progress();
+      }
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException {
+      hib.close();
+    }
+
+  }
+
+  public int run(String[] args) throws Exception {
+
+    // Attempt to parse the command line arguments
+    CommandLine line = null;
+    try {
+      line = parser.parse(options, args);
+    }
+    catch( ParseException exp ) {
+      usage();
+    }
+    if (line == null) {
+      usage();
+    }
+
+    String [] leftArgs = line.getArgs();
+    if (leftArgs.length != 2) {
+      usage();
+    }
+
+    String inputHib = leftArgs[0];
+    String outputHib = leftArgs[1];
+
+    String type = (line.hasOption("type") ? line.getOptionValue("type") : "byte");
+    if (!type.equals("byte") && !type.equals("float")) {
+      System.err.println("Invalid sample type [" + type + "]. Must be either byte or float.");
+      System.exit(1);
+    }
+    boolean floatSamples = type.equals("float");
+    boolean compress = line.hasOption("compress");
+
+    int blockSize = RawPixelCodec.DEFAULT_BLOCK_SIZE;
+    if (line.hasOption("block-size")) {
+      blockSize = Integer.parseInt(line.getOptionValue("block-size"));
+      if (blockSize <= 0 || blockSize % 4 != 0) {
+        System.err.println("Invalid block size [" + blockSize + "]. Must be a positive multiple of four.");
+        System.exit(1);
+      }
+    }
+
+    HipiImageFormat format = (floatSamples ?
+      (compress ? HipiImageFormat.RAW_FLOAT_LZ4 : HipiImageFormat.RAW_FLOAT) :
+      (compress ? HipiImageFormat.RAW_BYTE_LZ4 : HipiImageFormat.RAW_BYTE));
+
+    boolean overwrite = line.hasOption("force");
+
+    System.out.println("Input HIB: " + inputHib);
+    System.out.println("Output HIB: " + outputHib);
+    System.out.println("Output storage format: " + format);
+    System.out.println("Overwrite output HIB if it exists: " + (overwrite ? "true" : "false"));
+
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.get(conf);
+
+    if (fs.exists(new Path(outputHib))) {
+      if (!overwrite) {
+        System.err.println("HIB [" + outputHib + "] already exists. Use the \"--force\" argument to overwrite.");
+        System.exit(1);
+      }
+      System.out.println("Found that output HIB already exists, deleting.");
+    }
+
+    fs.delete(new Path(outputHib), true);
+    fs.delete(new Path(outputHib + ".dat"), true);
+    fs.delete(new Path(outputHib + "_output"), true);
+    fs.delete(new Path(outputHib + "_tmp"), true);
+    fs.mkdirs(new Path(outputHib + "_tmp"));
+
+    conf.set("hibtranscode.format", format.name());
+    conf.setInt("hibtranscode.blocksize", blockSize);
+    conf.set("hibtranscode.outfile", outputHib);
+    conf.set("hibtranscode.tmpdir", outputHib + "_tmp");
+
+    Job job = Job.getInstance(conf, "hibTranscode");
+    job.setJarByClass(HibTranscode.class);
+    job.setMapperClass(floatSamples ? FloatTranscodeMapper.class : ByteTranscodeMapper.class);
+    job.setReducerClass(HibTranscodeReducer.class);
+    job.setInputFormatClass(HibInputFormat.class);
+    job.setOutputKeyClass(IntWritable.class);
+    job.setOutputValueClass(Text.class);
+    job.setNumReduceTasks(1);
+
+    FileOutputFormat.setOutputPath(job, new Path(outputHib + "_output"));
+    HibInputFormat.setInputPaths(job, new Path(inputHib));
+
+    int result = (job.waitForCompletion(true) ? 0 : 1);
+
+    fs.delete(new Path(outputHib + "_tmp"), true);
+
+    return result;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new HibTranscode(), args);
+    System.exit(res);
+  }
+
+}